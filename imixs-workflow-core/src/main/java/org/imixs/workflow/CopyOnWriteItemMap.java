@@ -0,0 +1,303 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * The CopyOnWriteItemMap is a view on a shared item map. The view does not copy
+ * the shared map when it is created. An item read from the view is wrapped into
+ * a CopyOnWriteList which reads the values of the shared list. The value list
+ * is copied (deep copy) on the first write access or when a mutable value
+ * (e.g. a Date or an embedded Map) is accessed. Items added or removed are
+ * stored in the view only. So the shared map is never changed by the view.
+ * <p>
+ * The shared map must not be changed by others as long as the view is used.
+ * The view is not thread safe.
+ * 
+ * @see ItemCollection#createCopyOnWrite(Map)
+ * @author rsoika
+ * @version 1.0
+ */
+class CopyOnWriteItemMap extends AbstractMap<String, List<Object>> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// the shared map - null if all items are materialized
+	private transient Map<String, List<Object>> source;
+	// items read, added or replaced
+	private final Map<String, List<Object>> items = new HashMap<String, List<Object>>();
+	// items of the shared map removed from the view
+	private transient Set<String> removed = null;
+
+	CopyOnWriteItemMap(Map<String, List<Object>> source) {
+		super();
+		this.source = source;
+	}
+
+	@Override
+	public List<Object> get(Object key) {
+		List<Object> value = items.get(key);
+		if (value != null || source == null || isRemoved(key)) {
+			return value;
+		}
+		List<Object> sourceValue = source.get(key);
+		if (sourceValue == null) {
+			return null;
+		}
+		value = new CopyOnWriteList(sourceValue);
+		items.put((String) key, value);
+		return value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (items.containsKey(key)) {
+			return true;
+		}
+		return source != null && !isRemoved(key) && source.containsKey(key);
+	}
+
+	@Override
+	public List<Object> put(String key, List<Object> value) {
+		List<Object> oldValue = items.put(key, value);
+		if (oldValue == null && source != null && !isRemoved(key)) {
+			List<Object> sourceValue = source.get(key);
+			if (sourceValue != null) {
+				oldValue = new CopyOnWriteList(sourceValue);
+			}
+		}
+		return oldValue;
+	}
+
+	@Override
+	public List<Object> remove(Object key) {
+		List<Object> oldValue = items.remove(key);
+		if (source != null && !isRemoved(key)) {
+			List<Object> sourceValue = source.get(key);
+			if (sourceValue != null) {
+				if (oldValue == null) {
+					oldValue = new CopyOnWriteList(sourceValue);
+				}
+				if (removed == null) {
+					removed = new HashSet<String>();
+				}
+				removed.add((String) key);
+			}
+		}
+		return oldValue;
+	}
+
+	@Override
+	public void clear() {
+		items.clear();
+		source = null;
+		removed = null;
+	}
+
+	@Override
+	public int size() {
+		return materialize().size();
+	}
+
+	@Override
+	public Set<Map.Entry<String, List<Object>>> entrySet() {
+		return materialize().entrySet();
+	}
+
+	private boolean isRemoved(Object key) {
+		return removed != null && removed.contains(key);
+	}
+
+	/**
+	 * Adds a CopyOnWriteList for each item of the shared map not yet read into the
+	 * view. After this method was called the view no longer needs the shared map.
+	 * The value lists are still copied on the first write access.
+	 * 
+	 * @return items of this view
+	 */
+	private Map<String, List<Object>> materialize() {
+		if (source != null) {
+			for (Map.Entry<String, List<Object>> entry : source.entrySet()) {
+				String key = entry.getKey();
+				if (entry.getValue() != null && !items.containsKey(key) && !isRemoved(key)) {
+					items.put(key, new CopyOnWriteList(entry.getValue()));
+				}
+			}
+			source = null;
+			removed = null;
+		}
+		return items;
+	}
+
+	/**
+	 * A serialized view is replaced by a Hashtable so the serialized form is equal
+	 * to the serialized form of a default ItemCollection.
+	 */
+	private Object writeReplace() {
+		return new Hashtable<String, List<Object>>(this);
+	}
+
+	/**
+	 * The CopyOnWriteList reads the values of a shared value list. The list makes
+	 * a deep copy of the shared values on the first write access or if a mutable
+	 * value is accessed, so the shared values are never changed.
+	 */
+	static class CopyOnWriteList extends AbstractList<Object> implements RandomAccess, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private List<Object> values;
+		private boolean copied = false;
+
+		CopyOnWriteList(List<Object> values) {
+			super();
+			this.values = values;
+		}
+
+		@Override
+		public Object get(int index) {
+			Object value = values.get(index);
+			if (!copied && !ItemCollection.isImmutableValue(value)) {
+				// a mutable value may be changed by the caller
+				copy();
+				value = values.get(index);
+			}
+			return value;
+		}
+
+		@Override
+		public int size() {
+			return values.size();
+		}
+
+		@Override
+		public Object set(int index, Object element) {
+			copy();
+			return values.set(index, element);
+		}
+
+		@Override
+		public void add(int index, Object element) {
+			copy();
+			modCount++;
+			values.add(index, element);
+		}
+
+		@Override
+		public Object remove(int index) {
+			copy();
+			modCount++;
+			return values.remove(index);
+		}
+
+		/**
+		 * Copies the shared values only if a value has to be removed. The method is
+		 * called by ItemCollection.getItemValue() to remove null values.
+		 */
+		@Override
+		public boolean removeAll(Collection<?> c) {
+			if (!copied) {
+				boolean found = false;
+				for (Object value : values) {
+					if (c.contains(value)) {
+						found = true;
+						break;
+					}
+				}
+				if (!found) {
+					return false;
+				}
+				copy();
+			}
+			modCount++;
+			return values.removeAll(c);
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return values.contains(o);
+		}
+
+		@Override
+		public int indexOf(Object o) {
+			return values.indexOf(o);
+		}
+
+		@Override
+		public int lastIndexOf(Object o) {
+			return values.lastIndexOf(o);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (o instanceof CopyOnWriteList) {
+				o = ((CopyOnWriteList) o).values;
+			}
+			return values.equals(o);
+		}
+
+		@Override
+		public int hashCode() {
+			return values.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return values.toString();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void copy() {
+			if (!copied) {
+				values = (List<Object>) ItemCollection.deepCopyOfValue(values);
+				copied = true;
+			}
+		}
+
+		/**
+		 * A serialized list is replaced by the value list.
+		 */
+		private Object writeReplace() {
+			return values;
+		}
+	}
+}
@@ -34,19 +34,26 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.Array;
 import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
 import java.util.logging.Logger;
 
 import org.imixs.workflow.exceptions.InvalidAccessException;
@@ -81,7 +88,12 @@ public class ItemCollection implements Cloneable {
 
 	private static Logger logger = Logger.getLogger(ItemCollection.class.getName());
 
-	private Map<String, List<Object>> hash = new Hashtable<String, List<Object>>();
+	// immutable basic types which need not to be copied by a deep copy
+	private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(
+			Arrays.asList(String.class, Integer.class, Long.class, Double.class, Float.class, Short.class,
+					Byte.class, Character.class, Boolean.class, BigDecimal.class, BigInteger.class));
+
+	private Map<String, List<Object>> hash = new ItemMap();
 
 	/**
 	 * Creates a new empty ItemCollection
@@ -129,6 +141,29 @@ public class ItemCollection implements Cloneable {
 		return reference;
 	}
 
+	/**
+	 * Creates a new ItemCollection backed by a copy-on-write view of a given value
+	 * Map. The method does not copy the given map. The value list of an item is
+	 * copied (deep copy) on the first write access or if a mutable value (e.g. a
+	 * Date or a Map) is read. Items added or removed are stored in the new
+	 * ItemCollection only. So the given map is never changed.
+	 * <p>
+	 * This method can be used in cases where a large number of ItemCollections is
+	 * mainly read (e.g. a result list or a re-index job) but the given map must be
+	 * protected against changes (e.g. the data of a managed entity). The given map
+	 * must not be changed as long as the new ItemCollection is in use.
+	 * 
+	 * @param map - reference with item values
+	 * @return new ItemCollection
+	 */
+	public static ItemCollection createCopyOnWrite(final Map<String, List<Object>> map) {
+		ItemCollection view = new ItemCollection();
+		if (map != null) {
+			view.hash = new CopyOnWriteItemMap(map);
+		}
+		return view;
+	}
+
 	/**
 	 * This method clones the current ItemCollection. The method makes a deep copy
 	 * of the current instance.
@@ -248,13 +283,14 @@ public class ItemCollection implements Cloneable {
 		if (itemName == null) {
 			return null;
 		}
-		itemName = itemName.toLowerCase().trim();
-		List<?> o = hash.get(itemName);
+		List<?> o = findItem(itemName);
 		if (o == null)
 			return new ArrayList<>();
 		else {
 			// remove null values
-			o.removeAll(Collections.singleton(null));
+			if (o.contains(null)) {
+				o.removeAll(Collections.singleton(null));
+			}
 			return o;
 		}
 	}
@@ -341,7 +377,9 @@ public class ItemCollection implements Cloneable {
 	 */
 	public void removeItem(String name) {
 		if (name != null) {
-			name = name.toLowerCase().trim();
+			if (!(hash instanceof ItemMap)) {
+				name = ItemMap.normalize(name);
+			}
 			this.hash.remove(name);
 		}
 	}
@@ -358,8 +396,7 @@ public class ItemCollection implements Cloneable {
 		if (aName == null) {
 			return false;
 		}
-		aName = aName.toLowerCase().trim();
-		return (hash.get(aName) != null);
+		return (findItem(aName) != null);
 	}
 
 	/**
@@ -564,7 +601,11 @@ public class ItemCollection implements Cloneable {
 			if (v.size() == 0) {
 				return 0;
 			}
-			String sValue = v.get(0).toString();
+			Object o = v.get(0);
+			if (o instanceof Integer || o instanceof Short || o instanceof Byte) {
+				return ((Number) o).intValue();
+			}
+			String sValue = o.toString();
 			return new Double(sValue).intValue();
 		} catch (NumberFormatException e) {
 			return 0;
@@ -591,7 +632,11 @@ public class ItemCollection implements Cloneable {
 			if (v.size() == 0) {
 				return 0;
 			}
-			String sValue = v.get(0).toString();
+			Object o = v.get(0);
+			if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte) {
+				return ((Number) o).longValue();
+			}
+			String sValue = o.toString();
 			return new Long(sValue).longValue();
 		} catch (NumberFormatException e) {
 			return 0;
@@ -748,28 +793,26 @@ public class ItemCollection implements Cloneable {
 	 * Replaces all items specified in the map with new items, which are assigned to
 	 * the specified values inside the map.
 	 * 
-	 * The method makes a deep copy of the source map using serialization. This is
-	 * to make sure, that no object reference is copied. Other wise for example
-	 * embedded arrays are not cloned. This is also important for JPA to avoid
-	 * changes of attached entity beans with references in the data of an
-	 * ItemCollection.
+	 * The method makes a deep copy of the source map. This is to make sure, that no
+	 * object reference is copied. Other wise for example embedded arrays are not
+	 * cloned. This is also important for JPA to avoid changes of attached entity
+	 * beans with references in the data of an ItemCollection.
 	 * 
-	 * @see deepCopyOfMap
+	 * @see deepCopyOfValue
 	 * @param map
 	 */
-	@SuppressWarnings("unchecked")
 	public void replaceAllItems(Map<String, List<Object>> map) {
 		if (map == null) {
 			return;
 		}
-		// make a deep copy of the map
-		Map<String, List<Object>> clonedMap = (Map<String, List<Object>>) deepCopyOfMap(map);
-		if (clonedMap != null) {
-			Iterator<?> it = clonedMap.entrySet().iterator();
-			while (it.hasNext()) {
-				Map.Entry<String, List<Object>> entry = (Map.Entry<String, List<Object>>) it.next();
-				replaceItemValue(entry.getKey().toString(), entry.getValue());
-			}
+		Collection<Map.Entry<String, List<Object>>> entries = map.entrySet();
+		if (map == hash) {
+			// avoid a concurrent modification of the own item map
+			entries = new ArrayList<Map.Entry<String, List<Object>>>(entries);
+		}
+		// make a deep copy of each item
+		for (Map.Entry<String, List<Object>> entry : entries) {
+			replaceItemValue(entry.getKey().toString(), deepCopyOfValue(entry.getValue()));
 		}
 	}
 
@@ -1218,8 +1261,10 @@ public class ItemCollection implements Cloneable {
 
 		if (itemName == null)
 			return;
-		// lower case itemname
-		itemName = itemName.toLowerCase().trim();
+		// lower case itemname (the ItemMap resolves the name case-insensitive)
+		if (!(hash instanceof ItemMap)) {
+			itemName = ItemMap.normalize(itemName);
+		}
 
 		// test if value is null
 		if (itemValue == null) {
@@ -1284,6 +1329,21 @@ public class ItemCollection implements Cloneable {
 
 	}
 
+	/**
+	 * Returns the value list of an item or null if the item does not exist. The
+	 * default ItemMap resolves the item name case-insensitive. A map set by
+	 * reference is accessed by the normalized (lower case) item name.
+	 * 
+	 * @param itemName
+	 * @return value list or null
+	 */
+	private List<Object> findItem(String itemName) {
+		if (hash instanceof ItemMap) {
+			return hash.get(itemName);
+		}
+		return hash.get(ItemMap.normalize(itemName));
+	}
+
 	/**
 	 * This method validates of a itemValue is acceptable for the ItemCollection.
 	 * Only basic types are supported.
@@ -1374,22 +1434,158 @@ public class ItemCollection implements Cloneable {
 	}
 
 	/**
-	 * This helper method makes a deep copy of a map by serializing and
-	 * deserializing.
+	 * Returns true if the value is null or of an immutable basic type which need
+	 * not to be copied.
+	 * 
+	 * @param value
+	 * @return true if immutable
+	 */
+	static boolean isImmutableValue(Object value) {
+		return value == null || IMMUTABLE_TYPES.contains(value.getClass());
+	}
+
+	/**
+	 * This helper method makes a deep copy of an item value. The method knows the
+	 * basic types which can be stored in an ItemCollection. Immutable values
+	 * (String, boxed primitives, BigDecimal, BigInteger) are shared. Only mutable
+	 * values (Date, Calendar, arrays, Lists and Maps) are copied. A List or Map is
+	 * copied into a new instance of the same class, a TreeMap keeps its
+	 * comparator. Only a List or Map of a class which can not be instantiated is
+	 * copied into an ArrayList or LinkedHashMap. Other values like XMLItem are
+	 * copied by serializing and deserializing.
+	 * 
+	 * @param value
+	 * @return copy of the value
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Object deepCopyOfValue(Object value) {
+		if (isImmutableValue(value)) {
+			return value;
+		}
+		if (value instanceof Date) {
+			return ((Date) value).clone();
+		}
+		if (value instanceof List) {
+			List source = (List) value;
+			List<Object> copy = newListOf(source);
+			for (Object element : source) {
+				copy.add(deepCopyOfValue(element));
+			}
+			return copy;
+		}
+		if (value instanceof Map) {
+			Map<Object, Object> source = (Map<Object, Object>) value;
+			Map<Object, Object> copy = newMapOf(source);
+			for (Map.Entry<Object, Object> entry : source.entrySet()) {
+				copy.put(deepCopyOfValue(entry.getKey()), deepCopyOfValue(entry.getValue()));
+			}
+			return copy;
+		}
+		if (value.getClass().isArray()) {
+			Class<?> componentType = value.getClass().getComponentType();
+			int length = Array.getLength(value);
+			Object copy = Array.newInstance(componentType, length);
+			if (componentType.isPrimitive()) {
+				System.arraycopy(value, 0, copy, 0, length);
+			} else {
+				for (int i = 0; i < length; i++) {
+					Array.set(copy, i, deepCopyOfValue(Array.get(value, i)));
+				}
+			}
+			return copy;
+		}
+		if (value instanceof Calendar) {
+			return ((Calendar) value).clone();
+		}
+		// unknown type - copy by serialization
+		return deepCopyBySerialization(value);
+	}
+
+	/**
+	 * Returns a new empty List of the same class as the given List. If the class
+	 * can not be instantiated an ArrayList is returned.
+	 * 
+	 * @param source
+	 * @return new List
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Object> newListOf(List<?> source) {
+		Class<?> type = source.getClass();
+		if (type == ArrayList.class) {
+			return new ArrayList<Object>(source.size());
+		}
+		if (type == Vector.class) {
+			return new Vector<Object>(source.size());
+		}
+		if (type == LinkedList.class) {
+			return new LinkedList<Object>();
+		}
+		List<Object> copy = (List<Object>) newInstanceOf(type);
+		return (copy != null) ? copy : new ArrayList<Object>(source.size());
+	}
+
+	/**
+	 * Returns a new empty Map of the same class as the given Map. A TreeMap keeps
+	 * its comparator. If the class can not be instantiated a LinkedHashMap is
+	 * returned.
+	 * 
+	 * @param source
+	 * @return new Map
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<Object, Object> newMapOf(Map<?, ?> source) {
+		Class<?> type = source.getClass();
+		int capacity = source.size() * 2 + 1;
+		if (type == HashMap.class) {
+			return new HashMap<Object, Object>(capacity);
+		}
+		if (type == LinkedHashMap.class) {
+			return new LinkedHashMap<Object, Object>(capacity);
+		}
+		if (type == Hashtable.class) {
+			return new Hashtable<Object, Object>(capacity);
+		}
+		if (type == TreeMap.class) {
+			return new TreeMap<Object, Object>(((TreeMap<Object, Object>) source).comparator());
+		}
+		Map<Object, Object> copy = (Map<Object, Object>) newInstanceOf(type);
+		return (copy != null) ? copy : new LinkedHashMap<Object, Object>(capacity);
+	}
+
+	/**
+	 * Creates a new instance of a java.util collection class by its public default
+	 * constructor. Returns null for other classes, e.g. the unmodifiable views of
+	 * java.util.Collections, or if the class can not be instantiated.
 	 * 
-	 * It is assumed that all elements in the object's source graph are
-	 * serializable.
+	 * @param type
+	 * @return new instance or null
+	 */
+	private static Object newInstanceOf(Class<?> type) {
+		if (!type.getName().startsWith("java.util.")) {
+			return null;
+		}
+		try {
+			return type.getConstructor().newInstance();
+		} catch (ReflectiveOperationException | SecurityException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * This helper method makes a deep copy of an object by serializing and
+	 * deserializing. The method is used for values not known by the method
+	 * deepCopyOfValue.
 	 * 
 	 * @see http://www.javaworld.com/article/2077578/learn-java/java-tip-76--an-alternative-to-the-deep-copy-technique.html
-	 * @param map
-	 * @return
+	 * @param value
+	 * @return copy of the value or null if the value is not serializable
 	 */
-	private Object deepCopyOfMap(Map<String, List<Object>> map) {
+	private static Object deepCopyBySerialization(Object value) {
 		try {
 			ByteArrayOutputStream bos = new ByteArrayOutputStream();
 			ObjectOutputStream oos = new ObjectOutputStream(bos);
 			// serialize and pass the object
-			oos.writeObject(map);
+			oos.writeObject(value);
 			oos.flush();
 			ByteArrayInputStream bais = new ByteArrayInputStream(bos.toByteArray());
 			ObjectInputStream ois = new ObjectInputStream(bais);
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ItemCollectionScriptMap is a lazy Map view on the items of an
+ * ItemCollection used by the RuleEngine to provide the JSON objects 'workitem'
+ * and 'event'. The key of an entry is the lower case item name. The value is
+ * an Object array with the item values. Only items with a basic value type are
+ * provided.
+ * <p>
+ * An item is converted into its script representation when it is first read by
+ * the script. The converted value is cached for the lifetime of the view. So
+ * the evaluation of a script only converts the items read by the script. Values
+ * put by the script are stored in the view and do not change the
+ * ItemCollection.
+ * 
+ * @see RuleEngine
+ * @author rsoika
+ * @version 1.0
+ */
+class ItemCollectionScriptMap extends AbstractMap<String, Object> {
+
+	private final ItemCollection itemCollection;
+	// converted values and values put by the script
+	private final Map<String, Object> values = new HashMap<String, Object>();
+	// items removed by the script
+	private Set<String> removed = null;
+	// true if all items are converted
+	private boolean complete = false;
+
+	ItemCollectionScriptMap(ItemCollection itemCollection) {
+		super();
+		this.itemCollection = itemCollection;
+	}
+
+	@Override
+	public Object get(Object key) {
+		Object value = values.get(key);
+		if (value != null || complete || !(key instanceof String) || isRemoved(key)) {
+			return value;
+		}
+		String name = (String) key;
+		if (!name.equals(ItemMap.normalize(name))) {
+			// item names are lower case
+			return null;
+		}
+		value = convert(itemCollection.getAllItems().get(name));
+		if (value != null) {
+			values.put(name, value);
+		}
+		return value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return values.containsKey(key) || get(key) != null;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		Object oldValue = get(key);
+		values.put(key, value);
+		if (removed != null) {
+			removed.remove(key);
+		}
+		return oldValue;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		Object oldValue = get(key);
+		values.remove(key);
+		if (!complete && key instanceof String) {
+			if (removed == null) {
+				removed = new HashSet<String>();
+			}
+			removed.add((String) key);
+		}
+		return oldValue;
+	}
+
+	@Override
+	public void clear() {
+		values.clear();
+		complete = true;
+	}
+
+	@Override
+	public int size() {
+		return convertAll().size();
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return convertAll().entrySet();
+	}
+
+	private boolean isRemoved(Object key) {
+		return removed != null && removed.contains(key);
+	}
+
+	/**
+	 * Converts all items not yet read by the script.
+	 * 
+	 * @return all values
+	 */
+	private Map<String, Object> convertAll() {
+		if (!complete) {
+			for (Map.Entry<String, List<Object>> entry : itemCollection.getAllItems().entrySet()) {
+				String key = entry.getKey().toLowerCase();
+				if (!values.containsKey(key) && !isRemoved(key)) {
+					Object value = convert(entry.getValue());
+					if (value != null) {
+						values.put(key, value);
+					}
+				}
+			}
+			complete = true;
+			removed = null;
+		}
+		return values;
+	}
+
+	/**
+	 * Converts a value list into an Object array. The method returns null if the
+	 * list is empty or the first value is not a basic type.
+	 * 
+	 * @param value
+	 * @return Object array or null
+	 */
+	private static Object convert(List<?> value) {
+		if (value != null && value.size() > 0 && value.get(0) != null
+				&& RuleEngine.isBasicObjectType(value.get(0).getClass())) {
+			return value.toArray();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,464 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The ItemMap is the default item store of an ItemCollection. The map is
+ * implemented as an open addressing hash table with linear probing. Item names
+ * are case-insensitive and leading and trailing whitespace is ignored. So the
+ * map can be accessed with an item name without converting the name into a lower
+ * case String first. All keys are stored in lower case.
+ * <p>
+ * Well known item names defined by the WorkflowKernel are stored with the
+ * constant String instance. A lookup with the constant is resolved by an
+ * identity check.
+ * <p>
+ * In difference to a Hashtable the ItemMap is not synchronized. Null keys and
+ * null values are not allowed. The ItemMap is serialized as a Hashtable.
+ * 
+ * @see ItemCollection
+ * @author rsoika
+ * @version 1.0
+ */
+class ItemMap extends AbstractMap<String, List<Object>> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	// marks a removed slot
+	private static final String REMOVED = new String("$removed");
+
+	// well known item names
+	private static final Map<String, String> KNOWN_NAMES = new HashMap<String, String>();
+
+	static {
+		for (String name : new String[] { WorkflowKernel.UNIQUEID, WorkflowKernel.UNIQUEIDSOURCE,
+				WorkflowKernel.UNIQUEIDVERSIONS, WorkflowKernel.WORKITEMID, WorkflowKernel.MODELVERSION,
+				WorkflowKernel.PROCESSID, WorkflowKernel.TASKID, WorkflowKernel.EVENTID, WorkflowKernel.ACTIVITYIDLIST,
+				WorkflowKernel.WORKFLOWGROUP, WorkflowKernel.WORKFLOWSTATUS, WorkflowKernel.ISVERSION,
+				WorkflowKernel.LASTTASK, WorkflowKernel.LASTEVENT, WorkflowKernel.LASTEVENTDATE,
+				WorkflowKernel.CREATOR, WorkflowKernel.EDITOR, WorkflowKernel.LASTEDITOR, WorkflowKernel.CREATED,
+				WorkflowKernel.MODIFIED, WorkflowKernel.TYPE }) {
+			KNOWN_NAMES.put(name, name);
+		}
+	}
+
+	private String[] keys;
+	private int[] hashes;
+	private List<Object>[] values;
+	// number of items
+	private int size = 0;
+	// number of items and removed slots
+	private int used = 0;
+	private int modCount = 0;
+
+	ItemMap() {
+		super();
+		init(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Returns the normalized (lower case and trimmed) item name. If the name is
+	 * already normalized the method returns the same instance. ASCII names are
+	 * converted independent from the default locale.
+	 * 
+	 * @param name
+	 * @return normalized name
+	 */
+	static String normalize(String name) {
+		int length = name.length();
+		boolean normalized = length == 0 || (name.charAt(0) > ' ' && name.charAt(length - 1) > ' ');
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c >= 0x80) {
+				// non ASCII name
+				return name.toLowerCase().trim();
+			}
+			if (c >= 'A' && c <= 'Z') {
+				normalized = false;
+			}
+		}
+		if (normalized) {
+			return name;
+		}
+		char[] chars = name.trim().toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			if (chars[i] >= 'A' && chars[i] <= 'Z') {
+				chars[i] += 'a' - 'A';
+			}
+		}
+		return new String(chars);
+	}
+
+	@Override
+	public List<Object> get(Object key) {
+		int index = indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public List<Object> put(String key, List<Object> value) {
+		if (key == null || value == null) {
+			throw new NullPointerException();
+		}
+		int index = indexOf(key);
+		if (index >= 0) {
+			List<Object> oldValue = values[index];
+			values[index] = value;
+			return oldValue;
+		}
+		// new item
+		key = normalize(key);
+		int hash = spread(key.hashCode());
+		String knownName = KNOWN_NAMES.get(key);
+		if (knownName != null) {
+			key = knownName;
+		}
+		int mask = keys.length - 1;
+		int i = hash & mask;
+		while (keys[i] != null && keys[i] != REMOVED) {
+			i = (i + 1) & mask;
+		}
+		if (keys[i] == null) {
+			used++;
+		}
+		keys[i] = key;
+		hashes[i] = hash;
+		values[i] = value;
+		size++;
+		modCount++;
+		if (used * 4 >= keys.length * 3) {
+			// grow or remove the removed slots
+			rehash(size * 2 >= keys.length ? keys.length * 2 : keys.length);
+		}
+		return null;
+	}
+
+	@Override
+	public List<Object> remove(Object key) {
+		int index = indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+		List<Object> oldValue = values[index];
+		removeSlot(index);
+		return oldValue;
+	}
+
+	@Override
+	public void clear() {
+		init(DEFAULT_CAPACITY);
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, List<Object>>> entrySet() {
+		return new EntrySet();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void init(int capacity) {
+		keys = new String[capacity];
+		hashes = new int[capacity];
+		values = new List[capacity];
+		size = 0;
+		used = 0;
+	}
+
+	private void rehash(int capacity) {
+		String[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		List<Object>[] oldValues = values;
+		init(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != null && oldKeys[j] != REMOVED) {
+				int i = oldHashes[j] & mask;
+				while (keys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				hashes[i] = oldHashes[j];
+				values[i] = oldValues[j];
+				size++;
+				used++;
+			}
+		}
+	}
+
+	private void removeSlot(int index) {
+		keys[index] = REMOVED;
+		hashes[index] = 0;
+		values[index] = null;
+		size--;
+		modCount++;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Returns the slot of an item name. The name is compared case-insensitive and
+	 * leading and trailing whitespace is ignored. For ASCII names the hash code of
+	 * the lower case name is computed without creating a new String.
+	 * 
+	 * @param key
+	 * @return slot index or -1 if the item does not exist
+	 */
+	private int indexOf(Object key) {
+		if (!(key instanceof String)) {
+			return -1;
+		}
+		String name = (String) key;
+		int begin = 0;
+		int end = name.length();
+		while (begin < end && name.charAt(begin) <= ' ') {
+			begin++;
+		}
+		while (end > begin && name.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		int hash = 0;
+		for (int i = begin; i < end; i++) {
+			char c = name.charAt(i);
+			if (c >= 0x80) {
+				// non ASCII name
+				String normalized = name.toLowerCase().trim();
+				return find(normalized, spread(normalized.hashCode()));
+			}
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			hash = 31 * hash + c;
+		}
+		hash = spread(hash);
+		int length = end - begin;
+		int mask = keys.length - 1;
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			String k = keys[i];
+			if (k == null) {
+				return -1;
+			}
+			if (k == name || (hashes[i] == hash && k != REMOVED && matches(k, name, begin, length))) {
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of a normalized item name.
+	 */
+	private int find(String name, int hash) {
+		int mask = keys.length - 1;
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			String k = keys[i];
+			if (k == null) {
+				return -1;
+			}
+			if (k == name || (hashes[i] == hash && k != REMOVED && k.equals(name))) {
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * Compares a lower case key with a region of an ASCII item name.
+	 */
+	private static boolean matches(String key, String name, int begin, int length) {
+		if (key.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(begin + i);
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			if (key.charAt(i) != c) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * An ItemMap is serialized as a Hashtable to be compatible with data
+	 * serialized by former versions.
+	 */
+	private Object writeReplace() {
+		return new Hashtable<String, List<Object>>(this);
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<String, List<Object>>> {
+
+		@Override
+		public Iterator<Map.Entry<String, List<Object>>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void clear() {
+			ItemMap.this.clear();
+		}
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<String, List<Object>>> {
+		private int next = -1;
+		private int current = -1;
+		private int expectedModCount = modCount;
+
+		EntryIterator() {
+			advance();
+		}
+
+		private void advance() {
+			next++;
+			while (next < keys.length && (keys[next] == null || keys[next] == REMOVED)) {
+				next++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < keys.length;
+		}
+
+		@Override
+		public Map.Entry<String, List<Object>> next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next >= keys.length) {
+				throw new NoSuchElementException();
+			}
+			current = next;
+			advance();
+			return new Entry(current);
+		}
+
+		@Override
+		public void remove() {
+			if (current < 0) {
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			removeSlot(current);
+			expectedModCount = modCount;
+			current = -1;
+		}
+	}
+
+	private class Entry implements Map.Entry<String, List<Object>> {
+		private final int index;
+		private final String key;
+
+		Entry(int index) {
+			this.index = index;
+			this.key = keys[index];
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public List<Object> getValue() {
+			return keys[index] == key ? values[index] : get(key);
+		}
+
+		@Override
+		public List<Object> setValue(List<Object> value) {
+			if (value == null) {
+				throw new NullPointerException();
+			}
+			if (keys[index] == key) {
+				List<Object> oldValue = values[index];
+				values[index] = value;
+				return oldValue;
+			}
+			return put(key, value);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object value = getValue();
+			return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object value = getValue();
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + getValue();
+		}
+	}
+}
@@ -7,13 +7,20 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
@@ -73,19 +80,42 @@ import org.imixs.workflow.exceptions.PluginException;
  * 
  * NOTE: all variable names are case sensitive! All JSON object elements are
  * lower case!
+ * <p>
+ * Script engines are reused. A RuleEngine takes a script engine from a pool
+ * with the first evaluation and returns it to the pool by the method close().
+ * A reused engine gets new engine scope bindings, so no variables of a
+ * former evaluation are visible. Each pooled engine holds a LRU cache of
+ * compiled scripts, so a script is only compiled once per engine. The static
+ * counters for cache hits, cache misses and evaluation time can be read by the
+ * methods getCacheHits(), getCacheMisses(), getEvaluationCount() and
+ * getEvaluationTime().
  * 
  * @author Ralph Soika
  * @version 3.0
  * 
  */
-public class RuleEngine {
+public class RuleEngine implements AutoCloseable {
 	public static final String DEFAULT_SCRIPT_LANGUAGE = "javascript";
 	public static final String INVALID_SCRIPT = "INVALID_SCRIPT";
+	// maximum number of compiled scripts cached per script engine
+	public static final int SCRIPT_CACHE_SIZE = 100;
+	// maximum number of idle script engines per language
+	public static final int ENGINE_POOL_SIZE = 16;
+
 	private static Logger logger = Logger.getLogger(RuleEngine.class.getName());
 
+	private static final ScriptEngineManager sharedScriptEngineManager = new ScriptEngineManager();
+	private static final Map<String, Queue<PooledScriptEngine>> enginePool = new ConcurrentHashMap<String, Queue<PooledScriptEngine>>();
+
+	private static final AtomicLong cacheHits = new AtomicLong();
+	private static final AtomicLong cacheMisses = new AtomicLong();
+	private static final AtomicLong evaluationCount = new AtomicLong();
+	private static final AtomicLong evaluationTime = new AtomicLong();
+
 	ScriptEngineManager scriptEngineManager;
 	ScriptEngine scriptEngine = null;
 	String scriptLanguage;
+	private PooledScriptEngine pooledScriptEngine = null;
 
 	/**
 	 * This method initializes the default script engine.
@@ -111,14 +141,31 @@ public class RuleEngine {
 	 * @param scriptLanguage
 	 */
 	void init(String scriptLanguage) {
-		this.scriptLanguage = scriptLanguage;
 		// set default engine to javascript if no engine is specified
-		if ("".equals(scriptLanguage)) {
+		if (scriptLanguage == null || "".equals(scriptLanguage)) {
 			scriptLanguage = DEFAULT_SCRIPT_LANGUAGE;
 		}
-		// initialize the script engine...
-		scriptEngineManager = new ScriptEngineManager();
-		scriptEngine = scriptEngineManager.getEngineByName(scriptLanguage);
+		this.scriptLanguage = scriptLanguage;
+		// the script engine is taken from the pool with the first evaluation
+		scriptEngineManager = sharedScriptEngineManager;
+	}
+
+	/**
+	 * Returns the script engine to the pool. The RuleEngine can still be used
+	 * after this method was called and will take a new script engine from the
+	 * pool with the next evaluation. A script engine returned by the method
+	 * getScriptEngine() must not be used after the RuleEngine was closed.
+	 */
+	@Override
+	public void close() {
+		if (pooledScriptEngine != null) {
+			Queue<PooledScriptEngine> pool = getPool(scriptLanguage);
+			if (pool.size() < ENGINE_POOL_SIZE) {
+				pool.offer(pooledScriptEngine);
+			}
+			pooledScriptEngine = null;
+			scriptEngine = null;
+		}
 	}
 
 	/**
@@ -136,9 +183,62 @@ public class RuleEngine {
 	 * @return
 	 */
 	public ScriptEngine getScriptEngine() {
+		if (scriptEngine == null) {
+			pooledScriptEngine = getPool(scriptLanguage).poll();
+			if (pooledScriptEngine != null) {
+				// reset the variables of a former evaluation
+				ScriptEngine engine = pooledScriptEngine.engine;
+				engine.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+			} else {
+				ScriptEngine engine = scriptEngineManager.getEngineByName(scriptLanguage);
+				if (engine == null) {
+					logger.warning("no script engine found for script language '" + scriptLanguage + "'");
+					return null;
+				}
+				pooledScriptEngine = new PooledScriptEngine(engine);
+			}
+			scriptEngine = pooledScriptEngine.engine;
+		}
 		return scriptEngine;
 	}
 
+	/**
+	 * Returns the number of scripts found in the compiled script cache
+	 * 
+	 * @return cache hits
+	 */
+	public static long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	/**
+	 * Returns the number of scripts which had to be compiled
+	 * 
+	 * @return cache misses
+	 */
+	public static long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	/**
+	 * Returns the number of evaluated scripts
+	 * 
+	 * @return evaluation count
+	 */
+	public static long getEvaluationCount() {
+		return evaluationCount.get();
+	}
+
+	/**
+	 * Returns the total evaluation time of all scripts in milliseconds. The
+	 * evaluation time includes the time to compile a script.
+	 * 
+	 * @return evaluation time in ms
+	 */
+	public static long getEvaluationTime() {
+		return evaluationTime.get() / 1000000;
+	}
+
 	/**
 	 * This method evaluates the business rule defined by the provided activity. The
 	 * method returns the instance of the script engine which can be used to
@@ -158,12 +258,13 @@ public class RuleEngine {
 			return null; // nothing to do
 
 		// set activity properties into engine
+		ScriptEngine scriptEngine = getScriptEngine();
 		scriptEngine.put("event", convertItemCollection(event));
 		scriptEngine.put("workitem", convertItemCollection(documentContext));
 
 		logger.finest("......SCRIPT:" + script);
 		try {
-			scriptEngine.eval(script);
+			eval(script);
 		} catch (ScriptException e) {
 			// script not valid
 			throw new PluginException(RuleEngine.class.getSimpleName(), INVALID_SCRIPT,
@@ -191,12 +292,12 @@ public class RuleEngine {
 			return false; // nothing to do
 
 		// set activity properties into engine
-		scriptEngine.put("workitem", convertItemCollection(documentContext));
+		getScriptEngine().put("workitem", convertItemCollection(documentContext));
 
 		logger.finest("......SCRIPT:" + script);
 		Object result = null;
 		try {
-			result = scriptEngine.eval(script);
+			result = eval(script);
 		} catch (ScriptException e) {
 			// script not valid
 			throw new PluginException(RuleEngine.class.getSimpleName(), INVALID_SCRIPT,
@@ -223,6 +324,7 @@ public class RuleEngine {
 	public Object[] evaluateNativeScriptArray(String expression) {
 		Object[] params = null;
 
+		ScriptEngine scriptEngine = getScriptEngine();
 		if (scriptEngine == null) {
 			logger.severe("evaluateScritpObject error: no script engine! - call run()");
 			return null;
@@ -247,7 +349,7 @@ public class RuleEngine {
 			String jsCode = "importPackage(java.util);" + "var _evaluateScriptParam = Arrays.asList(" + expression
 					+ "); ";
 			// pass a collection from javascript to java;
-			scriptEngine.eval(jsNashorn + jsCode);
+			eval(jsNashorn + jsCode);
 
 			@SuppressWarnings("unchecked")
 			List<Object> resultList = (List<Object>) scriptEngine.get("_evaluateScriptParam");
@@ -276,27 +378,48 @@ public class RuleEngine {
 	}
 
 	/**
-	 * This method converts the values of an ItemCollection into a Map Object with
-	 * Arrays of Objects for each value
+	 * Evaluates a script by the current script engine. If the script engine
+	 * supports the compilation of scripts, the compiled script is taken from the
+	 * cache of the pooled script engine.
 	 * 
-	 * @param itemCol
-	 * @return
+	 * @param script
+	 * @return result of the script
+	 * @throws ScriptException
 	 */
-	private Map<String, Object[]> convertItemCollection(ItemCollection itemCol) {
-		Map<String, Object[]> result = new HashMap<String, Object[]>();
-		Map<String, List<Object>> itemList = itemCol.getAllItems();
-		for (Map.Entry<String, List<Object>> entry : itemList.entrySet()) {
-			String key = entry.getKey().toLowerCase();
-			List<?> value = (List<?>) entry.getValue();
-			// do only put basic values
-			if (value.size() > 0) {
-				if (isBasicObjectType(value.get(0).getClass())) {
-					result.put(key, value.toArray());
-				}
-
+	private Object eval(String script) throws ScriptException {
+		ScriptEngine engine = getScriptEngine();
+		long start = System.nanoTime();
+		try {
+			if (engine instanceof Compilable) {
+				return pooledScriptEngine.getCompiledScript(script).eval();
 			}
+			return engine.eval(script);
+		} finally {
+			evaluationCount.incrementAndGet();
+			evaluationTime.addAndGet(System.nanoTime() - start);
 		}
-		return result;
+	}
+
+	private static Queue<PooledScriptEngine> getPool(String scriptLanguage) {
+		Queue<PooledScriptEngine> pool = enginePool.get(scriptLanguage);
+		if (pool == null) {
+			enginePool.putIfAbsent(scriptLanguage, new ConcurrentLinkedQueue<PooledScriptEngine>());
+			pool = enginePool.get(scriptLanguage);
+		}
+		return pool;
+	}
+
+	/**
+	 * This method provides the values of an ItemCollection as a Map Object with
+	 * Arrays of Objects for each value. The values are converted lazy when read by
+	 * the script.
+	 * 
+	 * @see ItemCollectionScriptMap
+	 * @param itemCol
+	 * @return
+	 */
+	private Map<String, Object> convertItemCollection(ItemCollection itemCol) {
+		return new ItemCollectionScriptMap(itemCol);
 	}
 
 	/**
@@ -323,7 +446,7 @@ public class RuleEngine {
 	public ItemCollection convertScriptVariableToItemCollection(String variable) {
 		ItemCollection result = null;
 		// get result object from engine
-		Map<String, Object> scriptResult = (Map) scriptEngine.get(variable);
+		Map<String, Object> scriptResult = (Map) getScriptEngine().get(variable);
 		// test if the json object exists and has child objects...
 		if (scriptResult != null) {
 			result = new ItemCollection();
@@ -358,7 +481,7 @@ public class RuleEngine {
 
 	private static final HashSet<Class<?>> BASIC_OBJECT_TYPES = getBasicObjectTypes();
 
-	private static boolean isBasicObjectType(Class<?> clazz) {
+	static boolean isBasicObjectType(Class<?> clazz) {
 		return BASIC_OBJECT_TYPES.contains(clazz);
 	}
 
@@ -386,4 +509,38 @@ public class RuleEngine {
 		return ret;
 	}
 
+	/**
+	 * A script engine with a LRU cache of compiled scripts. A compiled script is
+	 * bound to the engine which compiled the script. The cache is only accessed by
+	 * the RuleEngine holding the pooled engine.
+	 */
+	private static class PooledScriptEngine {
+		final ScriptEngine engine;
+		final Map<String, CompiledScript> compiledScripts = new LinkedHashMap<String, CompiledScript>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+				return size() > SCRIPT_CACHE_SIZE;
+			}
+		};
+
+		PooledScriptEngine(ScriptEngine engine) {
+			this.engine = engine;
+		}
+
+		CompiledScript getCompiledScript(String script) throws ScriptException {
+			CompiledScript compiledScript = compiledScripts.get(script);
+			if (compiledScript == null) {
+				cacheMisses.incrementAndGet();
+				compiledScript = ((Compilable) engine).compile(script);
+				compiledScripts.put(script, compiledScript);
+			} else {
+				cacheHits.incrementAndGet();
+			}
+			return compiledScript;
+		}
+	}
+
 }
@@ -292,13 +292,18 @@ public class WorkflowKernel {
 		}
 
 		// now process all events defined by the model
-		while (documentResult.getEventID() > 0) {
-			// set $lastEventDate
-			documentResult.replaceItemValue("$lastEventDate", new Date());
-			// load event...
-			ItemCollection event = loadEvent(documentResult);
-			documentResult = processEvent(documentResult, event);
-			documentResult = updateEventList(documentResult);
+		try {
+			while (documentResult.getEventID() > 0) {
+				// set $lastEventDate
+				documentResult.replaceItemValue("$lastEventDate", new Date());
+				// load event...
+				ItemCollection event = loadEvent(documentResult);
+				documentResult = processEvent(documentResult, event);
+				documentResult = updateEventList(documentResult);
+			}
+		} finally {
+			// return the script engine to the pool
+			ruleEngine.close();
 		}
 
 
@@ -329,15 +334,20 @@ public class WorkflowKernel {
 		int iNewProcessID = event.getItemValueInteger("numnextprocessid");
 		logger.finest("......next $taskID=" + iNewProcessID + "");
 	
-		// test if we have an conditional exclusive Task exits...
-		itemColNextTask = findConditionalExclusiveTask(event, documentContext);
-		if (itemColNextTask != null) {
-			return itemColNextTask;
-		}
+		try {
+			// test if we have an conditional exclusive Task exits...
+			itemColNextTask = findConditionalExclusiveTask(event, documentContext);
+			if (itemColNextTask != null) {
+				return itemColNextTask;
+			}
 	
-		itemColNextTask = findConditionalSplitTask(event, documentContext);
-		if (itemColNextTask != null) {
-			return itemColNextTask;
+			itemColNextTask = findConditionalSplitTask(event, documentContext);
+			if (itemColNextTask != null) {
+				return itemColNextTask;
+			}
+		} finally {
+			// return the script engine to the pool
+			ruleEngine.close();
 		}
 	
 		// default behavior
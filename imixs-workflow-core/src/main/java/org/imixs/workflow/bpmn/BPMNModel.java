@@ -1,7 +1,9 @@
 package org.imixs.workflow.bpmn;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -16,6 +18,15 @@ import org.imixs.workflow.exceptions.ModelException;
 /**
  * The BPMNModel implements the Imixs Model Interface. The class is used by the
  * class BPMNModelHandler.
+ * <p>
+ * The model holds an index of the events of each task by their event id and an
+ * index of the tasks of each workflow group. Both indexes are built when the
+ * tasks and events are added by the BPMNModelHandler. So an event is found by
+ * its task and event id without a scan of the event list.
+ * <p>
+ * The tasks and events returned by the model are copy-on-write views of the
+ * model entries. A view does not copy the entry until the caller changes an
+ * item. So the model entries are never changed by a caller.
  * 
  * @see BPMNModelHandler
  * @author rsoika
@@ -25,6 +36,10 @@ public class BPMNModel implements Model {
 
 	private Map<Integer, ItemCollection> taskList = null;
 	private Map<Integer, List<ItemCollection>> eventList = null;
+	// events of each task by event id
+	private Map<Integer, Map<Integer, ItemCollection>> eventIndex = null;
+	// tasks of each workflow group by task id
+	private Map<String, Map<Integer, ItemCollection>> groupIndex = null;
 	private List<String> workflowGroups = null;
 	private ItemCollection definition = null;
 	private byte[] rawData = null;
@@ -33,6 +48,8 @@ public class BPMNModel implements Model {
 	public BPMNModel() {
 		taskList = new TreeMap<Integer, ItemCollection>();
 		eventList = new TreeMap<Integer, List<ItemCollection>>();
+		eventIndex = new HashMap<Integer, Map<Integer, ItemCollection>>();
+		groupIndex = new HashMap<String, Map<Integer, ItemCollection>>();
 		workflowGroups = new ArrayList<String>();
 	}
 
@@ -75,7 +92,7 @@ public class BPMNModel implements Model {
 	public ItemCollection getTask(int processid) throws ModelException {
 		ItemCollection process = taskList.get(processid);
 		if (process != null) {
-			return new ItemCollection(process);
+			return createView(process);
 		} else {
 			throw new ModelException(ModelException.UNDEFINED_MODEL_ENTRY,
 					"BPMN Task " + processid + " not defined by version '" + this.getVersion() + "'");
@@ -84,10 +101,11 @@ public class BPMNModel implements Model {
 
 	@Override
 	public ItemCollection getEvent(int processid, int activityid) throws ModelException {
-		List<ItemCollection> activities = findAllEventsByTask(processid);
-		for (ItemCollection aactivity : activities) {
-			if (activityid == aactivity.getItemValueInteger("numactivityid")) {
-				return new ItemCollection(aactivity);
+		Map<Integer, ItemCollection> activities = eventIndex.get(processid);
+		if (activities != null) {
+			ItemCollection aactivity = activities.get(activityid);
+			if (aactivity != null) {
+				return createView(aactivity);
 			}
 		}
 		// not found!
@@ -102,20 +120,13 @@ public class BPMNModel implements Model {
 	/**
 	 * Returns a list of all tasks. The result set is sorted by taskID.
 	 * 
-	 * The list is a clone of the internal map values!
+	 * The list contains copy-on-write views of the internal map values!
 	 * 
 	 * @return list of tasks
 	 */
 	@Override
 	public List<ItemCollection> findAllTasks() {
-		List<ItemCollection> _tasks = new ArrayList<ItemCollection>(taskList.values());
-		// clone task list
-		ArrayList<ItemCollection> result = new ArrayList<ItemCollection>();
-		for (ItemCollection _task : _tasks) {
-			result.add(new ItemCollection(_task));
-		}
-		return result;
-
+		return createViews(taskList.values());
 	}
 
 	/**
@@ -130,12 +141,7 @@ public class BPMNModel implements Model {
 		if (_events == null) {
 			return new ArrayList<ItemCollection>();
 		}
-		// clone event list
-		ArrayList<ItemCollection> result = new ArrayList<ItemCollection>();
-		for (ItemCollection _event : _events) {
-			result.add(new ItemCollection(_event));
-		}
-		return result;
+		return createViews(_events);
 	}
 
 	/***
@@ -144,16 +150,46 @@ public class BPMNModel implements Model {
 	 */
 	@Override
 	public List<ItemCollection> findTasksByGroup(String group) {
-		List<ItemCollection> result = new ArrayList<ItemCollection>();
 		if (group != null && !group.isEmpty()) {
-			List<ItemCollection> allTasks = findAllTasks();
-			for (ItemCollection task : allTasks) {
-				if (group.equals(task.getItemValueString("txtworkflowgroup"))) {
-					result.add(task);
-				}
+			Map<Integer, ItemCollection> tasks = groupIndex.get(group);
+			if (tasks != null) {
+				return createViews(tasks.values());
 			}
 		}
-		return result;
+		return new ArrayList<ItemCollection>();
+	}
+
+	/**
+	 * Creates a BPMNModel from the elements of a model built before by the
+	 * BPMNModelHandler. The method can be used to restore a model from a snapshot
+	 * without parsing the BPMN file.
+	 * 
+	 * @param definition
+	 *            - the model definition
+	 * @param groups
+	 *            - the workflow groups in the order of the origin model
+	 * @param tasks
+	 *            - all tasks of the model
+	 * @param events
+	 *            - all events of the model
+	 * @param rawData
+	 *            - the BPMN file content
+	 * @return new BPMNModel
+	 * @throws ModelException
+	 */
+	public static BPMNModel createModel(ItemCollection definition, List<String> groups, List<ItemCollection> tasks,
+			List<ItemCollection> events, byte[] rawData) throws ModelException {
+		BPMNModel model = new BPMNModel();
+		model.setDefinition(definition);
+		model.workflowGroups.addAll(groups);
+		for (ItemCollection task : tasks) {
+			model.addTask(task);
+		}
+		for (ItemCollection event : events) {
+			model.addEvent(event);
+		}
+		model.setRawData(rawData);
+		return model;
 	}
 
 	protected void setDefinition(ItemCollection profile) {
@@ -181,7 +217,17 @@ public class BPMNModel implements Model {
 		if (!workflowGroups.contains(group)) {
 			workflowGroups.add(group);
 		}
-		taskList.put(entity.getItemValueInteger("numprocessid"), entity);
+		int taskID = entity.getItemValueInteger("numprocessid");
+		ItemCollection previousTask = taskList.put(taskID, entity);
+		if (previousTask != null) {
+			groupIndex.get(previousTask.getItemValueString("txtworkflowgroup")).remove(taskID);
+		}
+		Map<Integer, ItemCollection> groupTasks = groupIndex.get(group);
+		if (groupTasks == null) {
+			groupTasks = new TreeMap<Integer, ItemCollection>();
+			groupIndex.put(group, groupTasks);
+		}
+		groupTasks.put(taskID, entity);
 	}
 
 	/**
@@ -217,14 +263,44 @@ public class BPMNModel implements Model {
 					"Invalid Activiyt Entity - no numprocessid defined!");
 		}
 
-		List<ItemCollection> activities = findAllEventsByTask(pID);
+		List<ItemCollection> activities = eventList.get(pID);
+		Map<Integer, ItemCollection> activityIndex = eventIndex.get(pID);
+		if (activities == null) {
+			activities = new ArrayList<ItemCollection>();
+			eventList.put(pID, activities);
+			activityIndex = new HashMap<Integer, ItemCollection>();
+			eventIndex.put(pID, activityIndex);
+		}
 
 		activities.add(clonedEntity);
 
 		// sort event list
 		Collections.sort(activities, new ItemCollectionComparator("numactivityid", true));
 
-		eventList.put(pID, activities);
+		// the first event with a given id is returned by getEvent
+		int aID = clonedEntity.getItemValueInteger("numactivityid");
+		if (!activityIndex.containsKey(aID)) {
+			activityIndex.put(aID, clonedEntity);
+		}
+	}
+
+	/**
+	 * Returns a copy-on-write view of a task or event. The entry of the model is
+	 * not changed if the caller changes the view.
+	 * 
+	 * @param entity
+	 * @return view of the entity
+	 */
+	private static ItemCollection createView(ItemCollection entity) {
+		return ItemCollection.createCopyOnWrite(entity.getAllItems());
+	}
+
+	private static List<ItemCollection> createViews(Collection<ItemCollection> entities) {
+		List<ItemCollection> result = new ArrayList<ItemCollection>(entities.size());
+		for (ItemCollection entity : entities) {
+			result.add(createView(entity));
+		}
+		return result;
 	}
 
 }
@@ -1,11 +1,12 @@
 package org.imixs.workflow.util;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -34,6 +35,10 @@ public class JSONParser {
 		}
 	 * </code>
 	 * 
+	 * The stream is read in a single pass by a tokenizer. Only the value
+	 * currently parsed is held in memory, so the parse time grows linear with the
+	 * size of the request body. Unknown keys are skipped.
+	 * 
 	 * @param requestBodyStream
 	 * @param encoding
 	 *            - default encoding use to parse the stream
@@ -54,229 +59,464 @@ public class JSONParser {
 			logger.finest("......parseWorkitem - switch to default encoding 'UTF-8'");
 			encoding="UTF-8";
 		}
-		
-		// Vector<String> vMultiValueFieldNames = new Vector<String>();
-		BufferedReader in = new BufferedReader(new InputStreamReader(requestBodyStream, encoding));
 
-		String inputLine;
+		Tokenizer tokenizer = new Tokenizer(new InputStreamReader(requestBodyStream, encoding));
 		ItemCollection workitem = new ItemCollection();
-
-		String content = null;
-		String token = null;
-		String name = null;
-		StringBuffer stringBuffer = new StringBuffer();
-		int iPos = -1;
-		int iStart = -1;
-		int iEnd = -1;
 		try {
-			// first we concat all lines
-			while ((inputLine = in.readLine()) != null) {
-				stringBuffer.append(inputLine);
-				logger.finest("......parseWorkitem - read line:" + inputLine + "");
-			}
-			content = stringBuffer.toString();
-
-			// find start ...."item":[...
-			content = content.substring(content.indexOf('[') + 0);
 			logger.finest("......parseWorkitem - start parsing...");
-			while (content != null) {
-
-				// find name => "name" : "$isauthor" ,
-				iPos = content.indexOf(':');
-				content = content.substring(iPos);
-
-				token = content.substring(0, content.indexOf(','));
-				iStart = token.indexOf('"') + 1;
-				iEnd = token.lastIndexOf('"');
-				if (iEnd < iStart)
-					throw new java.text.ParseException("Unexpected position of '}", iEnd);
-
-				name = token.substring(iStart, iEnd);
-
-				content = content.substring(token.length());
-				if (!isValueArray(content)) {
-					// now find the value token =>
-					// "value":{"@type":"xs:boolean","$":"true"}},
-					iStart = findNextChar(content, '{') + 1;
-					iEnd = findNextChar(content, '}');
-					if (iEnd < iStart)
-						throw new java.text.ParseException("Unexpected position of '}", iEnd);
-					token = content.substring(iStart, iEnd);
-					content = content.substring(iEnd + 1);
-					storeValue(name, token, workitem);
-				} else {
-					// get content of array
-					iStart = findNextChar(content, '[') + 1;
-					iEnd = findNextChar(content, ']');
-					if (iEnd < iStart)
-						throw new java.text.ParseException("Unexpected position of '}", iEnd);
-
-					String arrayContent = content.substring(iStart, iEnd);
-					content = content.substring(iEnd + 1);
-					// parse array values....
-					while (arrayContent != null) {
-						// now find the value token =>
-						// "value":{"@type":"xs:boolean","$":"true"}},
-						iStart = findNextChar(arrayContent, '{') + 1;
-						iEnd = findNextChar(arrayContent, '}');
-						if (iEnd < iStart)
-							throw new java.text.ParseException("Unexpected position of '}", iEnd);
-
-						token = arrayContent.substring(iStart, iEnd);
-						arrayContent = arrayContent.substring(iEnd + 1);
-						storeValue(name, token, workitem);
-
-						if (!arrayContent.contains("{"))
-							break;
-					}
-
-				}
-
-				if (!content.contains("{"))
-					break;
-
-			}
+			findItems(tokenizer, workitem);
 		} catch (IOException e1) {
 			// logger.severe("Unable to parse workitem data!");
 			e1.printStackTrace();
 			return null;
 		} finally {
 			try {
-				in.close();
+				tokenizer.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-
 		}
 
 		return workitem;
 	}
 
 	/**
-	 * This helper method extracts the type and value of a token and stores the
-	 * value into the workitem
+	 * This method searches the json structure for the array "item" and parses the
+	 * contained items. Objects and arrays are searched recursive, all other values
+	 * are skipped.
+	 * 
+	 * @param tokenizer
+	 * @param workitem
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	static void findItems(Tokenizer tokenizer, ItemCollection workitem) throws IOException, ParseException {
+		int c = tokenizer.peek();
+		if (c == '{') {
+			tokenizer.expect('{');
+			if (tokenizer.next('}')) {
+				return;
+			}
+			do {
+				String key = tokenizer.readString();
+				tokenizer.expect(':');
+				if ("item".equals(key) && tokenizer.peek() == '[') {
+					parseItems(tokenizer, workitem);
+				} else {
+					findItems(tokenizer, workitem);
+				}
+			} while (tokenizer.next(','));
+			tokenizer.expect('}');
+		} else if (c == '[') {
+			tokenizer.expect('[');
+			if (tokenizer.next(']')) {
+				return;
+			}
+			do {
+				findItems(tokenizer, workitem);
+			} while (tokenizer.next(','));
+			tokenizer.expect(']');
+		} else {
+			tokenizer.skipValue();
+		}
+	}
+
+	/**
+	 * Parses the item array and stores each item into the workitem.
 	 * 
 	 * e.g.
 	 * 
-	 * {"name":"$isauthor","value":{"@type":"xs:boolean","$":true}},
-	 * {"name":"$readaccess","value":{"@type":"xs:string","$":"Anna"}},
-	 * {"name":"txtmessage","value":{"@type":"xs:string","$":"worklist"}},
-	 * {"name":"$activityid","value":{"@type":"xs:int","$":10}},
-	 * {"name":"$processid","value":{"@type":"xs:int","$":100}}
+	 * [{"name":"$isauthor","value":{"@type":"xs:boolean","$":true}},
+	 * {"name":"txtlog","value":[{"@type":"xs:string","$":"A"},{"@type":"xs:string","$":"B"}]}]
 	 * 
-	 * @param token
+	 * @param tokenizer
+	 * @param workitem
+	 * @throws IOException
 	 * @throws ParseException
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	static void storeValue(String name, String token, ItemCollection workitem) throws ParseException {
-		int iPos, iStart, iEnd;
-		Object value;
-		String type = null;
-
-		// check if "@type" exists
-		iPos = token.indexOf("\"@type\"");
-		if (iPos > -1) {
-			iStart = token.indexOf('"', iPos + "\"@type\"".length() + 1) + 1;
-			iEnd = token.indexOf('"', iStart);
-			if (iEnd < iStart)
-				throw new java.text.ParseException("Unexpected position of '}", iEnd);
-
-			type = token.substring(iStart, iEnd);
-			token = token.substring(iEnd + 1);
+	static void parseItems(Tokenizer tokenizer, ItemCollection workitem) throws IOException, ParseException {
+		tokenizer.expect('[');
+		if (tokenizer.next(']')) {
+			return;
 		}
+		do {
+			String name = null;
+			List<Object> values = null;
+			tokenizer.expect('{');
+			if (!tokenizer.next('}')) {
+				do {
+					String key = tokenizer.readString();
+					tokenizer.expect(':');
+					if ("name".equals(key)) {
+						name = tokenizer.readString();
+					} else if ("value".equals(key)) {
+						if (values != null) {
+							throw new java.text.ParseException("Unexpected key 'value'", tokenizer.getPosition());
+						}
+						values = parseValues(tokenizer);
+					} else {
+						tokenizer.skipValue();
+					}
+				} while (tokenizer.next(','));
+				tokenizer.expect('}');
+			}
+			if (name == null) {
+				throw new java.text.ParseException("Missing item name", tokenizer.getPosition());
+			}
+			storeValues(name, values, workitem);
+		} while (tokenizer.next(','));
+		tokenizer.expect(']');
+	}
 
-		// store value - the value can be surrounded by " or not
-		iPos = token.indexOf(":") + 1;
-		if (token.indexOf('"', iPos) > -1) {
-			iStart = token.indexOf('"', iPos) + 1;
-			iEnd = token.indexOf('"', iStart);
+	/**
+	 * Parses a single value or an array of values.
+	 * 
+	 * @param tokenizer
+	 * @return value list
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	static List<Object> parseValues(Tokenizer tokenizer) throws IOException, ParseException {
+		List<Object> values = new ArrayList<Object>();
+		if (tokenizer.peek() == '[') {
+			tokenizer.expect('[');
+			if (tokenizer.next(']')) {
+				return values;
+			}
+			do {
+				addValue(parseValue(tokenizer), values);
+			} while (tokenizer.next(','));
+			tokenizer.expect(']');
 		} else {
-			iStart = iPos;
-			iEnd = token.length();
+			addValue(parseValue(tokenizer), values);
 		}
-		if (iEnd < iStart)
-			throw new java.text.ParseException("Unexpected position of '}", iEnd);
-
-		String stringValue = token.substring(iStart, iEnd);
-		value = stringValue;
+		return values;
+	}
 
-		// convert value to Object Type
-		if ("xs:boolean".equalsIgnoreCase(type)) {
-			value = Boolean.getBoolean(stringValue);
-			logger.finest("......storeValue - datatype=xs:boolean");
-		}
-		if ("xs:integer".equalsIgnoreCase(type)) {
-			value = Integer.getInteger(stringValue);
-			logger.finest("......storeValue - datatype=xs:integer");
+	/**
+	 * This helper method extracts the type and value of a token and converts the
+	 * value into the corresponding object type. The value can be surrounded by "
+	 * or not.
+	 * 
+	 * e.g.
+	 * 
+	 * {"@type":"xs:boolean","$":true}
+	 * 
+	 * {"@type":"xs:string","$":"Anna"}
+	 * 
+	 * @param tokenizer
+	 * @return value or null if no value is defined
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	static Object parseValue(Tokenizer tokenizer) throws IOException, ParseException {
+		String type = null;
+		String stringValue = null;
+		tokenizer.expect('{');
+		if (!tokenizer.next('}')) {
+			do {
+				String key = tokenizer.readString();
+				tokenizer.expect(':');
+				if ("@type".equals(key)) {
+					type = tokenizer.readString();
+				} else if ("$".equals(key)) {
+					int c = tokenizer.peek();
+					if (c == '"') {
+						stringValue = tokenizer.readString();
+					} else if (c == '{' || c == '[') {
+						throw new java.text.ParseException("Unexpected position of '" + (char) c + "'",
+								tokenizer.getPosition());
+					} else {
+						stringValue = tokenizer.readLiteral();
+						if ("null".equals(stringValue)) {
+							stringValue = null;
+						}
+					}
+				} else {
+					tokenizer.skipValue();
+				}
+			} while (tokenizer.next(','));
+			tokenizer.expect('}');
 		}
-		if ("xs:long".equalsIgnoreCase(type)) {
-			value = Long.getLong(stringValue);
-			logger.finest("......storeValue - datatype=xs:long");
+		if (stringValue == null) {
+			return null;
 		}
-		if ("xs:float".equalsIgnoreCase(type)) {
-			value = new Float(stringValue);
-			logger.finest("......storeValue - datatype=xs:float");
+		return convertValue(type, stringValue, tokenizer.getPosition());
+	}
+
+	/**
+	 * Converts the value into the object type defined by the '@type'. Values of
+	 * other types are stored as strings.
+	 * 
+	 * @param type
+	 * @param stringValue
+	 * @param position    - position used for a ParseException
+	 * @return converted value
+	 * @throws ParseException
+	 */
+	static Object convertValue(String type, String stringValue, int position) throws ParseException {
+		try {
+			if ("xs:boolean".equalsIgnoreCase(type)) {
+				logger.finest("......storeValue - datatype=xs:boolean");
+				return Boolean.valueOf(stringValue);
+			}
+			if ("xs:integer".equalsIgnoreCase(type)) {
+				logger.finest("......storeValue - datatype=xs:integer");
+				return Integer.valueOf(stringValue);
+			}
+			if ("xs:long".equalsIgnoreCase(type)) {
+				logger.finest("......storeValue - datatype=xs:long");
+				return Long.valueOf(stringValue);
+			}
+			if ("xs:float".equalsIgnoreCase(type)) {
+				logger.finest("......storeValue - datatype=xs:float");
+				return new Float(stringValue);
+			}
+			if ("xs:double".equalsIgnoreCase(type)) {
+				logger.finest("......storeValue - datatype=xs:double");
+				return new Double(stringValue);
+			}
+		} catch (NumberFormatException e) {
+			throw new java.text.ParseException("Invalid value '" + stringValue + "' for type " + type, position);
 		}
-		if ("xs:double".equalsIgnoreCase(type)) {
-			value = new Double(stringValue);
-			logger.finest("......storeValue - datatype=xs:double");
+		return stringValue;
+	}
+
+	private static void addValue(Object value, List<Object> values) {
+		if (value != null) {
+			values.add(value);
 		}
+	}
 
-		// store value
+	/**
+	 * Stores the values of an item into the workitem. If the item already exists,
+	 * the values are appended.
+	 * 
+	 * @param name
+	 * @param values
+	 * @param workitem
+	 */
+	static void storeValues(String name, List<Object> values, ItemCollection workitem) {
+		if (values == null) {
+			values = new ArrayList<Object>();
+		}
 		if (!workitem.hasItem(name)) {
 			// frist value
-			workitem.replaceItemValue(name, value);
-			logger.finest("......storeValue: '" + name + "' = '" + value + "'");
+			workitem.replaceItemValue(name, values);
+			logger.finest("......storeValue: '" + name + "' = '" + values + "'");
 		} else {
 			// add value
-			List valueList = workitem.getItemValue(name);
-			valueList.add(value);
-			workitem.replaceItemValue(name, valueList);
-			logger.finest("......store multivalue: '" + name + "' = '" + value + "'");
+			workitem.appendItemValue(name, values);
+			logger.finest("......store multivalue: '" + name + "' = '" + values + "'");
 		}
-
 	}
 
 	/**
-	 * Checks if the value is an array of values
-	 * 
-	 * ,"value":[ {"@type":"xs:string","$":"A"},
-	 * 
-	 * @param token
-	 * @return
+	 * The Tokenizer reads the json tokens from a character stream. The stream is
+	 * buffered internally and read only once.
 	 */
-	static boolean isValueArray(String token) {
-		int b1 = findNextChar(token, '[');
-		int b2 = findNextChar(token, '{');
-		if (b1 > -1 && b1 < b2)
-			return true;
-		else
+	static class Tokenizer {
+		private static final int BUFFER_SIZE = 8192;
+
+		private final Reader reader;
+		private final char[] buffer = new char[BUFFER_SIZE];
+		private int pos = 0;
+		private int limit = 0;
+		private int offset = 0;
+
+		Tokenizer(Reader reader) {
+			this.reader = reader;
+		}
+
+		/**
+		 * Returns the position of the next character in the stream.
+		 */
+		int getPosition() {
+			return offset + pos;
+		}
+
+		void close() throws IOException {
+			reader.close();
+		}
+
+		/**
+		 * Returns the next non whitespace character without consuming it, or -1 at
+		 * the end of the stream.
+		 */
+		int peek() throws IOException {
+			while (true) {
+				if (pos == limit && !fill()) {
+					return -1;
+				}
+				char c = buffer[pos];
+				if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+					pos++;
+				} else {
+					return c;
+				}
+			}
+		}
+
+		/**
+		 * Consumes the next non whitespace character if it is equal to the given
+		 * character.
+		 * 
+		 * @return true if the character was consumed
+		 */
+		boolean next(char c) throws IOException {
+			if (peek() == c) {
+				pos++;
+				return true;
+			}
 			return false;
-	}
+		}
 
-	/**
-	 * This method finds the next position of a char. The method scips excapte
-	 * characters like '\"' or '\['
-	 * 
-	 * @param token
-	 * @param c
-	 * @return
-	 */
-	static int findNextChar(String token, char c) {
-		int iPos = token.indexOf(c);
+		/**
+		 * Consumes the next non whitespace character or throws a ParseException if
+		 * the character is not equal to the given character.
+		 */
+		void expect(char c) throws IOException, ParseException {
+			int found = peek();
+			if (found != c) {
+				throw new java.text.ParseException(
+						"Expected '" + c + "' but found " + (found == -1 ? "end of stream" : "'" + (char) found + "'"),
+						getPosition());
+			}
+			pos++;
+		}
 
-		if (iPos <= 0)
-			return iPos;
+		/**
+		 * Reads a json string and resolves the escape sequences.
+		 */
+		String readString() throws IOException, ParseException {
+			expect('"');
+			StringBuilder result = new StringBuilder();
+			while (true) {
+				// copy all chars up to the next quote or backslash at once
+				int start = pos;
+				while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') {
+					pos++;
+				}
+				result.append(buffer, start, pos - start);
+				if (pos == limit) {
+					if (!fill()) {
+						throw new java.text.ParseException("Unterminated string", getPosition());
+					}
+					continue;
+				}
+				char c = buffer[pos++];
+				if (c == '"') {
+					return result.toString();
+				}
+				c = readChar();
+				switch (c) {
+				case 'b':
+					result.append('\b');
+					break;
+				case 'f':
+					result.append('\f');
+					break;
+				case 'n':
+					result.append('\n');
+					break;
+				case 'r':
+					result.append('\r');
+					break;
+				case 't':
+					result.append('\t');
+					break;
+				case 'u':
+					char[] hex = new char[4];
+					for (int i = 0; i < 4; i++) {
+						hex[i] = readChar();
+					}
+					try {
+						result.append((char) Integer.parseInt(new String(hex), 16));
+					} catch (NumberFormatException e) {
+						throw new java.text.ParseException("Invalid escape sequence '\\u" + new String(hex) + "'",
+								getPosition());
+					}
+					break;
+				default:
+					// '"', '\\' and '/'
+					result.append(c);
+				}
+			}
+		}
+
+		/**
+		 * Reads a number or one of the literals true, false and null.
+		 */
+		String readLiteral() throws IOException, ParseException {
+			peek();
+			StringBuilder result = new StringBuilder();
+			while (pos < limit || fill()) {
+				char c = buffer[pos];
+				if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+					break;
+				}
+				if (c == '"' || c == '{' || c == '[') {
+					throw new java.text.ParseException("Unexpected position of '" + c + "'", getPosition());
+				}
+				result.append(c);
+				pos++;
+			}
+			if (result.length() == 0) {
+				throw new java.text.ParseException("Missing value", getPosition());
+			}
+			return result.toString();
+		}
 
-		// check if the char before is a \
-		while ((token.charAt(iPos - 1)) == '\\') {
-			iPos = token.indexOf(c, iPos + 2);
-			if (iPos == -1)
-				break;
+		/**
+		 * Skips the next value including nested objects and arrays.
+		 */
+		void skipValue() throws IOException, ParseException {
+			int c = peek();
+			if (c == '"') {
+				readString();
+			} else if (c == '{') {
+				pos++;
+				if (next('}')) {
+					return;
+				}
+				do {
+					readString();
+					expect(':');
+					skipValue();
+				} while (next(','));
+				expect('}');
+			} else if (c == '[') {
+				pos++;
+				if (next(']')) {
+					return;
+				}
+				do {
+					skipValue();
+				} while (next(','));
+				expect(']');
+			} else {
+				readLiteral();
+			}
 		}
 
-		return iPos;
+		private char readChar() throws IOException, ParseException {
+			if (pos == limit && !fill()) {
+				throw new java.text.ParseException("Unexpected end of stream", getPosition());
+			}
+			return buffer[pos++];
+		}
 
+		private boolean fill() throws IOException {
+			offset += limit;
+			pos = 0;
+			limit = 0;
+			int n = reader.read(buffer, 0, BUFFER_SIZE);
+			if (n <= 0) {
+				return false;
+			}
+			limit = n;
+			return true;
+		}
 	}
 
 }
@@ -126,8 +126,9 @@ public class XMLDocumentAdapter {
 	public static XMLDocument getDocument(final ItemCollection document,
 			final List<String> itemNames) {
 
-		// create a deep copy of the source
-		ItemCollection aItemCollection = (ItemCollection) document.clone();
+		// the source is not modified by the conversion. Each XMLItem holds a
+		// copy of the value list, so a deep copy of the source is not necessary.
+		ItemCollection aItemCollection = document;
 
 		String itemName = null;
 		XMLDocument entity = new XMLDocument();
@@ -26,20 +26,27 @@
  *******************************************************************************/
 package org.imixs.workflow.xml;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.StringWriter;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
+import javax.xml.bind.util.JAXBSource;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -53,6 +60,14 @@ import org.imixs.workflow.ItemCollection;
  * 
  * The class is used by the ReportRestService to execute a report and also by
  * the MailPluign to transform the mail body
+ * <p>
+ * An XSL template is compiled only once. The compiled Templates are cached by
+ * the hash of the XSL content. The cache holds up to 100 templates, the least
+ * recently used template is removed first. Also the JAXBContext of a JAXB class
+ * is created only once.
+ * <p>
+ * A JAXB object is transformed directly by a JAXBSource, so the object is not
+ * marshaled into an intermediate XML string.
  * 
  * @author imixs.com - Ralph Soika
  * @version 1.0
@@ -61,6 +76,19 @@ import org.imixs.workflow.ItemCollection;
 public class XSLHandler {
 	private static Logger logger = Logger.getLogger(XSLHandler.class.getName());
 
+	public static final int MAX_TEMPLATES = 100;
+
+	private static final Map<Class<?>, JAXBContext> jaxbContexts = new ConcurrentHashMap<Class<?>, JAXBContext>();
+
+	@SuppressWarnings("serial")
+	private static final Map<String, Templates> templatesCache = new LinkedHashMap<String, Templates>(16, 0.75f,
+			true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Templates> eldest) {
+			return size() > MAX_TEMPLATES;
+		}
+	};
+
 	/**
 	 * This method transforms an XML source with a provided XSL template. The result
 	 * will be written into a output stream.
@@ -75,33 +103,61 @@ public class XSLHandler {
 
 	public static void transform(String xmlSource, String xslSource, String encoding, OutputStream output)
 			throws UnsupportedEncodingException, TransformerException {
-		try {
-			if (encoding == null || encoding.isEmpty()) {
-				encoding = "UTF-8";
-			}
-			TransformerFactory transFact = TransformerFactory.newInstance();
-
-			logger.finest("......xslTransformation: encoding=" + encoding);
-			// generate XML InputStream Reader with encoding
-			ByteArrayInputStream baisXML = new ByteArrayInputStream(xmlSource.getBytes());
-			InputStreamReader isreaderXML;
-
-			isreaderXML = new InputStreamReader(baisXML, encoding);
-
-			Source xmlSrc = new StreamSource(isreaderXML);
-
-			// generate XSL InputStream Reader with encoding
-			ByteArrayInputStream baisXSL = new ByteArrayInputStream(xslSource.getBytes());
-			InputStreamReader isreaderXSL = new InputStreamReader(baisXSL, encoding);
-			Source xslSrc = new StreamSource(isreaderXSL);
+		logger.finest("......xslTransformation: encoding=" + encoding);
+		// the xml string is already decoded and can be read directly
+		transform(new StreamSource(new StringReader(xmlSource)), xslSource, new StreamResult(output));
+	}
 
-			Transformer trans = transFact.newTransformer(xslSrc);
-			trans.transform(xmlSrc, new StreamResult(output));
+	/**
+	 * This method transforms a JAXB object (e.g. a XMLDocument or a
+	 * XMLDataCollection) with a provided XSL template. The object is read by a
+	 * JAXBSource without marshaling the object into a string. The result will be
+	 * written into a output stream.
+	 * 
+	 * @param jaxbObject - object of a class annotated with @XmlRootElement
+	 * @param xslSource
+	 * @param output
+	 * @throws JAXBException
+	 * @throws TransformerException
+	 */
+	public static void transform(Object jaxbObject, String xslSource, OutputStream output)
+			throws JAXBException, TransformerException {
+		JAXBSource xmlSource = new JAXBSource(getJAXBContext(jaxbObject.getClass()), jaxbObject);
+		transform(xmlSource, xslSource, new StreamResult(output));
+	}
 
-		} finally {
+	/**
+	 * This method transforms a xml source with a provided XSL template into the
+	 * given result. The XSL template is compiled only once.
+	 * 
+	 * @param xmlSource
+	 * @param xslSource
+	 * @param result
+	 * @throws TransformerException
+	 */
+	public static void transform(Source xmlSource, String xslSource, Result result) throws TransformerException {
+		transform(xmlSource, xslSource, null, result);
+	}
 
+	/**
+	 * This method transforms a xml source with a provided XSL template into the
+	 * given result. The encoding overrides the output encoding of the XSL
+	 * template. If no encoding is provided the encoding of the template is used.
+	 * 
+	 * @param xmlSource
+	 * @param xslSource
+	 * @param encoding  - output encoding (optional)
+	 * @param result
+	 * @throws TransformerException
+	 */
+	public static void transform(Source xmlSource, String xslSource, String encoding, Result result)
+			throws TransformerException {
+		Transformer transformer = getTemplates(xslSource).newTransformer();
+		if (encoding != null && !encoding.isEmpty()) {
+			logger.finest("......xslTransformation: encoding=" + encoding);
+			transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
 		}
-
+		transformer.transform(xmlSource, result);
 	}
 
 	/**
@@ -124,21 +180,88 @@ public class XSLHandler {
 		byte[] result=null;
 		XMLDataCollection xmlDataCollection = XMLDataCollectionAdapter.getDataCollection(dataSource);
 
-		StringWriter writer = new StringWriter();
-
-		JAXBContext context = JAXBContext.newInstance(XMLDataCollection.class);
-		Marshaller m = context.createMarshaller();
-		m.setProperty("jaxb.encoding", encoding);
-		m.marshal(xmlDataCollection, writer);
-
 		// create a ByteArray Output Stream
 		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 		try {
-			XSLHandler.transform(writer.toString(), xslSource, encoding, outputStream);
+			XSLHandler.transform(xmlDataCollection, xslSource, outputStream);
 			result=outputStream.toByteArray();
 		} finally {
 			outputStream.close();
 		}
 		return result;
 	}
+
+	/**
+	 * Returns the compiled Templates for a XSL template. The Templates are thread
+	 * safe and are cached by the SHA-256 hash of the XSL content.
+	 * 
+	 * @param xslSource
+	 * @return compiled Templates
+	 * @throws TransformerException
+	 */
+	public static Templates getTemplates(String xslSource) throws TransformerException {
+		String key = hash(xslSource);
+		synchronized (templatesCache) {
+			Templates templates = templatesCache.get(key);
+			if (templates != null) {
+				return templates;
+			}
+		}
+		logger.finest("......compile XSL template " + key);
+		Templates templates = TransformerFactory.newInstance()
+				.newTemplates(new StreamSource(new StringReader(xslSource)));
+		synchronized (templatesCache) {
+			templatesCache.put(key, templates);
+		}
+		return templates;
+	}
+
+	/**
+	 * Returns the JAXBContext for a JAXB class. The context is created only once
+	 * per class.
+	 * 
+	 * @param type - JAXB class
+	 * @return JAXBContext
+	 * @throws JAXBException
+	 */
+	public static JAXBContext getJAXBContext(Class<?> type) throws JAXBException {
+		JAXBContext context = jaxbContexts.get(type);
+		if (context == null) {
+			context = JAXBContext.newInstance(type);
+			jaxbContexts.put(type, context);
+		}
+		return context;
+	}
+
+	/**
+	 * Returns the number of cached XSL templates.
+	 */
+	public static int getTemplatesCacheSize() {
+		synchronized (templatesCache) {
+			return templatesCache.size();
+		}
+	}
+
+	/**
+	 * Removes all cached XSL templates.
+	 */
+	public static void clearTemplatesCache() {
+		synchronized (templatesCache) {
+			templatesCache.clear();
+		}
+	}
+
+	private static String hash(String xslSource) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(xslSource.getBytes(StandardCharsets.UTF_8));
+			StringBuilder result = new StringBuilder();
+			for (byte b : digest) {
+				result.append(String.format("%02x", b));
+			}
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is supported by each java platform
+			throw new IllegalStateException(e);
+		}
+	}
 }
@@ -0,0 +1,180 @@
+package org.imixs.workflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Test class for ItemCollection objects created by the method
+ * createCopyOnWrite(). The test verifies that the shared map is never changed.
+ * 
+ * @author rsoika
+ * 
+ */
+public class TestCopyOnWriteItemMap {
+	private static Logger logger = Logger.getLogger(TestCopyOnWriteItemMap.class.getName());
+
+	ItemCollection source;
+	Map<String, List<Object>> snapshot;
+
+	@Before
+	public void setup() {
+		source = new ItemCollection();
+		source.replaceItemValue("txtname", "Anna");
+		source.replaceItemValue("$taskid", 1000);
+		source.replaceItemValue("$modified", new Date(1500000000000L));
+		List<String> names = new ArrayList<String>();
+		names.add("manfred");
+		names.add("anna");
+		source.replaceItemValue("$readaccess", names);
+		source.addFile(new byte[] { 1, 2, 3 }, "test.txt", "text/plain");
+		// keep a deep copy to verify that the source is not changed
+		snapshot = ((ItemCollection) source.clone()).getAllItems();
+	}
+
+	/**
+	 * Reading values must not change the source
+	 */
+	@Test
+	public void testRead() {
+		ItemCollection view = ItemCollection.createCopyOnWrite(source.getAllItems());
+		Assert.assertEquals("Anna", view.getItemValueString("txtName"));
+		Assert.assertEquals(1000, view.getItemValueInteger("$taskid"));
+		Assert.assertEquals(2, view.getItemValue("$readaccess").size());
+		Assert.assertTrue(view.hasItem("$modified"));
+		Assert.assertFalse(view.hasItem("_unknown"));
+		Assert.assertEquals(source.getItemNames().size(), view.getItemNames().size());
+		Assert.assertEquals(source.getItemValue("$readaccess"), view.getItemValue("$readaccess"));
+		// immutable values are shared
+		Assert.assertSame(source.getItemValue("txtname").get(0), view.getItemValue("txtname").get(0));
+		assertSourceUnchanged();
+	}
+
+	/**
+	 * Changing items and values must not change the source
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testWrite() {
+		ItemCollection view = ItemCollection.createCopyOnWrite(source.getAllItems());
+		view.replaceItemValue("txtname", "Manfred");
+		view.appendItemValue("$readaccess", "tom");
+		view.getItemValue("$writeaccess").add("tom");
+		view.replaceItemValue("_new", "value");
+		view.removeItem("$taskid");
+		view.getItemValueDate("$modified").setTime(0);
+		view.addFile(new byte[] { 4, 5, 6 }, "test2.txt", "text/plain");
+
+		Assert.assertEquals("Manfred", view.getItemValueString("txtname"));
+		Assert.assertEquals(3, view.getItemValue("$readaccess").size());
+		Assert.assertEquals("value", view.getItemValueString("_new"));
+		Assert.assertFalse(view.hasItem("$taskid"));
+		Assert.assertEquals(0, view.getItemValueDate("$modified").getTime());
+		Assert.assertEquals(2, view.getFileNames().size());
+
+		// remove and add an item again
+		view.replaceItemValue("$taskid", 2000);
+		Assert.assertEquals(2000, view.getItemValueInteger("$taskid"));
+		view.removeItem("$taskid");
+		Assert.assertFalse(view.hasItem("$taskid"));
+		Assert.assertFalse(view.getItemNames().contains("$taskid"));
+		Assert.assertTrue(view.getItemNames().contains("_new"));
+
+		// verify the source
+		assertSourceUnchanged();
+		Assert.assertEquals(2, ((List<Object>) source.getItemValue("$readaccess")).size());
+		Assert.assertEquals(1500000000000L, source.getItemValueDate("$modified").getTime());
+	}
+
+	/**
+	 * Verifies that the source map is equal to the snapshot taken in the setup
+	 */
+	private void assertSourceUnchanged() {
+		Map<String, List<Object>> map = source.getAllItems();
+		Assert.assertEquals(snapshot.keySet(), map.keySet());
+		for (String key : snapshot.keySet()) {
+			if (!"$file".equals(key)) {
+				Assert.assertEquals(snapshot.get(key), map.get(key));
+			}
+		}
+		Assert.assertEquals(1, source.getFileNames().size());
+		Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, source.getFileData("test.txt").getContent());
+	}
+
+	/**
+	 * A cloned or serialized view must be equal to the source
+	 * 
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCloneAndSerialize() throws IOException, ClassNotFoundException {
+		ItemCollection view = ItemCollection.createCopyOnWrite(source.getAllItems());
+		view.replaceItemValue("txtname", "Manfred");
+		ItemCollection clone = (ItemCollection) view.clone();
+		Assert.assertEquals("Manfred", clone.getItemValueString("txtname"));
+		Assert.assertEquals(1000, clone.getItemValueInteger("$taskid"));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(view.getAllItems());
+		oos.flush();
+		Object result = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+		Assert.assertEquals(java.util.Hashtable.class, result.getClass());
+		ItemCollection deserialized = ItemCollection.createByReference((Map<String, List<Object>>) result);
+		Assert.assertEquals("Manfred", deserialized.getItemValueString("txtname"));
+		Assert.assertEquals(2, deserialized.getItemValue("$readaccess").size());
+	}
+
+	/**
+	 * This test compares the time to create and read ItemCollections by a deep copy
+	 * and by a copy-on-write view.
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() {
+		ItemCollection workitem = new ItemCollection();
+		for (int i = 0; i < 50; i++) {
+			workitem.replaceItemValue("txtitem" + i, "some text value " + i);
+			workitem.replaceItemValue("numitem" + i, i * 100);
+			workitem.replaceItemValue("datitem" + i, new Date());
+			List<String> names = new ArrayList<String>();
+			names.add("manfred");
+			names.add("anna");
+			workitem.replaceItemValue("namitem" + i, names);
+		}
+		Map<String, List<Object>> map = workitem.getAllItems();
+		int count = 10000;
+
+		long l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			ItemCollection itemCol = new ItemCollection(map);
+			itemCol.getItemValueString("txtitem1");
+			itemCol.getItemValueInteger("numitem1");
+		}
+		logger.info("Performancetest ItemCollection deep copy: " + count + " documents in "
+				+ (System.currentTimeMillis() - l) + "ms");
+
+		l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			ItemCollection itemCol = ItemCollection.createCopyOnWrite(map);
+			itemCol.getItemValueString("txtitem1");
+			itemCol.getItemValueInteger("numitem1");
+		}
+		logger.info("Performancetest ItemCollection copy-on-write: " + count + " documents in "
+				+ (System.currentTimeMillis() - l) + "ms");
+	}
+}
@@ -1,15 +1,29 @@
 package org.imixs.workflow;
 
 import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.logging.Logger;
 
 import org.imixs.workflow.xml.XMLDocument;
 import org.imixs.workflow.xml.XMLDocumentAdapter;
+import org.imixs.workflow.xml.XMLItem;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
@@ -20,6 +34,7 @@ import org.junit.experimental.categories.Category;
  * 
  */
 public class TestItemCollection {
+	private static Logger logger = Logger.getLogger(TestItemCollection.class.getName());
 
 	@Test
 	@Category(org.imixs.workflow.ItemCollection.class)
@@ -626,6 +641,176 @@ public class TestItemCollection {
 
 	}
 
+	/**
+	 * This test measures the typed getter methods for a workitem with 200 items.
+	 */
+	@Ignore
+	@Test
+	public void testPerformanceTypedGetters() {
+		ItemCollection workitem = new ItemCollection();
+		for (int i = 0; i < 50; i++) {
+			workitem.replaceItemValue("txtitem" + i, "some text value " + i);
+			workitem.replaceItemValue("numitem" + i, i * 100);
+			workitem.replaceItemValue("datitem" + i, new Date());
+			workitem.replaceItemValue("namitem" + i, "anna");
+		}
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, "ABC-123");
+		workitem.task(1000);
+		workitem.replaceItemValue(WorkflowKernel.MODIFIED, new Date());
+		int count = 1000000;
+		long sum = 0;
+
+		long l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			sum += workitem.getItemValueInteger(WorkflowKernel.TASKID);
+			sum += workitem.getItemValueInteger("numItem10");
+		}
+		logger.info("Performancetest ItemCollection getItemValueInteger: " + (count * 2) + " calls in "
+				+ (System.currentTimeMillis() - l) + "ms");
+
+		l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			sum += workitem.getItemValueString(WorkflowKernel.UNIQUEID).length();
+			sum += workitem.getItemValueString("txtItem10").length();
+		}
+		logger.info("Performancetest ItemCollection getItemValueString: " + (count * 2) + " calls in "
+				+ (System.currentTimeMillis() - l) + "ms");
+
+		l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			sum += workitem.getItemValueDate(WorkflowKernel.MODIFIED).getTime() & 1;
+			sum += workitem.getItemValueDate("datItem10").getTime() & 1;
+		}
+		logger.info("Performancetest ItemCollection getItemValueDate: " + (count * 2) + " calls in "
+				+ (System.currentTimeMillis() - l) + "ms");
+		Assert.assertTrue(sum > 0);
+	}
+
+	/**
+	 * This method verifies that a clone shares immutable values but copies mutable
+	 * values like Dates, arrays and embedded maps and lists.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCloningMutableValues() {
+		ItemCollection itemCol1 = new ItemCollection();
+		String text = "hello";
+		Date date = new Date();
+		List<Object> list = new ArrayList<Object>();
+		list.add("a");
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("x", list);
+		itemCol1.replaceItemValue("text", text);
+		itemCol1.replaceItemValue("date", date);
+		itemCol1.replaceItemValue("map", map);
+		itemCol1.replaceItemValue("ints", new int[] { 1, 2 });
+		itemCol1.replaceItemValue("strings", new String[] { "a", "b" });
+		itemCol1.replaceItemValue("vector", new Vector<Object>(list));
+		XMLItem xmlItem = new XMLItem();
+		xmlItem.setName("xml");
+		itemCol1.replaceItemValue("xmlitem", xmlItem);
+
+		ItemCollection itemCol2 = (ItemCollection) itemCol1.clone();
+
+		// immutable values are shared
+		Assert.assertSame(text, itemCol2.getItemValue("text").get(0));
+		// mutable values are copied
+		Assert.assertEquals(date, itemCol2.getItemValueDate("date"));
+		Assert.assertNotSame(date, itemCol2.getItemValueDate("date"));
+		Map<String, Object> map2 = (Map<String, Object>) itemCol2.getItemValue("map").get(0);
+		Assert.assertEquals(map, map2);
+		Assert.assertNotSame(map, map2);
+		Assert.assertNotSame(list, map2.get("x"));
+		int[] ints = (int[]) itemCol2.getItemValue("ints").get(0);
+		Assert.assertArrayEquals(new int[] { 1, 2 }, ints);
+		Assert.assertNotSame(itemCol1.getItemValue("ints").get(0), ints);
+		Assert.assertArrayEquals(new String[] { "a", "b" }, (String[]) itemCol2.getItemValue("strings").get(0));
+		Assert.assertTrue(itemCol2.getItemValue("vector") instanceof Vector);
+		Assert.assertEquals("xml", ((XMLItem) itemCol2.getItemValue("xmlitem").get(0)).getName());
+		Assert.assertNotSame(xmlItem, itemCol2.getItemValue("xmlitem").get(0));
+
+		// change the origin values
+		date.setTime(0);
+		list.add("b");
+		Assert.assertTrue(itemCol2.getItemValueDate("date").getTime() != 0);
+		Assert.assertEquals(1, ((List<Object>) map2.get("x")).size());
+	}
+
+	/**
+	 * This method verifies that a clone keeps the class of embedded maps and lists
+	 * and the comparator of a TreeMap.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCloningCollectionTypes() {
+		ItemCollection itemCol1 = new ItemCollection();
+		TreeMap<String, Object> treeMap = new TreeMap<String, Object>(Collections.reverseOrder());
+		treeMap.put("a", 1);
+		treeMap.put("b", 2);
+		HashMap<String, Object> hashMap = new HashMap<String, Object>();
+		hashMap.put("x", new LinkedList<Object>(Arrays.asList("a", "b")));
+		itemCol1.replaceItemValue("treemap", treeMap);
+		itemCol1.replaceItemValue("hashmap", hashMap);
+		itemCol1.replaceItemValue("linkedlist", new LinkedList<Object>(Arrays.asList("a", "b")));
+		List<Object> values = new ArrayList<Object>();
+		values.add(Collections.unmodifiableList(Arrays.asList("a")));
+		itemCol1.replaceItemValue("unmodifiable", values);
+
+		ItemCollection itemCol2 = (ItemCollection) itemCol1.clone();
+
+		TreeMap<String, Object> treeMap2 = (TreeMap<String, Object>) itemCol2.getItemValue("treemap").get(0);
+		Assert.assertNotSame(treeMap, treeMap2);
+		Assert.assertEquals(treeMap, treeMap2);
+		Assert.assertSame(treeMap.comparator(), treeMap2.comparator());
+		Assert.assertEquals("b", treeMap2.firstKey());
+		HashMap<String, Object> hashMap2 = (HashMap<String, Object>) itemCol2.getItemValue("hashmap").get(0);
+		Assert.assertEquals(LinkedList.class, hashMap2.get("x").getClass());
+		Assert.assertEquals(LinkedList.class, itemCol2.getItemValue("linkedlist").getClass());
+		// a list which can not be instantiated is copied into an ArrayList
+		Assert.assertEquals(ArrayList.class, itemCol2.getItemValue("unmodifiable").get(0).getClass());
+		Assert.assertEquals(Arrays.asList("a"), itemCol2.getItemValue("unmodifiable").get(0));
+	}
+
+	/**
+	 * The structural clone of a workitem with 200 items and a file attachment is
+	 * equal to a deep copy created by serializing and deserializing the items.
+	 *
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCloneEqualsSerializedCopy() throws IOException, ClassNotFoundException {
+		ItemCollection workitem = new ItemCollection();
+		for (int i = 0; i < 50; i++) {
+			workitem.replaceItemValue("txtitem" + i, "some text value " + i);
+			workitem.replaceItemValue("numitem" + i, i * 100);
+			workitem.replaceItemValue("datitem" + i, new Date());
+			List<String> names = new ArrayList<String>();
+			names.add("manfred");
+			names.add("anna");
+			workitem.replaceItemValue("namitem" + i, names);
+		}
+		workitem.addFile(new byte[4096], "test.txt", "text/plain");
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(workitem.getAllItems());
+		oos.flush();
+		ItemCollection copy = new ItemCollection((Map<String, List<Object>>) new ObjectInputStream(
+				new ByteArrayInputStream(bos.toByteArray())).readObject());
+		ItemCollection clone = (ItemCollection) workitem.clone();
+
+		Assert.assertEquals(new HashSet<String>(copy.getItemNames()), new HashSet<String>(clone.getItemNames()));
+		for (String name : copy.getItemNames()) {
+			if (!"$file".equals(name)) {
+				Assert.assertEquals(name, copy.getItemValue(name), clone.getItemValue(name));
+			}
+		}
+		Assert.assertArrayEquals(copy.getFileData("test.txt").getContent(),
+				clone.getFileData("test.txt").getContent());
+	}
+
 	/**
 	 * This getItemValue hasItem with invalid string patterns
 	 * 
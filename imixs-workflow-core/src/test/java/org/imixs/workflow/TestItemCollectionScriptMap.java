@@ -0,0 +1,57 @@
+package org.imixs.workflow;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for the lazy script view of an ItemCollection used by the
+ * RuleEngine
+ * 
+ * @author rsoika
+ */
+public class TestItemCollectionScriptMap {
+
+	/**
+	 * Only lower case names of basic items are resolved
+	 */
+	@Test
+	public void testGet() {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("txtName", "Anna");
+		workitem.replaceItemValue("_budget", 1000);
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("a", "b");
+		workitem.replaceItemValue("_map", map);
+
+		ItemCollectionScriptMap view = new ItemCollectionScriptMap(workitem);
+		Assert.assertArrayEquals(new Object[] { "Anna" }, (Object[]) view.get("txtname"));
+		Assert.assertSame(view.get("txtname"), view.get("txtname"));
+		Assert.assertNull(view.get("txtName"));
+		Assert.assertNull(view.get("_map"));
+		Assert.assertNull(view.get("_unknown"));
+		Assert.assertTrue(view.containsKey("_budget"));
+		Assert.assertEquals(2, view.size());
+	}
+
+	/**
+	 * Values put by a script are stored in the view only
+	 */
+	@Test
+	public void testPutAndRemove() {
+		ItemCollection event = new ItemCollection();
+		event.replaceItemValue("keyMailEnabled", "1");
+		event.replaceItemValue("txtName", "Anna");
+
+		ItemCollectionScriptMap view = new ItemCollectionScriptMap(event);
+		view.put("keymailenabled", "0");
+		view.remove("txtname");
+		Assert.assertEquals("0", view.get("keymailenabled"));
+		Assert.assertNull(view.get("txtname"));
+		Assert.assertEquals(1, view.entrySet().size());
+		Assert.assertEquals("1", event.getItemValueString("keyMailEnabled"));
+		Assert.assertEquals("Anna", event.getItemValueString("txtName"));
+	}
+}
@@ -0,0 +1,137 @@
+package org.imixs.workflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for the ItemMap used by the ItemCollection
+ * 
+ * @author rsoika
+ * 
+ */
+public class TestItemMap {
+
+	private static List<Object> value(Object o) {
+		List<Object> list = new ArrayList<Object>();
+		list.add(o);
+		return list;
+	}
+
+	/**
+	 * Item names are case-insensitive and trimmed
+	 */
+	@Test
+	public void testCaseInsensitive() {
+		ItemMap map = new ItemMap();
+		map.put("txtName", value("Anna"));
+		Assert.assertEquals(1, map.size());
+		Assert.assertTrue(map.containsKey("txtname"));
+		Assert.assertTrue(map.containsKey(" TXTNAME "));
+		Assert.assertEquals("Anna", map.get("TxtName").get(0));
+		Assert.assertEquals("txtname", map.keySet().iterator().next());
+
+		// replace
+		map.put(" TXTname", value("Manfred"));
+		Assert.assertEquals(1, map.size());
+		Assert.assertEquals("Manfred", map.get("txtname").get(0));
+
+		// non ASCII names
+		map.put("Größe", value(1));
+		Assert.assertTrue(map.containsKey("größe"));
+		Assert.assertTrue(map.containsKey("GRÖßE"));
+
+		Assert.assertNull(map.get("_unknown"));
+		Assert.assertNull(map.get(null));
+		Assert.assertNull(map.remove("_unknown"));
+	}
+
+	/**
+	 * Well known item names are stored by the constant instance
+	 */
+	@Test
+	public void testKnownNames() {
+		ItemMap map = new ItemMap();
+		map.put(new String("$UniqueID"), value("ABC"));
+		Assert.assertSame(WorkflowKernel.UNIQUEID, map.keySet().iterator().next());
+		Assert.assertEquals("ABC", map.get(WorkflowKernel.UNIQUEID).get(0));
+	}
+
+	/**
+	 * Adds and removes a large number of items
+	 */
+	@Test
+	public void testGrowAndRemove() {
+		ItemMap map = new ItemMap();
+		for (int i = 0; i < 1000; i++) {
+			map.put("Item" + i, value(i));
+		}
+		Assert.assertEquals(1000, map.size());
+		for (int i = 0; i < 1000; i += 2) {
+			Assert.assertEquals(i, map.remove("item" + i).get(0));
+		}
+		Assert.assertEquals(500, map.size());
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals(i % 2 == 1, map.containsKey("ITEM" + i));
+		}
+		// add removed items again
+		for (int i = 0; i < 1000; i += 2) {
+			map.put("item" + i, value(i));
+		}
+		Assert.assertEquals(1000, map.size());
+		Assert.assertEquals(999, map.get("item999").get(0));
+
+		// remove by iterator
+		Iterator<Map.Entry<String, List<Object>>> iter = map.entrySet().iterator();
+		while (iter.hasNext()) {
+			if (((Integer) iter.next().getValue().get(0)) >= 10) {
+				iter.remove();
+			}
+		}
+		Assert.assertEquals(10, map.size());
+		map.clear();
+		Assert.assertTrue(map.isEmpty());
+	}
+
+	/**
+	 * An ItemMap is equal to a Hashtable and serialized as a Hashtable
+	 * 
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@Test
+	public void testEqualsAndSerialize() throws IOException, ClassNotFoundException {
+		ItemMap map = new ItemMap();
+		Hashtable<String, List<Object>> hashtable = new Hashtable<String, List<Object>>();
+		for (int i = 0; i < 10; i++) {
+			map.put("item" + i, value(i));
+			hashtable.put("item" + i, value(i));
+		}
+		Assert.assertEquals(hashtable, map);
+		Assert.assertEquals(map, hashtable);
+		Assert.assertEquals(hashtable.hashCode(), map.hashCode());
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(map);
+		oos.flush();
+		Object result = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+		Assert.assertEquals(Hashtable.class, result.getClass());
+		Assert.assertEquals(hashtable, result);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullValue() {
+		new ItemMap().put("item", null);
+	}
+}
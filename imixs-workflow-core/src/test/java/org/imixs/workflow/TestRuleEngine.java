@@ -1,9 +1,12 @@
 package org.imixs.workflow;
 
+import java.util.logging.Logger;
+
 import javax.script.ScriptException;
 
 import org.imixs.workflow.exceptions.PluginException;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import junit.framework.Assert;
@@ -14,6 +17,8 @@ import junit.framework.Assert;
  * @author rsoika
  */
 public class TestRuleEngine {
+	private static Logger logger = Logger.getLogger(TestRuleEngine.class.getName());
+
 	RuleEngine ruleEngine = null;
 
 	@Before
@@ -73,4 +78,88 @@ public class TestRuleEngine {
 
 	}
 
+	/**
+	 * This test measures the evaluation of a condition by a new RuleEngine
+	 * instance, as done by the WorkflowKernel and the RulePlugin for each event.
+	 * 
+	 * @throws PluginException
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() throws PluginException {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("_budget", 1000);
+		String script = "(workitem._budget && workitem._budget[0]>100)";
+		int count = 500;
+		long l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			RuleEngine engine = new RuleEngine();
+			Assert.assertTrue(engine.evaluateBooleanExpression(script, workitem));
+			engine.close();
+		}
+		logger.info("Performancetest RuleEngine: " + count + " conditions in "
+				+ (System.currentTimeMillis() - l) + "ms");
+		logger.info("Performancetest RuleEngine: cache hits=" + RuleEngine.getCacheHits() + " misses="
+				+ RuleEngine.getCacheMisses() + " evaluations=" + RuleEngine.getEvaluationCount() + " time="
+				+ RuleEngine.getEvaluationTime() + "ms");
+	}
+
+	/**
+	 * This test verifies that a script is compiled only once and that a pooled
+	 * script engine does not provide variables of a former evaluation.
+	 * 
+	 * @throws PluginException
+	 */
+	@Test
+	public void testCompiledScriptCache() throws PluginException {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("txtName", "Anna");
+		ItemCollection event = new ItemCollection();
+		String script = "var result={}; result.txtname=workitem.txtname[0]+'_" + System.nanoTime() + "';";
+
+		ruleEngine.evaluateBusinessRule(script, workitem, event);
+		long hits = RuleEngine.getCacheHits();
+		ItemCollection result = ruleEngine.evaluateBusinessRule(script, workitem, event);
+		Assert.assertTrue(result.getItemValueString("txtname").startsWith("Anna_"));
+		Assert.assertEquals(hits + 1, RuleEngine.getCacheHits());
+		ruleEngine.close();
+
+		// a pooled engine must not know the variable 'result'
+		Assert.assertNull(ruleEngine.evaluateBusinessRule("var isValid=true;", workitem, event));
+		Assert.assertNull(ruleEngine.getScriptEngine().get("result"));
+		Assert.assertEquals(Boolean.TRUE, ruleEngine.getScriptEngine().get("isValid"));
+		ruleEngine.close();
+	}
+
+	/**
+	 * This test measures the evaluation of a condition for a workitem with a large
+	 * number of items. The condition only reads one item.
+	 * 
+	 * @throws PluginException
+	 */
+	@Ignore
+	@Test
+	public void testPerformanceLargeWorkitem() throws PluginException {
+		ItemCollection workitem = new ItemCollection();
+		// 999 items and the item txtstatus
+		for (int i = 0; i < 500; i++) {
+			workitem.replaceItemValue("txtitem" + i, "some text value " + i);
+			if (i < 499) {
+				workitem.replaceItemValue("numitem" + i, i);
+			}
+		}
+		workitem.replaceItemValue("txtstatus", "open");
+		Assert.assertEquals(1000, workitem.getItemNames().size());
+		String script = "(workitem.txtstatus[0]=='open')";
+		int count = 5000;
+		ruleEngine.evaluateBooleanExpression(script, workitem);
+		long l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			Assert.assertTrue(ruleEngine.evaluateBooleanExpression(script, workitem));
+		}
+		logger.info("Performancetest RuleEngine: " + count + " conditions on 1000 items in "
+				+ (System.currentTimeMillis() - l) + "ms");
+		ruleEngine.close();
+	}
+
 }
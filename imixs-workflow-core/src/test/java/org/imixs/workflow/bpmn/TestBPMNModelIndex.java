@@ -0,0 +1,255 @@
+package org.imixs.workflow.bpmn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.Model;
+import org.imixs.workflow.ModelManager;
+import org.imixs.workflow.WorkflowContext;
+import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.exceptions.ModelException;
+import org.imixs.workflow.exceptions.PluginException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the event and group index of the BPMNModel. The test verifies
+ * that tasks and events are returned as views which do not change the model
+ * and compares the processing of a chain of 5 follow-up events with a model
+ * which scans and copies the event list of a task.
+ * 
+ * @author rsoika
+ */
+public class TestBPMNModelIndex {
+
+	private static final String VERSION = "1.0.0";
+	private static final int TASKS = 20;
+	private static final int EVENTS = 50;
+
+	private BPMNModel model;
+
+	@Before
+	public void setup() throws ModelException {
+		model = new BPMNModel();
+		ItemCollection definition = new ItemCollection();
+		definition.replaceItemValue(WorkflowKernel.MODELVERSION, VERSION);
+		model.setDefinition(definition);
+		for (int t = 1; t <= TASKS; t++) {
+			model.addTask(createTask(1000 + t * 100, "group" + (t % 3)));
+		}
+		// the follow-up chain 1100.10 -> 1200.20 -> 1300.30 -> 1400.40 -> 1500.50
+		for (int e = 10; e <= 50; e += 10) {
+			ItemCollection event = createEvent(1000 + e * 10, e, 1100 + e * 10);
+			if (e < 50) {
+				event.replaceItemValue("keyFollowUp", "1");
+				event.replaceItemValue("numNextActivityID", e + 10);
+			}
+			model.addEvent(event);
+		}
+		// further events of each task
+		for (int t = 1; t <= TASKS; t++) {
+			for (int e = 1; e <= EVENTS; e++) {
+				model.addEvent(createEvent(1000 + t * 100, 100 + e, 1000 + t * 100));
+			}
+		}
+	}
+
+	/**
+	 * Events are found by their id and returned in the order of their id.
+	 */
+	@Test
+	public void testGetEvent() throws ModelException {
+		ItemCollection event = model.getEvent(1300, 30);
+		Assert.assertEquals(30, event.getItemValueInteger("numactivityid"));
+		Assert.assertEquals(40, event.getItemValueInteger("numNextActivityID"));
+		Assert.assertEquals(105, model.getEvent(1500, 105).getItemValueInteger("numactivityid"));
+
+		List<ItemCollection> events = model.findAllEventsByTask(1100);
+		Assert.assertEquals(1 + EVENTS, events.size());
+		Assert.assertEquals(10, events.get(0).getItemValueInteger("numactivityid"));
+		Assert.assertEquals(100 + EVENTS, events.get(events.size() - 1).getItemValueInteger("numactivityid"));
+
+		try {
+			model.getEvent(1100, 20);
+			Assert.fail();
+		} catch (ModelException e) {
+			Assert.assertEquals(ModelException.UNDEFINED_MODEL_ENTRY, e.getErrorCode());
+		}
+		try {
+			model.getEvent(9999, 10);
+			Assert.fail();
+		} catch (ModelException e) {
+			Assert.assertEquals(ModelException.UNDEFINED_MODEL_ENTRY, e.getErrorCode());
+		}
+	}
+
+	/**
+	 * Changing a returned task or event does not change the model.
+	 */
+	@Test
+	public void testModifyView() throws ModelException {
+		ItemCollection event = model.getEvent(1100, 10);
+		event.replaceItemValue("txtname", "changed");
+		event.getItemValue("txtlist").add("changed");
+		event.removeItem("keyFollowUp");
+		Assert.assertEquals("changed", event.getItemValueString("txtname"));
+
+		event = model.getEvent(1100, 10);
+		Assert.assertEquals("event 10", event.getItemValueString("txtname"));
+		Assert.assertEquals(2, event.getItemValue("txtlist").size());
+		Assert.assertEquals("1", event.getItemValueString("keyFollowUp"));
+		Assert.assertEquals("1", model.findAllEventsByTask(1100).get(0).getItemValueString("keyFollowUp"));
+
+		ItemCollection task = model.getTask(1100);
+		task.replaceItemValue("txtname", "changed");
+		Assert.assertEquals("task 1100", model.getTask(1100).getItemValueString("txtname"));
+		Assert.assertEquals("task 1100", model.findAllTasks().get(0).getItemValueString("txtname"));
+	}
+
+	/**
+	 * The tasks of a group are returned in the order of their id. A task added
+	 * again with a new group is moved to the new group.
+	 */
+	@Test
+	public void testFindTasksByGroup() throws ModelException {
+		List<ItemCollection> tasks = model.findTasksByGroup("group1");
+		Assert.assertEquals(7, tasks.size());
+		Assert.assertEquals(1100, tasks.get(0).getItemValueInteger("numprocessid"));
+		Assert.assertEquals(1400, tasks.get(1).getItemValueInteger("numprocessid"));
+		Assert.assertEquals(0, model.findTasksByGroup("unknown").size());
+		Assert.assertEquals(0, model.findTasksByGroup("").size());
+
+		model.addTask(createTask(1100, "group2"));
+		Assert.assertEquals(6, model.findTasksByGroup("group1").size());
+		Assert.assertEquals(1100, model.findTasksByGroup("group2").get(0).getItemValueInteger("numprocessid"));
+	}
+
+	/**
+	 * Processes workitems through the chain of 5 follow-up events. The result is
+	 * the same as for a model which scans and copies all events of the task for
+	 * each event lookup.
+	 */
+	@Test
+	public void testFollowUpChain() throws PluginException, ModelException {
+		// no log output per processing step
+		Logger kernelLogger = Logger.getLogger(WorkflowKernel.class.getName());
+		kernelLogger.setLevel(Level.WARNING);
+		process(createKernel(new ScanModel(model)), 10);
+		process(createKernel(model), 10);
+		kernelLogger.setLevel(null);
+	}
+
+	private void process(WorkflowKernel kernel, int count) throws PluginException, ModelException {
+		for (int i = 0; i < count; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.MODELVERSION, VERSION);
+			workitem.setTaskID(1100);
+			workitem.setEventID(10);
+			workitem = kernel.process(workitem);
+			Assert.assertEquals(1600, workitem.getTaskID());
+			Assert.assertEquals(5, workitem.getItemValue("$eventlog").size());
+		}
+	}
+
+	private WorkflowKernel createKernel(final Model model) throws ModelException {
+		ModelManager modelManager = Mockito.mock(ModelManager.class);
+		Mockito.when(modelManager.getModel(VERSION)).thenReturn(model);
+		Mockito.when(modelManager.getModelByWorkitem(Mockito.any(ItemCollection.class))).thenReturn(model);
+		WorkflowContext workflowContext = Mockito.mock(WorkflowContext.class);
+		Mockito.when(workflowContext.getModelManager()).thenReturn(modelManager);
+		return new WorkflowKernel(workflowContext);
+	}
+
+	private ItemCollection createTask(int taskID, String group) {
+		ItemCollection task = new ItemCollection();
+		task.replaceItemValue("type", "ProcessEntity");
+		task.replaceItemValue("numprocessid", taskID);
+		task.replaceItemValue("txtname", "task " + taskID);
+		task.replaceItemValue("txtworkflowgroup", group);
+		task.replaceItemValue(WorkflowKernel.MODELVERSION, VERSION);
+		return task;
+	}
+
+	private ItemCollection createEvent(int taskID, int eventID, int nextTaskID) {
+		ItemCollection event = new ItemCollection();
+		event.replaceItemValue("type", "ActivityEntity");
+		event.replaceItemValue("numprocessid", taskID);
+		event.replaceItemValue("numactivityid", eventID);
+		event.replaceItemValue("numnextprocessid", nextTaskID);
+		event.replaceItemValue("txtname", "event " + eventID);
+		List<String> list = new ArrayList<String>();
+		list.add("a");
+		list.add("b");
+		event.replaceItemValue("txtlist", list);
+		for (int i = 0; i < 20; i++) {
+			event.replaceItemValue("txtproperty" + i, "value " + i);
+		}
+		event.replaceItemValue(WorkflowKernel.MODELVERSION, VERSION);
+		return event;
+	}
+
+	/**
+	 * A model which looks up an event by a scan of a copy of the event list.
+	 */
+	private class ScanModel implements Model {
+		private final BPMNModel model;
+
+		ScanModel(BPMNModel model) {
+			this.model = model;
+		}
+
+		@Override
+		public String getVersion() {
+			return model.getVersion();
+		}
+
+		@Override
+		public ItemCollection getDefinition() {
+			return model.getDefinition();
+		}
+
+		@Override
+		public ItemCollection getTask(int taskID) throws ModelException {
+			return new ItemCollection(model.getTask(taskID));
+		}
+
+		@Override
+		public ItemCollection getEvent(int taskID, int eventID) throws ModelException {
+			for (ItemCollection event : findAllEventsByTask(taskID)) {
+				if (eventID == event.getItemValueInteger("numactivityid")) {
+					return new ItemCollection(event);
+				}
+			}
+			throw new ModelException(ModelException.UNDEFINED_MODEL_ENTRY, "undefined event");
+		}
+
+		@Override
+		public List<String> getGroups() {
+			return model.getGroups();
+		}
+
+		@Override
+		public List<ItemCollection> findAllTasks() {
+			return model.findAllTasks();
+		}
+
+		@Override
+		public List<ItemCollection> findAllEventsByTask(int taskID) {
+			List<ItemCollection> result = new ArrayList<ItemCollection>();
+			for (ItemCollection event : model.findAllEventsByTask(taskID)) {
+				result.add(new ItemCollection(event));
+			}
+			return result;
+		}
+
+		@Override
+		public List<ItemCollection> findTasksByGroup(String group) {
+			return model.findTasksByGroup(group);
+		}
+	}
+}
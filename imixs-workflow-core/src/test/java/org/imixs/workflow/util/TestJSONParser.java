@@ -1,5 +1,6 @@
 package org.imixs.workflow.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
@@ -124,4 +125,69 @@ public class TestJSONParser {
 		Assert.assertEquals(7, list.size());
 
 	}
+
+	/**
+	 * test escape sequences, typed values and items defined more than once
+	 * 
+	 * @throws ParseException
+	 * @throws UnsupportedEncodingException
+	 */
+	@Test
+	public void testTypesAndEscapes() throws ParseException, UnsupportedEncodingException {
+		String json = "{\"item\":[\n" //
+				+ "{\"name\":\"txtsubject\",\"value\":{\"@type\":\"xs:string\",\"$\":\"Say \\\"Hello\\\" {World} [\\u00e4\\n]\"}},\n"
+				+ "{\"name\":\"_flag\",\"value\":{\"$\":true,\"@type\":\"xs:boolean\"}},\n"
+				+ "{\"value\":{\"@type\":\"xs:long\",\"$\":\"12345678901\"},\"name\":\"_long\"},\n"
+				+ "{\"name\":\"_double\",\"value\":{\"@type\":\"xs:double\",\"$\":1.5}},\n"
+				+ "{\"name\":\"_empty\",\"value\":[]},\n"
+				+ "{\"name\":\"txtlog\",\"value\":[{\"@type\":\"xs:string\",\"$\":\"A\"},{\"@type\":\"xs:string\",\"$\":\"B\"}]},\n"
+				+ "{\"name\":\"txtlog\",\"value\":{\"@type\":\"xs:string\",\"$\":\"C\"}}\n" //
+				+ "]}";
+		ItemCollection itemCol = JSONParser.parseWorkitem(new ByteArrayInputStream(json.getBytes("UTF-8")), null);
+
+		Assert.assertEquals("Say \"Hello\" {World} [\u00e4\n]", itemCol.getItemValueString("txtsubject"));
+		Assert.assertEquals(Boolean.TRUE, itemCol.getItemValue("_flag").get(0));
+		Assert.assertEquals(12345678901L, itemCol.getItemValue("_long").get(0));
+		Assert.assertEquals(1.5, itemCol.getItemValueDouble("_double"), 0);
+		Assert.assertTrue(itemCol.hasItem("_empty"));
+		Assert.assertEquals(0, itemCol.getItemValue("_empty").size());
+		List<?> list = itemCol.getItemValue("txtlog");
+		Assert.assertEquals(3, list.size());
+		Assert.assertEquals("C", list.get(2));
+	}
+
+	/**
+	 * Parses workitems with a size of 10 KB and 1 MB. Each workitem contains file
+	 * data with the half of its size.
+	 * 
+	 * @throws ParseException
+	 * @throws UnsupportedEncodingException
+	 */
+	@Test
+	public void testLargeWorkitem() throws ParseException, UnsupportedEncodingException {
+		for (int size : new int[] { 10 * 1024, 1024 * 1024 }) {
+			byte[] data = createPayload(size);
+			ItemCollection itemCol = JSONParser.parseWorkitem(new ByteArrayInputStream(data), "UTF-8");
+			Assert.assertEquals(size / 2, itemCol.getItemValueString("$file").length(), 50);
+			Assert.assertEquals(2, itemCol.getItemValue("txtitem0").size());
+		}
+	}
+
+	private byte[] createPayload(int size) throws UnsupportedEncodingException {
+		StringBuilder json = new StringBuilder("{\"item\":[");
+		StringBuilder file = new StringBuilder();
+		while (file.length() < size / 2) {
+			file.append("QUJDREVGR0hJSktMTU5PUFFSU1RVVldYWVo0NTY3ODkw");
+		}
+		json.append("{\"name\":\"$file\",\"value\":{\"@type\":\"xs:string\",\"$\":\"").append(file).append("\"}}");
+		int i = 0;
+		while (json.length() < size) {
+			json.append(",{\"name\":\"txtitem").append(i)
+					.append("\",\"value\":[{\"@type\":\"xs:string\",\"$\":\"Lorem ipsum dolor sit amet ").append(i)
+					.append("\"},{\"@type\":\"xs:int\",\"$\":").append(i).append("}]}");
+			i++;
+		}
+		json.append("]}");
+		return json.toString().getBytes("UTF-8");
+	}
 }
@@ -0,0 +1,186 @@
+package org.imixs.workflow.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.util.JAXBSource;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.imixs.workflow.ItemCollection;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Test class for the XSLHandler. The test verifies that a JAXB object is
+ * transformed like its marshaled xml string and that the compiled XSL templates
+ * are cached.
+ * 
+ * @author rsoika
+ */
+public class TestXSLHandler {
+	private static Logger logger = Logger.getLogger(TestXSLHandler.class.getName());
+
+	static final String XSL_MAIL = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">"
+			+ "<xsl:output method=\"html\" encoding=\"UTF-8\" />"
+			+ "<xsl:template match=\"/document\">"
+			+ "<html><body><h1>Ticket: <xsl:value-of select=\"item[@name='_subject']/value\" /></h1>"
+			+ "<p>Status: <xsl:value-of select=\"item[@name='$workflowstatus']/value\" /></p><ul>"
+			+ "<xsl:for-each select=\"item[@name='txtlog']/value\"><li><xsl:value-of select=\".\" /></li></xsl:for-each>"
+			+ "</ul></body></html></xsl:template></xsl:stylesheet>";
+
+	static final String XSL_REPORT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">"
+			+ "<xsl:output method=\"text\" encoding=\"UTF-8\" />"
+			+ "<xsl:template match=\"/data\"><xsl:for-each select=\"document\">"
+			+ "<xsl:value-of select=\"item[@name='_subject']/value\" />;</xsl:for-each></xsl:template></xsl:stylesheet>";
+
+	@Before
+	public void setup() {
+		XSLHandler.clearTemplatesCache();
+	}
+
+	/**
+	 * A document is transformed like its marshaled xml string. The template is
+	 * compiled only once.
+	 */
+	@Test
+	public void testTransform() throws Exception {
+		ItemCollection document = createDocument(1);
+		XMLDocument xmlDocument = XMLDocumentAdapter.getDocument(document);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		transformLegacy(xmlDocument, XMLDocument.class, XSL_MAIL, expected);
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		XSLHandler.transform(xmlDocument, XSL_MAIL, result);
+		Assert.assertEquals(expected.toString("UTF-8"), result.toString("UTF-8"));
+		Assert.assertTrue(result.toString("UTF-8").contains("<h1>Ticket: Printer "));
+		Assert.assertTrue(result.toString("UTF-8").contains("<li>B</li>"));
+		Assert.assertEquals(1, XSLHandler.getTemplatesCacheSize());
+
+		// the xml string
+		result = new ByteArrayOutputStream();
+		XSLHandler.transform(marshal(xmlDocument, XMLDocument.class), XSL_MAIL, "UTF-8", result);
+		Assert.assertEquals(expected.toString("UTF-8"), result.toString("UTF-8"));
+		Assert.assertEquals(1, XSLHandler.getTemplatesCacheSize());
+		Assert.assertSame(XSLHandler.getTemplates(XSL_MAIL), XSLHandler.getTemplates(XSL_MAIL));
+
+		// a collection
+		List<ItemCollection> documents = Arrays.asList(createDocument(1), createDocument(2));
+		byte[] report = XSLHandler.transform(documents, XSL_REPORT, "UTF-8", null);
+		Assert.assertEquals("Printer ä 1;Printer ä 2;", new String(report, "UTF-8"));
+		Assert.assertEquals(2, XSLHandler.getTemplatesCacheSize());
+	}
+
+	/**
+	 * The encoding overrides the output encoding of the XSL template.
+	 */
+	@Test
+	public void testEncoding() throws Exception {
+		XMLDataCollection xmlDataCollection = XMLDataCollectionAdapter
+				.getDataCollection(Arrays.asList(createDocument(1), createDocument(2)));
+		Source xmlSource = new JAXBSource(XSLHandler.getJAXBContext(XMLDataCollection.class), xmlDataCollection);
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		XSLHandler.transform(xmlSource, XSL_REPORT, "ISO-8859-1", new StreamResult(result));
+		Assert.assertArrayEquals("Printer ä 1;Printer ä 2;".getBytes("ISO-8859-1"), result.toByteArray());
+
+		// no encoding - the template encoding is used
+		result = new ByteArrayOutputStream();
+		xmlSource = new JAXBSource(XSLHandler.getJAXBContext(XMLDataCollection.class), xmlDataCollection);
+		XSLHandler.transform(xmlSource, XSL_REPORT, null, new StreamResult(result));
+		Assert.assertArrayEquals("Printer ä 1;Printer ä 2;".getBytes("UTF-8"), result.toByteArray());
+		Assert.assertEquals(1, XSLHandler.getTemplatesCacheSize());
+	}
+
+	/**
+	 * The least recently used template is removed if the cache is full.
+	 */
+	@Test
+	public void testCacheLimit() throws Exception {
+		XSLHandler.getTemplates(XSL_MAIL);
+		for (int i = 0; i < XSLHandler.MAX_TEMPLATES; i++) {
+			XSLHandler.getTemplates(XSL_REPORT.replace("_subject", "_subject" + i));
+		}
+		Assert.assertEquals(XSLHandler.MAX_TEMPLATES, XSLHandler.getTemplatesCacheSize());
+		Assert.assertSame(XSLHandler.getTemplates(XSL_REPORT.replace("_subject", "_subject" + 99)),
+				XSLHandler.getTemplates(XSL_REPORT.replace("_subject", "_subject" + 99)));
+	}
+
+	/**
+	 * Compares the former transformation (new JAXBContext, marshaled xml string
+	 * and a new Transformer for each call) with the cached transformation.
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() throws Exception {
+		int count = 500;
+		List<XMLDocument> xmlDocuments = new ArrayList<XMLDocument>();
+		for (int i = 0; i < count; i++) {
+			xmlDocuments.add(XMLDocumentAdapter.getDocument(createDocument(i)));
+		}
+
+		long l = System.currentTimeMillis();
+		for (XMLDocument xmlDocument : xmlDocuments) {
+			transformLegacy(xmlDocument, XMLDocument.class, XSL_MAIL, new ByteArrayOutputStream());
+		}
+		long legacy = System.currentTimeMillis() - l;
+
+		l = System.currentTimeMillis();
+		for (XMLDocument xmlDocument : xmlDocuments) {
+			XSLHandler.transform(xmlDocument, XSL_MAIL, new ByteArrayOutputStream());
+		}
+		long cached = System.currentTimeMillis() - l;
+
+		logger.info("Performancetest XSLHandler: " + count + " mail bodies, legacy=" + legacy + "ms cached=" + cached
+				+ "ms");
+	}
+
+	/**
+	 * The former implementation of MailPlugin.transformXSLBody()
+	 */
+	private void transformLegacy(Object jaxbObject, Class<?> type, String xsl, ByteArrayOutputStream output)
+			throws Exception {
+		String xml = marshal(jaxbObject, type);
+		Source xmlSrc = new StreamSource(
+				new InputStreamReader(new ByteArrayInputStream(xml.getBytes("UTF-8")), "UTF-8"));
+		Source xslSrc = new StreamSource(
+				new InputStreamReader(new ByteArrayInputStream(xsl.getBytes("UTF-8")), "UTF-8"));
+		Transformer trans = TransformerFactory.newInstance().newTransformer(xslSrc);
+		trans.transform(xmlSrc, new StreamResult(output));
+	}
+
+	private String marshal(Object jaxbObject, Class<?> type) throws Exception {
+		StringWriter writer = new StringWriter();
+		Marshaller m = JAXBContext.newInstance(type).createMarshaller();
+		m.setProperty("jaxb.encoding", "UTF-8");
+		m.marshal(jaxbObject, writer);
+		return writer.toString();
+	}
+
+	private ItemCollection createDocument(int i) {
+		ItemCollection document = new ItemCollection();
+		document.replaceItemValue("_subject", "Printer ä " + i);
+		document.replaceItemValue("$workflowstatus", "Open");
+		document.replaceItemValue("txtlog", Arrays.asList("A", "B", "C"));
+		for (int j = 0; j < 20; j++) {
+			document.replaceItemValue("_item" + j, "Lorem ipsum dolor sit amet " + j);
+		}
+		return document;
+	}
+}
@@ -0,0 +1,403 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.imixs.workflow.engine.jpa.DocumentDataConverter;
+
+/**
+ * The BackupFile defines the file format used by the DocumentService to backup
+ * and restore documents. A backup file starts with a header followed by a
+ * sequence of chunks. The end of a complete backup is marked by a chunk length
+ * of 0:
+ * 
+ * <pre>
+ * header: magic (8 bytes) version (int)
+ * chunk:  length (int) count (int) checksum (long) data (length bytes)
+ * end:    0 (int)
+ * </pre>
+ * 
+ * The data of a chunk is compressed and contains 'count' records. Each record
+ * is a length (int) followed by the document data encoded by the
+ * DocumentDataConverter. The checksum is the CRC32 of the compressed data.
+ * <p>
+ * The records are length-prefixed and not of a fixed size, because the size of
+ * the encoded documents differs. The chunks are addressed by the manifest.
+ * <p>
+ * A completed backup writes a manifest file '[filename].manifest' with the
+ * position, size, record count and checksum of each chunk. So the chunks can be
+ * restored independently of each other. A backup which failed partway has no
+ * manifest and no end mark and is rejected by the restore. The completed chunks
+ * of a restore are written into the file '[filename].progress'. An interrupted
+ * restore continues with the chunks not yet completed.
+ * 
+ * @author rsoika
+ * @version 1.0
+ */
+public class BackupFile {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+	public static final int VERSION = 2;
+
+	private static final byte[] MAGIC = { 'I', 'M', 'X', 'B', 'A', 'C', 'K', 'P' };
+	private static final int HEADER_SIZE = MAGIC.length + 4;
+	private static final int CHUNK_HEADER_SIZE = 16;
+
+	private static final Object progressLock = new Object();
+
+	private final String filePath;
+	private final List<Chunk> chunks;
+	private final long documentCount;
+
+	/**
+	 * Opens a backup file. The chunks are read from the manifest. If the manifest
+	 * does not exist, the chunk headers are read from the backup file.
+	 * 
+	 * @param filePath
+	 * @throws IOException
+	 *             if the file is not a valid or not a complete backup file
+	 */
+	public BackupFile(String filePath) throws IOException {
+		this.filePath = filePath;
+		if (!isBackupFile(filePath)) {
+			throw new IOException("invalid backup file: " + filePath);
+		}
+		File manifestFile = new File(filePath + ".manifest");
+		if (manifestFile.exists()) {
+			chunks = readManifest(manifestFile);
+		} else {
+			chunks = scanChunks();
+		}
+		long count = 0;
+		for (Chunk chunk : chunks) {
+			count += chunk.count;
+		}
+		documentCount = count;
+	}
+
+	/**
+	 * Returns true if the file starts with the header of a backup file. Backups
+	 * written in the former format (a stream of serialized maps) return false.
+	 * 
+	 * @param filePath
+	 * @return true if the file is a chunked backup file
+	 * @throws IOException
+	 */
+	public static boolean isBackupFile(String filePath) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(filePath))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i]) {
+					return false;
+				}
+			}
+			return in.readInt() == VERSION;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	public int getChunkCount() {
+		return chunks.size();
+	}
+
+	public long getDocumentCount() {
+		return documentCount;
+	}
+
+	/**
+	 * Reads the documents of a chunk. The method verifies the checksum of the
+	 * chunk.
+	 * 
+	 * @param index
+	 *            - chunk index
+	 * @return list of document data
+	 * @throws IOException
+	 *             if the chunk can not be read or the checksum does not match
+	 */
+	public List<Map<String, List<Object>>> readChunk(int index) throws IOException {
+		Chunk chunk = chunks.get(index);
+		byte[] data = new byte[chunk.length];
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+			file.seek(chunk.offset);
+			if (file.readInt() != chunk.length || file.readInt() != chunk.count || file.readLong() != chunk.checksum) {
+				throw new IOException("chunk " + index + " does not match the manifest: " + filePath);
+			}
+			file.readFully(data);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if (crc.getValue() != chunk.checksum) {
+			throw new IOException("invalid checksum of chunk " + index + ": " + filePath);
+		}
+
+		List<Map<String, List<Object>>> result = new ArrayList<Map<String, List<Object>>>(chunk.count);
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+			for (int i = 0; i < chunk.count; i++) {
+				byte[] record = new byte[in.readInt()];
+				in.readFully(record);
+				result.add(DocumentDataConverter.convertToEntityAttribute(record));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the indexes of all chunks completed by a former restore.
+	 * 
+	 * @return set of chunk indexes
+	 * @throws IOException
+	 */
+	public Set<Integer> getCompletedChunks() throws IOException {
+		Set<Integer> result = new HashSet<Integer>();
+		File progressFile = new File(filePath + ".progress");
+		synchronized (progressLock) {
+			if (progressFile.exists()) {
+				for (String line : Files.readAllLines(progressFile.toPath())) {
+					if (!line.trim().isEmpty()) {
+						result.add(Integer.parseInt(line.trim()));
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Marks a chunk as completed by a restore.
+	 * 
+	 * @param index
+	 *            - chunk index
+	 * @throws IOException
+	 */
+	public void setChunkCompleted(int index) throws IOException {
+		synchronized (progressLock) {
+			try (FileWriter writer = new FileWriter(filePath + ".progress", true)) {
+				writer.write(index + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Removes the progress of a restore after all chunks were completed.
+	 */
+	public void clearProgress() {
+		synchronized (progressLock) {
+			new File(filePath + ".progress").delete();
+		}
+	}
+
+	private List<Chunk> readManifest(File manifestFile) throws IOException {
+		Properties manifest = new Properties();
+		try (InputStream in = new FileInputStream(manifestFile)) {
+			manifest.load(in);
+		}
+		int count = Integer.parseInt(manifest.getProperty("chunks", "0"));
+		List<Chunk> result = new ArrayList<Chunk>(count);
+		for (int i = 0; i < count; i++) {
+			String[] values = manifest.getProperty("chunk." + i).split(",");
+			result.add(new Chunk(Long.parseLong(values[0]), Integer.parseInt(values[1]), Integer.parseInt(values[2]),
+					Long.parseLong(values[3])));
+		}
+		return result;
+	}
+
+	private List<Chunk> scanChunks() throws IOException {
+		List<Chunk> result = new ArrayList<Chunk>();
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+			long offset = HEADER_SIZE;
+			while (offset + 4 <= file.length()) {
+				file.seek(offset);
+				int length = file.readInt();
+				if (length == 0) {
+					// end of a complete backup
+					return result;
+				}
+				Chunk chunk = new Chunk(offset, length, file.readInt(), file.readLong());
+				result.add(chunk);
+				offset += CHUNK_HEADER_SIZE + chunk.length;
+			}
+		} catch (EOFException e) {
+			// the last chunk is truncated
+		}
+		throw new IOException("incomplete backup file: " + filePath);
+	}
+
+	/**
+	 * Position, size, record count and checksum of a chunk.
+	 */
+	private static class Chunk {
+		final long offset;
+		final int length;
+		final int count;
+		final long checksum;
+
+		Chunk(long offset, int length, int count, long checksum) {
+			this.offset = offset;
+			this.length = length;
+			this.count = count;
+			this.checksum = checksum;
+		}
+	}
+
+	/**
+	 * The Writer writes documents into a new backup file. The documents are
+	 * collected in chunks of the given size. The method finish() completes the
+	 * backup and writes the manifest. If the writer is closed without finish(),
+	 * e.g. because the backup failed, the backup is not complete.
+	 */
+	public static class Writer implements Closeable {
+		private final String filePath;
+		private final int chunkSize;
+		private final DataOutputStream out;
+		private final List<Chunk> chunks = new ArrayList<Chunk>();
+		private ByteArrayOutputStream buffer;
+		private DataOutputStream records;
+		private int count = 0;
+		private long offset = HEADER_SIZE;
+		private long documentCount = 0;
+		private boolean finished = false;
+
+		public Writer(String filePath, int chunkSize) throws IOException {
+			this.filePath = filePath;
+			this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)));
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			// the manifest and the progress of a former backup are not valid
+			new File(filePath + ".manifest").delete();
+			new File(filePath + ".progress").delete();
+		}
+
+		/**
+		 * Adds the data of a document to the backup.
+		 * 
+		 * @param data
+		 * @throws IOException
+		 */
+		public void write(Map<String, List<Object>> data) throws IOException {
+			if (records == null) {
+				buffer = new ByteArrayOutputStream();
+				records = new DataOutputStream(new DeflaterOutputStream(buffer));
+			}
+			byte[] record = DocumentDataConverter.convertToDatabaseColumn(data);
+			records.writeInt(record.length);
+			records.write(record);
+			count++;
+			documentCount++;
+			if (count >= chunkSize) {
+				writeChunk();
+			}
+		}
+
+		public long getDocumentCount() {
+			return documentCount;
+		}
+
+		private void writeChunk() throws IOException {
+			records.close();
+			byte[] data = buffer.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			Chunk chunk = new Chunk(offset, data.length, count, crc.getValue());
+			out.writeInt(chunk.length);
+			out.writeInt(chunk.count);
+			out.writeLong(chunk.checksum);
+			out.write(data);
+			chunks.add(chunk);
+			offset += CHUNK_HEADER_SIZE + data.length;
+			records = null;
+			buffer = null;
+			count = 0;
+		}
+
+		/**
+		 * Writes the last chunk, the end mark and the manifest. The method must be
+		 * called after the last document was written.
+		 * 
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			if (records != null) {
+				writeChunk();
+			}
+			out.writeInt(0);
+			out.close();
+			finished = true;
+			Properties manifest = new Properties();
+			manifest.setProperty("version", "" + VERSION);
+			manifest.setProperty("documents", "" + documentCount);
+			manifest.setProperty("chunks", "" + chunks.size());
+			for (int i = 0; i < chunks.size(); i++) {
+				Chunk chunk = chunks.get(i);
+				manifest.setProperty("chunk." + i,
+						chunk.offset + "," + chunk.length + "," + chunk.count + "," + chunk.checksum);
+			}
+			try (OutputStream manifestOut = new FileOutputStream(filePath + ".manifest")) {
+				manifest.store(manifestOut, "imixs backup manifest");
+			}
+		}
+
+		/**
+		 * Closes the backup file. If the method finish() was not called, the backup
+		 * is not complete and no manifest is written.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (!finished) {
+				out.close();
+			}
+		}
+	}
+}
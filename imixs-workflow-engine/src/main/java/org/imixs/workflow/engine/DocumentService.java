@@ -36,15 +36,25 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import javax.annotation.Resource;
 import javax.annotation.security.DeclareRoles;
 import javax.annotation.security.RolesAllowed;
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.LocalBean;
 import javax.ejb.SessionContext;
@@ -60,11 +70,11 @@ import javax.persistence.Query;
 
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
-import org.apache.lucene.search.SortField.Type;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.engine.jpa.Document;
 import org.imixs.workflow.engine.lucene.LuceneSearchService;
+import org.imixs.workflow.engine.lucene.SearchResult;
 import org.imixs.workflow.engine.lucene.LuceneUpdateService;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.InvalidAccessException;
@@ -151,6 +161,12 @@ public class DocumentService {
 	public static final String INVALID_PARAMETER = "INVALID_PARAMETER";
 	public static final String INVALID_UNIQUEID = "INVALID_UNIQUEID";
 
+	// max count of ids loaded by one query
+	private static final int MAX_LOAD_IDS = 500;
+	private static final int RESTORE_THREADS = 4; // chunks restored in parallel
+	private static final int RESTORE_TRANSACTION_SIZE = 100; // documents per transaction
+	private static final int SAVE_FLUSH_SIZE = 100; // documents per flush in saveAll
+
 	@Resource
 	SessionContext ctx;
 
@@ -164,7 +180,7 @@ public class DocumentService {
 	private EntityManager manager;
 
 	@EJB
-	private LuceneUpdateService luceneUpdateService;
+	LuceneUpdateService luceneUpdateService;
 
 	@EJB
 	private LuceneSearchService luceneSearchService;
@@ -327,19 +343,126 @@ public class DocumentService {
 		logger.finest("......save - ID=" + document.getUniqueID() + ", provided version="
 				+ document.getItemValueInteger("$version"));
 		Document persistedDocument = null;
-		// Now set flush Mode to COMMIT
-		manager.setFlushMode(FlushModeType.COMMIT);
 
 		// check if a $uniqueid is available
 		String sID = document.getItemValueString(WorkflowKernel.UNIQUEID);
 		if (!sID.isEmpty()) {
 			// yes so we can try to find the Entity by its primary key
-			persistedDocument = manager.find(Document.class, sID);
+			persistedDocument = findDocument(sID);
 			if (persistedDocument == null) {
 				logger.finest("......Document '" + sID + "' not found!");
 			}
 		}
 
+		updateDocument(document, persistedDocument);
+
+		// add/update document into lucene index
+		if (!document.getItemValueBoolean(NOINDEX)) {
+			luceneUpdateService.updateDocument(document);
+		} else {
+			// remove from index
+			luceneUpdateService.removeDocument(document.getUniqueID());
+		}
+
+		logger.fine("...'" + document.getUniqueID() + "' saved in " + (System.currentTimeMillis() - lSaveTime) + "ms");
+		// return the updated document
+		return document;
+	}
+
+	/**
+	 * This method saves a collection of ItemCollections into the database. The
+	 * method can be used instead of calling the method save() in a loop, e.g. to
+	 * import documents or to create a larger number of workitems in one
+	 * transaction.
+	 * <p>
+	 * Each document is saved in the same way as by the method save(). But the
+	 * existing entities are looked up by a single JPQL query per block of 500 ids,
+	 * the new entities are flushed in blocks of 100 documents so that the JPA
+	 * provider can send the inserts in JDBC batches, and the lucene event log
+	 * entries for all documents are written in one batch.
+	 * <p>
+	 * In case the CallerPrincipal is not allowed to save a document, the document
+	 * is skipped and the AccessDeniedException is returned in the SaveResult of
+	 * this document. All other documents are saved.
+	 * 
+	 * @see save
+	 * @param documents
+	 *            - the ItemCollections to be saved
+	 * @return list of SaveResults in the order of the given documents
+	 */
+	public List<SaveResult> saveAll(Collection<ItemCollection> documents) {
+		List<SaveResult> result = new ArrayList<SaveResult>();
+		if (documents == null || documents.isEmpty()) {
+			return result;
+		}
+		long lSaveTime = System.currentTimeMillis();
+		// flush pending changes so that the lookup finds entities created before
+		// in the same transaction
+		flushDocuments();
+
+		// lookup all existing entities
+		Set<String> ids = new LinkedHashSet<String>();
+		for (ItemCollection document : documents) {
+			String sID = document.getItemValueString(WorkflowKernel.UNIQUEID);
+			if (!sID.isEmpty()) {
+				ids.add(sID);
+			}
+		}
+		Map<String, Document> persistedDocuments = findDocuments(new ArrayList<String>(ids));
+
+		// a document saved twice has only one index entry
+		Map<String, ItemCollection> indexDocuments = new LinkedHashMap<String, ItemCollection>();
+		int count = 0;
+		for (ItemCollection document : documents) {
+			try {
+				Document persistedDocument = updateDocument(document,
+						persistedDocuments.get(document.getItemValueString(WorkflowKernel.UNIQUEID)));
+				persistedDocuments.put(persistedDocument.getId(), persistedDocument);
+				indexDocuments.put(persistedDocument.getId(), document);
+				result.add(new SaveResult(document, null));
+				count++;
+				if (count % SAVE_FLUSH_SIZE == 0) {
+					flushDocuments();
+				}
+			} catch (AccessDeniedException e) {
+				logger.fine("...'" + document.getUniqueID() + "' not saved: " + e.getMessage());
+				result.add(new SaveResult(document, e));
+			}
+		}
+
+		// add/update documents into lucene index
+		List<ItemCollection> updates = new ArrayList<ItemCollection>();
+		for (ItemCollection document : indexDocuments.values()) {
+			if (!document.getItemValueBoolean(NOINDEX)) {
+				updates.add(document);
+			} else {
+				// remove from index
+				luceneUpdateService.removeDocument(document.getUniqueID());
+			}
+		}
+		luceneUpdateService.updateDocuments(updates);
+
+		logger.fine("...saveAll - " + count + " of " + documents.size() + " documents saved in "
+				+ (System.currentTimeMillis() - lSaveTime) + "ms");
+		return result;
+	}
+
+	/**
+	 * Updates the persisted entity of a document. If no entity exists, a new
+	 * entity is created and persisted. The method verifies the access of the
+	 * CallerPrincipal, fires the DocumentEvent ON_DOCUMENT_SAVE and updates the
+	 * data of the entity with a deep copy of the document.
+	 * 
+	 * @param document
+	 *            - the ItemCollection to be saved
+	 * @param persistedDocument
+	 *            - the existing entity or null
+	 * @return the managed entity
+	 * @throws AccessDeniedException
+	 */
+	private Document updateDocument(ItemCollection document, Document persistedDocument)
+			throws AccessDeniedException {
+		String sID = document.getItemValueString(WorkflowKernel.UNIQUEID);
 		// did the document exist?
 		if (persistedDocument == null) {
 			// entity not found in database, create a new instance using the
@@ -360,7 +483,7 @@ public class DocumentService {
 			}
 			// now persist the new EntityBean!
 			logger.finest("......persist activeEntity");
-			manager.persist(persistedDocument);
+			persistDocument(persistedDocument);
 
 		} else {
 			// activeEntity exists - verify if current user has write- and
@@ -453,24 +576,13 @@ public class DocumentService {
 		// update the $isauthor flag
 		document.replaceItemValue("$isauthor", isCallerAuthor(persistedDocument));
 
-		// add/update document into lucene index
-		if (!document.getItemValueBoolean(NOINDEX)) {
-			luceneUpdateService.updateDocument(document);
-		} else {
-			// remove from index
-			luceneUpdateService.removeDocument(document.getUniqueID());
-		}
-
 		/*
 		 * issue #230
 		 * 
 		 * flag this entity which is still managed
 		 */
 		persistedDocument.setPending(true);
-
-		logger.fine("...'" + document.getUniqueID() + "' saved in " + (System.currentTimeMillis() - lSaveTime) + "ms");
-		// return the updated document
-		return document;
+		return persistedDocument;
 	}
 
 	/**
@@ -512,8 +624,8 @@ public class DocumentService {
 	 * 
 	 * In case a document is not flagged (not saved during same transaction), we
 	 * detach the loaded entity. In case a document is flagged (saved during save
-	 * transaction) we may not detach it, but make a deepCopy (clone) of the
-	 * document instance. This will avoid the effect, that data written to a
+	 * transaction) we may not detach it, but create a copy-on-write view of the
+	 * document data. This will avoid the effect, that data written to a
 	 * document get lost in a long running transaction with save and load calls.
 	 * 
 	 * @param id
@@ -530,28 +642,7 @@ public class DocumentService {
 		// create instance of ItemCollection
 		if (persistedDocument != null && isCallerReader(persistedDocument)) {
 
-			ItemCollection result = null;// new ItemCollection();
-			if (persistedDocument.isPending()) {
-				// we clone but do not detach
-				logger.finest("......clone manged entity '" + id + "' pending status=" + persistedDocument.isPending());
-				result = new ItemCollection(persistedDocument.getData());
-			} else {
-				// the document is not managed, so we detach it
-				result = new ItemCollection();
-				result.setAllItems(persistedDocument.getData());
-				manager.detach(persistedDocument);
-			}
-
-			// if disable Optimistic Locking is TRUE we do not add the version
-			// number
-			if (disableOptimisticLocking) {
-				result.removeItem("$Version");
-			} else {
-				result.replaceItemValue("$Version", persistedDocument.getVersion());
-			}
-
-			// update the $isauthor flag
-			result.replaceItemValue("$isauthor", isCallerAuthor(persistedDocument));
+			ItemCollection result = createItemCollection(persistedDocument);
 
 			// fire event
 			if (events != null) {
@@ -566,6 +657,117 @@ public class DocumentService {
 			return null;
 	}
 
+	/**
+	 * Fires the DocumentEvent ON_DOCUMENT_LOAD for a document which was not loaded
+	 * from the database, e.g. a projection created from the item values stored in
+	 * the lucene index.
+	 * 
+	 * @param document
+	 */
+	public void fireLoadEvent(ItemCollection document) {
+		if (events != null) {
+			events.fire(new DocumentEvent(document, DocumentEvent.ON_DOCUMENT_LOAD));
+		} else {
+			logger.warning("Missing CDI support for Event<DocumentEvent> !");
+		}
+	}
+
+	/**
+	 * This method loads a collection of ItemCollections by their $uniqueids. The
+	 * documents are fetched by a single JPQL query per block of 500 ids. The
+	 * result keeps the order of the given ids, so a page of a search result keeps
+	 * its score order. Documents which do not exist or for which the
+	 * CallerPrincipal has insufficient read access are not part of the result.
+	 * <p>
+	 * Like the method load() the method updates the items $Version and $isauthor
+	 * and fires the DocumentEvent ON_DOCUMENT_LOAD for each document.
+	 * 
+	 * @see load
+	 * @param ids
+	 *            - the $uniqueids of the ItemCollections to be loaded
+	 * @return list of ItemCollections in the order of the given ids
+	 */
+	public List<ItemCollection> loadAll(Collection<String> ids) {
+		List<ItemCollection> result = new ArrayList<ItemCollection>();
+		if (ids == null || ids.isEmpty()) {
+			return result;
+		}
+		long lLoadTime = System.currentTimeMillis();
+		List<String> idList = new ArrayList<String>(new LinkedHashSet<String>(ids));
+		Map<String, Document> documents = findDocuments(idList);
+
+		// restore the order of the given ids
+		for (String id : idList) {
+			Document persistedDocument = documents.get(id);
+			if (persistedDocument != null && isCallerReader(persistedDocument)) {
+				ItemCollection document = createItemCollection(persistedDocument);
+				// fire event
+				if (events != null) {
+					events.fire(new DocumentEvent(document, DocumentEvent.ON_DOCUMENT_LOAD));
+				} else {
+					logger.warning("Missing CDI support for Event<DocumentEvent> !");
+				}
+				result.add(document);
+			}
+		}
+		logger.fine("...loadAll - " + result.size() + " of " + idList.size() + " documents loaded in "
+				+ (System.currentTimeMillis() - lLoadTime) + "ms");
+		return result;
+	}
+
+	/**
+	 * Finds the entity of a document by its primary key.
+	 * 
+	 * @param id
+	 * @return entity or null if not found
+	 */
+	Document findDocument(String id) {
+		// Now set flush Mode to COMMIT
+		manager.setFlushMode(FlushModeType.COMMIT);
+		return manager.find(Document.class, id);
+	}
+
+	/**
+	 * Finds the entities of a list of documents by a single JPQL query per block
+	 * of 500 ids.
+	 * 
+	 * @param ids
+	 * @return map of the found entities by their id
+	 */
+	Map<String, Document> findDocuments(List<String> ids) {
+		Map<String, Document> documents = new HashMap<String, Document>();
+		for (int i = 0; i < ids.size(); i += MAX_LOAD_IDS) {
+			Query q = manager.createQuery("SELECT document FROM Document AS document WHERE document.id IN :ids");
+			q.setParameter("ids", ids.subList(i, Math.min(i + MAX_LOAD_IDS, ids.size())));
+			@SuppressWarnings("unchecked")
+			Collection<Document> documentList = q.getResultList();
+			for (Document doc : documentList) {
+				documents.put(doc.getId(), doc);
+			}
+		}
+		return documents;
+	}
+
+	/**
+	 * Persists a new entity.
+	 * 
+	 * @param document
+	 */
+	void persistDocument(Document document) {
+		manager.persist(document);
+	}
+
+	/**
+	 * Flushes the pending changes of the persistence context. With a JDBC batch
+	 * size configured in the persistence.xml the inserts and updates are sent in
+	 * batches.
+	 */
+	void flushDocuments() {
+		// Now set flush Mode to COMMIT
+		manager.setFlushMode(FlushModeType.COMMIT);
+		manager.flush();
+	}
+
 	/**
 	 * This method removes an ItemCollection from the database. If the
 	 * CallerPrincipal is not allowed to access the ItemColleciton the method throws
@@ -713,6 +915,35 @@ public class DocumentService {
 	 */
 	public List<ItemCollection> find(String searchTerm, int pageSize, int pageIndex, String sortBy, boolean sortReverse)
 			throws QueryException {
+		return find(searchTerm, pageSize, pageIndex, sortBy, sortReverse, null);
+	}
+
+	/**
+	 * The method returns a sorted list of ItemCollections by calling the
+	 * LuceneSearchService. The optional param 'items' defines the items needed by
+	 * the client. If all these items are stored in the lucene index (see property
+	 * 'lucence.indexFieldListStore') the documents are not loaded from the
+	 * database and contain only the requested items and the $uniqueid.
+	 * 
+	 * @param searchTerm
+	 *            - Lucene search term
+	 * @param pageSize
+	 *            - total docs per page
+	 * @param pageIndex
+	 *            - number of page to start (default = 0)
+	 * @param sortBy
+	 *            -optional field to sort the result
+	 * @param sortReverse
+	 *            - optional sort direction
+	 * @param items
+	 *            - optional list of items to be returned
+	 * @return list of ItemCollection elements
+	 * @throws QueryException
+	 * 
+	 * @see org.imixs.workflow.engine.lucene.LuceneSearchService
+	 */
+	public List<ItemCollection> find(String searchTerm, int pageSize, int pageIndex, String sortBy, boolean sortReverse,
+			List<String> items) throws QueryException {
 		logger.finest("......find - SearchTerm=" + searchTerm + "  , pageSize=" + pageSize + " pageNumber=" + pageIndex
 				+ " , sortBy=" + sortBy + " reverse=" + sortReverse);
 
@@ -722,11 +953,87 @@ public class DocumentService {
 			// we do not support multi values here - see
 			// LuceneUpdateService.addItemValues
 			// it would be possible if we use a SortedSetSortField class here
-			sortOrder = new Sort(new SortField[] { new SortField(sortBy, Type.STRING, sortReverse) });
+			sortOrder = new Sort(new SortField[] { luceneSearchService.createSortField(sortBy, sortReverse) });
 		}
 
-		return luceneSearchService.search(searchTerm, pageSize, pageIndex, sortOrder, null);
+		return luceneSearchService.search(searchTerm, pageSize, pageIndex, sortOrder, null, items);
+
+	}
+
+	/**
+	 * The method returns a page of ItemCollections by calling the
+	 * LuceneSearchService. In difference to the method find(String, int, int,
+	 * String, boolean, List) the page is addressed by a cursor returned with the
+	 * previous page. For the first page the cursor is null. The costs of a page do
+	 * not grow with the number of pages already read, so the method should be used
+	 * to read large results page by page.
+	 * 
+	 * @param searchTerm
+	 *            - Lucene search term
+	 * @param pageSize
+	 *            - total docs per page
+	 * @param cursor
+	 *            - cursor of the previous page or null
+	 * @param sortBy
+	 *            -optional field to sort the result
+	 * @param sortReverse
+	 *            - optional sort direction
+	 * @param items
+	 *            - optional list of items to be returned
+	 * @return page of ItemCollection elements and the cursor of the next page
+	 * @throws QueryException
+	 * 
+	 * @see org.imixs.workflow.engine.lucene.LuceneSearchService
+	 */
+	public SearchResult findAfter(String searchTerm, int pageSize, String cursor, String sortBy, boolean sortReverse,
+			List<String> items) throws QueryException {
+		logger.finest("......findAfter - SearchTerm=" + searchTerm + "  , pageSize=" + pageSize + " cursor=" + cursor
+				+ " , sortBy=" + sortBy + " reverse=" + sortReverse);
+
+		// create sort object
+		Sort sortOrder = null;
+		if (sortBy != null && !sortBy.isEmpty()) {
+			sortOrder = new Sort(new SortField[] { luceneSearchService.createSortField(sortBy, sortReverse) });
+		}
 
+		return luceneSearchService.searchAfter(searchTerm, pageSize, cursor, sortOrder, null, items);
+	}
+
+	/**
+	 * Returns a stream of all documents matching the search term. The documents
+	 * are read from one state of the index and loaded in blocks from the database.
+	 * The method can be used to export large results with constant memory. The
+	 * stream must be closed after use:
+	 * 
+	 * <pre>
+	 * {@code
+	 * try (Stream<ItemCollection> documents = documentService.stream("type:workitem", "$created", false)) {
+	 * 	documents.forEach(document -> ...);
+	 * }
+	 * }
+	 * </pre>
+	 * 
+	 * @param searchTerm
+	 *            - Lucene search term
+	 * @param sortBy
+	 *            -optional field to sort the result
+	 * @param sortReverse
+	 *            - optional sort direction
+	 * @return stream of ItemCollection elements
+	 * @throws QueryException
+	 * 
+	 * @see org.imixs.workflow.engine.lucene.LuceneSearchService
+	 */
+	public Stream<ItemCollection> stream(String searchTerm, String sortBy, boolean sortReverse) throws QueryException {
+		logger.finest("......stream - SearchTerm=" + searchTerm + " , sortBy=" + sortBy + " reverse=" + sortReverse);
+
+		// create sort object
+		Sort sortOrder = null;
+		if (sortBy != null && !sortBy.isEmpty()) {
+			sortOrder = new Sort(new SortField[] { luceneSearchService.createSortField(sortBy, sortReverse) });
+		}
+
+		return luceneSearchService.stream(searchTerm, sortOrder, null, null);
 	}
 
 	/**
@@ -836,32 +1143,7 @@ public class DocumentService {
 		// filter result set by read access
 		for (Document doc : documentList) {
 			if (isCallerReader(doc)) {
-
-				ItemCollection _tmp = null;
-
-				if (doc.isPending()) {
-					// we clone but do not detach
-					logger.finest("......clone manged entity '" + doc.getId() + "' pending status=" + doc.isPending());
-					_tmp = new ItemCollection(doc.getData());
-				} else {
-					// the document is not managed, so we detach it
-					_tmp = new ItemCollection();
-					_tmp.setAllItems(doc.getData());
-					manager.detach(doc);
-				}
-
-				// if disable Optimistic Locking is TRUE we do not add the
-				// version number
-				if (disableOptimisticLocking) {
-					_tmp.removeItem("$Version");
-				} else {
-					_tmp.replaceItemValue("$Version", doc.getVersion());
-				}
-
-				// update the $isauthor flag
-				_tmp.replaceItemValue("$isauthor", isCallerAuthor(doc));
-
-				result.add(_tmp);
+				result.add(createItemCollection(doc));
 			}
 		}
 
@@ -874,19 +1156,18 @@ public class DocumentService {
 	 * This method creates a backup of the result set form a Lucene search query.
 	 * The document list will be stored into the file system. The method stores the
 	 * Map from the ItemCollection to be independent from version upgrades. To
-	 * manage large dataSets the method reads the documents in smaller blocks
+	 * manage large dataSets the method reads the documents with a stream from one
+	 * state of the index (see stream()).
+	 * <p>
+	 * The documents are written in compressed chunks of BackupFile.DEFAULT_CHUNK_SIZE
+	 * documents. After the last document a manifest describing the chunks is
+	 * written into the file '[filePath].manifest' (see BackupFile).
 	 * 
 	 * @param entities
 	 * @throws IOException
 	 * @throws QueryException
 	 */
 	public void backup(String query, String filePath) throws IOException, QueryException {
-		boolean hasMoreData = true;
-		int JUNK_SIZE = 100;
-		long totalcount = 0;
-		int pageIndex = 0;
-		int icount = 0;
-
 		logger.info("backup - starting...");
 		logger.info("backup - query=" + query);
 		logger.info("backup - target=" + filePath);
@@ -896,44 +1177,186 @@ public class DocumentService {
 			return;
 		}
 
-		FileOutputStream fos = new FileOutputStream(filePath);
-		ObjectOutputStream out = new ObjectOutputStream(fos);
-		while (hasMoreData) {
-			// read a junk....
+		long l = System.currentTimeMillis();
+		long icount = 0;
+		try (Stream<ItemCollection> documents = stream(query, null, false);
+				BackupFile.Writer out = new BackupFile.Writer(filePath, BackupFile.DEFAULT_CHUNK_SIZE)) {
+			Iterator<ItemCollection> iter = documents.iterator();
+			while (iter.hasNext()) {
+				out.write(iter.next().getAllItems());
+				icount++;
+				if (icount % BackupFile.DEFAULT_CHUNK_SIZE == 0) {
+					logger.info("backup - processing...... " + icount + " documents read....");
+				}
+			}
+			// a failed backup has no manifest
+			out.finish();
+		}
+		logger.info("backup - finished: " + icount + " documents read totaly in "
+				+ (System.currentTimeMillis() - l) + "ms.");
+	}
 
-			Collection<ItemCollection> col = find(query, JUNK_SIZE, pageIndex);
-			totalcount = totalcount + col.size();
-			logger.info("backup - processing...... " + col.size() + " documents read....");
+	/**
+	 * This method restores a backup from the file system and imports the Documents
+	 * into the database.
+	 * <p>
+	 * The chunks of the backup file are restored in parallel by up to
+	 * RESTORE_THREADS asynchronous calls. Each transaction saves up to
+	 * RESTORE_TRANSACTION_SIZE documents. The completed chunks are recorded, so an
+	 * interrupted restore can be called again and continues with the chunks not
+	 * yet completed.
+	 * <p>
+	 * Backup files written in the former format (a stream of serialized maps) are
+	 * restored document by document.
+	 * 
+	 * @param filepath
+	 * @throws IOException
+	 */
+	@TransactionAttribute(value = TransactionAttributeType.NOT_SUPPORTED)
+	public void restore(String filePath) throws IOException {
+		if (!BackupFile.isBackupFile(filePath)) {
+			restoreSerializedMaps(filePath);
+			return;
+		}
 
-			if (col.size() < JUNK_SIZE) {
-				hasMoreData = false;
-				logger.finest("......all data read.");
+		long l = System.currentTimeMillis();
+		BackupFile backupFile = new BackupFile(filePath);
+		Set<Integer> completedChunks = backupFile.getCompletedChunks();
+		logger.info("...starting restore form file " + filePath + " - " + backupFile.getDocumentCount()
+				+ " documents in " + backupFile.getChunkCount() + " chunks, " + completedChunks.size()
+				+ " chunks already restored...");
+
+		DocumentService service = ctx.getBusinessObject(DocumentService.class);
+		List<Future<Integer>> running = new ArrayList<Future<Integer>>();
+		long totalcount = 0;
+		int errorChunks = 0;
+		for (int i = 0; i < backupFile.getChunkCount(); i++) {
+			if (completedChunks.contains(i)) {
+				continue;
+			}
+			if (running.size() >= RESTORE_THREADS) {
+				// wait for the oldest chunk
+				int restored = getRestoreResult(running.remove(0));
+				if (restored < 0) {
+					errorChunks++;
+				} else {
+					totalcount += restored;
+				}
+			}
+			running.add(service.restoreChunk(filePath, i));
+		}
+		for (Future<Integer> result : running) {
+			int restored = getRestoreResult(result);
+			if (restored < 0) {
+				errorChunks++;
 			} else {
-				pageIndex++;
-				logger.finest("......next page...");
+				totalcount += restored;
 			}
+		}
 
-			for (ItemCollection aworkitem : col) {
-				// get serialized data
-				Map<?, ?> hmap = aworkitem.getAllItems();
-				// write object
-				out.writeObject(hmap);
-				icount++;
+		if (errorChunks == 0) {
+			backupFile.clearProgress();
+			logger.info("Import successfull! " + totalcount + " Entities imported in "
+					+ (System.currentTimeMillis() - l) + "ms. Import FileName:" + filePath);
+		} else {
+			logger.severe("Import incomplete! " + totalcount + " Entities imported, " + errorChunks
+					+ " chunks failed. Call restore again to continue. Import FileName:" + filePath);
+		}
+	}
+
+	/**
+	 * Restores one chunk of a backup file. The documents are saved in
+	 * transactions of RESTORE_TRANSACTION_SIZE documents. If all documents are
+	 * saved, the chunk is marked as completed.
+	 * 
+	 * @param filePath
+	 * @param chunk
+	 *            - chunk index
+	 * @return number of restored documents or -1 if the chunk could not be read
+	 */
+	@Asynchronous
+	@TransactionAttribute(value = TransactionAttributeType.NOT_SUPPORTED)
+	public Future<Integer> restoreChunk(String filePath, int chunk) {
+		return new AsyncResult<Integer>(restoreChunkDocuments(filePath, chunk));
+	}
+
+	/**
+	 * Saves the documents of a chunk and marks the chunk as completed.
+	 * 
+	 * @param filePath
+	 * @param chunk
+	 *            - chunk index
+	 * @return number of restored documents or -1 if the chunk could not be read
+	 */
+	int restoreChunkDocuments(String filePath, int chunk) {
+		int count = 0;
+		try {
+			BackupFile backupFile = new BackupFile(filePath);
+			List<ItemCollection> block = new ArrayList<ItemCollection>();
+			for (Map<String, List<Object>> data : backupFile.readChunk(chunk)) {
+				ItemCollection itemCol = new ItemCollection(data);
+				// remove the $version property!
+				itemCol.removeItem("$Version");
+				block.add(itemCol);
+				if (block.size() >= RESTORE_TRANSACTION_SIZE) {
+					count += ctx.getBusinessObject(DocumentService.class).restoreByNewTransaction(block);
+					block = new ArrayList<ItemCollection>();
+				}
+			}
+			if (!block.isEmpty()) {
+				count += ctx.getBusinessObject(DocumentService.class).restoreByNewTransaction(block);
 			}
+			backupFile.setChunkCompleted(chunk);
+			logger.fine("...restored chunk " + chunk + " - " + count + " documents");
+			return count;
+		} catch (IOException e) {
+			logger.severe("...error restoring chunk " + chunk + " from " + filePath + " Error: " + e.getMessage());
+			return -1;
 		}
-		out.close();
-		logger.info("backup - finished: " + icount + " documents read totaly.");
 	}
 
 	/**
-	 * This method restores a backup from the file system and imports the Documents
-	 * into the database.
+	 * Saves a block of restored documents in a new transaction. Documents which
+	 * can not be saved by the CallerPrincipal are skipped.
+	 * 
+	 * @param documents
+	 * @return number of saved documents
+	 */
+	@TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+	public int restoreByNewTransaction(List<ItemCollection> documents) {
+		int count = 0;
+		for (SaveResult saveResult : saveAll(documents)) {
+			if (saveResult.isSaved()) {
+				count++;
+			} else {
+				logger.warning("...error importing document " + saveResult.getDocument().getUniqueID() + " Error: "
+						+ saveResult.getError().getMessage());
+			}
+		}
+		return count;
+	}
+
+	private int getRestoreResult(Future<Integer> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("restore interrupted", e);
+		} catch (ExecutionException e) {
+			logger.severe("...error restoring chunk: " + e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * Restores a backup file written in the former format. The file contains a
+	 * stream of serialized maps and each document is saved in a new transaction.
 	 * 
 	 * @param filepath
 	 * @throws IOException
 	 */
 	@SuppressWarnings({ "rawtypes", "unchecked" })
-	public void restore(String filePath) throws IOException {
+	private void restoreSerializedMaps(String filePath) throws IOException {
 		int JUNK_SIZE = 100;
 		long totalcount = 0;
 		long errorCount = 0;
@@ -983,6 +1406,44 @@ public class DocumentService {
 		logger.info(loginfo);
 	}
 
+	/**
+	 * Creates an ItemCollection from a loaded Document entity. In case the
+	 * document is not flagged (not saved during same transaction), we detach the
+	 * entity. In case the document is flagged we may not detach it, but create a
+	 * copy-on-write view of the document data (issue #230).
+	 * <p>
+	 * The method updates the items $Version and $isauthor.
+	 * 
+	 * @param persistedDocument
+	 * @return ItemCollection
+	 */
+	private ItemCollection createItemCollection(Document persistedDocument) {
+		ItemCollection result = null;
+		if (persistedDocument.isPending()) {
+			// we create a copy-on-write view but do not detach
+			logger.finest("......clone manged entity '" + persistedDocument.getId() + "' pending status="
+					+ persistedDocument.isPending());
+			result = ItemCollection.createCopyOnWrite(persistedDocument.getData());
+		} else {
+			// the document is not managed, so we detach it
+			result = new ItemCollection();
+			result.setAllItems(persistedDocument.getData());
+			manager.detach(persistedDocument);
+		}
+
+		// if disable Optimistic Locking is TRUE we do not add the version
+		// number
+		if (disableOptimisticLocking) {
+			result.removeItem("$Version");
+		} else {
+			result.replaceItemValue("$Version", persistedDocument.getVersion());
+		}
+
+		// update the $isauthor flag
+		result.replaceItemValue("$isauthor", isCallerAuthor(persistedDocument));
+		return result;
+	}
+
 	/**
 	 * This method checks if the Caller Principal has read access for the document.
 	 * 
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.annotation.security.DeclareRoles;
+import javax.annotation.security.RolesAllowed;
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Stateless;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.imixs.workflow.bpmn.BPMNModel;
+import org.imixs.workflow.bpmn.BPMNParser;
+import org.imixs.workflow.exceptions.ModelException;
+import org.xml.sax.SAXException;
+
+/**
+ * The ModelLoaderService loads the BPMN models stored in the database. The
+ * method loadModel() is called asynchronously by the ModelService, so all
+ * model files are parsed in parallel by the container.
+ * <p>
+ * If the property 'model.snapshotDir' is defined in the imixs.properties, the
+ * service writes a snapshot of each parsed model into this directory. A model
+ * with an unchanged BPMN file is restored from its snapshot without parsing the
+ * file.
+ * 
+ * @see ModelService
+ * @see ModelSnapshot
+ * @author rsoika
+ * @version 1.0
+ */
+@DeclareRoles({ "org.imixs.ACCESSLEVEL.NOACCESS", "org.imixs.ACCESSLEVEL.READERACCESS",
+		"org.imixs.ACCESSLEVEL.AUTHORACCESS", "org.imixs.ACCESSLEVEL.EDITORACCESS",
+		"org.imixs.ACCESSLEVEL.MANAGERACCESS" })
+@RolesAllowed({ "org.imixs.ACCESSLEVEL.NOACCESS", "org.imixs.ACCESSLEVEL.READERACCESS",
+		"org.imixs.ACCESSLEVEL.AUTHORACCESS", "org.imixs.ACCESSLEVEL.EDITORACCESS",
+		"org.imixs.ACCESSLEVEL.MANAGERACCESS" })
+@Stateless
+@LocalBean
+public class ModelLoaderService {
+
+	public static final String PROPERTY_SNAPSHOT_DIR = "model.snapshotDir";
+
+	private static Logger logger = Logger.getLogger(ModelLoaderService.class.getName());
+
+	@EJB
+	PropertyService propertyService;
+
+	/**
+	 * Loads a model from the content of a BPMN file in a separate thread.
+	 * 
+	 * @param fileName
+	 * @param rawData
+	 *            - the BPMN file content
+	 * @return the loaded model
+	 * @throws ModelException
+	 *             if the file is not a valid BPMN model
+	 */
+	@Asynchronous
+	public Future<LoadedModel> loadModel(String fileName, byte[] rawData) throws ModelException {
+		return new AsyncResult<LoadedModel>(readModel(fileName, rawData));
+	}
+
+	/**
+	 * Loads a model from its snapshot or parses the BPMN file. A new snapshot is
+	 * written after the file was parsed.
+	 * 
+	 * @param fileName
+	 * @param rawData
+	 * @return the loaded model
+	 * @throws ModelException
+	 */
+	LoadedModel readModel(String fileName, byte[] rawData) throws ModelException {
+		long l = System.currentTimeMillis();
+		File snapshotFile = null;
+		String snapshotDir = propertyService.getProperties().getProperty(PROPERTY_SNAPSHOT_DIR);
+		if (snapshotDir != null && !snapshotDir.isEmpty() && ModelSnapshot.isEnabled()) {
+			snapshotFile = ModelSnapshot.getFile(new File(snapshotDir), rawData);
+			if (snapshotFile.exists()) {
+				try {
+					BPMNModel model = ModelSnapshot.read(snapshotFile, rawData);
+					long time = System.currentTimeMillis() - l;
+					logger.info("...model '" + model.getVersion() + "' (" + fileName + ") restored from snapshot in "
+							+ time + "ms");
+					return new LoadedModel(model, time, true);
+				} catch (IOException | ModelException e) {
+					logger.warning("...unable to read model snapshot " + snapshotFile.getName() + ": " + e.getMessage());
+				}
+			}
+		}
+
+		BPMNModel model;
+		try {
+			model = BPMNParser.parseModel(new ByteArrayInputStream(rawData), "UTF-8");
+		} catch (ParseException | ParserConfigurationException | SAXException | IOException e) {
+			throw new ModelException(ModelException.INVALID_MODEL,
+					"Failed to parse model '" + fileName + "' : " + e.getMessage(), e);
+		}
+		if (snapshotFile != null) {
+			try {
+				ModelSnapshot.write(snapshotFile, model);
+			} catch (IOException e) {
+				logger.warning("...unable to write model snapshot " + snapshotFile.getName() + ": " + e.getMessage());
+			}
+		}
+		long time = System.currentTimeMillis() - l;
+		logger.fine("...model '" + model.getVersion() + "' (" + fileName + ") loaded in " + time + "ms");
+		return new LoadedModel(model, time, false);
+	}
+
+	/**
+	 * Removes the snapshots which do not belong to one of the deployed models. The
+	 * method is called after all models were loaded.
+	 * 
+	 * @param models
+	 *            - BPMN file content of all deployed models
+	 */
+	public void removeUnusedSnapshots(Collection<byte[]> models) {
+		String snapshotDir = propertyService.getProperties().getProperty(PROPERTY_SNAPSHOT_DIR);
+		if (snapshotDir != null && !snapshotDir.isEmpty()) {
+			int count = ModelSnapshot.removeUnused(new File(snapshotDir), models);
+			if (count > 0) {
+				logger.info("..." + count + " unused model snapshots removed");
+			}
+		}
+	}
+
+	/**
+	 * A LoadedModel holds a model together with its load time.
+	 */
+	public static class LoadedModel {
+		private final BPMNModel model;
+		private final long time;
+		private final boolean snapshot;
+
+		public LoadedModel(BPMNModel model, long time, boolean snapshot) {
+			this.model = model;
+			this.time = time;
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * Returns the model.
+		 * 
+		 * @return model
+		 */
+		public BPMNModel getModel() {
+			return model;
+		}
+
+		/**
+		 * Returns the time in milliseconds to parse or restore the model.
+		 * 
+		 * @return load time
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * Returns true if the model was restored from a snapshot.
+		 * 
+		 * @return true if restored from snapshot
+		 */
+		public boolean isSnapshot() {
+			return snapshot;
+		}
+	}
+}
@@ -27,8 +27,6 @@
 
 package org.imixs.workflow.engine;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -37,6 +35,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.annotation.Resource;
@@ -44,6 +45,8 @@ import javax.annotation.security.DeclareRoles;
 import javax.annotation.security.RolesAllowed;
 import javax.ejb.EJB;
 import javax.ejb.LocalBean;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
 import javax.ejb.SessionContext;
 import javax.ejb.Singleton;
 
@@ -52,6 +55,7 @@ import org.imixs.workflow.Model;
 import org.imixs.workflow.ModelManager;
 import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.bpmn.BPMNModel;
+import org.imixs.workflow.engine.ModelLoaderService.LoadedModel;
 import org.imixs.workflow.bpmn.BPMNParser;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.InvalidAccessException;
@@ -87,10 +91,23 @@ import org.imixs.workflow.exceptions.QueryException;
 @LocalBean
 public class ModelService implements ModelManager {
 
+	public static final String METRIC_LOAD_COUNT = "model.load.count";
+	public static final String METRIC_LOAD_TIME = "model.load.time";
+	public static final String METRIC_SNAPSHOT_COUNT = "model.snapshot.count";
+	public static final String METRIC_MODEL_LOAD_TIME = "model.load.time.";
+
 	private Map<String, Model> modelStore = null;
+	private volatile boolean initialized = false;
+	private final Object initLock = new Object();
+	private Map<String, ProcessPlan> processPlans = new ConcurrentHashMap<String, ProcessPlan>();
+	private Map<String, Long> modelLoadTimes = new TreeMap<String, Long>();
+	private long loadTime = 0;
+	private int snapshotCount = 0;
 	private static Logger logger = Logger.getLogger(ModelService.class.getName());
 	@EJB
 	DocumentService documentService;
+	@EJB
+	ModelLoaderService modelLoaderService;
 	@Resource
 	SessionContext ctx;
 
@@ -103,14 +120,21 @@ public class ModelService implements ModelManager {
 	 * the database. The method can not be annotated with @PostConstruct because
 	 * in case a servlet with @RunAs annotation will not propagate the principal
 	 * in a PostConstruct. For that reason the method is called indirectly.
+	 * <p>
+	 * The model files are parsed in parallel by the ModelLoaderService. The load
+	 * time of each model is provided by the method getMetrics().
 	 * 
 	 * @throws AccessDeniedException
 	 */
 	void init() throws AccessDeniedException {
 		// load existing models into the ModelManager....
 		logger.info("Initalizing ModelService...");
+		long l = System.currentTimeMillis();
 		// first remove existing model entities
 		Collection<ItemCollection> col = documentService.getDocumentsByType("model");
+		List<String> fileNames = new ArrayList<String>();
+		List<byte[]> modelFiles = new ArrayList<byte[]>();
+		List<Future<LoadedModel>> results = new ArrayList<Future<LoadedModel>>();
 		for (ItemCollection modelEntity : col) {
 			Map<String, List<Object>> files = modelEntity.getFiles();
 			if (files != null) {
@@ -121,16 +145,56 @@ public class ModelService implements ModelManager {
 					logger.finest("......loading file:" + fileName);
 					List<Object> fileData = entry.getValue();
 					byte[] rawData = (byte[]) fileData.get(1);
-					InputStream bpmnInputStream = new ByteArrayInputStream(rawData);
+					modelFiles.add(rawData);
 					try {
-						Model model = BPMNParser.parseModel(bpmnInputStream, "UTF-8");
-						addModel(model);
+						results.add(modelLoaderService.loadModel(fileName, rawData));
+						fileNames.add(fileName);
 					} catch (Exception e) {
 						logger.warning("Failed to load model '" + fileName + "' : " + e.getMessage());
 					}
 				}
 			}
 		}
+
+		// add the models in the order of the model entities
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				LoadedModel loadedModel = results.get(i).get();
+				addModel(loadedModel.getModel());
+				modelLoadTimes.put(loadedModel.getModel().getVersion(), loadedModel.getTime());
+				if (loadedModel.isSnapshot()) {
+					snapshotCount++;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warning("Failed to load model '" + fileNames.get(i) + "' : " + e.getMessage());
+			} catch (Exception e) {
+				Throwable cause = (e instanceof ExecutionException && e.getCause() != null) ? e.getCause() : e;
+				logger.warning("Failed to load model '" + fileNames.get(i) + "' : " + cause.getMessage());
+			}
+		}
+		modelLoaderService.removeUnusedSnapshots(modelFiles);
+		loadTime = System.currentTimeMillis() - l;
+		logger.info("..." + modelLoadTimes.size() + " models loaded in " + loadTime + "ms (" + snapshotCount
+				+ " from snapshot)");
+	}
+
+	/**
+	 * Returns the number of models loaded at startup, the total load time in
+	 * milliseconds and the load time of each model version.
+	 * 
+	 * @return metrics
+	 */
+	public ItemCollection getMetrics() {
+		getModelStore();
+		ItemCollection metrics = new ItemCollection();
+		metrics.replaceItemValue(METRIC_LOAD_COUNT, modelLoadTimes.size());
+		metrics.replaceItemValue(METRIC_LOAD_TIME, loadTime);
+		metrics.replaceItemValue(METRIC_SNAPSHOT_COUNT, snapshotCount);
+		for (Map.Entry<String, Long> entry : modelLoadTimes.entrySet()) {
+			metrics.replaceItemValue(METRIC_MODEL_LOAD_TIME + entry.getKey(), entry.getValue());
+		}
+		return metrics;
 	}
 
 	@Override
@@ -147,6 +211,7 @@ public class ModelService implements ModelManager {
 		
 		logger.finest("......add BPMNModel '" + modelVersion + "'...");
 		getModelStore().put(modelVersion, model);
+		processPlans.put(modelVersion, new ProcessPlan(model));
 	}
 
 	/**
@@ -157,14 +222,18 @@ public class ModelService implements ModelManager {
 	 */
 	public void removeModel(String modelversion) {
 		getModelStore().remove(modelversion);
+		processPlans.remove(modelversion);
 		logger.finest("......removed BPMNModel '" + modelversion + "'...");
 	}
 
 	/**
 	 * Returns a Model by version. In case no matching model version exits, the
 	 * method throws a ModelException.
+	 * <p>
+	 * The method only reads the model store and so it is called with a read lock.
 	 **/
 	@Override
+	@Lock(LockType.READ)
 	public Model getModel(String version) throws ModelException {
 		Model model = getModelStore().get(version);
 		if (model == null) {
@@ -174,6 +243,32 @@ public class ModelService implements ModelManager {
 		return model;
 	}
 
+	/**
+	 * Returns the ProcessPlan of a model version. The plan is created when the
+	 * model is added and removed together with the model. In case no plan exists
+	 * for the version, the method creates the plan from the model.
+	 * <p>
+	 * The method is called with each save of a document and so it is called with
+	 * a read lock. Saves do not wait for each other.
+	 * 
+	 * @param version
+	 * @return ProcessPlan
+	 * @throws ModelException
+	 *             if the model version does not exist
+	 */
+	@Lock(LockType.READ)
+	public ProcessPlan getProcessPlan(String version) throws ModelException {
+		ProcessPlan processPlan = processPlans.get(version);
+		if (processPlan == null) {
+			processPlan = new ProcessPlan(getModel(version));
+			ProcessPlan existingPlan = processPlans.putIfAbsent(version, processPlan);
+			if (existingPlan != null) {
+				processPlan = existingPlan;
+			}
+		}
+		return processPlan;
+	}
+
 	/**
 	 * Returns a Model matching a given workitem. In case not matching model
 	 * version exits, the method returns the highest Model Version matching the
@@ -343,14 +438,26 @@ public class ModelService implements ModelManager {
 
 	/**
 	 * This method returns the modelStore or initialize it if not yet created.
+	 * <p>
+	 * The store can be initialized by a method called with a read lock, so the
+	 * initialization is synchronized. Other threads wait until all models are
+	 * loaded.
 	 * 
 	 * @return
 	 */
 	private Map<String, Model> getModelStore() {
-		if (modelStore == null) {
-			// create store (sorted map)
-			modelStore = new TreeMap<String, Model>();
-			init();
+		if (!initialized) {
+			synchronized (initLock) {
+				if (modelStore == null) {
+					// create store (sorted map)
+					modelStore = new TreeMap<String, Model>();
+					try {
+						init();
+					} finally {
+						initialized = true;
+					}
+				}
+			}
 		}
 		return modelStore;
 	}
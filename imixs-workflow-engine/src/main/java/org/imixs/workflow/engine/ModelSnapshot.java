@@ -0,0 +1,359 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.ItemCollectionComparator;
+import org.imixs.workflow.bpmn.BPMNModel;
+import org.imixs.workflow.bpmn.BPMNModelHandler;
+import org.imixs.workflow.bpmn.BPMNParser;
+import org.imixs.workflow.engine.jpa.DataCodec;
+import org.imixs.workflow.engine.jpa.DocumentDataConverter;
+import org.imixs.workflow.exceptions.ModelException;
+
+/**
+ * A ModelSnapshot stores the elements of a BPMNModel built by the BPMNParser
+ * into a file. The file name is the SHA-256 hash of the parser version and the
+ * BPMN file content. So a snapshot is only used as long as the BPMN file and
+ * the parser are unchanged. Restoring a model from a snapshot is much faster
+ * than parsing the BPMN file.
+ * <p>
+ * The snapshot file starts with the magic bytes 'IMXMODEL', a format version
+ * and the parser version followed by the model definition, the workflow
+ * groups, the tasks and the events. Each element is encoded with the default
+ * DataCodec of the DocumentDataConverter. A snapshot written by another parser
+ * version is rejected.
+ * 
+ * @see ModelLoaderService
+ * @author rsoika
+ * @version 1.0
+ */
+class ModelSnapshot {
+
+	private static final byte[] MAGIC = { 'I', 'M', 'X', 'M', 'O', 'D', 'E', 'L' };
+	private static final int FORMAT_VERSION = 2;
+	private static final String ITEM_GROUPS = "groups";
+	private static final String FILE_SUFFIX = ".model";
+
+	/**
+	 * The version of the BPMN parser. The version is the Implementation-Version of
+	 * the core library followed by a hash of the parser classes including their
+	 * nested and anonymous classes, so a changed parser never uses the snapshots
+	 * of a former build. If a parser class can not be read, the version is null
+	 * and snapshots are disabled.
+	 */
+	static final String PARSER_VERSION;
+
+	private static Logger logger = Logger.getLogger(ModelSnapshot.class.getName());
+
+	static {
+		PARSER_VERSION = computeParserVersion();
+	}
+
+	private ModelSnapshot() {
+	}
+
+	/**
+	 * Returns true if snapshots can be used. This is not the case if the parser
+	 * version can not be computed.
+	 * 
+	 * @return true if snapshots are enabled
+	 */
+	static boolean isEnabled() {
+		return PARSER_VERSION != null;
+	}
+
+	/**
+	 * Returns the snapshot file for a BPMN file content in a given directory.
+	 * 
+	 * @param dir
+	 * @param rawData
+	 * @return snapshot file
+	 */
+	static File getFile(File dir, byte[] rawData) {
+		MessageDigest digest = createDigest();
+		digest.update(PARSER_VERSION.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		return new File(dir, toHex(digest.digest(rawData)) + FILE_SUFFIX);
+	}
+
+	/**
+	 * Removes all snapshot files from a directory which do not belong to one of the
+	 * given BPMN file contents. This removes the snapshots of deleted or changed
+	 * models and the snapshots of a former parser version.
+	 * 
+	 * @param dir
+	 * @param models
+	 *            - BPMN file content of all deployed models
+	 * @return number of removed snapshot files
+	 */
+	static int removeUnused(File dir, Collection<byte[]> models) {
+		Set<String> used = new HashSet<String>();
+		if (isEnabled()) {
+			for (byte[] rawData : models) {
+				used.add(getFile(dir, rawData).getName());
+			}
+		}
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		int count = 0;
+		for (File file : files) {
+			String name = file.getName();
+			if ((name.endsWith(FILE_SUFFIX) || name.endsWith(FILE_SUFFIX + ".tmp")) && !used.contains(name)
+					&& file.delete()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes a model into a snapshot file. The file is written into a temporary
+	 * file first and then renamed. So a snapshot file is always complete.
+	 * 
+	 * @param file
+	 * @param model
+	 * @throws IOException
+	 */
+	static void write(File file, BPMNModel model) throws IOException {
+		write(file, model, PARSER_VERSION);
+	}
+
+	static void write(File file, BPMNModel model, String parserVersion) throws IOException {
+		DataCodec codec = DocumentDataConverter.getDefaultCodec();
+		List<ItemCollection> tasks = model.findAllTasks();
+		List<ItemCollection> events = new ArrayList<ItemCollection>();
+		for (ItemCollection task : tasks) {
+			events.addAll(model.findAllEventsByTask(task.getItemValueInteger("numprocessid")));
+		}
+		ItemCollection groups = new ItemCollection();
+		groups.replaceItemValue(ITEM_GROUPS, model.getGroups());
+
+		file.getParentFile().mkdirs();
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.write(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(parserVersion);
+			writeItems(out, codec, model.getDefinition());
+			writeItems(out, codec, groups);
+			out.writeInt(tasks.size());
+			for (ItemCollection task : tasks) {
+				writeItems(out, codec, task);
+			}
+			out.writeInt(events.size());
+			for (ItemCollection event : events) {
+				writeItems(out, codec, event);
+			}
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads a model from a snapshot file.
+	 * 
+	 * @param file
+	 * @param rawData
+	 *            - the BPMN file content of the model
+	 * @return model
+	 * @throws IOException
+	 *             if the file is not a valid snapshot or was written by another
+	 *             parser version
+	 * @throws ModelException
+	 *             if the model elements are invalid
+	 */
+	@SuppressWarnings("unchecked")
+	static BPMNModel read(File file, byte[] rawData) throws IOException, ModelException {
+		DataCodec codec = DocumentDataConverter.getDefaultCodec();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i]) {
+					throw new IOException("invalid model snapshot " + file.getName());
+				}
+			}
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("unsupported model snapshot format " + version);
+			}
+			String parserVersion = in.readUTF();
+			if (!parserVersion.equals(PARSER_VERSION)) {
+				throw new IOException("model snapshot of parser version " + parserVersion);
+			}
+			ItemCollection definition = readItems(in, codec);
+			List<String> groups = readItems(in, codec).getItemValue(ITEM_GROUPS);
+			List<ItemCollection> tasks = new ArrayList<ItemCollection>();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				tasks.add(readItems(in, codec));
+			}
+			List<ItemCollection> events = new ArrayList<ItemCollection>();
+			count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				events.add(readItems(in, codec));
+			}
+			return BPMNModel.createModel(definition, groups, tasks, events, rawData);
+		}
+	}
+
+	private static String computeParserVersion() {
+		List<String> parserClasses = getParserClasses();
+		if (parserClasses == null) {
+			return null;
+		}
+		MessageDigest digest = createDigest();
+		for (String className : parserClasses) {
+			if (!readClass(className, digest)) {
+				logger.warning("...unable to read parser class " + className + " - model snapshots are disabled");
+				return null;
+			}
+		}
+		String version = BPMNParser.class.getPackage().getImplementationVersion();
+		return (version != null ? version : "") + "-" + toHex(digest.digest()).substring(0, 16);
+	}
+
+	/**
+	 * Returns the names of the parser classes including their nested and
+	 * anonymous classes. Returns null if a class file can not be found.
+	 * 
+	 * @return class names or null
+	 */
+	static List<String> getParserClasses() {
+		List<Class<?>> parserClasses = new ArrayList<Class<?>>();
+		for (Class<?> parserClass : new Class<?>[] { BPMNParser.class, BPMNModelHandler.class, BPMNModel.class,
+				ItemCollectionComparator.class }) {
+			collectClasses(parserClass, parserClasses);
+		}
+		List<String> result = new ArrayList<String>();
+		for (Class<?> parserClass : parserClasses) {
+			if (BPMNParser.class.getResource(getResourceName(parserClass.getName())) == null) {
+				logger.warning("...unable to find parser class " + parserClass.getName()
+						+ " - model snapshots are disabled");
+				return null;
+			}
+			result.add(parserClass.getName());
+			// anonymous classes
+			for (int i = 1; BPMNParser.class
+					.getResource(getResourceName(parserClass.getName() + "$" + i)) != null; i++) {
+				result.add(parserClass.getName() + "$" + i);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a class and all its nested classes to the given list.
+	 */
+	private static void collectClasses(Class<?> type, List<Class<?>> result) {
+		result.add(type);
+		for (Class<?> nestedClass : type.getDeclaredClasses()) {
+			collectClasses(nestedClass, result);
+		}
+	}
+
+	/**
+	 * Adds the name and the byte code of a class to the digest. Returns false if
+	 * the class file can not be read.
+	 */
+	private static boolean readClass(String className, MessageDigest digest) {
+		String resource = getResourceName(className);
+		try (InputStream in = BPMNParser.class.getResourceAsStream(resource)) {
+			if (in == null) {
+				return false;
+			}
+			digest.update(resource.getBytes(StandardCharsets.UTF_8));
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static String getResourceName(String className) {
+		return "/" + className.replace('.', '/') + ".class";
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] hash) {
+		StringBuilder result = new StringBuilder();
+		for (byte b : hash) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	private static void writeItems(DataOutputStream out, DataCodec codec, ItemCollection document)
+			throws IOException {
+		byte[] data = codec.encode(document.getAllItems());
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	private static ItemCollection readItems(DataInputStream in, DataCodec codec) throws IOException {
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		Map<String, List<Object>> items = codec.decode(data);
+		return ItemCollection.createByReference(items);
+	}
+}
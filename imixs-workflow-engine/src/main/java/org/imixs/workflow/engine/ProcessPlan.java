@@ -0,0 +1,237 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.Model;
+import org.imixs.workflow.Plugin;
+import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.exceptions.PluginException;
+
+/**
+ * A ProcessPlan holds the plugin chain of a model version. The plan is created
+ * by the ModelService when a model is added and is shared by all processing
+ * requests for this model version. The plugin class names are read from the
+ * item 'txtPlugins' of the model definition and the plugin classes are resolved
+ * once with the class loader of the WorkflowKernel. So a processing request
+ * does not need to copy the model definition or to look up the plugin classes
+ * by name.
+ * <p>
+ * In addition the plan holds the scheduled events (keyScheduledActivity=1) of
+ * each task. These events are used by the WorkflowSchedulerService. For each
+ * task the plan computes a fingerprint of the scheduled events, which changes
+ * if the schedule of the task is changed by a model update.
+ * <p>
+ * A ProcessPlan is immutable. Plugin instances are created for each processing
+ * request by the method createPlugin().
+ * 
+ * @see ModelService#getProcessPlan(String)
+ * @author rsoika
+ * @version 1.0
+ */
+public class ProcessPlan {
+
+	private static Logger logger = Logger.getLogger(ProcessPlan.class.getName());
+
+	private final String modelVersion;
+	private final List<String> plugins;
+	private final Map<String, Class<? extends Plugin>> pluginClasses;
+	private final Map<Integer, List<ItemCollection>> scheduledEvents;
+	private final Map<Integer, String> scheduleFingerprints;
+
+	/**
+	 * Creates the plan for a model. Plugin classes which can not be resolved are
+	 * reported when a plugin instance is created.
+	 * 
+	 * @param model
+	 */
+	public ProcessPlan(Model model) {
+		ItemCollection definition = model.getDefinition();
+		modelVersion = definition.getModelVersion();
+		List<String> pluginList = new ArrayList<String>();
+		Map<String, Class<? extends Plugin>> classes = new HashMap<String, Class<? extends Plugin>>();
+		for (Object value : definition.getItemValue("txtPlugins")) {
+			String pluginClassName = String.valueOf(value);
+			pluginList.add(pluginClassName);
+			if (!pluginClassName.isEmpty() && !classes.containsKey(pluginClassName)) {
+				Class<? extends Plugin> pluginClass = resolvePluginClass(pluginClassName);
+				if (pluginClass != null) {
+					classes.put(pluginClassName, pluginClass);
+				}
+			}
+		}
+		plugins = Collections.unmodifiableList(pluginList);
+		pluginClasses = classes;
+
+		// collect the scheduled events of each task
+		Map<Integer, List<ItemCollection>> events = new LinkedHashMap<Integer, List<ItemCollection>>();
+		Map<Integer, String> fingerprints = new HashMap<Integer, String>();
+		for (ItemCollection task : model.findAllTasks()) {
+			int taskID = task.getItemValueInteger("numprocessid");
+			List<ItemCollection> taskEvents = new ArrayList<ItemCollection>();
+			for (ItemCollection event : model.findAllEventsByTask(taskID)) {
+				if ("1".equals(event.getItemValueString("keyScheduledActivity"))) {
+					taskEvents.add(event);
+				}
+			}
+			if (!taskEvents.isEmpty()) {
+				events.put(taskID, Collections.unmodifiableList(taskEvents));
+				fingerprints.put(taskID, computeFingerprint(taskEvents));
+			}
+		}
+		scheduledEvents = events;
+		scheduleFingerprints = fingerprints;
+	}
+
+	/**
+	 * Returns the model version of this plan.
+	 * 
+	 * @return model version
+	 */
+	public String getModelVersion() {
+		return modelVersion;
+	}
+
+	/**
+	 * Returns the ordered list of plugin class names defined by the model.
+	 * 
+	 * @return unmodifiable list of plugin class names
+	 */
+	public List<String> getPlugins() {
+		return plugins;
+	}
+
+	/**
+	 * Returns the scheduled events of all tasks.
+	 * 
+	 * @return list of scheduled events
+	 */
+	public List<ItemCollection> getScheduledEvents() {
+		List<ItemCollection> result = new ArrayList<ItemCollection>();
+		for (List<ItemCollection> events : scheduledEvents.values()) {
+			result.addAll(events);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the scheduled events of a task.
+	 * 
+	 * @param taskID
+	 * @return unmodifiable list of scheduled events, empty if the task has no
+	 *         scheduled events
+	 */
+	public List<ItemCollection> getScheduledEvents(int taskID) {
+		List<ItemCollection> result = scheduledEvents.get(taskID);
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a fingerprint of the scheduled events of a task. The fingerprint
+	 * changes if a scheduled event is added or removed or if the delay or the base
+	 * date of a scheduled event is changed.
+	 * 
+	 * @param taskID
+	 * @return fingerprint or an empty string if the task has no scheduled events
+	 */
+	public String getScheduleFingerprint(int taskID) {
+		String result = scheduleFingerprints.get(taskID);
+		if (result == null) {
+			return "";
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a new instance of a plugin class of this plan. The method returns
+	 * null if the class was not resolved when the plan was created. In this case
+	 * the plugin should be registered by the method
+	 * WorkflowKernel.registerPlugin(String) which reports the error.
+	 * 
+	 * @param pluginClassName
+	 * @return new plugin instance or null if the class is unknown
+	 * @throws PluginException
+	 */
+	public Plugin createPlugin(String pluginClassName) throws PluginException {
+		Class<? extends Plugin> pluginClass = pluginClasses.get(pluginClassName);
+		if (pluginClass == null) {
+			return null;
+		}
+		try {
+			return pluginClass.newInstance();
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new PluginException(WorkflowKernel.class.getSimpleName(), WorkflowKernel.PLUGIN_NOT_CREATEABLE,
+					"unable to register plugin: " + pluginClassName + " - reason: " + e.toString(), e);
+		}
+	}
+
+	/**
+	 * Computes the fingerprint of a list of scheduled events from the items used
+	 * to compute the due date of an event.
+	 */
+	private static String computeFingerprint(List<ItemCollection> events) {
+		StringBuilder sb = new StringBuilder();
+		for (ItemCollection event : events) {
+			sb.append(event.getItemValueInteger("numactivityid")).append('|')
+					.append(event.getItemValueString("keyScheduledBaseObject")).append('|')
+					.append(event.getItemValueString("keyTimeCompareField")).append('|')
+					.append(event.getItemValueString("keyActivityDelayUnit")).append('|')
+					.append(event.getItemValueInteger("numActivityDelay")).append(';');
+		}
+		return UUID.nameUUIDFromBytes(sb.toString().getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+	}
+
+	@SuppressWarnings("unchecked")
+	private Class<? extends Plugin> resolvePluginClass(String pluginClassName) {
+		try {
+			Class<?> clazz = Class.forName(pluginClassName, true, WorkflowKernel.class.getClassLoader());
+			if (Plugin.class.isAssignableFrom(clazz)) {
+				return (Class<? extends Plugin>) clazz;
+			}
+			logger.warning("...class '" + pluginClassName + "' defined by model version '" + modelVersion
+					+ "' is not a plugin");
+		} catch (ClassNotFoundException | LinkageError e) {
+			logger.warning("...plugin class '" + pluginClassName + "' defined by model version '" + modelVersion
+					+ "' not found: " + e.getMessage());
+		}
+		return null;
+	}
+}
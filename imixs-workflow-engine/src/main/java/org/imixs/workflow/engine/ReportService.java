@@ -36,12 +36,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import javax.annotation.security.DeclareRoles;
 import javax.annotation.security.RolesAllowed;
@@ -51,6 +55,8 @@ import javax.ejb.Stateless;
 
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.ItemCollectionComparator;
+import org.imixs.workflow.engine.lucene.LuceneIndexService;
+import org.imixs.workflow.engine.lucene.LuceneUpdateService;
 import org.imixs.workflow.engine.plugins.AbstractPlugin;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.QueryException;
@@ -68,6 +74,14 @@ import org.imixs.workflow.util.XMLParser;
  * eql statement will be processed by the processQuery method and should return
  * a collection of entities defined by the query.
  * 
+ * The result of a report can be cached by the optional item 'cacheTTL' of the
+ * report entity. The item defines the time to live of a cached result in
+ * seconds. The cache key is the resolved query, the page, the sort order and
+ * the user name list of the caller. A cached result is invalidated as soon as
+ * the generation of the lucene searcher changes or the time to live has expired.
+ * The cache holds at most MAX_CACHE_SIZE results and removes the least recently
+ * used result first. The hits and misses per report are provided by the method
+ * getMetrics().
  * 
  * @author Ralph Soika
  * 
@@ -83,11 +97,36 @@ import org.imixs.workflow.util.XMLParser;
 @LocalBean
 public class ReportService {
 
+	public static final String ITEM_CACHE_TTL = "cacheTTL";
+	public static final int MAX_CACHE_SIZE = 100;
+
+	public static final String METRIC_CACHE_HITS = "report.cache.hits.";
+	public static final String METRIC_CACHE_MISSES = "report.cache.misses.";
+	public static final String METRIC_CACHE_SIZE = "report.cache.size";
+
 	private static Logger logger = Logger.getLogger(ReportService.class.getName());
 
+	private static final Map<String, CachedResult> CACHE = Collections
+			.synchronizedMap(new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+					return size() > MAX_CACHE_SIZE;
+				}
+			});
+	private static final Map<String, AtomicLong> cacheHits = new ConcurrentHashMap<String, AtomicLong>();
+	private static final Map<String, AtomicLong> cacheMisses = new ConcurrentHashMap<String, AtomicLong>();
+
 	@EJB
 	DocumentService documentService;
 
+	@EJB
+	LuceneIndexService luceneIndexService;
+
+	@EJB
+	LuceneUpdateService luceneUpdateService;
+
 	/**
 	 * Returns a Report Entity identified by the attribute name
 	 * 
@@ -166,6 +205,9 @@ public class ReportService {
 	 *  datDate<format locale="de" label="Date">yy-dd-mm</format>
 	 * 
 	 * }
+	 * <p>
+	 * If the report entity defines the item 'cacheTTL', the result is cached for
+	 * the given seconds until the lucene index changes.
 	 * 
 	 * @param reportName
 	 *            - name of the report to be executed
@@ -193,6 +235,142 @@ public class ReportService {
 
 		// Load Query Object
 		ItemCollection reportEntity = findReport(reportName);
+		String query = resolveQuery(reportEntity, params);
+
+		// lookup the result cache
+		long cacheTTL = reportEntity.getItemValueLong(ITEM_CACHE_TTL) * 1000;
+		String cacheKey = null;
+		long generation = 0;
+		if (cacheTTL > 0) {
+			generation = getIndexGeneration();
+			cacheKey = reportName + "|" + query + "|" + pageSize + "|" + pageIndex + "|" + sortBy + "|" + sortReverse
+					+ "|" + documentService.getUserNameList();
+			CachedResult cachedResult = CACHE.get(cacheKey);
+			if (cachedResult != null && cachedResult.generation == generation
+					&& cachedResult.expires > System.currentTimeMillis()) {
+				countCacheAccess(cacheHits, reportName);
+				for (ItemCollection entity : cachedResult.result) {
+					clonedResult.add(new ItemCollection(entity));
+				}
+				logger.fine("...executed report '" + reportName + "' from cache in "
+						+ (System.currentTimeMillis() - l) + "ms");
+				return clonedResult;
+			}
+			countCacheAccess(cacheMisses, reportName);
+		}
+
+		// execute query
+		logger.finest("......executeReport query=" + query);
+		List<ItemCollection> result = documentService.find(query, pageSize, pageIndex, sortBy, sortReverse);
+
+		// next we iterate over all entities from the result set and clone
+		// each entity with the given attribute list and format instructions
+		List<List<String>> attributes = (List<List<String>>) reportEntity.getItemValue("attributes");
+		for (ItemCollection entity : result) {
+			clonedResult.addAll(cloneReportEntity(entity, attributes));
+		}
+		if (cacheKey != null) {
+			// the cache holds its own copy of the result
+			List<ItemCollection> cachedEntities = new ArrayList<ItemCollection>();
+			for (ItemCollection entity : clonedResult) {
+				cachedEntities.add(new ItemCollection(entity));
+			}
+			CACHE.put(cacheKey, new CachedResult(cachedEntities, generation, System.currentTimeMillis() + cacheTTL));
+		}
+		logger.fine("...executed report '" + reportName + "' in " + (System.currentTimeMillis() - l) + "ms");
+		return clonedResult;
+
+	}
+
+	/**
+	 * Returns the hits and misses of the result cache per report and the number
+	 * of cached results.
+	 * 
+	 * @return metrics
+	 */
+	public ItemCollection getMetrics() {
+		ItemCollection metrics = new ItemCollection();
+		for (Map.Entry<String, AtomicLong> entry : cacheHits.entrySet()) {
+			metrics.replaceItemValue(METRIC_CACHE_HITS + entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, AtomicLong> entry : cacheMisses.entrySet()) {
+			metrics.replaceItemValue(METRIC_CACHE_MISSES + entry.getKey(), entry.getValue().get());
+		}
+		metrics.replaceItemValue(METRIC_CACHE_SIZE, CACHE.size());
+		return metrics;
+	}
+
+	/**
+	 * Clears the result cache and the cache metrics.
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+		cacheHits.clear();
+		cacheMisses.clear();
+	}
+
+	/**
+	 * Returns the current generation of the lucene searcher. Event log entries
+	 * committed before this call are written into the index first. The generation
+	 * changes with each reopen of the searcher, so a cached result is only
+	 * returned as long as a search would use the same searcher.
+	 * 
+	 * @return index generation
+	 */
+	long getIndexGeneration() {
+		luceneUpdateService.waitForEventLog();
+		return luceneIndexService.getGeneration();
+	}
+
+	private static void countCacheAccess(Map<String, AtomicLong> counters, String reportName) {
+		counters.computeIfAbsent(reportName, name -> new AtomicLong()).incrementAndGet();
+	}
+
+	/**
+	 * This method executes the query of a Report Entity and returns a stream of
+	 * the formated entities. In difference to the method executeReport the
+	 * result is not paged. The entities are read with the method
+	 * DocumentService.stream() and so the complete result of a report can be
+	 * exported with constant memory. The stream must be closed after use.
+	 * 
+	 * @param reportName
+	 *            - name of the report to be executed
+	 * @param sortBy
+	 *            - optional item to sort the result
+	 * @param sortReverse
+	 *            - optional sort direction
+	 * @param params
+	 *            - optional parameter list to be mapped to the query
+	 * @return stream of entities
+	 * @throws QueryException
+	 */
+	@SuppressWarnings("unchecked")
+	public Stream<ItemCollection> streamReport(String reportName, String sortBy, boolean sortReverse,
+			Map<String, String> params) throws QueryException {
+		logger.finest("......streamReport: " + reportName);
+
+		// Load Query Object
+		ItemCollection reportEntity = findReport(reportName);
+		String query = resolveQuery(reportEntity, params);
+		logger.finest("......streamReport query=" + query);
+
+		final List<List<String>> attributes = (List<List<String>>) reportEntity.getItemValue("attributes");
+		// the stream is consumed after this method has returned, so the mapping
+		// must not refer to this bean instance
+		return documentService.stream(query, sortBy, sortReverse)
+				.flatMap(entity -> cloneReportEntity(entity, attributes).stream());
+	}
+
+	/**
+	 * Returns the query of a Report Entity. The params are replaced in the query
+	 * statement as well as the dynamic date values.
+	 * 
+	 * @param reportEntity
+	 * @param params
+	 *            - optional parameter list to be mapped to the query
+	 * @return query
+	 */
+	private String resolveQuery(ItemCollection reportEntity, Map<String, String> params) {
 		String query = reportEntity.getItemValueString("txtquery");
 
 		// replace params in query statement
@@ -212,41 +390,37 @@ public class ReportService {
 		}
 
 		// now we replace dynamic Date values
-		query = replaceDateString(query);
-
-		// execute query
-		logger.finest("......executeReport query=" + query);
-		List<ItemCollection> result = documentService.find(query, pageSize, pageIndex, sortBy, sortReverse);
+		return replaceDateString(query);
+	}
 
-		// test if a itemList is provided or defined in the reportEntity...
-		List<List<String>> attributes = (List<List<String>>) reportEntity.getItemValue("attributes");
+	/**
+	 * Clones an entity with the attribute list and format instructions of a
+	 * report. In case _ChildItems are requested the entity will be duplicated for
+	 * each child attribute. A child item is identified by the '~' char in the item
+	 * name.
+	 * 
+	 * @param entity
+	 * @param attributes
+	 *            - attribute list of the report
+	 * @return list of cloned entities
+	 */
+	private static List<ItemCollection> cloneReportEntity(ItemCollection entity, List<List<String>> attributes) {
 		List<String> itemNames = new ArrayList<String>();
 		for (List<String> attribute : attributes) {
 			itemNames.add(attribute.get(0));
 		}
 
-		// next we iterate over all entities from the result set and clone
-		// each entity with the given attribute list and format instructions
-		for (ItemCollection entity : result) {
-
-			// in case _ChildItems are requested the entity will be
-			// duplicated for each child attribute.
-			// a child item is identified by the '~' char in the item name
-			List<ItemCollection> embeddedChildItems = getEmbeddedChildItems(entity, itemNames);
-			if (!embeddedChildItems.isEmpty()) {
-				for (ItemCollection child : embeddedChildItems) {
-					ItemCollection clone = cloneEntity(child, attributes);
-					clonedResult.add(clone);
-				}
-			} else {
-				// default - clone the entity
-				ItemCollection clone = cloneEntity(entity, attributes);
-				clonedResult.add(clone);
+		List<ItemCollection> result = new ArrayList<ItemCollection>();
+		List<ItemCollection> embeddedChildItems = getEmbeddedChildItems(entity, itemNames);
+		if (!embeddedChildItems.isEmpty()) {
+			for (ItemCollection child : embeddedChildItems) {
+				result.add(cloneEntity(child, attributes));
 			}
+		} else {
+			// default - clone the entity
+			result.add(cloneEntity(entity, attributes));
 		}
-		logger.fine("...executed report '" + reportName + "' in " + (System.currentTimeMillis() - l) + "ms");
-		return clonedResult;
-
+		return result;
 	}
 
 	/**
@@ -260,7 +434,7 @@ public class ReportService {
 	 * @return
 	 */
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private List<ItemCollection> getEmbeddedChildItems(ItemCollection entity, List<String> fieldNames) {
+	private static List<ItemCollection> getEmbeddedChildItems(ItemCollection entity, List<String> fieldNames) {
 		List<String> embeddedItemNames = new ArrayList<String>();
 		List<ItemCollection> result = new ArrayList<ItemCollection>();
 		// first find all items containing a child element
@@ -303,7 +477,7 @@ public class ReportService {
 	 * @return
 	 */
 	@SuppressWarnings({ "unused", "unchecked" })
-	private ItemCollection cloneEntity(ItemCollection entity, List<List<String>> attributes) {
+	private static ItemCollection cloneEntity(ItemCollection entity, List<List<String>> attributes) {
 		ItemCollection clone = null;
 
 		// if we have a itemList we clone each entity of the result set
@@ -532,7 +706,7 @@ public class ReportService {
 	 * @param aName
 	 * @return
 	 */
-	private boolean isValidAttributeName(String aName) {
+	private static boolean isValidAttributeName(String aName) {
 		if ("$creator".equalsIgnoreCase(aName))
 			return false;
 		if ("namcreator".equalsIgnoreCase(aName))
@@ -565,7 +739,7 @@ public class ReportService {
 	 * @param o
 	 * @return
 	 */
-	private String formatObjectValue(Object o, String format, String locale) {
+	private static String formatObjectValue(Object o, String format, String locale) {
 		String singleValue = "";
 		Date dateValue = null;
 
@@ -659,7 +833,7 @@ public class ReportService {
 	 * @return
 	 */
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private List<Object> convertItemValue(ItemCollection itemcol, String itemName, String converter) {
+	private static List<Object> convertItemValue(ItemCollection itemcol, String itemName, String converter) {
 
 		if (converter == null || converter.isEmpty()) {
 			return itemcol.getItemValue(itemName);
@@ -733,4 +907,20 @@ public class ReportService {
 
 		return locale;
 	}
+
+	/**
+	 * A cached result of a report with the index generation and the expiry time
+	 * of the result.
+	 */
+	private static class CachedResult {
+		final List<ItemCollection> result;
+		final long generation;
+		final long expires;
+
+		CachedResult(List<ItemCollection> result, long generation, long expires) {
+			this.result = result;
+			this.generation = generation;
+			this.expires = expires;
+		}
+	}
 }
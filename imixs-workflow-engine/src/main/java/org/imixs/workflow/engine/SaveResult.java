@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.exceptions.AccessDeniedException;
+
+/**
+ * A SaveResult holds the outcome for one document of a bulk save. If the
+ * document was saved, the result contains the updated document. Otherwise the
+ * result contains the AccessDeniedException thrown for the document.
+ * 
+ * @see DocumentService#saveAll(java.util.Collection)
+ * @author rsoika
+ * @version 1.0
+ */
+public class SaveResult implements java.io.Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ItemCollection document;
+	private final AccessDeniedException error;
+
+	public SaveResult(ItemCollection document, AccessDeniedException error) {
+		this.document = document;
+		this.error = error;
+	}
+
+	/**
+	 * Returns the document. If the document was saved, the document contains the
+	 * updated items $uniqueid, $modified and $created.
+	 * 
+	 * @return document
+	 */
+	public ItemCollection getDocument() {
+		return document;
+	}
+
+	/**
+	 * Returns the exception thrown for this document, or null if the document was
+	 * saved.
+	 * 
+	 * @return AccessDeniedException or null
+	 */
+	public AccessDeniedException getError() {
+		return error;
+	}
+
+	/**
+	 * Returns true if the document was saved.
+	 * 
+	 * @return true if saved
+	 */
+	public boolean isSaved() {
+		return error == null;
+	}
+}
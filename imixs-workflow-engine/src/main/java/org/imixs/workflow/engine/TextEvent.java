@@ -1,7 +1,10 @@
 package org.imixs.workflow.engine;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import org.imixs.workflow.ItemCollection;
 
@@ -9,6 +12,10 @@ import org.imixs.workflow.ItemCollection;
  * The TextEvent provides a CDI observer pattern. The TextEvent is fired by the
  * WorkflowService EJB to adapt a text fragment. An event observer can adapt the
  * text fragmetn in a given document context.
+ * <p>
+ * The text adapters replace their tags by the method render(). The text is
+ * compiled once for the tags of all adapters, so the order of the adapters
+ * does not matter and the compiled template is cached by the original text.
  * 
  * @author Ralph Soika
  * @version 1.0
@@ -19,6 +26,9 @@ public class TextEvent {
 	private ItemCollection document;
 	private String text;
 	private List<String> textList;
+	private TextTemplate template = null;
+	private String renderedText = null;
+	private Map<TextTemplate.Tag, String> tagValues = null;
 
 	public TextEvent(String text, ItemCollection document) {
 		this.text = text;
@@ -56,4 +66,44 @@ public class TextEvent {
 		this.textList = textList;
 	}
 
+	/**
+	 * Replaces all tags with the given name by the values returned by the
+	 * resolver. The text is compiled with the tag names of all text adapters
+	 * before the first adapter replaces its tags. Tags of other adapters are kept
+	 * until these adapters have rendered the event. If the text was changed by
+	 * setText() since the last call, the new text is compiled.
+	 * 
+	 * @param tagName
+	 *            - e.g. 'itemvalue'
+	 * @param resolver
+	 *            - returns the text for a tag
+	 * @return number of replaced tags
+	 */
+	public int render(final String tagName, final Function<TextTemplate.Tag, String> resolver) {
+		String currentText = getText();
+		if (currentText == null) {
+			return 0;
+		}
+		if (template == null || !currentText.equals(renderedText)) {
+			template = TextTemplate.compile(currentText, TextTemplate.ADAPTER_TAG_NAMES);
+			tagValues = new IdentityHashMap<TextTemplate.Tag, String>();
+		}
+		final int[] count = new int[1];
+		renderedText = template.render(new Function<TextTemplate.Tag, String>() {
+			@Override
+			public String apply(TextTemplate.Tag tag) {
+				if (tagName.equals(tag.getTagName())) {
+					String value = resolver.apply(tag);
+					tagValues.put(tag, value == null ? "" : value);
+					count[0]++;
+				}
+				String value = tagValues.get(tag);
+				// tags of other adapters are kept
+				return value != null ? value : tag.getTag();
+			}
+		});
+		setText(renderedText);
+		return count[0];
+	}
+
 }
@@ -6,7 +6,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-import java.util.StringTokenizer;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 import javax.ejb.Stateless;
@@ -14,7 +14,6 @@ import javax.enterprise.event.Observes;
 
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.engine.plugins.AbstractPlugin;
-import org.imixs.workflow.util.XMLParser;
 
 /**
  * The TextItemValueAdapter replaces text fragments with the values of a named
@@ -62,11 +61,8 @@ public class TextItemValueAdapter {
 	 */
 	public void onEvent(@Observes TextEvent event) {
 		String text = event.getText();
-		ItemCollection documentContext = event.getDocument();
+		final ItemCollection documentContext = event.getDocument();
 
-		String sFormat = "";
-		String sSeparator = " ";
-		String sPosition = null;
 		if (text == null)
 			return;
 
@@ -75,57 +71,20 @@ public class TextItemValueAdapter {
 			logger.warning("Deprecated <itemValue> tag should be lowercase <itemvalue> !");
 			text = text.replace("<itemValue", "<itemvalue");
 			text = text.replace("</itemValue>", "</itemvalue>");
+			event.setText(text);
 		}
-		
 
-		List<String> tagList = XMLParser.findTags(text, "itemvalue");
-		logger.finest("......"+tagList.size() + " tags found");
-		// test if a <value> tag exists...
-		for (String tag : tagList) {
-
-			// next we check if the start tag contains a 'format' attribute
-			sFormat = XMLParser.findAttribute(tag, "format");
-
-			// next we check if the start tag contains a 'separator' attribute
-			sSeparator = XMLParser.findAttribute(tag, "separator");
-
-			// next we check if the start tag contains a 'position' attribute
-			sPosition = XMLParser.findAttribute(tag, "position");
-
-			// extract locale...
-			Locale locale = null;
-			String sLocale = XMLParser.findAttribute(tag, "locale");
-			if (sLocale != null && !sLocale.isEmpty()) {
-				// split locale
-				StringTokenizer stLocale = new StringTokenizer(sLocale, "_");
-				if (stLocale.countTokens() == 1) {
-					// only language variant
-					String sLang = stLocale.nextToken();
-					String sCount = sLang.toUpperCase();
-					locale = new Locale(sLang, sCount);
-				} else {
-					// language and country
-					String sLang = stLocale.nextToken();
-					String sCount = stLocale.nextToken();
-					locale = new Locale(sLang, sCount);
-				}
+		// the template is parsed only once
+		int count = event.render("itemvalue", new Function<TextTemplate.Tag, String>() {
+			@Override
+			public String apply(TextTemplate.Tag tag) {
+				// format field value
+				List<?> vValue = documentContext.getItemValue(tag.getValue());
+				return formatItemValues(vValue, tag.getSeparator(), tag.getFormat(), tag.getLocale(),
+						tag.getPosition());
 			}
-
-			// extract Item Value
-			String sItemValue = XMLParser.findTagValue(tag, "itemvalue");
-
-			// format field value
-			List<?> vValue = documentContext.getItemValue(sItemValue);
-
-			String sResult = formatItemValues(vValue, sSeparator, sFormat, locale, sPosition);
-
-			// now replace the tag with the result string
-			int iStartPos = text.indexOf(tag);
-			int iEndPos = text.indexOf(tag) + tag.length();
-
-			text = text.substring(0, iStartPos) + sResult + text.substring(iEndPos);
-		}
-		event.setText(text);
+		});
+		logger.finest("......" + count + " tags found");
 
 	}
 
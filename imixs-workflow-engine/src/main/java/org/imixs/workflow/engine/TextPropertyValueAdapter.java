@@ -6,6 +6,8 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Properties;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 import javax.ejb.EJB;
@@ -13,7 +15,6 @@ import javax.ejb.Stateless;
 import javax.enterprise.event.Observes;
 
 import org.imixs.workflow.engine.plugins.AbstractPlugin;
-import org.imixs.workflow.util.XMLParser;
 
 /**
  * The TextPropertyValueAdapter replaces text fragments with named system
@@ -45,36 +46,30 @@ public class TextPropertyValueAdapter {
 			logger.warning("Deprecated <propertyValue> tag should be lowercase <propertyvalue> !");
 			text = text.replace("<propertyValue", "<propertyvalue");
 			text = text.replace("</propertyValue>", "</propertyvalue>");
+			event.setText(text);
 		}
 
-		List<String> tagList = XMLParser.findTags(text, "propertyvalue");
-		logger.finest("......"+tagList.size() + " tags found");
-		// test if a <value> tag exists...
-		for (String tag : tagList) {
+		// the template is parsed only once
+		int count = event.render("propertyvalue", new Function<TextTemplate.Tag, String>() {
+			private Properties properties = null;
 
-			// now we have the start and end position of a tag and also the
-			// start and end pos of the value
-
-			// read the property Value
-			String sPropertyKey = XMLParser.findTagValue(tag, "propertyvalue");
-
-			String vValue = workflowService.getPropertyService().getProperties().getProperty(sPropertyKey);
-			if (vValue == null) {
-				logger.warning(
-						"[AbstractPlugin] propertyvalue '" + sPropertyKey + "' is not defined in imixs.properties!");
-				vValue = "";
+			@Override
+			public String apply(TextTemplate.Tag tag) {
+				if (properties == null) {
+					properties = workflowService.getPropertyService().getProperties();
+				}
+				// read the property Value
+				String sPropertyKey = tag.getValue();
+				String vValue = properties.getProperty(sPropertyKey);
+				if (vValue == null) {
+					logger.warning("[AbstractPlugin] propertyvalue '" + sPropertyKey
+							+ "' is not defined in imixs.properties!");
+					vValue = "";
+				}
+				return vValue;
 			}
-
-			// now replace the tag with the result string
-			int iStartPos = text.indexOf(tag);
-			int iEndPos = text.indexOf(tag) + tag.length();
-
-			// now replace the tag with the result string
-			text = text.substring(0, iStartPos) + vValue + text.substring(iEndPos);
-
-		}
-
-		event.setText(text);
+		});
+		logger.finest("......" + count + " tags found");
 
 	}
 
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.imixs.workflow.util.XMLParser;
+
+/**
+ * A TextTemplate is the compiled form of a text containing xml tags like
+ * <code>&lt;itemvalue&gt;</code> or <code>&lt;propertyvalue&gt;</code>. The
+ * text is parsed once into an immutable list of text fragments and tags. The
+ * method render() replaces each tag with the value returned by a resolver in a
+ * single pass.
+ * <p>
+ * A template can be compiled for several tag names. The TextEvent compiles its
+ * text for the tags of all text adapters (ADAPTER_TAG_NAMES) before the first
+ * adapter replaces its tags. So the template is cached by the original text and
+ * not by a text already containing the values of a workitem.
+ * <p>
+ * The compiled templates are cached by the tag names and the text. The cache
+ * holds up to 1000 templates. A text not containing one of the tags is neither
+ * parsed nor cached, e.g. a text where the tags were already replaced.
+ * 
+ * <pre>
+ * TextTemplate template = TextTemplate.compile("hello &lt;itemvalue&gt;$creator&lt;/itemvalue&gt;", "itemvalue");
+ * String text = template.render(tag -&gt; documentContext.getItemValueString(tag.getValue()));
+ * </pre>
+ * 
+ * @see TextItemValueAdapter
+ * @see TextPropertyValueAdapter
+ * @author rsoika
+ * @version 1.0
+ */
+public class TextTemplate {
+
+	public static final int MAX_CACHE_SIZE = 1000;
+
+	/**
+	 * The tag names replaced by the TextItemValueAdapter and the
+	 * TextPropertyValueAdapter.
+	 */
+	public static final String[] ADAPTER_TAG_NAMES = { "itemvalue", "propertyvalue" };
+
+	private static Logger logger = Logger.getLogger(TextTemplate.class.getName());
+
+	private static final Map<String, Pattern> TAG_PATTERNS = new ConcurrentHashMap<String, Pattern>();
+
+	private static final Map<String, TextTemplate> CACHE = Collections
+			.synchronizedMap(new LinkedHashMap<String, TextTemplate>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, TextTemplate> eldest) {
+					return size() > MAX_CACHE_SIZE;
+				}
+			});
+
+	private final String text;
+	private final List<Object> segments;
+	private final int tagCount;
+
+	private TextTemplate(String text, List<Object> segments, int tagCount) {
+		this.text = text;
+		this.segments = segments;
+		this.tagCount = tagCount;
+	}
+
+	/**
+	 * Returns the compiled template for a text. The tags are found in the same way
+	 * as by the method XMLParser.findTags().
+	 * 
+	 * @param text
+	 * @param tagNames
+	 *            - lower case tag names, e.g. 'itemvalue'
+	 * @return compiled template
+	 */
+	public static TextTemplate compile(String text, String... tagNames) {
+		// a text without tags is not cached
+		if (!containsTag(text, tagNames)) {
+			return new TextTemplate(text, Collections.<Object> singletonList(text), 0);
+		}
+		String key = String.join(",", tagNames) + ":" + text;
+		TextTemplate template = CACHE.get(key);
+		if (template == null) {
+			template = parse(text, tagNames);
+			CACHE.put(key, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Returns true if the text contains the start of a tag with one of the given
+	 * names. The tag names are compared case-insensitive.
+	 * 
+	 * @param text
+	 * @param tagNames
+	 * @return true if a tag is contained in the text
+	 */
+	static boolean containsTag(String text, String... tagNames) {
+		int pos = text.indexOf('<');
+		while (pos != -1) {
+			for (String tagName : tagNames) {
+				if (text.regionMatches(true, pos + 1, tagName, 0, tagName.length())) {
+					return true;
+				}
+			}
+			pos = text.indexOf('<', pos + 1);
+		}
+		return false;
+	}
+
+	/**
+	 * Clears the template cache.
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * Returns the number of compiled templates in the cache.
+	 * 
+	 * @return cache size
+	 */
+	public static int getCacheSize() {
+		return CACHE.size();
+	}
+
+	/**
+	 * Returns the text of this template.
+	 * 
+	 * @return template text
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns the number of tags in this template.
+	 * 
+	 * @return number of tags
+	 */
+	public int getTagCount() {
+		return tagCount;
+	}
+
+	/**
+	 * Renders the template. Each tag is replaced by the value returned by the
+	 * resolver.
+	 * 
+	 * @param resolver
+	 *            - returns the text for a tag
+	 * @return rendered text
+	 */
+	public String render(Function<Tag, String> resolver) {
+		if (tagCount == 0) {
+			return text;
+		}
+		StringBuilder result = new StringBuilder(text.length() + 16 * tagCount);
+		for (Object segment : segments) {
+			if (segment instanceof Tag) {
+				String value = resolver.apply((Tag) segment);
+				if (value != null) {
+					result.append(value);
+				}
+			} else {
+				result.append((String) segment);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Parses the text into text fragments and tags.
+	 */
+	private static TextTemplate parse(String text, String... tagNames) {
+		String tagNameList = String.join("|", tagNames);
+		Pattern pattern = TAG_PATTERNS.get(tagNameList);
+		if (pattern == null) {
+			// see XMLParser.findTags()
+			pattern = Pattern.compile("<(?i)(" + tagNameList + ")([^<]+)(</\\1>|/>)");
+			TAG_PATTERNS.put(tagNameList, pattern);
+		}
+		List<Object> segments = new ArrayList<Object>();
+		int tagCount = 0;
+		int pos = 0;
+		Matcher matcher = pattern.matcher(text);
+		while (matcher.find()) {
+			if (matcher.start() > pos) {
+				segments.add(text.substring(pos, matcher.start()));
+			}
+			segments.add(new Tag(matcher.group(), getTagName(matcher.group(1), tagNames)));
+			tagCount++;
+			pos = matcher.end();
+		}
+		if (pos < text.length()) {
+			segments.add(text.substring(pos));
+		}
+		logger.finest("......compiled template with " + tagCount + " <" + tagNameList + "> tags");
+		return new TextTemplate(text, Collections.unmodifiableList(segments), tagCount);
+	}
+
+	/**
+	 * Returns the tag name matching the name found in the text.
+	 */
+	private static String getTagName(String name, String[] tagNames) {
+		for (String tagName : tagNames) {
+			if (tagName.equalsIgnoreCase(name)) {
+				return tagName;
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * A Tag holds the value and the attributes of a single tag. The attributes
+	 * are parsed in the same way as by the method XMLParser.findAttribute().
+	 */
+	public static class Tag {
+		private final String tag;
+		private final String tagName;
+		private final String value;
+		private final String format;
+		private final String separator;
+		private final String position;
+		private final Locale locale;
+
+		Tag(String tag, String tagName) {
+			this.tag = tag;
+			this.tagName = tagName;
+			Map<String, String> attributes = XMLParser.findAttributes(tag);
+			this.value = XMLParser.findTagValue(tag, tagName);
+			this.format = attributes.get("format");
+			this.separator = attributes.get("separator");
+			this.position = attributes.get("position");
+			this.locale = parseLocale(attributes.get("locale"));
+		}
+
+		/**
+		 * Returns the complete tag.
+		 * 
+		 * @return tag
+		 */
+		public String getTag() {
+			return tag;
+		}
+
+		/**
+		 * Returns the name of the tag, e.g. 'itemvalue'.
+		 * 
+		 * @return tag name
+		 */
+		public String getTagName() {
+			return tagName;
+		}
+
+		/**
+		 * Returns the value of the tag, e.g. the item name.
+		 * 
+		 * @return tag value
+		 */
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * Returns the attribute 'format' or null if not defined.
+		 * 
+		 * @return format
+		 */
+		public String getFormat() {
+			return format;
+		}
+
+		/**
+		 * Returns the attribute 'separator' or null if not defined.
+		 * 
+		 * @return separator
+		 */
+		public String getSeparator() {
+			return separator;
+		}
+
+		/**
+		 * Returns the attribute 'position' or null if not defined.
+		 * 
+		 * @return position
+		 */
+		public String getPosition() {
+			return position;
+		}
+
+		/**
+		 * Returns the locale defined by the attribute 'locale' or null if not
+		 * defined.
+		 * 
+		 * @return locale
+		 */
+		public Locale getLocale() {
+			return locale;
+		}
+
+		private static Locale parseLocale(String sLocale) {
+			if (sLocale == null || sLocale.isEmpty()) {
+				return null;
+			}
+			// split locale
+			StringTokenizer stLocale = new StringTokenizer(sLocale, "_");
+			if (stLocale.countTokens() == 1) {
+				// only language variant
+				String sLang = stLocale.nextToken();
+				String sCount = sLang.toUpperCase();
+				return new Locale(sLang, sCount);
+			} else {
+				// language and country
+				String sLang = stLocale.nextToken();
+				String sCount = stLocale.nextToken();
+				return new Locale(sLang, sCount);
+			}
+		}
+	}
+}
@@ -33,14 +33,20 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Resource;
 import javax.annotation.security.DeclareRoles;
 import javax.annotation.security.RunAs;
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.LocalBean;
 import javax.ejb.ScheduleExpression;
@@ -51,9 +57,11 @@ import javax.ejb.Timer;
 import javax.ejb.TimerConfig;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.enterprise.event.Observes;
 
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.engine.lucene.SearchResult;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.InvalidAccessException;
 import org.imixs.workflow.exceptions.ModelException;
@@ -75,6 +83,16 @@ import org.imixs.workflow.exceptions.QueryException;
  * The method processSingleWorkitem() is used to process a workitem in an
  * isolated transaction. See: http://blog.imixs.org/?p=155
  * 
+ * Each time a workitem is saved, the service computes the next due date of
+ * the scheduled events of the current task and stores it in the item
+ * '$nextdue'. This item is indexed as a date field. So the timer selects only
+ * workitems which are in due. The fingerprint of the scheduled events used to
+ * compute the date is stored in the item '$nextdueplan'. If the schedule of a
+ * task is changed by a model update, the workitems with a different fingerprint
+ * are selected too, until they are saved again. The workitems are processed in parallel. The
+ * number of threads is defined by the item 'numMaxThreads' of the
+ * configuration (default 4).
+ * 
  * 
  * @author rsoika
  * 
@@ -94,6 +112,17 @@ public class WorkflowSchedulerService {
 	final static public int OFFSET_DAYS = 3;
 	final static public int OFFSET_WORKDAYS = 4;
 
+	final static public String NEXTDUE = "$nextdue";
+	final static public String NEXTDUE_PLAN = "$nextdueplan";
+	/**
+	 * The '$nextdue' of a workitem with scheduled events but without a computable
+	 * due date (9999-12-31T23:59:59Z). Such a workitem is not selected again
+	 * before it is saved.
+	 */
+	final static public long NEXTDUE_NONE = 253402300799000L;
+	final static public int DEFAULT_PAGE_SIZE = 100;
+	final static public int DEFAULT_MAX_THREADS = 4;
+
 	private static Logger logger = Logger.getLogger(WorkflowSchedulerService.class.getName());
 
 	@EJB
@@ -112,6 +141,9 @@ public class WorkflowSchedulerService {
 	SessionContext ctx;
 
 	int iProcessWorkItems = 0;
+	int iSelectedWorkItems = 0;
+	long lagTotal = 0;
+	long lagMax = 0;
 	List<String> unprocessedIDs = null;
 
 	/**
@@ -319,6 +351,86 @@ public class WorkflowSchedulerService {
 		}
 	}
 
+	/**
+	 * This method reacts on the CDI event ON_DOCUMENT_SAVE and updates the item
+	 * '$nextdue' of a workitem.
+	 * 
+	 * @param documentEvent
+	 */
+	public void onDocumentEvent(@Observes DocumentEvent documentEvent) {
+		if (documentEvent.getEventType() == DocumentEvent.ON_DOCUMENT_SAVE) {
+			updateNextDue(documentEvent.getDocument());
+		}
+	}
+
+	/**
+	 * This method computes the earliest due date of all scheduled activities of
+	 * the current task and stores the date in the item '$nextdue'. The fingerprint
+	 * of the scheduled activities is stored in the item '$nextdueplan'. If the task
+	 * has no scheduled activities, both items are removed. If no due date can be
+	 * computed, e.g. because the base date item is missing, the item is set to
+	 * NEXTDUE_NONE. A missing '$nextdue' would select the workitem with each run
+	 * of the scheduler.
+	 * 
+	 * @param workitem
+	 */
+	void updateNextDue(ItemCollection workitem) {
+		String modelVersion = workitem.getModelVersion();
+		int taskID = workitem.getTaskID();
+		if (modelVersion.isEmpty() || taskID <= 0) {
+			return;
+		}
+		ProcessPlan processPlan;
+		try {
+			processPlan = modelService.getProcessPlan(modelVersion);
+		} catch (ModelException e) {
+			logger.finest("......unable to compute " + NEXTDUE + ": " + e.getMessage());
+			return;
+		}
+		List<ItemCollection> scheduledEvents = processPlan.getScheduledEvents(taskID);
+		if (scheduledEvents.isEmpty()) {
+			workitem.removeItem(NEXTDUE);
+			workitem.removeItem(NEXTDUE_PLAN);
+			return;
+		}
+		Date nextDue = null;
+		for (ItemCollection activityEntity : scheduledEvents) {
+			Date dueDate = getDueDate(workitem, activityEntity);
+			if (dueDate != null && (nextDue == null || dueDate.before(nextDue))) {
+				nextDue = dueDate;
+			}
+		}
+		if (nextDue == null) {
+			nextDue = new Date(NEXTDUE_NONE);
+		}
+		workitem.replaceItemValue(NEXTDUE, nextDue);
+		workitem.replaceItemValue(NEXTDUE_PLAN, processPlan.getScheduleFingerprint(taskID));
+	}
+
+	/**
+	 * Returns true if the item '$nextdue' of a workitem is missing or was computed
+	 * for a different schedule of the current task. This is the case for workitems
+	 * not saved since an upgrade or since the schedule of the task was changed by a
+	 * model update. Workitems of a task without scheduled activities and immutable
+	 * workitems are not outdated.
+	 * 
+	 * @param workitem
+	 * @return true if the workitem should be saved to update the '$nextdue'
+	 */
+	public boolean isNextDueOutdated(ItemCollection workitem) {
+		String modelVersion = workitem.getModelVersion();
+		int taskID = workitem.getTaskID();
+		if (modelVersion.isEmpty() || taskID <= 0 || workitem.getItemValueBoolean("$immutable")) {
+			return false;
+		}
+		try {
+			String fingerprint = modelService.getProcessPlan(modelVersion).getScheduleFingerprint(taskID);
+			return !fingerprint.isEmpty() && !fingerprint.equals(workitem.getItemValueString(NEXTDUE_PLAN));
+		} catch (ModelException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * This method checks if a workitem (doc) is in due. There are 4 different cases
 	 * which will be compared: The case is determined by the keyScheduledBaseObject
@@ -333,6 +445,27 @@ public class WorkflowSchedulerService {
 	 * @return true if workitem is is due
 	 */
 	public static boolean workItemInDue(ItemCollection doc, ItemCollection docActivity) {
+		Date dateTimeCompare = getDueDate(doc, docActivity);
+		if (dateTimeCompare == null) {
+			return false;
+		}
+		// get current time for compare....
+		Date dateTimeNow = Calendar.getInstance().getTime();
+		if (dateTimeCompare.before(dateTimeNow)) {
+			logger.finest("......" + doc.getItemValueString("$uniqueid") + " isInDue!");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * This method computes the due date of a workitem (doc) for a scheduled
+	 * activity. The base date is determined by the keyScheduledBaseObject of the
+	 * activity entity (see workItemInDue).
+	 * 
+	 * @return due date or null if no due date can be computed
+	 */
+	public static Date getDueDate(ItemCollection doc, ItemCollection docActivity) {
 		try {
 			int iCompareType = -1;
 			int iOffsetUnit = -1;
@@ -350,14 +483,14 @@ public class WorkflowSchedulerService {
 							"error parsing delay in ActivityEntity " + docActivity.getItemValueInteger("numProcessID")
 									+ "." + docActivity.getItemValueInteger("numActivityID")
 									+ " : unsuported keyActivityDelayUnit=" + sDelayUnit);
-					return false;
+					return null;
 				}
 
 			} catch (NumberFormatException nfe) {
 				logger.warning(
 						"error parsing delay in ActivityEntity " + docActivity.getItemValueInteger("numProcessID") + "."
 								+ docActivity.getItemValueInteger("numActivityID") + " :" + nfe.getMessage());
-				return false;
+				return null;
 			}
 			// get activityDelay from Event
 			iOffset = docActivity.getItemValueInteger("numActivityDelay");
@@ -375,9 +508,6 @@ public class WorkflowSchedulerService {
 
 			iCompareType = docActivity.getItemValueInteger("keyScheduledBaseObject");
 
-			// get current time for compare....
-			Date dateTimeNow = Calendar.getInstance().getTime();
-
 			switch (iCompareType) {
 			// last process -
 			case 1: {
@@ -395,16 +525,12 @@ public class WorkflowSchedulerService {
 				dateTimeCompare = doc.getItemValueDate("$lastEventDate");
 				if (dateTimeCompare == null) {
 					logger.warning(suniqueid + ": item '$lastEventDate' is missing!");
-					return false;
+					return null;
 				}
 
 				// compute scheduled time
 				logger.finest("......"+suniqueid + ": $lastEventDate=" + dateTimeCompare);
-				dateTimeCompare = adjustBaseDate(dateTimeCompare, iOffsetUnit, iOffset);
-				if (dateTimeCompare != null)
-					return dateTimeCompare.before(dateTimeNow);
-				else
-					return false;
+				return adjustBaseDate(dateTimeCompare, iOffsetUnit, iOffset);
 			}
 
 			// last modification
@@ -415,12 +541,7 @@ public class WorkflowSchedulerService {
 
 				logger.finest("......"+suniqueid + ": modified=" + dateTimeCompare);
 
-				dateTimeCompare = adjustBaseDate(dateTimeCompare, iOffsetUnit, iOffset);
-
-				if (dateTimeCompare != null)
-					return dateTimeCompare.before(dateTimeNow);
-				else
-					return false;
+				return adjustBaseDate(dateTimeCompare, iOffsetUnit, iOffset);
 			}
 
 			// creation
@@ -431,12 +552,7 @@ public class WorkflowSchedulerService {
 				logger.finest("......"+suniqueid + ": doc.getCreated() =" + dateTimeCompare);
 
 				// Nein -> Creation date ist masstab
-				dateTimeCompare = adjustBaseDate(dateTimeCompare, iOffsetUnit, iOffset);
-
-				if (dateTimeCompare != null)
-					return dateTimeCompare.before(dateTimeNow);
-				else
-					return false;
+				return adjustBaseDate(dateTimeCompare, iOffsetUnit, iOffset);
 			}
 
 			// field
@@ -447,34 +563,25 @@ public class WorkflowSchedulerService {
 				if (!doc.hasItem(sNameOfField)) {
 					logger.finest("......"+suniqueid + ": CompareType =" + sNameOfField
 							+ " no value found!");
-					return false;
+					return null;
 				}
 
 				dateTimeCompare = doc.getItemValueDate(sNameOfField);
 
 				logger.finest("......"+suniqueid + ": " + sNameOfField + "=" + dateTimeCompare);
 
-				dateTimeCompare = adjustBaseDate(dateTimeCompare, iOffsetUnit, iOffset);
-				if (dateTimeCompare != null) {
-					logger.finest("......"+suniqueid + ": Compare " + dateTimeCompare + " <-> " + dateTimeNow);
-
-					if (dateTimeCompare.before(dateTimeNow)) {
-						logger.finest("......"+suniqueid + " isInDue!");
-					}
-					return dateTimeCompare.before(dateTimeNow);
-				} else
-					return false;
+				return adjustBaseDate(dateTimeCompare, iOffsetUnit, iOffset);
 			}
 			default: {
 				logger.warning("Time Base is not defined, verify model!");
-				return false;
+				return null;
 			}
 			}
 
 		} catch (Exception e) {
 
 			e.printStackTrace();
-			return false;
+			return null;
 		}
 
 	}
@@ -577,33 +684,12 @@ public class WorkflowSchedulerService {
 		/*
 		 * Now we process all scheduled worktitems for each model
 		 */
-		iProcessWorkItems = 0;
-		unprocessedIDs = new ArrayList<String>();
-		try {
-			// get all model versions...
-			List<String> modelVersions = modelService.getVersions();
-			for (String version : modelVersions) {
-				logger.info("processing ModelVersion: " + version);
-				// find scheduled Activities
-				Collection<ItemCollection> colScheduledActivities = findScheduledActivities(version);
-				logger.info(" " + colScheduledActivities.size() + " scheduled activityEntities found in ModelVersion: "
-						+ version);
-				// process all workitems for coresponding activities
-				for (ItemCollection aactivityEntity : colScheduledActivities) {
-					processWorkListByActivityEntity(aactivityEntity);
-				}
-			}
-
-		} catch (Exception e) {
-			logger.severe(" error processing worklist: " + e.getMessage());
-			if (logger.isLoggable(Level.FINE)) {
-				e.printStackTrace();
-			}
-		}
+		processWorkList(configItemCollection);
 
 		logger.info("finished successfull");
 
-		logger.info(iProcessWorkItems + " workitems processed");
+		logger.info(iProcessWorkItems + " workitems processed in "
+				+ configItemCollection.getItemValueInteger("numRunTime") + "ms");
 
 		if (unprocessedIDs.size() > 0) {
 			logger.warning(unprocessedIDs.size() + " workitems could not be processed:");
@@ -616,10 +702,6 @@ public class WorkflowSchedulerService {
 		Date endDate = configItemCollection.getItemValueDate("datstop");
 		String sTimerID = configItemCollection.getItemValueString("$uniqueid");
 
-		// update statistic of last run
-		configItemCollection.replaceItemValue("numWorkItemsProcessed", iProcessWorkItems);
-		configItemCollection.replaceItemValue("numWorkItemsUnprocessed", unprocessedIDs.size());
-
 		/*
 		 * Check if Timer should be canceled now? - only by interval configuration. In
 		 * case of calenderBasedTimer the timer will stop automatically.
@@ -646,6 +728,74 @@ public class WorkflowSchedulerService {
 
 	}
 
+	/**
+	 * This method processes the scheduled workitems of all model versions and
+	 * updates the statistic of the run in the configuration:
+	 * <ul>
+	 * <li>numWorkItemsSelected - workitems selected by the due date</li>
+	 * <li>numWorkItemsProcessed - workitems processed</li>
+	 * <li>numWorkItemsUnprocessed - workitems which could not be processed</li>
+	 * <li>numRunTime - time of the run in milliseconds</li>
+	 * <li>numThroughput - processed workitems per second</li>
+	 * <li>numLagMax, numLagAvg - time in milliseconds between the due date and
+	 * the processing of a workitem</li>
+	 * </ul>
+	 * 
+	 * The page size of the search and the number of workitems processed in
+	 * parallel are defined by the items 'numPageSize' and 'numMaxThreads'.
+	 * 
+	 * @param configItemCollection
+	 */
+	void processWorkList(ItemCollection configItemCollection) {
+		long lRunTime = System.currentTimeMillis();
+		int pageSize = configItemCollection.getItemValueInteger("numPageSize");
+		if (pageSize <= 0) {
+			pageSize = DEFAULT_PAGE_SIZE;
+		}
+		int maxThreads = configItemCollection.getItemValueInteger("numMaxThreads");
+		if (maxThreads <= 0) {
+			maxThreads = DEFAULT_MAX_THREADS;
+		}
+
+		iProcessWorkItems = 0;
+		iSelectedWorkItems = 0;
+		lagTotal = 0;
+		lagMax = 0;
+		unprocessedIDs = new ArrayList<String>();
+		try {
+			// get all model versions...
+			List<String> modelVersions = modelService.getVersions();
+			for (String version : modelVersions) {
+				logger.info("processing ModelVersion: " + version);
+				// find scheduled Activities
+				Collection<ItemCollection> colScheduledActivities = findScheduledActivities(version);
+				logger.info(" " + colScheduledActivities.size() + " scheduled activityEntities found in ModelVersion: "
+						+ version);
+				// process all workitems for coresponding activities
+				for (ItemCollection aactivityEntity : colScheduledActivities) {
+					processWorkListByActivityEntity(aactivityEntity, pageSize, maxThreads);
+				}
+			}
+
+		} catch (Exception e) {
+			logger.severe(" error processing worklist: " + e.getMessage());
+			if (logger.isLoggable(Level.FINE)) {
+				e.printStackTrace();
+			}
+		}
+		lRunTime = System.currentTimeMillis() - lRunTime;
+
+		// update statistic of last run
+		configItemCollection.replaceItemValue("numWorkItemsSelected", iSelectedWorkItems);
+		configItemCollection.replaceItemValue("numWorkItemsProcessed", iProcessWorkItems);
+		configItemCollection.replaceItemValue("numWorkItemsUnprocessed", unprocessedIDs.size());
+		configItemCollection.replaceItemValue("numRunTime", lRunTime);
+		configItemCollection.replaceItemValue("numThroughput",
+				(lRunTime > 0) ? (iProcessWorkItems * 1000.0 / lRunTime) : (double) iProcessWorkItems);
+		configItemCollection.replaceItemValue("numLagMax", lagMax);
+		configItemCollection.replaceItemValue("numLagAvg", (iProcessWorkItems > 0) ? lagTotal / iProcessWorkItems : 0);
+	}
+
 	/**
 	 * Create an interval timer whose first expiration occurs at a given point in
 	 * time and whose subsequent expirations occur after a specified interval.
@@ -767,27 +917,8 @@ public class WorkflowSchedulerService {
 	 * 
 	 */
 	Collection<ItemCollection> findScheduledActivities(String aModelVersion) throws Exception {
-		Vector<ItemCollection> vectorActivities = new Vector<ItemCollection>();
-		Collection<ItemCollection> colProcessList = null;
-
-		// get a complete list of process entities...
-		colProcessList = modelService.getModel(aModelVersion).findAllTasks();
-		for (ItemCollection aprocessentity : colProcessList) {
-			// select all activities for this process entity...
-			int processid = aprocessentity.getItemValueInteger("numprocessid");
-			logger.finest("......analyse processentity '" + processid + "'");
-			Collection<ItemCollection> aActivityList = modelService.getModel(aModelVersion)
-					.findAllEventsByTask(processid);
-
-			for (ItemCollection aactivityEntity : aActivityList) {
-				logger.finest("......analyse acitity '" + aactivityEntity.getItemValueString("txtname") + "'");
-
-				// check if activity is scheduled
-				if ("1".equals(aactivityEntity.getItemValueString("keyScheduledActivity")))
-					vectorActivities.add(aactivityEntity);
-			}
-		}
-		return vectorActivities;
+		// the scheduled activities are collected by the process plan
+		return modelService.getProcessPlan(aModelVersion).getScheduledEvents();
 	}
 
 	/**
@@ -817,17 +948,27 @@ public class WorkflowSchedulerService {
 	 * This method processes all workitems for a specific processID. the processID
 	 * is identified by the activityEntity Object (numprocessid)
 	 * 
-	 * If the ActivityEntity has defined a EQL statement (attribute
-	 * txtscheduledview) then the method selects the workitems by this query.
-	 * Otherwise the method use the standard method getWorklistByProcessID()
+	 * The method selects only workitems with a '$nextdue' date before now. In
+	 * addition workitems without a '$nextdue' are selected, which were not saved
+	 * since the item was introduced, and workitems with a '$nextdueplan' different
+	 * from the current schedule of the task, which were not saved since a model
+	 * update. The search result is read page by page. For
+	 * each workitem the due date of the activity is verified. After all due
+	 * workitems are collected, they are processed in parallel. Each workitem is
+	 * processed in a new transaction.
 	 * 
 	 * 
 	 * @see http://blog.imixs.org/?p=155
 	 * 
-	 * @param aProcessID
+	 * @param activityEntity
+	 * @param pageSize
+	 *            - workitems per page
+	 * @param maxThreads
+	 *            - number of workitems processed in parallel
 	 * @throws Exception
 	 */
-	void processWorkListByActivityEntity(ItemCollection activityEntity) throws Exception {
+	void processWorkListByActivityEntity(ItemCollection activityEntity, int pageSize, int maxThreads)
+			throws Exception {
 
 		// get processID
 		int iProcessID = activityEntity.getItemValueInteger("numprocessid");
@@ -837,50 +978,159 @@ public class WorkflowSchedulerService {
 
 		logger.info("processing " + iProcessID + "." + iActivityID + " (" + sModelVersion + ") ...");
 
-		// now we need to select by type, $ProcessID and by $modelVersion!
-		String searchTerm = "($processid:\"" + iProcessID + "\" AND $modelversion:\""
-				+ sModelVersion + "\")";
+		// now we need to select by type, $ProcessID, $modelVersion and $nextdue!
+		Date now = new Date();
+		String fingerprint = modelService.getProcessPlan(sModelVersion).getScheduleFingerprint(iProcessID);
+		String searchTerm = "($processid:\"" + iProcessID + "\" AND $modelversion:\"" + sModelVersion + "\" AND ("
+				+ NEXTDUE + ":[* TO " + new SimpleDateFormat("yyyyMMddHHmmss").format(now) + "] OR (*:* -" + NEXTDUE
+				+ ":[* TO *]) OR (*:* -" + NEXTDUE_PLAN + ":\"" + fingerprint + "\")))";
 
 		logger.finest("......select: " + searchTerm);
 
-		Collection<ItemCollection> worklist = documentService.find(searchTerm, 1000, 0);
-
-		logger.finest("......"+worklist.size() + " workitems found");
-		for (ItemCollection workitem : worklist) {
-			
-			String type=workitem.getType();
-			// skip deleted....
-			if (type.endsWith("deleted")) {
-				continue;
-			}			
-			
-			// skip $immutable Workitems
-			if (workitem.getItemValueBoolean("$immutable")) {
-				continue;
-			}						
-			
-			// verify due date
-			if (workItemInDue(workitem, activityEntity)) {
-				String sID = workitem.getItemValueString(WorkflowKernel.UNIQUEID);
-				logger.finest("......document " + sID + "is in due");
-				workitem.replaceItemValue("$activityid", iActivityID);
-				try {
-					logger.finest("......getBusinessObject.....");
-					// call from new instance because of transaction new...
-					// see: http://blog.imixs.org/?p=155
-					// see: https://www.java.net/node/705304
-					ctx.getBusinessObject(WorkflowSchedulerService.class).processSingleWorkitem(workitem);
-					iProcessWorkItems++;
-				} catch (Exception e) {
-					logger.warning("error processing workitem: " + sID);
-					if (logger.isLoggable(Level.FINEST)) {
-						e.printStackTrace();
-					}
-					unprocessedIDs.add(sID);
+		// collect the due workitems
+		Map<String, Date> dueWorkitems = new LinkedHashMap<String, Date>();
+		String cursor = null;
+		do {
+			// sort by $uniqueid, as the score of a hit can change between two pages
+			SearchResult page = documentService.findAfter(searchTerm, pageSize, cursor, WorkflowKernel.UNIQUEID, false,
+					null);
+			for (ItemCollection workitem : page.getDocuments()) {
+
+				String type = workitem.getType();
+				// skip deleted....
+				if (type.endsWith("deleted")) {
+					continue;
+				}
+
+				// skip $immutable Workitems
+				if (workitem.getItemValueBoolean("$immutable")) {
+					continue;
+				}
+
+				// verify due date
+				Date dueDate = getDueDate(workitem, activityEntity);
+				if (dueDate != null && dueDate.before(now)) {
+					String sID = workitem.getItemValueString(WorkflowKernel.UNIQUEID);
+					logger.finest("......document " + sID + "is in due");
+					dueWorkitems.put(sID, dueDate);
+				}
+			}
+			cursor = page.getCursor();
+		} while (cursor != null);
+
+		logger.finest("......" + dueWorkitems.size() + " workitems in due");
+		iSelectedWorkItems += dueWorkitems.size();
+
+		// process the workitems with a limited number of threads
+		Map<String, Future<ItemCollection>> runningWorkitems = new LinkedHashMap<String, Future<ItemCollection>>();
+		for (String sID : dueWorkitems.keySet()) {
+			if (runningWorkitems.size() >= maxThreads) {
+				waitForWorkitem(runningWorkitems, dueWorkitems);
+			}
+			try {
+				runningWorkitems.put(sID, submitWorkitem(sID, activityEntity));
+			} catch (Exception e) {
+				logger.warning("error processing workitem: " + sID);
+				if (logger.isLoggable(Level.FINEST)) {
+					e.printStackTrace();
 				}
+				unprocessedIDs.add(sID);
 			}
+		}
+		while (!runningWorkitems.isEmpty()) {
+			waitForWorkitem(runningWorkitems, dueWorkitems);
+		}
+	}
+
+	/**
+	 * Submits a workitem to be processed asynchronously. The method calls the
+	 * method processScheduledWorkitem() from a new instance because of the new
+	 * transaction.
+	 * 
+	 * @see http://blog.imixs.org/?p=155
+	 * @param id
+	 * @param activityEntity
+	 * @return future of the processed workitem
+	 */
+	Future<ItemCollection> submitWorkitem(String id, ItemCollection activityEntity) throws Exception {
+		logger.finest("......getBusinessObject.....");
+		return ctx.getBusinessObject(WorkflowSchedulerService.class).processScheduledWorkitem(id, activityEntity);
+	}
 
+	/**
+	 * Waits for the first running workitem and updates the statistic.
+	 * 
+	 * @param runningWorkitems
+	 * @param dueWorkitems
+	 */
+	private void waitForWorkitem(Map<String, Future<ItemCollection>> runningWorkitems, Map<String, Date> dueWorkitems) {
+		Iterator<Map.Entry<String, Future<ItemCollection>>> iter = runningWorkitems.entrySet().iterator();
+		Map.Entry<String, Future<ItemCollection>> entry = iter.next();
+		iter.remove();
+		String sID = entry.getKey();
+		try {
+			// null if the workitem is no longer in due
+			if (entry.getValue().get() != null) {
+				iProcessWorkItems++;
+				long lag = System.currentTimeMillis() - dueWorkitems.get(sID).getTime();
+				lagTotal += lag;
+				if (lag > lagMax) {
+					lagMax = lag;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warning("error processing workitem: " + sID);
+			unprocessedIDs.add(sID);
+		} catch (ExecutionException e) {
+			logger.warning("error processing workitem: " + sID);
+			if (logger.isLoggable(Level.FINEST)) {
+				e.printStackTrace();
+			}
+			unprocessedIDs.add(sID);
+		}
+	}
+
+	/**
+	 * This method processes a scheduled workitem asynchronously in a new
+	 * transaction. The method is called by processWorkListByActivityEntity()
+	 * 
+	 * @param id
+	 *            - $uniqueid of the workitem
+	 * @param activityEntity
+	 *            - the scheduled activity
+	 * @return future of the processed workitem, or null if the workitem is no
+	 *         longer in due
+	 * @throws PluginException
+	 * @throws ProcessingErrorException
+	 * @throws AccessDeniedException
+	 * @throws ModelException
+	 */
+	@Asynchronous
+	@TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
+	public Future<ItemCollection> processScheduledWorkitem(String id, ItemCollection activityEntity)
+			throws AccessDeniedException, ProcessingErrorException, PluginException, ModelException {
+		return new AsyncResult<ItemCollection>(processDueWorkitem(id, activityEntity));
+	}
+
+	/**
+	 * Loads a workitem and processes the scheduled activity if the workitem is
+	 * still in due. The workitem may have been changed since it was selected.
+	 * 
+	 * @param id
+	 * @param activityEntity
+	 * @return the processed workitem or null if the workitem is no longer in due
+	 */
+	ItemCollection processDueWorkitem(String id, ItemCollection activityEntity)
+			throws AccessDeniedException, ProcessingErrorException, PluginException, ModelException {
+		ItemCollection workitem = documentService.load(id);
+		if (workitem == null || workitem.getTaskID() != activityEntity.getItemValueInteger("numprocessid")
+				|| workitem.getItemValueBoolean("$immutable") || !workItemInDue(workitem, activityEntity)) {
+			logger.finest("......document " + id + " is no longer in due");
+			return null;
 		}
+		workitem.replaceItemValue("$activityid", activityEntity.getItemValueInteger("numActivityID"));
+		return workflowService.processWorkItem(workitem);
 	}
 
 	/**
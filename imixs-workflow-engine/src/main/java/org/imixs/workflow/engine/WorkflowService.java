@@ -624,13 +624,11 @@ public class WorkflowService implements WorkflowManager, WorkflowContext {
 					ProcessingErrorException.INVALID_PROCESSID, e.getMessage(), e);
 		}
 
-		// Fetch the current Profile Entity for this version.
-		ItemCollection profile = model.getDefinition();
+		// Fetch the process plan for this version.
+		ProcessPlan processPlan = modelService.getProcessPlan(model.getVersion());
 		WorkflowKernel workflowkernel = new WorkflowKernel(this);
 		// register plugins defined in the environment.profile ....
-		List<String> vPlugins = (List<String>) profile.getItemValue("txtPlugins");
-		for (int i = 0; i < vPlugins.size(); i++) {
-			String aPluginClassName = vPlugins.get(i);
+		for (String aPluginClassName : processPlan.getPlugins()) {
 
 			Plugin aPlugin = findPluginByName(aPluginClassName);
 			// aPlugin=null;
@@ -639,8 +637,13 @@ public class WorkflowService implements WorkflowManager, WorkflowContext {
 				logger.finest("......register CDI plugin class: " + aPluginClassName + "...");
 				workflowkernel.registerPlugin(aPlugin);
 			} else {
-				// register plugin by class name
-				workflowkernel.registerPlugin(aPluginClassName);
+				aPlugin = processPlan.createPlugin(aPluginClassName);
+				if (aPlugin != null) {
+					workflowkernel.registerPlugin(aPlugin);
+				} else {
+					// register plugin by class name
+					workflowkernel.registerPlugin(aPluginClassName);
+				}
 			}
 
 		}
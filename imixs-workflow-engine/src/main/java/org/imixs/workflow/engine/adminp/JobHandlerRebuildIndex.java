@@ -118,7 +118,8 @@ public class JobHandlerRebuildIndex implements JobHandler {
 		List<ItemCollection> col = new ArrayList<ItemCollection>();
 		for (Document doc : documentList) {
 			if (doc.getData() != null) {
-				col.add(new ItemCollection(doc.getData()));
+				// the index only reads the data, so we need no deep copy here
+				col.add(ItemCollection.createCopyOnWrite(doc.getData()));
 			}
 		}
 
@@ -1,6 +1,7 @@
 package org.imixs.workflow.engine.adminp;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -17,6 +18,8 @@ import javax.ejb.Stateless;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.engine.DocumentService;
+import org.imixs.workflow.engine.SaveResult;
+import org.imixs.workflow.engine.WorkflowSchedulerService;
 import org.imixs.workflow.engine.lucene.LuceneUpdateService;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.PluginException;
@@ -24,7 +27,9 @@ import org.imixs.workflow.exceptions.PluginException;
 /**
  * JobHandler to upgrates existing workitems to the lates workflow version.
  * 
- * Missing workflow items will be added.
+ * Missing workflow items will be added. In addition workitems with a missing or
+ * outdated '$nextdue' are saved, so that the WorkflowSchedulerService computes
+ * the item for the current schedule of the task.
  * 
  * 
  * @author rsoika
@@ -47,6 +52,9 @@ public class JobHandlerUpgradeWorkitems implements JobHandler {
 	@EJB
 	LuceneUpdateService luceneService;
 
+	@EJB
+	WorkflowSchedulerService workflowSchedulerService;
+
 	private static Logger logger = Logger.getLogger(JobHandlerRebuildIndex.class.getName());
 
 	/**
@@ -97,17 +105,27 @@ public class JobHandlerUpgradeWorkitems implements JobHandler {
 		// Update index
 		logger.info("Job " + AdminPService.JOB_UPGRADE + " (" + adminp.getUniqueID() + ") - verifeing " + colSize
 				+ " workitems...");
-		int iCount = 0;
+		List<ItemCollection> upgradeList = new ArrayList<ItemCollection>();
 		for (ItemCollection workitem : workitemList) {
 			// only look into documents with a model version...
 			if (workitem.hasItem(WorkflowKernel.MODELVERSION)) {
-				if (upgradeWorkitem(workitem)) {
-					// update workitem...
-					documentService.save(workitem);
-					iCount++;
+				boolean upgrade = upgradeWorkitem(workitem);
+				// the $nextdue is updated by the WorkflowSchedulerService on save
+				if (upgrade || workflowSchedulerService.isNextDueOutdated(workitem)) {
+					upgradeList.add(workitem);
 				}
 			}
 		}
+		// update workitems...
+		int iCount = 0;
+		for (SaveResult saveResult : documentService.saveAll(upgradeList)) {
+			if (saveResult.isSaved()) {
+				iCount++;
+			} else {
+				logger.warning("Job " + AdminPService.JOB_UPGRADE + " (" + adminp.getUniqueID() + ") - unable to update "
+						+ saveResult.getDocument().getUniqueID() + ": " + saveResult.getError().getMessage());
+			}
+		}
 		iIndex = iIndex + colSize;
 		iUpdates = iUpdates + iCount;
 		iProcessed = iProcessed + colSize;
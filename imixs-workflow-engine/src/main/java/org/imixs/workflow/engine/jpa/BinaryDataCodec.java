@@ -0,0 +1,422 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.jpa;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The BinaryDataCodec is a compact, type-tagged binary format for the data map
+ * of a Document entity. Compared to the Java object serialization the format
+ * avoids class descriptors and writes the basic types supported by an
+ * ItemCollection with a single tag byte followed by the value.
+ * <p>
+ * Format version 1:
+ * 
+ * <pre>
+ * 'I' 'X' version itemCount { name value }*
+ * </pre>
+ * 
+ * Lengths and integral numbers are written as varints (negative numbers in
+ * zig-zag encoding). Strings are written into a string table the first time
+ * they appear and are referred by their index afterwards. This reduces the size
+ * of repeated names, e.g. in $readaccess and $writeaccess. Values which are not
+ * known by the codec (e.g. XMLItem) are embedded as a Java serialized object.
+ * 
+ * @see DocumentDataConverter
+ * @author rsoika
+ * @version 1.0
+ */
+public class BinaryDataCodec implements DataCodec {
+
+	public static final int VERSION = 1;
+
+	// strings longer than this are not added to the string table
+	static final int MAX_TABLE_STRING_LENGTH = 128;
+
+	static final byte TAG_NULL = 0;
+	static final byte TAG_STRING = 1;
+	static final byte TAG_INTEGER = 2;
+	static final byte TAG_LONG = 3;
+	static final byte TAG_DOUBLE = 4;
+	static final byte TAG_FLOAT = 5;
+	static final byte TAG_TRUE = 6;
+	static final byte TAG_FALSE = 7;
+	static final byte TAG_SHORT = 8;
+	static final byte TAG_BYTE = 9;
+	static final byte TAG_CHARACTER = 10;
+	static final byte TAG_BIGDECIMAL = 11;
+	static final byte TAG_BIGINTEGER = 12;
+	static final byte TAG_DATE = 13;
+	static final byte TAG_BYTES = 14;
+	static final byte TAG_LIST = 15;
+	static final byte TAG_MAP = 16;
+	static final byte TAG_SERIALIZED = 17;
+
+	@Override
+	public int getVersion() {
+		return VERSION;
+	}
+
+	@Override
+	public byte[] encode(Map<String, List<Object>> data) throws IOException {
+		Encoder encoder = new Encoder();
+		encoder.writeByte(MAGIC_0);
+		encoder.writeByte(MAGIC_1);
+		encoder.writeByte(VERSION);
+		encoder.writeVarInt(data.size());
+		for (Map.Entry<String, List<Object>> entry : data.entrySet()) {
+			encoder.writeString(entry.getKey());
+			encoder.writeValue(entry.getValue());
+		}
+		return encoder.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<String, List<Object>> decode(byte[] data) throws IOException {
+		if (data.length < 3 || data[0] != MAGIC_0 || data[1] != MAGIC_1 || data[2] != VERSION) {
+			throw new IOException("invalid data header - format version " + VERSION + " expected");
+		}
+		Decoder decoder = new Decoder(data, 3);
+		int size = decoder.readVarInt();
+		Map<String, List<Object>> result = new Hashtable<String, List<Object>>(Math.max(11, size * 2));
+		for (int i = 0; i < size; i++) {
+			String name = decoder.readString();
+			Object value = decoder.readValue();
+			if (name != null && value != null) {
+				result.put(name, (List<Object>) value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes values into a growing byte buffer.
+	 */
+	static class Encoder {
+		private byte[] buffer = new byte[1024];
+		private int position = 0;
+		private final Map<String, Integer> stringTable = new HashMap<String, Integer>();
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, position);
+		}
+
+		void ensureCapacity(int count) {
+			if (position + count > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + count));
+			}
+		}
+
+		void writeByte(int b) {
+			ensureCapacity(1);
+			buffer[position++] = (byte) b;
+		}
+
+		void writeBytes(byte[] bytes) {
+			writeVarInt(bytes.length);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		void writeVarInt(int value) {
+			writeVarLong(value & 0xFFFFFFFFL);
+		}
+
+		void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+		}
+
+		void writeZigZag(long value) {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		void writeFixedLong(long value) {
+			ensureCapacity(8);
+			for (int i = 56; i >= 0; i -= 8) {
+				buffer[position++] = (byte) (value >>> i);
+			}
+		}
+
+		/**
+		 * Writes a string. The first occurrence of a short string is written as a
+		 * literal (index 0) and added to the string table. Each further occurrence
+		 * is written as the table index + 1.
+		 */
+		void writeString(String value) {
+			Integer index = stringTable.get(value);
+			if (index != null) {
+				writeVarInt(index + 1);
+				return;
+			}
+			writeVarInt(0);
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeBytes(bytes);
+			if (bytes.length <= MAX_TABLE_STRING_LENGTH) {
+				stringTable.put(value, stringTable.size());
+			}
+		}
+
+		@SuppressWarnings("rawtypes")
+		void writeValue(Object value) throws IOException {
+			if (value == null) {
+				writeByte(TAG_NULL);
+				return;
+			}
+			Class<?> type = value.getClass();
+			if (type == String.class) {
+				writeByte(TAG_STRING);
+				writeString((String) value);
+			} else if (type == Integer.class) {
+				writeByte(TAG_INTEGER);
+				writeZigZag((Integer) value);
+			} else if (type == Long.class) {
+				writeByte(TAG_LONG);
+				writeZigZag((Long) value);
+			} else if (type == Double.class) {
+				writeByte(TAG_DOUBLE);
+				writeFixedLong(Double.doubleToRawLongBits((Double) value));
+			} else if (type == Float.class) {
+				writeByte(TAG_FLOAT);
+				writeVarInt(Float.floatToRawIntBits((Float) value));
+			} else if (type == Boolean.class) {
+				writeByte(((Boolean) value) ? TAG_TRUE : TAG_FALSE);
+			} else if (type == Short.class) {
+				writeByte(TAG_SHORT);
+				writeZigZag((Short) value);
+			} else if (type == Byte.class) {
+				writeByte(TAG_BYTE);
+				writeByte((Byte) value);
+			} else if (type == Character.class) {
+				writeByte(TAG_CHARACTER);
+				writeVarInt((Character) value);
+			} else if (type == BigDecimal.class) {
+				BigDecimal decimal = (BigDecimal) value;
+				writeByte(TAG_BIGDECIMAL);
+				writeZigZag(decimal.scale());
+				writeBytes(decimal.unscaledValue().toByteArray());
+			} else if (type == BigInteger.class) {
+				writeByte(TAG_BIGINTEGER);
+				writeBytes(((BigInteger) value).toByteArray());
+			} else if (type == Date.class) {
+				writeByte(TAG_DATE);
+				writeZigZag(((Date) value).getTime());
+			} else if (type == byte[].class) {
+				writeByte(TAG_BYTES);
+				writeBytes((byte[]) value);
+			} else if (value instanceof List) {
+				List list = (List) value;
+				writeByte(TAG_LIST);
+				writeVarInt(list.size());
+				for (Object element : list) {
+					writeValue(element);
+				}
+			} else if (value instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) value;
+				writeByte(TAG_MAP);
+				writeVarInt(map.size());
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					writeValue(entry.getKey());
+					writeValue(entry.getValue());
+				}
+			} else {
+				// unknown type - fallback to java serialization
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				ObjectOutputStream oos = new ObjectOutputStream(bos);
+				oos.writeObject(value);
+				oos.close();
+				writeByte(TAG_SERIALIZED);
+				writeBytes(bos.toByteArray());
+			}
+		}
+	}
+
+	/**
+	 * Reads values from a byte array.
+	 */
+	static class Decoder {
+		private final byte[] buffer;
+		private int position;
+		private final List<String> stringTable = new ArrayList<String>();
+
+		Decoder(byte[] buffer, int position) {
+			this.buffer = buffer;
+			this.position = position;
+		}
+
+		int readByte() throws IOException {
+			if (position >= buffer.length) {
+				throw new IOException("unexpected end of data at position " + position);
+			}
+			return buffer[position++];
+		}
+
+		byte[] readBytes() throws IOException {
+			int length = readVarInt();
+			if (length < 0 || position + length > buffer.length) {
+				throw new IOException("invalid length " + length + " at position " + position);
+			}
+			byte[] result = Arrays.copyOfRange(buffer, position, position + length);
+			position += length;
+			return result;
+		}
+
+		int readVarInt() throws IOException {
+			return (int) readVarLong();
+		}
+
+		long readVarLong() throws IOException {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				result |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+			throw new IOException("malformed varint at position " + position);
+		}
+
+		long readZigZag() throws IOException {
+			long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		long readFixedLong() throws IOException {
+			long result = 0;
+			for (int i = 0; i < 8; i++) {
+				result = (result << 8) | (readByte() & 0xFF);
+			}
+			return result;
+		}
+
+		String readString() throws IOException {
+			int index = readVarInt();
+			if (index > 0) {
+				if (index > stringTable.size()) {
+					throw new IOException("invalid string reference " + index + " at position " + position);
+				}
+				return stringTable.get(index - 1);
+			}
+			int length = readVarInt();
+			if (length < 0 || position + length > buffer.length) {
+				throw new IOException("invalid string length " + length + " at position " + position);
+			}
+			String result = new String(buffer, position, length, StandardCharsets.UTF_8);
+			position += length;
+			if (length <= MAX_TABLE_STRING_LENGTH) {
+				stringTable.add(result);
+			}
+			return result;
+		}
+
+		Object readValue() throws IOException {
+			int tag = readByte();
+			switch (tag) {
+			case TAG_NULL:
+				return null;
+			case TAG_STRING:
+				return readString();
+			case TAG_INTEGER:
+				return Integer.valueOf((int) readZigZag());
+			case TAG_LONG:
+				return Long.valueOf(readZigZag());
+			case TAG_DOUBLE:
+				return Double.valueOf(Double.longBitsToDouble(readFixedLong()));
+			case TAG_FLOAT:
+				return Float.valueOf(Float.intBitsToFloat(readVarInt()));
+			case TAG_TRUE:
+				return Boolean.TRUE;
+			case TAG_FALSE:
+				return Boolean.FALSE;
+			case TAG_SHORT:
+				return Short.valueOf((short) readZigZag());
+			case TAG_BYTE:
+				return Byte.valueOf((byte) readByte());
+			case TAG_CHARACTER:
+				return Character.valueOf((char) readVarInt());
+			case TAG_BIGDECIMAL:
+				int scale = (int) readZigZag();
+				return new BigDecimal(new BigInteger(readBytes()), scale);
+			case TAG_BIGINTEGER:
+				return new BigInteger(readBytes());
+			case TAG_DATE:
+				return new Date(readZigZag());
+			case TAG_BYTES:
+				return readBytes();
+			case TAG_LIST:
+				int listSize = readVarInt();
+				List<Object> list = new ArrayList<Object>(listSize);
+				for (int i = 0; i < listSize; i++) {
+					list.add(readValue());
+				}
+				return list;
+			case TAG_MAP:
+				int mapSize = readVarInt();
+				Map<Object, Object> map = new LinkedHashMap<Object, Object>(Math.max(16, mapSize * 2));
+				for (int i = 0; i < mapSize; i++) {
+					Object key = readValue();
+					map.put(key, readValue());
+				}
+				return map;
+			case TAG_SERIALIZED:
+				ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes()));
+				try {
+					return ois.readObject();
+				} catch (ClassNotFoundException e) {
+					throw new IOException("unable to read serialized value - " + e.getMessage(), e);
+				} finally {
+					ois.close();
+				}
+			default:
+				throw new IOException("unknown type tag " + tag + " at position " + (position - 1));
+			}
+		}
+	}
+}
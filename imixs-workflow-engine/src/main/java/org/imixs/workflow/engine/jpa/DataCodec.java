@@ -0,0 +1,77 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.jpa;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A DataCodec converts the data map of a Document entity into a byte array and
+ * back. Each codec is identified by a format version. The encoded byte array
+ * always starts with the two magic bytes 'I','X' followed by the version of
+ * the codec which wrote the data. This allows the DocumentDataConverter to
+ * choose the matching codec when a document is read from the database.
+ * 
+ * @see DocumentDataConverter
+ * @author rsoika
+ * @version 1.0
+ */
+public interface DataCodec {
+
+	public static final byte MAGIC_0 = 'I';
+	public static final byte MAGIC_1 = 'X';
+
+	/**
+	 * Returns the format version written by this codec. The version is stored in
+	 * the third byte of each encoded data block.
+	 * 
+	 * @return format version
+	 */
+	public int getVersion();
+
+	/**
+	 * Encodes a data map including the format header.
+	 * 
+	 * @param data
+	 * @return encoded data
+	 * @throws IOException
+	 */
+	public byte[] encode(Map<String, List<Object>> data) throws IOException;
+
+	/**
+	 * Decodes a data block written by the method encode() of this codec.
+	 * 
+	 * @param data
+	 *            - encoded data including the format header
+	 * @return data map
+	 * @throws IOException
+	 */
+	public Map<String, List<Object>> decode(byte[] data) throws IOException;
+
+}
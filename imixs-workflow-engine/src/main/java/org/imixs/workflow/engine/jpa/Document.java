@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.persistence.Basic;
+import javax.persistence.Column;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.Lob;
@@ -67,8 +68,8 @@ import org.imixs.workflow.WorkflowKernel;
  * ItemCollection contains the attribute 'type' the value will be automatically
  * mapped to the type property.
  * <p>
- * The data attribute is used to hold the ItemCollection data. It is mapped by a
- * OR-Mapper to a large object (Lob).
+ * The data attribute is used to hold the ItemCollection data. It is encoded by
+ * the DocumentDataConverter and mapped by a OR-Mapper to a large object (Lob).
  * 
  * A Client should not work directly with an instance of the Document entity.
  * It's recommended to use the DocumentService which acts as a session facade to
@@ -92,6 +93,7 @@ public class Document implements java.io.Serializable {
 	private Calendar created;
 	private Calendar modified;
 	private Map<String, List<Object>> data;
+	private byte[] encodedData;
 	private boolean pending;
 
 	/**
@@ -230,23 +232,66 @@ public class Document implements java.io.Serializable {
 	/**
 	 * returns the data object part of the Entity represented by a java.util.Map
 	 * <p>
-	 * Data is loaded eager because it is read in any case by the DocumentService.
+	 * The map is decoded lazily from the persisted data column the first time
+	 * this method is called. Changes of the map must be applied by the method
+	 * setData() so that the data is encoded again. Reading the data never changes
+	 * the persisted data column, so a managed entity is not updated by a read.
 	 * 
+	 * @see getEncodedData
 	 * @return Map
 	 */
-	@Lob
-	@Basic(fetch = FetchType.EAGER)
+	@Transient
 	public Map<String, List<Object>> getData() {
+		if (data == null && encodedData != null) {
+			data = DocumentDataConverter.convertToEntityAttribute(encodedData);
+		}
 		return data;
 	}
 
 	/**
-	 * sets a data object for this Entity.
+	 * sets a data object for this Entity. The encoded data is computed again with
+	 * the next call of getEncodedData().
 	 * 
 	 * @param data
 	 */
 	public void setData(Map<String, List<Object>> itemCol) {
 		this.data = itemCol;
+		this.encodedData = null;
+	}
+
+	/**
+	 * returns the data object part of the Entity encoded by the
+	 * DocumentDataConverter. The encoded data is mapped by a OR-Mapper to a large
+	 * object (Lob).
+	 * <p>
+	 * Data is loaded eager because it is read in any case by the DocumentService.
+	 * The data is encoded only once after each call of setData(). As long as no
+	 * new data was set, the data read from the database is returned unchanged.
+	 * Data in an older format is written in the current format with the next
+	 * update of the document.
+	 * 
+	 * @see DocumentDataConverter
+	 * @return encoded data
+	 */
+	@Lob
+	@Basic(fetch = FetchType.EAGER)
+	@Column(name = "DATA")
+	protected byte[] getEncodedData() {
+		if (encodedData == null && data != null) {
+			encodedData = DocumentDataConverter.convertToDatabaseColumn(data);
+		}
+		return encodedData;
+	}
+
+	/**
+	 * sets the encoded data read from the database. Data written by older versions
+	 * in the Java serialization format is supported.
+	 * 
+	 * @param encodedData
+	 */
+	protected void setEncodedData(byte[] encodedData) {
+		this.encodedData = encodedData;
+		this.data = null;
 	}
 
 }
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.jpa;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.exceptions.InvalidAccessException;
+
+/**
+ * The DocumentDataConverter converts the data map of a Document entity into the
+ * byte array stored in the database column 'DATA' and back.
+ * <p>
+ * New data is always written with the current default codec (the
+ * BinaryDataCodec). When data is read, the converter inspects the header of the
+ * byte array and selects the codec registered for the format version. Rows
+ * written by older versions of Imixs-Workflow contain a Java serialized map.
+ * These rows are detected by the serialization stream magic (0xACED) and are
+ * still readable, so existing databases need no migration. Each legacy
+ * document is converted into the binary format the next time it is saved.
+ * <p>
+ * The method names follow the JPA 2.1 AttributeConverter contract.
+ * 
+ * @see DataCodec
+ * @see BinaryDataCodec
+ * @author rsoika
+ * @version 1.0
+ */
+public class DocumentDataConverter {
+
+	public static final String INVALID_DATA = "INVALID_DATA";
+
+	private static final int SERIALIZATION_MAGIC_0 = 0xAC;
+	private static final int SERIALIZATION_MAGIC_1 = 0xED;
+
+	private static final Map<Integer, DataCodec> codecs = new ConcurrentHashMap<Integer, DataCodec>();
+	private static volatile DataCodec defaultCodec;
+
+	private static Logger logger = Logger.getLogger(DocumentDataConverter.class.getName());
+
+	static {
+		setDefaultCodec(new BinaryDataCodec());
+	}
+
+	/**
+	 * Registers a codec for its format version. An already registered codec with
+	 * the same version will be replaced.
+	 * 
+	 * @param codec
+	 */
+	public static void registerCodec(DataCodec codec) {
+		codecs.put(codec.getVersion(), codec);
+	}
+
+	/**
+	 * Sets the codec used to write new data. The codec is registered
+	 * automatically so that data written by this codec can be read.
+	 * 
+	 * @param codec
+	 */
+	public static void setDefaultCodec(DataCodec codec) {
+		registerCodec(codec);
+		defaultCodec = codec;
+	}
+
+	public static DataCodec getDefaultCodec() {
+		return defaultCodec;
+	}
+
+	/**
+	 * Converts the data map into the byte array stored in the database.
+	 * 
+	 * @param data
+	 * @return encoded data or null if data is null
+	 */
+	public static byte[] convertToDatabaseColumn(Map<String, List<Object>> data) {
+		if (data == null) {
+			return null;
+		}
+		try {
+			return defaultCodec.encode(data);
+		} catch (IOException e) {
+			throw new InvalidAccessException(INVALID_DATA, "Unable to encode document data - " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Converts a byte array read from the database into the data map. The method
+	 * supports all registered codec versions and the legacy Java serialization
+	 * format.
+	 * 
+	 * @param dbData
+	 * @return data map or null if dbData is null or empty
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, List<Object>> convertToEntityAttribute(byte[] dbData) {
+		if (dbData == null || dbData.length == 0) {
+			return null;
+		}
+		try {
+			if (dbData.length > 2 && dbData[0] == DataCodec.MAGIC_0 && dbData[1] == DataCodec.MAGIC_1) {
+				int version = dbData[2];
+				DataCodec codec = codecs.get(version);
+				if (codec == null) {
+					throw new IOException("no codec registered for format version " + version);
+				}
+				return codec.decode(dbData);
+			}
+
+			if (dbData.length > 1 && (dbData[0] & 0xFF) == SERIALIZATION_MAGIC_0
+					&& (dbData[1] & 0xFF) == SERIALIZATION_MAGIC_1) {
+				// legacy format
+				logger.finest("......decode legacy serialized document data");
+				ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(dbData));
+				try {
+					return (Map<String, List<Object>>) ois.readObject();
+				} finally {
+					ois.close();
+				}
+			}
+			throw new IOException("unknown data format");
+		} catch (IOException | ClassNotFoundException e) {
+			throw new InvalidAccessException(INVALID_DATA, "Unable to decode document data - " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,604 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.lucene;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+
+import org.apache.lucene.analysis.standard.ClassicAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.engine.PropertyService;
+import org.imixs.workflow.exceptions.IndexException;
+
+/**
+ * The LuceneIndexService holds one long-lived IndexWriter and a near-real-time
+ * SearcherManager for the lucene index. The LuceneUpdateService writes all
+ * changes through the shared IndexWriter and the LuceneSearchService acquires
+ * its IndexSearcher from the SearcherManager. In this way the index is no
+ * longer opened and closed for each flush and each search.
+ * <p>
+ * After the LuceneUpdateService has written a set of changes, it calls the
+ * method <code>flush()</code>. The method marks the current searcher as stale
+ * and commits the changes. The next call of <code>acquireSearcher()</code>
+ * reopens the searcher so that the changes become visible.
+ * <p>
+ * Each open and each reopen of the searcher increases the index generation. So
+ * the generation identifies the searcher used for a search and not the last
+ * change of the index. With a reopen interval a search may still use the
+ * searcher of the current generation after a flush. The generation can be read
+ * by the method <code>getGeneration()</code> and is used by clients to
+ * invalidate search results cached since the last reopen of the searcher.
+ * <p>
+ * The following properties can be set in the imixs.properties:
+ * <ul>
+ * <li>lucence.reopenInterval - the minimum time in milliseconds between two
+ * reopens of the searcher. The default value 0 reopens the searcher with the
+ * next search after each change.
+ * <li>lucence.commitInterval - the interval in milliseconds a timer commits
+ * pending changes. The default value 0 commits the changes with each flush.
+ * Changes written from the event log are always committed before the event log
+ * entries are removed, so the interval only defers the commit of changes
+ * written without an event log, e.g. by the rebuild index job.
+ * </ul>
+ * All searchers share one LRU query cache. The read access filters added by the
+ * LuceneSearchService are always cached, so the documents readable by a user
+ * are computed only once per index segment and user name list. Other queries
+ * are cached by the default usage tracking policy of lucene. The cache entries
+ * of a segment are removed when the segment is merged away.
+ * <p>
+ * Documents written by a version before 4.4 contain no sort values for the
+ * $uniqueid. The method <code>isUniqueIdSortable()</code> tests if all segments
+ * of a searcher contain these values. The result is cached per segment. If an
+ * older segment is found, a warning is logged once and the index should be
+ * rebuilt.
+ * <p>
+ * The service collects the count and the total time of all open, reopen and
+ * commit operations and the hits and misses of the read access filters. The
+ * metrics can be read by the method <code>getMetrics()</code>.
+ * 
+ * @see LuceneUpdateService
+ * @see LuceneSearchService
+ * @version 1.0
+ * @author rsoika
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class LuceneIndexService {
+
+	public static final String METRIC_OPEN_COUNT = "lucene.open.count";
+	public static final String METRIC_OPEN_TIME = "lucene.open.time";
+	public static final String METRIC_REOPEN_COUNT = "lucene.reopen.count";
+	public static final String METRIC_REOPEN_TIME = "lucene.reopen.time";
+	public static final String METRIC_COMMIT_COUNT = "lucene.commit.count";
+	public static final String METRIC_COMMIT_TIME = "lucene.commit.time";
+	public static final String METRIC_FILTER_HITS = "lucene.filtercache.hits";
+	public static final String METRIC_FILTER_MISSES = "lucene.filtercache.misses";
+	public static final String METRIC_FILTER_HIT_RATIO = "lucene.filtercache.hitratio";
+	public static final String METRIC_QUERYCACHE_HITS = "lucene.querycache.hits";
+	public static final String METRIC_QUERYCACHE_MISSES = "lucene.querycache.misses";
+	public static final String METRIC_QUERYCACHE_SIZE = "lucene.querycache.size";
+	public static final String METRIC_GENERATION = "lucene.generation";
+
+	private static final int QUERY_CACHE_SIZE = 1000;
+	private static final long QUERY_CACHE_RAM = 32 * 1024 * 1024;
+
+	private String indexDirectoryPath = null;
+	private long reopenInterval = 0;
+	private long commitInterval = 0;
+
+	private volatile IndexWriter indexWriter = null;
+	private volatile SearcherManager searcherManager = null;
+	private volatile boolean searcherStale = false;
+	private volatile boolean uncommittedChanges = false;
+	private volatile long lastReopen = 0;
+
+	private final AtomicLong openCount = new AtomicLong();
+	private final AtomicLong openTime = new AtomicLong();
+	private final AtomicLong reopenCount = new AtomicLong();
+	private final AtomicLong reopenTime = new AtomicLong();
+	private final AtomicLong commitCount = new AtomicLong();
+	private final AtomicLong commitTime = new AtomicLong();
+	private final AtomicLong generation = new AtomicLong();
+
+	private final ReadAccessQueryCache queryCache = new ReadAccessQueryCache();
+	private final QueryCachingPolicy queryCachingPolicy = new ReadAccessQueryCachingPolicy();
+	private final Map<Object, Boolean> uniqueIdSortableSegments = Collections
+			.synchronizedMap(new WeakHashMap<Object, Boolean>());
+	private volatile boolean uniqueIdWarning = false;
+
+	@EJB
+	PropertyService propertyService;
+
+	@Resource
+	javax.ejb.TimerService timerService;
+
+	private static Logger logger = Logger.getLogger(LuceneIndexService.class.getName());
+
+	/**
+	 * PostContruct event - The method loads the index directory and the reopen and
+	 * commit intervals from the imixs.properties. If a commit interval is defined,
+	 * the method starts a non-persistent interval timer.
+	 */
+	@PostConstruct
+	void init() {
+		Properties properties = propertyService.getProperties();
+		indexDirectoryPath = properties.getProperty("lucence.indexDir", LuceneUpdateService.DEFAULT_INDEX_DIRECTORY);
+		reopenInterval = parseInterval(properties.getProperty("lucence.reopenInterval"));
+		commitInterval = parseInterval(properties.getProperty("lucence.commitInterval"));
+
+		logger.finest("......lucene ReopenInterval=" + reopenInterval);
+		logger.finest("......lucene CommitInterval=" + commitInterval);
+
+		if (commitInterval > 0 && timerService != null) {
+			timerService.createIntervalTimer(commitInterval, commitInterval, new TimerConfig(null, false));
+		}
+	}
+
+	/**
+	 * PreDestroy event - commits pending changes and closes the SearcherManager and
+	 * the IndexWriter.
+	 */
+	@PreDestroy
+	synchronized void close() {
+		try {
+			if (searcherManager != null) {
+				searcherManager.close();
+			}
+			if (indexWriter != null && indexWriter.isOpen()) {
+				logger.finest("......lucene close IndexWriter...");
+				indexWriter.close();
+			}
+		} catch (IOException e) {
+			logger.warning("...unable to close lucene index: " + e.getMessage());
+		} finally {
+			searcherManager = null;
+			indexWriter = null;
+			uncommittedChanges = false;
+		}
+	}
+
+	/**
+	 * Returns the shared IndexWriter. The writer is opened with the first call. If
+	 * the writer was closed because of an unrecoverable error, the method opens a
+	 * new writer.
+	 * 
+	 * @return IndexWriter
+	 * @throws IOException
+	 */
+	public IndexWriter getIndexWriter() throws IOException {
+		IndexWriter writer = indexWriter;
+		if (writer == null || !writer.isOpen()) {
+			writer = open();
+		}
+		return writer;
+	}
+
+	/**
+	 * Returns an IndexSearcher from the SearcherManager. If the index was changed
+	 * since the last reopen and the reopen interval has elapsed, the searcher is
+	 * reopened first. Each searcher must be returned by the method
+	 * <code>releaseSearcher()</code>.
+	 * 
+	 * @return IndexSearcher
+	 * @throws IOException
+	 */
+	public IndexSearcher acquireSearcher() throws IOException {
+		getIndexWriter();
+		return maybeReopen().acquire();
+	}
+
+	/**
+	 * Reopens the searcher if the index was changed since the last reopen and the
+	 * reopen interval has elapsed.
+	 * 
+	 * @return SearcherManager
+	 * @throws IOException
+	 */
+	private SearcherManager maybeReopen() throws IOException {
+		SearcherManager manager = searcherManager;
+		if (searcherStale && (System.currentTimeMillis() - lastReopen) >= reopenInterval) {
+			long l = System.currentTimeMillis();
+			// reset the flag before the refresh so that a concurrent change is not lost
+			searcherStale = false;
+			manager.maybeRefreshBlocking();
+			lastReopen = System.currentTimeMillis();
+			reopenCount.incrementAndGet();
+			reopenTime.addAndGet(lastReopen - l);
+			logger.finest("......lucene reopen IndexSearcher in " + (lastReopen - l) + "ms");
+		}
+		return manager;
+	}
+
+	/**
+	 * Returns true if the IndexSearcher contains all changes written by the
+	 * IndexWriter.
+	 * 
+	 * @param searcher
+	 * @return true if the searcher is current
+	 * @throws IOException
+	 */
+	public boolean isCurrent(IndexSearcher searcher) throws IOException {
+		IndexReader reader = searcher.getIndexReader();
+		return reader instanceof DirectoryReader && ((DirectoryReader) reader).isCurrent();
+	}
+
+	/**
+	 * Releases an IndexSearcher acquired by the method
+	 * <code>acquireSearcher()</code>.
+	 * 
+	 * @param searcher
+	 */
+	public void releaseSearcher(IndexSearcher searcher) {
+		SearcherManager manager = searcherManager;
+		if (searcher == null || manager == null) {
+			return;
+		}
+		try {
+			manager.release(searcher);
+		} catch (IOException e) {
+			logger.warning("...unable to release lucene IndexSearcher: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns true if all documents of the searcher contain the sort values of the
+	 * $uniqueid. Documents written by a version before 4.4 contain no sort values
+	 * and can not be sorted by the $uniqueid. The result is computed only once for
+	 * each segment. If a segment without sort values is found, a warning is logged
+	 * once.
+	 * 
+	 * @param searcher
+	 * @return true if all documents can be sorted by the $uniqueid
+	 * @throws IOException
+	 */
+	public boolean isUniqueIdSortable(IndexSearcher searcher) throws IOException {
+		for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+			LeafReader reader = context.reader();
+			Object key = reader.getCoreCacheKey();
+			Boolean sortable = uniqueIdSortableSegments.get(key);
+			if (sortable == null) {
+				sortable = hasUniqueIdSortValues(reader);
+				uniqueIdSortableSegments.put(key, sortable);
+			}
+			if (!sortable) {
+				if (!uniqueIdWarning) {
+					uniqueIdWarning = true;
+					logger.warning("...lucene index '" + indexDirectoryPath
+							+ "' contains documents without sort values for $uniqueid - cursors are ordered by the document number until the index is rebuilt!");
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if all documents of a segment contain the sort values of the
+	 * $uniqueid. Deleted documents are tested too, so the result does not change
+	 * for the segment.
+	 * 
+	 * @param reader
+	 * @return true if all documents contain sort values
+	 * @throws IOException
+	 */
+	static boolean hasUniqueIdSortValues(LeafReader reader) throws IOException {
+		if (reader.maxDoc() == 0) {
+			return true;
+		}
+		FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo("$uniqueid");
+		if (fieldInfo == null || fieldInfo.getDocValuesType() != DocValuesType.SORTED) {
+			return false;
+		}
+		// a merged segment can contain documents with and without sort values
+		Bits docsWithField = reader.getDocsWithField("$uniqueid");
+		if (docsWithField == null) {
+			return false;
+		}
+		if (docsWithField instanceof Bits.MatchAllBits) {
+			return true;
+		}
+		for (int i = 0; i < reader.maxDoc(); i++) {
+			if (!docsWithField.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This method is called after changes were written by the IndexWriter. The
+	 * current searcher is marked as stale. If no commit interval is defined, the
+	 * changes are committed immediately. Otherwise the commit is done by the timer.
+	 */
+	public void flush() {
+		searcherStale = true;
+		uncommittedChanges = true;
+		if (commitInterval <= 0) {
+			commit();
+		}
+	}
+
+	/**
+	 * Commits all pending changes of the IndexWriter.
+	 */
+	public void commit() {
+		IndexWriter writer = indexWriter;
+		if (!uncommittedChanges || writer == null || !writer.isOpen()) {
+			return;
+		}
+		long l = System.currentTimeMillis();
+		try {
+			uncommittedChanges = false;
+			writer.commit();
+		} catch (IOException e) {
+			throw new IndexException(IndexException.INVALID_INDEX, "Unable to commit lucene index: ", e);
+		}
+		long time = System.currentTimeMillis() - l;
+		commitCount.incrementAndGet();
+		commitTime.addAndGet(time);
+		logger.finest("......lucene commit in " + time + "ms");
+	}
+
+	/**
+	 * Timeout event - commits pending changes in case a commit interval is defined.
+	 * 
+	 * @param timer
+	 */
+	@Timeout
+	void onTimeout(javax.ejb.Timer timer) {
+		try {
+			commit();
+		} catch (IndexException e) {
+			logger.warning("...unable to commit lucene index: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the count and the total time in milliseconds of all open, reopen and
+	 * commit operations.
+	 * 
+	 * @return metrics
+	 */
+	public ItemCollection getMetrics() {
+		ItemCollection metrics = new ItemCollection();
+		metrics.replaceItemValue(METRIC_OPEN_COUNT, openCount.get());
+		metrics.replaceItemValue(METRIC_OPEN_TIME, openTime.get());
+		metrics.replaceItemValue(METRIC_REOPEN_COUNT, reopenCount.get());
+		metrics.replaceItemValue(METRIC_REOPEN_TIME, reopenTime.get());
+		metrics.replaceItemValue(METRIC_COMMIT_COUNT, commitCount.get());
+		metrics.replaceItemValue(METRIC_COMMIT_TIME, commitTime.get());
+		long hits = queryCache.filterHits.get();
+		long misses = queryCache.filterMisses.get();
+		metrics.replaceItemValue(METRIC_FILTER_HITS, hits);
+		metrics.replaceItemValue(METRIC_FILTER_MISSES, misses);
+		metrics.replaceItemValue(METRIC_FILTER_HIT_RATIO, (hits + misses) > 0 ? (double) hits / (hits + misses) : 0.0);
+		metrics.replaceItemValue(METRIC_QUERYCACHE_HITS, queryCache.getHitCount());
+		metrics.replaceItemValue(METRIC_QUERYCACHE_MISSES, queryCache.getMissCount());
+		metrics.replaceItemValue(METRIC_QUERYCACHE_SIZE, queryCache.getCacheSize());
+		metrics.replaceItemValue(METRIC_GENERATION, generation.get());
+		return metrics;
+	}
+
+	/**
+	 * Returns the index generation. The generation is increased with each reopen
+	 * of the searcher. If the searcher is stale and the reopen interval has
+	 * elapsed, the searcher is reopened first. So a search started after this call
+	 * uses the searcher of the returned generation or of a later one.
+	 * 
+	 * @return index generation
+	 */
+	public long getGeneration() {
+		try {
+			getIndexWriter();
+			maybeReopen();
+		} catch (IOException e) {
+			throw new IndexException(IndexException.INVALID_INDEX, "Unable to reopen lucene index: ", e);
+		}
+		return generation.get();
+	}
+
+	public long getReopenInterval() {
+		return reopenInterval;
+	}
+
+	public long getCommitInterval() {
+		return commitInterval;
+	}
+
+	/**
+	 * Opens the IndexWriter and the SearcherManager. A missing index is created.
+	 * 
+	 * @return IndexWriter
+	 * @throws IOException
+	 */
+	private synchronized IndexWriter open() throws IOException {
+		if (indexWriter != null && indexWriter.isOpen()) {
+			return indexWriter;
+		}
+		// the writer was closed by an unrecoverable error
+		close();
+
+		long l = System.currentTimeMillis();
+		Directory indexDir = FSDirectory.open(Paths.get(indexDirectoryPath));
+		IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new ClassicAnalyzer());
+		indexWriterConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+		IndexWriter writer = new IndexWriter(indexDir, indexWriterConfig);
+		try {
+			// commit a new index so that it exists on disk
+			writer.commit();
+			searcherManager = new SearcherManager(writer, new SearcherFactory() {
+				@Override
+				public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+					IndexSearcher searcher = new IndexSearcher(reader);
+					searcher.setQueryCache(queryCache);
+					searcher.setQueryCachingPolicy(queryCachingPolicy);
+					return searcher;
+				}
+			});
+			// the generation identifies the searcher currently returned by the manager
+			searcherManager.addListener(new ReferenceManager.RefreshListener() {
+				@Override
+				public void beforeRefresh() {
+				}
+
+				@Override
+				public void afterRefresh(boolean didRefresh) {
+					if (didRefresh) {
+						generation.incrementAndGet();
+					}
+				}
+			});
+		} catch (IOException e) {
+			writer.close();
+			throw e;
+		}
+		generation.incrementAndGet();
+		searcherStale = false;
+		lastReopen = System.currentTimeMillis();
+		indexWriter = writer;
+
+		long time = System.currentTimeMillis() - l;
+		openCount.incrementAndGet();
+		openTime.addAndGet(time);
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("...lucene index '" + indexDirectoryPath + "' opened in " + time + " ms");
+		}
+		return writer;
+	}
+
+	/**
+	 * Parses an interval in milliseconds. Invalid or negative values are ignored.
+	 * 
+	 * @param value
+	 * @return interval or 0
+	 */
+	private long parseInterval(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return 0;
+		}
+		try {
+			return Math.max(0, Long.parseLong(value.trim()));
+		} catch (NumberFormatException e) {
+			logger.warning("...invalid lucene interval '" + value + "' - default 0 is used");
+			return 0;
+		}
+	}
+
+	/**
+	 * The query cache of all searchers. The cache counts the hits and misses of
+	 * the read access filters separately.
+	 */
+	static class ReadAccessQueryCache extends LRUQueryCache {
+		final AtomicLong filterHits = new AtomicLong();
+		final AtomicLong filterMisses = new AtomicLong();
+
+		ReadAccessQueryCache() {
+			// cache all segments
+			super(QUERY_CACHE_SIZE, QUERY_CACHE_RAM, new Predicate<LeafReaderContext>() {
+				@Override
+				public boolean test(LeafReaderContext context) {
+					return true;
+				}
+			});
+		}
+
+		@Override
+		protected void onHit(Object readerCoreKey, Query query) {
+			super.onHit(readerCoreKey, query);
+			if (query instanceof ReadAccessQuery) {
+				filterHits.incrementAndGet();
+			}
+		}
+
+		@Override
+		protected void onMiss(Object readerCoreKey, Query query) {
+			super.onMiss(readerCoreKey, query);
+			if (query instanceof ReadAccessQuery) {
+				filterMisses.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Caches the read access filters always and all other queries by the default
+	 * usage tracking policy.
+	 */
+	static class ReadAccessQueryCachingPolicy implements QueryCachingPolicy {
+		private final QueryCachingPolicy defaultPolicy = new UsageTrackingQueryCachingPolicy();
+
+		@Override
+		public void onUse(Query query) {
+			defaultPolicy.onUse(query);
+		}
+
+		@Override
+		public boolean shouldCache(Query query) throws IOException {
+			if (query instanceof ReadAccessQuery) {
+				return true;
+			}
+			return defaultPolicy.shouldCache(query);
+		}
+	}
+}
@@ -27,12 +27,26 @@
 
 package org.imixs.workflow.engine.lucene;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.security.DeclareRoles;
@@ -44,34 +58,36 @@ import javax.ejb.Stateless;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.standard.ClassicAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.QueryParser.Operator;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SortField.Type;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopDocsCollector;
 import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.TopScoreDocCollector;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.engine.DocumentService;
 import org.imixs.workflow.engine.PropertyService;
+import org.imixs.workflow.engine.jpa.DocumentDataConverter;
 import org.imixs.workflow.exceptions.InvalidAccessException;
 import org.imixs.workflow.exceptions.QueryException;
 
 /**
  * This session ejb provides a service to search the lucene index. The EJB uses
- * the IndexSearcher to query the current index. As the index can change across
- * multiple searches we can not share a single IndexSearcher instance. For that
- * reason the EJB is creating a new IndexSearch per-search.
+ * the IndexSearcher to query the current index. The IndexSearcher is acquired
+ * per-search from the LuceneIndexService which reopens the searcher after the
+ * index was changed.
  * 
  * The service provides a set of public methods which can be used to query
  * workitems or collections of workitems. A search term can be escaped by
@@ -98,6 +114,9 @@ public class LuceneSearchService {
 	// number of hits
 	public static final int DEFAULT_PAGE_SIZE = 100; // default docs in one page
 
+	private static final char CURSOR_SEPARATOR = '|';
+	private static final int STREAM_BLOCK_SIZE = 500; // documents loaded by one query
+
 	@EJB
 	PropertyService propertyService;
 
@@ -107,6 +126,9 @@ public class LuceneSearchService {
 	@EJB
 	LuceneUpdateService luceneUpdateService;
 
+	@EJB
+	LuceneIndexService luceneIndexService;
+
 	private static Logger logger = Logger.getLogger(LuceneSearchService.class.getName());
 
 	/**
@@ -174,11 +196,53 @@ public class LuceneSearchService {
 	 */
 	public List<ItemCollection> search(String sSearchTerm, int pageSize, int pageIndex, Sort sortOrder,
 			Operator defaultOperator) throws QueryException {
+		return search(sSearchTerm, pageSize, pageIndex, sortOrder, defaultOperator, null);
+	}
+
+	/**
+	 * Returns a collection of documents matching matching the provided search term.
+	 * The optional param 'items' defines the items needed by the client. If all
+	 * these items are part of the property 'lucence.indexFieldListStore', the
+	 * documents are created from the values stored in the lucene index and are not
+	 * loaded from the database. Such a projection contains only the requested
+	 * items and the $uniqueid. The DocumentEvent ON_DOCUMENT_LOAD is fired for each
+	 * projection.
+	 * <p>
+	 * The full documents are loaded from the database in the following cases:
+	 * <ul>
+	 * <li>no items are requested or some of the requested items are not stored
+	 * <li>the items $isauthor or $version are requested, as they are computed for
+	 * each load
+	 * <li>a document was indexed before a requested item was added to the
+	 * indexFieldListStore
+	 * <li>the index does not yet contain all committed changes, e.g. after a flush
+	 * timeout, so that the read access of the index may be outdated
+	 * <li>the caller is in the role ACCESSLEVEL_NOACCESS
+	 * </ul>
+	 * 
+	 * @see search(String, int, int, Sort, Operator)
+	 * @param sSearchTerm
+	 * @param pageSize
+	 *            - docs per page
+	 * @param pageIndex
+	 *            - page number
+	 * @param sortOrder
+	 *            - optional to sort the result
+	 * @param defaultOperator
+	 *            - optional to change the default search operator
+	 * @param items
+	 *            - optional list of items to be returned
+	 * @return collection of search result
+	 * @throws QueryException
+	 *             in case the searchtem is not understandable.
+	 */
+	public List<ItemCollection> search(String sSearchTerm, int pageSize, int pageIndex, Sort sortOrder,
+			Operator defaultOperator, List<String> items) throws QueryException {
 
 		long ltime = System.currentTimeMillis();
 		
-		// flush eventlog (see issue #411)
-		luceneUpdateService.flushEventLog();
+		// wait for the event log flush (see issue #411)
+		boolean flushed = luceneUpdateService.waitForEventLog();
 
 		// see issue #382
 		/*
@@ -199,9 +263,9 @@ public class LuceneSearchService {
 
 		ArrayList<ItemCollection> workitems = new ArrayList<ItemCollection>();
 
-		sSearchTerm = getExtendedSearchTerm(sSearchTerm);
 		// test if searchtem is provided
 		if (sSearchTerm == null || "".equals(sSearchTerm)) {
+			logger.warning("No search term provided!");
 			return workitems;
 		}
 
@@ -211,8 +275,9 @@ public class LuceneSearchService {
 			return workitems;
 		}
 
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = createIndexSearcher(prop);
+			searcher = luceneIndexService.acquireSearcher();
 			QueryParser parser = createQueryParser(prop);
 
 			parser.setAllowLeadingWildcard(true);
@@ -239,7 +304,7 @@ public class LuceneSearchService {
 						+ DEFAULT_MAX_SEARCH_RESULT + ") -> new MAX_SEARCH_RESULT is set to " + maxSearchResult);
 			}
 
-			Query query = parser.parse(sSearchTerm);
+			Query query = addReadAccessFilter(parser.parse(sSearchTerm));
 			if (sortOrder != null) {
 				// sorted by sortoder
 				logger.finest("......lucene result sorted by sortOrder= '" + sortOrder + "' ");
@@ -269,29 +334,217 @@ public class LuceneSearchService {
 			logger.fine("...returned " + scoreDosArray.length + " documents in "
 					+ (System.currentTimeMillis() - lsearchtime) + " ms - total hits=" + topDocs.totalHits);
 
-			for (ScoreDoc scoredoc : scoreDosArray) {
-				// Retrieve the matched document and show relevant details
-				Document doc = searcher.doc(scoredoc.doc);
-
-				String sID = doc.get("$uniqueid");
-				logger.finest("......lucene lookup $uniqueid=" + sID);
-				ItemCollection itemCol = documentService.load(sID);
-				if (itemCol != null) {
-					workitems.add(itemCol);
-				} else {
-					logger.warning("lucene index returned unreadable workitem : " + sID);
-					luceneUpdateService.removeDocument(sID);
-					// this situation happens if the search index returned
-					// documents the current user has no read access.
-					// this should normally avoided with the $readaccess
-					// search phrase! So if this happens we need to check
-					// the createDocument method!
+			workitems.addAll(loadPage(searcher, scoreDosArray, items, flushed));
+
+			logger.fine("...search result computed in " + (System.currentTimeMillis() - ltime) + " ms");
+		} catch (IOException e) {
+			// in case of an IOException we just print an error message and
+			// return an empty result
+			logger.severe("Lucene index error: " + e.getMessage());
+			throw new InvalidAccessException(InvalidAccessException.INVALID_INDEX, e.getMessage(), e);
+		} catch (ParseException e) {
+			logger.severe("Lucene search error: " + e.getMessage());
+			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, e.getMessage(), e);
+		} finally {
+			luceneIndexService.releaseSearcher(searcher);
+		}
+
+		return workitems;
+	}
+
+	/**
+	 * Returns the documents of a result page in the order of the given score docs.
+	 * Documents not readable by the CallerPrincipal are removed from the index.
+	 * <p>
+	 * A projection is only created if the searcher contains all committed changes.
+	 * In this case the read access filter of the search is based on the same
+	 * $readaccess items as the read access check of the DocumentService.
+	 * 
+	 * @param searcher
+	 * @param scoreDocs
+	 *            - hits of the page
+	 * @param items
+	 *            - optional list of items to be returned
+	 * @param flushed
+	 *            - true if the event log was flushed before the search
+	 * @return documents of the page
+	 * @throws IOException
+	 */
+	private List<ItemCollection> loadPage(IndexSearcher searcher, ScoreDoc[] scoreDocs, List<String> items,
+			boolean flushed) throws IOException {
+		return loadPage(searcher, scoreDocs, getProjectionItems(searcher, items, flushed), documentService,
+				luceneUpdateService);
+	}
+
+	/**
+	 * Returns the documents of a result page in the order of the given score docs.
+	 * The method uses only the given services and so it can be called outside of
+	 * an invocation of this bean, e.g. by the iterator of a stream.
+	 * 
+	 * @param searcher
+	 * @param scoreDocs
+	 *            - hits of the page
+	 * @param projectionItems
+	 *            - items answered by the index or null
+	 * @param documentService
+	 * @param luceneUpdateService
+	 * @return documents of the page
+	 * @throws IOException
+	 */
+	static List<ItemCollection> loadPage(IndexSearcher searcher, ScoreDoc[] scoreDocs, List<String> projectionItems,
+			DocumentService documentService, LuceneUpdateService luceneUpdateService) throws IOException {
+		List<ItemCollection> result = new ArrayList<ItemCollection>();
+		List<String> ids = new ArrayList<String>();
+		Map<String, ItemCollection> page = new HashMap<String, ItemCollection>();
+		for (ScoreDoc scoredoc : scoreDocs) {
+			// Retrieve the matched document and show relevant details
+			Document doc = searcher.doc(scoredoc.doc);
+
+			String sID = doc.get("$uniqueid");
+			logger.finest("......lucene lookup $uniqueid=" + sID);
+			ids.add(sID);
+			if (projectionItems != null) {
+				BytesRef storedItems = doc.getBinaryValue(LuceneUpdateService.STORED_ITEMS_FIELD);
+				if (storedItems != null && isStored(doc, projectionItems)) {
+					ItemCollection projection = createProjection(sID, storedItems, projectionItems);
+					documentService.fireLoadEvent(projection);
+					page.put(sID, projection);
+				}
+			}
+		}
+
+		// load all documents not answered by the index
+		List<String> loadIDs = ids;
+		if (!page.isEmpty()) {
+			loadIDs = new ArrayList<String>();
+			for (String sID : ids) {
+				if (!page.containsKey(sID)) {
+					loadIDs.add(sID);
 				}
 			}
+		}
+		for (ItemCollection itemCol : documentService.loadAll(loadIDs)) {
+			page.put(itemCol.getUniqueID(), itemCol);
+		}
 
-			searcher.getIndexReader().close();
+		// keep the score order
+		Set<String> pageIDs = new HashSet<String>();
+		for (String sID : ids) {
+			ItemCollection itemCol = page.get(sID);
+			if (itemCol != null) {
+				if (pageIDs.add(sID)) {
+					result.add(itemCol);
+				}
+			} else {
+				logger.warning("lucene index returned unreadable workitem : " + sID);
+				luceneUpdateService.removeDocument(sID);
+				// this situation happens if the search index returned
+				// documents the current user has no read access.
+				// this should normally avoided with the $readaccess
+				// search phrase! So if this happens we need to check
+				// the createDocument method!
+			}
+		}
+		return result;
+	}
 
-			logger.fine("...search result computed in " + (System.currentTimeMillis() - ltime) + " ms");
+	/**
+	 * Returns a page of documents matching the provided search term. In
+	 * difference to the method search(String, int, int, Sort, Operator, List) the
+	 * page is not addressed by a page index but by a cursor. The cursor is
+	 * returned with each page and points to the last hit of this page. To read the
+	 * next page the cursor is passed to the next call. For the first page the
+	 * cursor is null. The search collects only the hits of one page and so the
+	 * costs of a page do not grow with the number of pages already read. This is
+	 * useful to read large results, e.g. for exports.
+	 * <p>
+	 * The $uniqueid is always added as the last sort field, so the order of the
+	 * hits is unique and the cursor contains only the sort values of the last hit.
+	 * Without a sort order the hits are sorted by score. A cursor is only valid for
+	 * the same search term and sort order. A document whose sort values changed
+	 * between two calls can be skipped or returned twice.
+	 * <p>
+	 * An index written by a version before 4.4 contains no sort values for the
+	 * $uniqueid. As long as such documents exist, the hits are ordered by their
+	 * document number instead of the $uniqueid, and a sort by $uniqueid is
+	 * ignored. The document numbers change with each merge of the index, so in
+	 * this case a cursor is only reliable as long as the index is not changed. The
+	 * index should be rebuilt after an upgrade.
+	 * 
+	 * @param sSearchTerm
+	 * @param pageSize
+	 *            - docs per page
+	 * @param cursor
+	 *            - cursor returned by the previous page or null for the first
+	 *            page
+	 * @param sortOrder
+	 *            - optional to sort the result
+	 * @param defaultOperator
+	 *            - optional to change the default search operator
+	 * @param items
+	 *            - optional list of items to be returned
+	 * @return page of the search result with the cursor of the next page
+	 * @throws QueryException
+	 *             in case the searchtem or the cursor is not understandable.
+	 */
+	public SearchResult searchAfter(String sSearchTerm, int pageSize, String cursor, Sort sortOrder,
+			Operator defaultOperator, List<String> items) throws QueryException {
+		long ltime = System.currentTimeMillis();
+
+		// wait for the event log flush (see issue #411)
+		boolean flushed = luceneUpdateService.waitForEventLog();
+
+		if (pageSize <= 0) {
+			pageSize = DEFAULT_PAGE_SIZE;
+		}
+
+		logger.finest("......lucene search: cursor=" + cursor + " pageSize=" + pageSize);
+
+		// test if searchtem is provided
+		if (sSearchTerm == null || "".equals(sSearchTerm)) {
+			logger.warning("No search term provided!");
+			return new SearchResult(new ArrayList<ItemCollection>(), null, 0);
+		}
+
+		Properties prop = propertyService.getProperties();
+		if (prop.isEmpty()) {
+			logger.warning("imixs.properties not found!");
+			return new SearchResult(new ArrayList<ItemCollection>(), null, 0);
+		}
+
+		IndexSearcher searcher = null;
+		try {
+			searcher = luceneIndexService.acquireSearcher();
+			Sort cursorSort = createCursorSort(sortOrder, luceneIndexService.isUniqueIdSortable(searcher));
+			Object[] afterValues = decodeCursor(cursor, cursorSort);
+			FieldDoc after = null;
+			if (afterValues != null) {
+				// the $uniqueid is unique, so only the last hit itself has equal sort
+				// values. The highest document number skips it in any state of the index.
+				after = new FieldDoc(Math.max(0, searcher.getIndexReader().maxDoc() - 1), Float.NaN, afterValues);
+			}
+			QueryParser parser = createQueryParser(prop);
+			parser.setAllowLeadingWildcard(true);
+			// set default operator?
+			if (defaultOperator != null) {
+				parser.setDefaultOperator(defaultOperator);
+			}
+
+			Query query = addReadAccessFilter(parser.parse(sSearchTerm));
+			// collect one more hit to know if there is a next page
+			TopDocs topDocs = searcher.searchAfter(after, query, pageSize + 1, cursorSort);
+
+			ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+			String nextCursor = null;
+			if (scoreDocs.length > pageSize) {
+				scoreDocs = Arrays.copyOf(scoreDocs, pageSize);
+				nextCursor = encodeCursor((FieldDoc) scoreDocs[pageSize - 1]);
+			}
+
+			List<ItemCollection> workitems = loadPage(searcher, scoreDocs, items, flushed);
+			logger.fine("...search result computed in " + (System.currentTimeMillis() - ltime) + " ms - total hits="
+					+ topDocs.totalHits);
+			return new SearchResult(workitems, nextCursor, topDocs.totalHits);
 		} catch (IOException e) {
 			// in case of an IOException we just print an error message and
 			// return an empty result
@@ -300,9 +553,90 @@ public class LuceneSearchService {
 		} catch (ParseException e) {
 			logger.severe("Lucene search error: " + e.getMessage());
 			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, e.getMessage(), e);
+		} finally {
+			luceneIndexService.releaseSearcher(searcher);
 		}
+	}
 
-		return workitems;
+	/**
+	 * Returns a stream of all documents matching the provided search term. The
+	 * stream holds one IndexSearcher for its lifetime, so all documents are read
+	 * from the same state of the index. The hits are read in blocks with a cursor
+	 * and the documents of a block are loaded with one database query. So the
+	 * memory used by the stream does not grow with the size of the result. The
+	 * documents are returned in the same order as by the method searchAfter.
+	 * <p>
+	 * The stream must be closed after use, otherwise the IndexSearcher is not
+	 * released before all documents are read:
+	 * 
+	 * <pre>
+	 * {@code
+	 * try (Stream<ItemCollection> documents = luceneSearchService.stream(query, null, null, null)) {
+	 * 	documents.forEach(document -> ...);
+	 * }
+	 * }
+	 * </pre>
+	 * 
+	 * @param sSearchTerm
+	 * @param sortOrder
+	 *            - optional to sort the result
+	 * @param defaultOperator
+	 *            - optional to change the default search operator
+	 * @param items
+	 *            - optional list of items to be returned
+	 * @return stream of documents
+	 * @throws QueryException
+	 *             in case the searchtem is not understandable.
+	 */
+	public Stream<ItemCollection> stream(String sSearchTerm, Sort sortOrder, Operator defaultOperator,
+			List<String> items) throws QueryException {
+
+		// wait for the event log flush (see issue #411)
+		boolean flushed = luceneUpdateService.waitForEventLog();
+
+		// test if searchtem is provided
+		if (sSearchTerm == null || "".equals(sSearchTerm)) {
+			logger.warning("No search term provided!");
+			return Stream.empty();
+		}
+
+		Properties prop = propertyService.getProperties();
+		if (prop.isEmpty()) {
+			logger.warning("imixs.properties not found!");
+			return Stream.empty();
+		}
+
+		IndexSearcher searcher = null;
+		try {
+			searcher = luceneIndexService.acquireSearcher();
+			QueryParser parser = createQueryParser(prop);
+			parser.setAllowLeadingWildcard(true);
+			// set default operator?
+			if (defaultOperator != null) {
+				parser.setDefaultOperator(defaultOperator);
+			}
+			Query query = addReadAccessFilter(parser.parse(sSearchTerm));
+
+			// the iterator releases the searcher. It is consumed after this method has
+			// returned and so it only uses the searcher and the EJB proxies.
+			HitIterator iterator = new HitIterator(searcher, query,
+					createCursorSort(sortOrder, luceneIndexService.isUniqueIdSortable(searcher)),
+					getProjectionItems(searcher, items, flushed), documentService, luceneUpdateService,
+					luceneIndexService);
+			searcher = null;
+			return StreamSupport
+					.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+							false)
+					.onClose(iterator::close);
+		} catch (IOException e) {
+			logger.severe("Lucene index error: " + e.getMessage());
+			throw new InvalidAccessException(InvalidAccessException.INVALID_INDEX, e.getMessage(), e);
+		} catch (ParseException e) {
+			logger.severe("Lucene search error: " + e.getMessage());
+			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, e.getMessage(), e);
+		} finally {
+			luceneIndexService.releaseSearcher(searcher);
+		}
 	}
 
 	/**
@@ -329,9 +663,9 @@ public class LuceneSearchService {
 			maxResult = DEFAULT_MAX_SEARCH_RESULT;
 		}
 
-		sSearchTerm = getExtendedSearchTerm(sSearchTerm);
 		// test if searchtem is provided
 		if (sSearchTerm == null || "".equals(sSearchTerm)) {
+			logger.warning("No search term provided!");
 			return 0;
 		}
 
@@ -341,8 +675,9 @@ public class LuceneSearchService {
 			return 0;
 		}
 
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = createIndexSearcher(prop);
+			searcher = luceneIndexService.acquireSearcher();
 			QueryParser parser = createQueryParser(prop);
 
 			parser.setAllowLeadingWildcard(true);
@@ -354,7 +689,7 @@ public class LuceneSearchService {
 
 			TopDocsCollector<?> collector = null;
 
-			Query query = parser.parse(sSearchTerm);
+			Query query = addReadAccessFilter(parser.parse(sSearchTerm));
 			// MAX_SEARCH_RESULT is limiting the total number of hits
 			collector = TopScoreDocCollector.create(maxResult);
 
@@ -376,117 +711,338 @@ public class LuceneSearchService {
 		} catch (ParseException e) {
 			logger.severe("Lucene search error: " + e.getMessage());
 			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, e.getMessage(), e);
+		} finally {
+			luceneIndexService.releaseSearcher(searcher);
 		}
 
 		return result;
 	}
 
 	/**
-	 * Returns the extended search term for a given query. The search term will we
-	 * extended with a users roles to test the read access level of each workitem
-	 * matching the search term.
+	 * Adds the read access filter to a query. The filter restricts the result to
+	 * documents the CallerPrincipal is allowed to read. The filter is a
+	 * non-scoring clause and is cached per user name list by the query cache of
+	 * the LuceneIndexService.
 	 * 
-	 * The optional param 'defaultOperator' can be set to Operator.AND
+	 * @param query
+	 * @return query restricted by the read access filter
+	 */
+	Query addReadAccessFilter(Query query) {
+		Query filter = createReadAccessFilter();
+		if (filter == null) {
+			return query;
+		}
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		builder.add(query, Occur.MUST);
+		builder.add(filter, Occur.FILTER);
+		return builder.build();
+	}
+
+	/**
+	 * Returns the read access filter for the CallerPrincipal. The filter matches
+	 * all documents with a $readaccess entry for the user name, one of the user
+	 * roles or groups, or ANONYMOUS. If the user is in the role
+	 * ACCESSLEVEL_MANAGERACCESS the method returns null.
 	 * 
-	 * @param sSearchTerm
-	 * @param defaultOperator
-	 *            - optional to change the default search operator
+	 * @return read access filter or null
+	 */
+	Query createReadAccessFilter() {
+		if (documentService.isUserInRole(DocumentService.ACCESSLEVEL_MANAGERACCESS)) {
+			return null;
+		}
+		// always add ANONYMOUS
+		List<BytesRef> terms = new ArrayList<BytesRef>();
+		terms.add(new BytesRef(LuceneUpdateService.ANONYMOUS));
+		for (String aRole : documentService.getUserNameList()) {
+			if (aRole != null && !"".equals(aRole)) {
+				terms.add(new BytesRef(aRole));
+			}
+		}
+		return new ReadAccessQuery(terms);
+	}
+
+	/**
+	 * Returns the sort order used to read a search result page by page. The
+	 * $uniqueid is added as the last sort field, so that no two hits have the same
+	 * sort values. Without a sort order the hits are sorted by score.
+	 * <p>
+	 * If the index contains documents without sort values for the $uniqueid, the
+	 * document number is added instead and sort fields of the $uniqueid are
+	 * removed, because lucene can not sort these documents by the $uniqueid.
+	 * 
+	 * @param sortOrder
+	 *            - optional sort order of the search
+	 * @param uniqueIdSortable
+	 *            - true if all documents contain sort values for the $uniqueid
+	 * @return sort order with the $uniqueid or the document number as last sort
+	 *         field
+	 */
+	static Sort createCursorSort(Sort sortOrder, boolean uniqueIdSortable) {
+		List<SortField> sortFields = new ArrayList<SortField>();
+		if (sortOrder != null) {
+			for (SortField sortField : sortOrder.getSort()) {
+				if (uniqueIdSortable || !"$uniqueid".equals(sortField.getField())) {
+					sortFields.add(sortField);
+				}
+			}
+		} else {
+			sortFields.add(SortField.FIELD_SCORE);
+		}
+		if (uniqueIdSortable) {
+			sortFields.add(new SortField("$uniqueid", Type.STRING));
+		} else {
+			sortFields.add(SortField.FIELD_DOC);
+		}
+		return new Sort(sortFields.toArray(new SortField[sortFields.size()]));
+	}
+
+	/**
+	 * Encodes a hit into an opaque cursor string. The cursor contains only the
+	 * sort values of the hit and no document number, because the document numbers
+	 * change with each merge of the index.
+	 * 
+	 * @param fieldDoc
+	 * @return cursor
+	 */
+	static String encodeCursor(FieldDoc fieldDoc) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < fieldDoc.fields.length; i++) {
+			Object value = fieldDoc.fields[i];
+			if (i > 0) {
+				sb.append(CURSOR_SEPARATOR);
+			}
+			if (value == null) {
+				sb.append('N');
+			} else if (value instanceof BytesRef) {
+				BytesRef bytes = (BytesRef) value;
+				sb.append('S').append(Base64.getUrlEncoder().withoutPadding()
+						.encodeToString(Arrays.copyOfRange(bytes.bytes, bytes.offset, bytes.offset + bytes.length)));
+			} else if (value instanceof Long) {
+				sb.append('L').append(value);
+			} else if (value instanceof Double) {
+				sb.append('D').append(Double.doubleToLongBits((Double) value));
+			} else if (value instanceof Float) {
+				sb.append('F').append(Float.floatToIntBits((Float) value));
+			} else if (value instanceof Integer) {
+				sb.append('I').append(value);
+			} else {
+				throw new IllegalArgumentException("unsupported sort value: " + value.getClass().getName());
+			}
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decodes a cursor created by the method encodeCursor. The cursor must contain
+	 * a value of the matching type for each sort field.
 	 * 
-	 * @return extended search term
+	 * @param cursor
+	 *            - cursor or null
+	 * @param cursorSort
+	 *            - sort order of the search created by createCursorSort
+	 * @return sort values to search after or null if no cursor is given
 	 * @throws QueryException
-	 *             in case the searchtem is not understandable.
+	 *             in case the cursor is not understandable
 	 */
-	String getExtendedSearchTerm(String sSearchTerm) throws QueryException {
-		// test if searchtem is provided
-		if (sSearchTerm == null || "".equals(sSearchTerm)) {
-			logger.warning("No search term provided!");
-			return "";
+	static Object[] decodeCursor(String cursor, Sort cursorSort) throws QueryException {
+		if (cursor == null || cursor.isEmpty()) {
+			return null;
 		}
-		// extend the Search Term if user is not ACCESSLEVEL_MANAGERACCESS
-		if (!documentService.isUserInRole(DocumentService.ACCESSLEVEL_MANAGERACCESS)) {
-			// get user names list
-			List<String> userNameList = documentService.getUserNameList();
-			// create search term (always add ANONYMOUS)
-			String sAccessTerm = "($readaccess:" + LuceneUpdateService.ANONYMOUS;
-			for (String aRole : userNameList) {
-				if (!"".equals(aRole))
-					sAccessTerm += " OR $readaccess:\"" + aRole + "\"";
+		try {
+			String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+					.split("\\" + CURSOR_SEPARATOR, -1);
+			SortField[] sortFields = cursorSort.getSort();
+			if (parts.length != sortFields.length) {
+				throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE,
+						"cursor does not match sort order: " + cursor);
+			}
+			Object[] fields = new Object[sortFields.length];
+			for (int i = 0; i < sortFields.length; i++) {
+				char type = parts[i].charAt(0);
+				String value = parts[i].substring(1);
+				if (type != 'N' && type != getCursorType(sortFields[i])) {
+					throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE,
+							"cursor does not match sort order: " + cursor);
+				}
+				switch (type) {
+				case 'N':
+					fields[i] = null;
+					break;
+				case 'S':
+					fields[i] = new BytesRef(Base64.getUrlDecoder().decode(value));
+					break;
+				case 'L':
+					fields[i] = Long.valueOf(value);
+					break;
+				case 'D':
+					fields[i] = Double.longBitsToDouble(Long.parseLong(value));
+					break;
+				case 'F':
+					fields[i] = Float.intBitsToFloat(Integer.parseInt(value));
+					break;
+				case 'I':
+					fields[i] = Integer.valueOf(value);
+					break;
+				default:
+					throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, "invalid cursor: " + cursor);
+				}
 			}
-			sAccessTerm += ") AND ";
-			sSearchTerm = sAccessTerm + sSearchTerm;
+			return fields;
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new QueryException(QueryException.QUERY_NOT_UNDERSTANDABLE, "invalid cursor: " + cursor, e);
 		}
-		logger.finest("......lucene final searchTerm=" + sSearchTerm);
+	}
 
-		return sSearchTerm;
+	/**
+	 * Returns the type character of the cursor value for a sort field.
+	 */
+	private static char getCursorType(SortField sortField) {
+		switch (sortField.getType()) {
+		case SCORE:
+		case FLOAT:
+			return 'F';
+		case STRING:
+		case STRING_VAL:
+			return 'S';
+		case LONG:
+			return 'L';
+		case DOUBLE:
+			return 'D';
+		case INT:
+		case DOC:
+			return 'I';
+		default:
+			return 0;
+		}
 	}
 
 	/**
-	 * Creates a Lucene FSDirectory Instance. The method uses the proeprty
-	 * LockFactory to set a custom LockFactory.
+	 * Creates a SortField for an item. Items indexed as typed fields are sorted by
+	 * the numeric value of their typed field, all other items by their string
+	 * value.
 	 * 
-	 * For example: org.apache.lucene.store.SimpleFSLockFactory
+	 * @param itemName
+	 * @param reverse
+	 *            - sort direction
+	 * @return SortField
+	 */
+	public SortField createSortField(String itemName, boolean reverse) {
+		String name = itemName.toLowerCase().trim();
+		if (contains(luceneUpdateService.getIndexFieldListLong(), name)
+				|| contains(luceneUpdateService.getIndexFieldListDate(), name)) {
+			return new SortField(TypedQueryParser.getTypedFieldName(name), Type.LONG, reverse);
+		}
+		if (contains(luceneUpdateService.getIndexFieldListDouble(), name)) {
+			return new SortField(TypedQueryParser.getTypedFieldName(name), Type.DOUBLE, reverse);
+		}
+		return new SortField(name, Type.STRING, reverse);
+	}
+
+	private boolean contains(List<String> fieldList, String name) {
+		return fieldList != null && fieldList.contains(name);
+	}
+
+	/**
+	 * Returns the lower case names of the requested items if the documents of a
+	 * search can be answered by the index. This is only the case if the event log
+	 * was flushed before the search and the searcher contains all committed
+	 * changes.
 	 * 
-	 * @return
+	 * @param searcher
+	 * @param items
+	 * @param flushed
+	 *            - true if the event log was flushed before the search
+	 * @return list of item names or null
 	 * @throws IOException
 	 */
-	Directory createIndexDirectory(Properties prop) throws IOException {
-		logger.finest("......createIndexDirectory...");
-		// read configuration
-		String sIndexDir = prop.getProperty("lucence.indexDir", LuceneUpdateService.DEFAULT_INDEX_DIRECTORY);
-		Directory indexDir;
-		indexDir = FSDirectory.open(Paths.get(sIndexDir));
-		return indexDir;
+	private List<String> getProjectionItems(IndexSearcher searcher, List<String> items, boolean flushed)
+			throws IOException {
+		if (items != null && flushed && luceneIndexService.isCurrent(searcher)
+				&& !documentService.isUserInRole(DocumentService.ACCESSLEVEL_NOACCESS)) {
+			return getProjectionItems(items);
+		}
+		return null;
 	}
 
 	/**
-	 * Returns a IndexSearcher instance.
-	 * <p>
-	 * In case no index yet exits, the method tries to create a new index. This
-	 * typically is necessary after first deployment.
+	 * Returns the lower case names of the requested items if all of them are
+	 * stored in the lucene index. Otherwise the method returns null and the
+	 * documents have to be loaded from the database. The items $isauthor and
+	 * $version are never stored, as they are computed for each load.
 	 * 
-	 * @param prop
-	 * @return
-	 * @throws IOException
-	 * @throws Exception
+	 * @param items
+	 * @return list of item names or null
 	 */
-	IndexSearcher createIndexSearcher(Properties prop) throws IOException {
-		IndexReader reader = null;
-		logger.finest("......createIndexSearcher...");
+	List<String> getProjectionItems(List<String> items) {
+		if (items == null || items.isEmpty()) {
+			return null;
+		}
+		List<String> storeList = luceneUpdateService.getIndexFieldListStore();
+		if (storeList == null || storeList.isEmpty()) {
+			return null;
+		}
+		List<String> result = new ArrayList<String>();
+		for (String item : items) {
+			String name = item.toLowerCase().trim();
+			if (name.isEmpty() || "$uniqueid".equals(name)) {
+				continue;
+			}
+			if ("$isauthor".equals(name) || "$version".equals(name)) {
+				return null;
+			}
+			if (!storeList.contains(name)) {
+				logger.finest("......item '" + name + "' is not stored in the index");
+				return null;
+			}
+			result.add(name);
+		}
+		return result;
+	}
 
-		Directory indexDir = createIndexDirectory(prop);
+	/**
+	 * Returns true if all items were part of the indexFieldListStore at the time
+	 * the document was indexed.
+	 * 
+	 * @param doc
+	 * @param items
+	 *            - lower case item names
+	 * @return true if all items are stored with the document
+	 */
+	static boolean isStored(Document doc, List<String> items) {
+		List<String> storedNames = Arrays.asList(doc.getValues(LuceneUpdateService.STORED_ITEM_NAMES_FIELD));
+		return storedNames.containsAll(items);
+	}
 
-		// if the index dose not yet exits we got a IO Exception (issue #329)
-		try {
-			reader = DirectoryReader.open(indexDir);
-		} catch (IOException ioe) {
-			// verify if the index is missing. In this case we try to fix the issue by
-			// creating a new index dir...
-			if (!DirectoryReader.indexExists(indexDir)) {
-				logger.finest("......index does not yet exist, trying to initialize the index....");
-				// create a IndexWriter Instance
-				IndexWriterConfig indexWriterConfig;
-				indexWriterConfig = new IndexWriterConfig(new ClassicAnalyzer());
-				indexWriterConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-				IndexWriter indexWriter = new IndexWriter(indexDir, indexWriterConfig);
-				indexWriter.close();
-				// now try to reopen once again.
-				// If this dose not work we really have a IO problem
-				reader = DirectoryReader.open(indexDir);
-				logger.finest("......index successfull created.");
-			} else {
-				// throw the origin exception....
-				throw ioe;
+	/**
+	 * Creates a document from the item values stored in the lucene index. The
+	 * document contains only the given items and the $uniqueid.
+	 * 
+	 * @param uniqueID
+	 * @param storedItems
+	 *            - encoded item values
+	 * @param items
+	 *            - lower case item names
+	 * @return ItemCollection
+	 */
+	static ItemCollection createProjection(String uniqueID, BytesRef storedItems, List<String> items) {
+		Map<String, List<Object>> values = DocumentDataConverter.convertToEntityAttribute(
+				Arrays.copyOfRange(storedItems.bytes, storedItems.offset, storedItems.offset + storedItems.length));
+		ItemCollection result = new ItemCollection();
+		result.replaceItemValue(WorkflowKernel.UNIQUEID, uniqueID);
+		for (String item : items) {
+			List<Object> value = values.get(item);
+			if (value != null) {
+				result.replaceItemValue(item, value);
 			}
 		}
-
-		IndexSearcher searcher = new IndexSearcher(reader);
-		return searcher;
+		return result;
 	}
 
 	/**
 	 * Returns in instance of a QueyParser based on a KeywordAnalyser. The method
 	 * set the lucene DefaultOperator to 'OR' if not specified otherwise in the
-	 * imixs.properties.
+	 * imixs.properties. The parser supports range queries on the typed fields
+	 * (see TypedQueryParser).
 	 * 
 	 * @see issue #28 - normalizeSearchTerm
 	 * @param prop
@@ -494,7 +1050,9 @@ public class LuceneSearchService {
 	 */
 	QueryParser createQueryParser(Properties prop) {
 		// use the keywordAnalyzer for searching a search term.
-		QueryParser parser = new QueryParser("content", new KeywordAnalyzer());
+		QueryParser parser = new TypedQueryParser("content", new KeywordAnalyzer(),
+				luceneUpdateService.getIndexFieldListLong(), luceneUpdateService.getIndexFieldListDouble(),
+				luceneUpdateService.getIndexFieldListDate());
 		// set default operator to 'AND' if not defined by property setting
 		String defaultOperator = prop.getProperty("lucene.defaultOperator");
 		if (defaultOperator != null && "OR".equals(defaultOperator.toUpperCase())) {
@@ -592,4 +1150,85 @@ public class LuceneSearchService {
 		return escapeSearchTerm(searchTerm, true);
 
 	}
+
+	/**
+	 * Iterates over all hits of a query. The hits are read in blocks of
+	 * STREAM_BLOCK_SIZE from one IndexSearcher. The searcher is released after the
+	 * last hit was read or if the iterator is closed.
+	 * <p>
+	 * The iterator is consumed after the method stream() has returned. So it does
+	 * not refer to the LuceneSearchService instance, which may already serve
+	 * another caller, but only to the EJB proxies of the services.
+	 */
+	private static class HitIterator implements Iterator<ItemCollection>, Closeable {
+		private IndexSearcher searcher;
+		private final Query query;
+		private final Sort sortOrder;
+		private final List<String> projectionItems;
+		private final DocumentService documentService;
+		private final LuceneUpdateService luceneUpdateService;
+		private final LuceneIndexService luceneIndexService;
+		private ScoreDoc after = null;
+		private boolean lastBlock = false;
+		private Iterator<ItemCollection> block = Collections.<ItemCollection>emptyList().iterator();
+
+		HitIterator(IndexSearcher searcher, Query query, Sort sortOrder, List<String> projectionItems,
+				DocumentService documentService, LuceneUpdateService luceneUpdateService,
+				LuceneIndexService luceneIndexService) {
+			this.searcher = searcher;
+			this.query = query;
+			this.sortOrder = sortOrder;
+			this.projectionItems = projectionItems;
+			this.documentService = documentService;
+			this.luceneUpdateService = luceneUpdateService;
+			this.luceneIndexService = luceneIndexService;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!block.hasNext()) {
+				if (lastBlock || searcher == null) {
+					close();
+					return false;
+				}
+				readBlock();
+			}
+			return true;
+		}
+
+		@Override
+		public ItemCollection next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return block.next();
+		}
+
+		private void readBlock() {
+			try {
+				TopDocs topDocs = searcher.searchAfter(after, query, STREAM_BLOCK_SIZE, sortOrder);
+				ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+				if (scoreDocs.length < STREAM_BLOCK_SIZE) {
+					lastBlock = true;
+				}
+				if (scoreDocs.length > 0) {
+					after = scoreDocs[scoreDocs.length - 1];
+				}
+				block = loadPage(searcher, scoreDocs, projectionItems, documentService, luceneUpdateService)
+						.iterator();
+			} catch (IOException e) {
+				close();
+				logger.severe("Lucene index error: " + e.getMessage());
+				throw new InvalidAccessException(InvalidAccessException.INVALID_INDEX, e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (searcher != null) {
+				luceneIndexService.releaseSearcher(searcher);
+				searcher = null;
+			}
+		}
+	}
 }
@@ -28,46 +28,62 @@
 package org.imixs.workflow.engine.lucene;
 
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.EJB;
+import javax.ejb.SessionContext;
 import javax.ejb.Singleton;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.FlushModeType;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
-import org.apache.lucene.analysis.standard.ClassicAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.DoublePoint;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.engine.DocumentService;
 import org.imixs.workflow.engine.PropertyService;
+import org.imixs.workflow.engine.jpa.DocumentDataConverter;
 import org.imixs.workflow.exceptions.IndexException;
 import org.imixs.workflow.exceptions.PluginException;
 
@@ -89,6 +105,12 @@ import org.imixs.workflow.exceptions.PluginException;
  * The singleton pattern is used to avoid conflicts within multi-thread
  * scenarios. The service is used by the LucenPlugin to update the lucene index
  * during a workflow processing step.
+ * <p>
+ * The event log is flushed in the background. A timer flushes the event log in
+ * the interval defined by the property "lucence.flushInterval". In addition the
+ * LuceneSearchService requests an asynchronous flush if event log entries were
+ * committed since the last flush and waits for the flush no longer than defined
+ * by the property "lucence.flushTimeout". Only one flush is running at a time.
  * 
  * 
  * @see http://stackoverflow.com/questions/34880347/why-did-lucene-indexwriter-
@@ -98,34 +120,92 @@ import org.imixs.workflow.exceptions.PluginException;
  * @author rsoika
  */
 @Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class LuceneUpdateService {
 
 	protected static final String DEFAULT_ANALYSER = "org.apache.lucene.analysis.standard.ClassicAnalyzer";
 	protected static final String DEFAULT_INDEX_DIRECTORY = "imixs-workflow-index";
 	protected static final String ANONYMOUS = "ANONYMOUS";
+	// stored field containing the encoded values of the indexFieldListStore
+	public static final String STORED_ITEMS_FIELD = "$storeditems";
+	// stored field containing the names of the indexFieldListStore at index time
+	public static final String STORED_ITEM_NAMES_FIELD = "$storeditemnames";
 
 	public static final String EVENTLOG_TYPE_ADD = "lucene_event_add";
 	public static final String EVENTLOG_TYPE_REMOVE = "lucene_event_remove";
 	protected static final String EVENTLOG_ID_PRAFIX = "lucene_event_id_";
-	protected static final int EVENTLOG_ENTRY_FLUSH_COUNT = 16;
+	protected static final int EVENTLOG_ENTRY_FLUSH_COUNT = 256;
+	protected static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	protected static final long DEFAULT_FLUSH_TIMEOUT = 2000;
+
+	public static final String METRIC_EVENTLOG_DEPTH = "lucene.eventlog.depth";
+	public static final String METRIC_EVENTLOG_LAG = "lucene.eventlog.lag";
+	public static final String METRIC_FLUSH_COUNT = "lucene.flush.count";
+	public static final String METRIC_FLUSH_ENTRIES = "lucene.flush.entries";
+	public static final String METRIC_FLUSH_TIME = "lucene.flush.time";
+	public static final String METRIC_FLUSH_LAG = "lucene.flush.lag";
+	public static final String METRIC_WAIT_COUNT = "lucene.wait.count";
+	public static final String METRIC_WAIT_TIME = "lucene.wait.time";
+	public static final String METRIC_WAIT_TIMEOUTS = "lucene.wait.timeouts";
+
+	private static final String EVENTLOG_SYNCHRONIZATION = LuceneUpdateService.class.getName() + ".eventlog";
 
 	private List<String> searchFieldList = null;
 	private List<String> indexFieldListAnalyse = null;
 	private List<String> indexFieldListNoAnalyse = null;
+	private List<String> indexFieldListStore = null;
+	private List<String> indexFieldListLong = null;
+	private List<String> indexFieldListDouble = null;
+	private List<String> indexFieldListDate = null;
 	private String indexDirectoryPath = null;
 	private String analyserClass = null;
+	private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private long flushTimeout = DEFAULT_FLUSH_TIMEOUT;
 	private Properties properties = null;
 
+	// flush control
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private final Object flushMonitor = new Object();
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+	// time of the last commit of a transaction which wrote event log entries
+	private volatile long lastEventLogCommit = 0;
+	// start time of the last successful flush
+	private volatile long lastFlushStart = 0;
+
+	// metrics
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong flushEntries = new AtomicLong();
+	private final AtomicLong flushTime = new AtomicLong();
+	// age in ms of the oldest entry indexed by the last flush
+	private volatile long flushLag = 0;
+	private final AtomicLong waitCount = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong waitTimeouts = new AtomicLong();
+
 	// default field lists
 	private static List<String> DEFAULT_SEARCH_FIELD_LIST = Arrays.asList("$workflowsummary", "$workflowabstract");
 	private static List<String> DEFAULT_NOANALYSE_FIELD_LIST = Arrays.asList("$modelversion", "$taskid", "$processid",
 			"$workitemid", "$uniqueidref", "type", "$writeaccess", "$modified", "$created", "namcreator", "$creator",
 			"$editor", "$lasteditor", "$workflowgroup", "$workflowstatus", "txtworkflowgroup", "txtname", "namowner",
-			"txtworkitemref", "$uniqueidsource", "$uniqueidversions", "$lasttask", "$lastevent", "$lasteventdate");
+			"txtworkitemref", "$uniqueidsource", "$uniqueidversions", "$lasttask", "$lastevent", "$lasteventdate",
+			"$nextdueplan");
+	private static List<String> DEFAULT_DATE_FIELD_LIST = Arrays.asList("$nextdue");
 
 	@EJB
 	PropertyService propertyService;
 
+	@EJB
+	LuceneIndexService luceneIndexService;
+
+	@Resource
+	javax.ejb.TimerService timerService;
+
+	@Resource
+	TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+	@Resource
+	SessionContext ctx;
+
 	@PersistenceContext(unitName = "org.imixs.workflow.jpa")
 	private EntityManager manager;
 
@@ -147,15 +227,27 @@ public class LuceneUpdateService {
 		// get Analyzer Class -
 		// default=org.apache.lucene.analysis.standard.ClassicAnalyzer
 		analyserClass = properties.getProperty("lucence.analyzerClass", DEFAULT_ANALYSER);
+		flushInterval = parseLong(properties.getProperty("lucence.flushInterval"), DEFAULT_FLUSH_INTERVAL);
+		flushTimeout = parseLong(properties.getProperty("lucence.flushTimeout"), DEFAULT_FLUSH_TIMEOUT);
 
 		String sFulltextFieldList = properties.getProperty("lucence.fulltextFieldList");
 		String sIndexFieldListAnalyse = properties.getProperty("lucence.indexFieldListAnalyze");
 		String sIndexFieldListNoAnalyse = properties.getProperty("lucence.indexFieldListNoAnalyze");
+		String sIndexFieldListStore = properties.getProperty("lucence.indexFieldListStore");
+		String sIndexFieldListLong = properties.getProperty("lucence.indexFieldListLong");
+		String sIndexFieldListDouble = properties.getProperty("lucence.indexFieldListDouble");
+		String sIndexFieldListDate = properties.getProperty("lucence.indexFieldListDate");
 
 		logger.finest("......lucene IndexDir=" + indexDirectoryPath);
 		logger.finest("......lucene FulltextFieldList=" + sFulltextFieldList);
 		logger.finest("......lucene IndexFieldListAnalyse=" + sIndexFieldListAnalyse);
 		logger.finest("......lucene IndexFieldListNoAnalyse=" + sIndexFieldListNoAnalyse);
+		logger.finest("......lucene IndexFieldListStore=" + sIndexFieldListStore);
+		logger.finest("......lucene IndexFieldListLong=" + sIndexFieldListLong);
+		logger.finest("......lucene IndexFieldListDouble=" + sIndexFieldListDouble);
+		logger.finest("......lucene IndexFieldListDate=" + sIndexFieldListDate);
+		logger.finest("......lucene FlushInterval=" + flushInterval);
+		logger.finest("......lucene FlushTimeout=" + flushTimeout);
 
 		// compute search field list
 		searchFieldList = new ArrayList<String>();
@@ -197,6 +289,33 @@ public class LuceneUpdateService {
 					indexFieldListNoAnalyse.add(sName);
 			}
 		}
+
+		// compute Index field list (Store)
+		indexFieldListStore = new ArrayList<String>();
+		if (sIndexFieldListStore != null && !sIndexFieldListStore.isEmpty()) {
+			StringTokenizer st = new StringTokenizer(sIndexFieldListStore, ",");
+			while (st.hasMoreElements()) {
+				String sName = st.nextToken().toLowerCase().trim();
+				// $uniqueid is always stored
+				if (!sName.isEmpty() && !"$uniqueid".equals(sName) && !indexFieldListStore.contains(sName))
+					indexFieldListStore.add(sName);
+			}
+		}
+
+		// compute typed Index field lists (Long, Double, Date). A typed field which is
+		// also listed as keyword field keeps its keyword terms.
+		indexFieldListLong = parseTypedFieldList(sIndexFieldListLong);
+		indexFieldListDouble = parseTypedFieldList(sIndexFieldListDouble);
+		indexFieldListDate = parseTypedFieldList(sIndexFieldListDate);
+		for (String sName : DEFAULT_DATE_FIELD_LIST) {
+			if (!indexFieldListDate.contains(sName))
+				indexFieldListDate.add(sName);
+		}
+
+		// start the flush timer
+		if (flushInterval > 0 && timerService != null) {
+			timerService.createIntervalTimer(flushInterval, flushInterval, new TimerConfig(null, false));
+		}
 	}
 
 	/**
@@ -213,10 +332,60 @@ public class LuceneUpdateService {
 		config.replaceItemValue("lucence.fulltextFieldList", searchFieldList);
 		config.replaceItemValue("lucence.indexFieldListAnalyze", indexFieldListAnalyse);
 		config.replaceItemValue("lucence.indexFieldListNoAnalyze", indexFieldListNoAnalyse);
+		config.replaceItemValue("lucence.indexFieldListStore", indexFieldListStore);
+		config.replaceItemValue("lucence.indexFieldListLong", indexFieldListLong);
+		config.replaceItemValue("lucence.indexFieldListDouble", indexFieldListDouble);
+		config.replaceItemValue("lucence.indexFieldListDate", indexFieldListDate);
+		config.replaceItemValue("lucence.reopenInterval", luceneIndexService.getReopenInterval());
+		config.replaceItemValue("lucence.commitInterval", luceneIndexService.getCommitInterval());
+		config.replaceItemValue("lucence.flushInterval", flushInterval);
+		config.replaceItemValue("lucence.flushTimeout", flushTimeout);
+		// add index and event log metrics
+		config.replaceAllItems(luceneIndexService.getMetrics().getAllItems());
+		config.replaceAllItems(getEventLogMetrics().getAllItems());
 
 		return config;
 	}
 
+	/**
+	 * Returns the list of items stored in the lucene index. The values of these
+	 * items can be read from the search result without loading the document from
+	 * the database.
+	 * 
+	 * @return list of lower case item names
+	 */
+	public List<String> getIndexFieldListStore() {
+		return indexFieldListStore;
+	}
+
+	/**
+	 * Returns the list of items indexed as LongPoint fields.
+	 * 
+	 * @return list of lower case item names
+	 */
+	public List<String> getIndexFieldListLong() {
+		return indexFieldListLong;
+	}
+
+	/**
+	 * Returns the list of items indexed as DoublePoint fields.
+	 * 
+	 * @return list of lower case item names
+	 */
+	public List<String> getIndexFieldListDouble() {
+		return indexFieldListDouble;
+	}
+
+	/**
+	 * Returns the list of date items indexed as LongPoint fields. The value is the
+	 * time in milliseconds.
+	 * 
+	 * @return list of lower case item names
+	 */
+	public List<String> getIndexFieldListDate() {
+		return indexFieldListDate;
+	}
+
 	/**
 	 * This method adds a single document into the to the Lucene index. Before the
 	 * document is added to the index, a new eventLogEntry is created. The document
@@ -253,13 +422,15 @@ public class LuceneUpdateService {
 	public void updateDocuments(Collection<ItemCollection> documents) {
 		long ltime = System.currentTimeMillis();
 
-		// write a new EventLog entry for each document....
+		// write a new EventLog entry for each document in one batch....
+		List<String> ids = new ArrayList<String>();
 		for (ItemCollection workitem : documents) {
 			// skip if the flag 'noindex' = true
 			if (!workitem.getItemValueBoolean(DocumentService.NOINDEX)) {
-				writeEventLogEntry(workitem.getUniqueID(), EVENTLOG_TYPE_ADD);
+				ids.add(workitem.getUniqueID());
 			}
 		}
+		writeEventLogEntries(ids, EVENTLOG_TYPE_ADD);
 
 		if (logger.isLoggable(Level.FINE)) {
 			logger.fine("... update eventLog cache in " + (System.currentTimeMillis() - ltime) + " ms ("
@@ -281,10 +452,9 @@ public class LuceneUpdateService {
 	 */
 	public void updateDocumentsUncommitted(Collection<ItemCollection> documents) {
 
-		IndexWriter awriter = null;
 		long ltime = System.currentTimeMillis();
 		try {
-			awriter = createIndexWriter();
+			IndexWriter awriter = luceneIndexService.getIndexWriter();
 			// add workitem to search index....
 			for (ItemCollection workitem : documents) {
 
@@ -300,17 +470,8 @@ public class LuceneUpdateService {
 			logger.warning("lucene error: " + luceneEx.getMessage());
 			throw new IndexException(IndexException.INVALID_INDEX, "Unable to update lucene search index", luceneEx);
 		} finally {
-			// close writer!
-			if (awriter != null) {
-				logger.finest("......lucene close IndexWriter...");
-				try {
-					awriter.close();
-				} catch (CorruptIndexException e) {
-					throw new IndexException(IndexException.INVALID_INDEX, "Unable to close lucene IndexWriter: ", e);
-				} catch (IOException e) {
-					throw new IndexException(IndexException.INVALID_INDEX, "Unable to close lucene IndexWriter: ", e);
-				}
-			}
+			// commit changes and reopen the searcher
+			luceneIndexService.flush();
 		}
 
 		if (logger.isLoggable(Level.FINE)) {
@@ -339,50 +500,198 @@ public class LuceneUpdateService {
 	}
 
 	/**
-	 * Flush the EventLog cache. This method is called by the LuceneSerachService.
+	 * Flush the EventLog cache. This method is called by the flush timer and by
+	 * the method flushEventLogAsync.
 	 * <p>
-	 * The method flushes the cache in smaller blocks to avoid a heap size problem.
-	 * The default flush size is 16. The eventLog cache is tracked by the flag
-	 * 'dirtyIndex'.
+	 * The method flushes the cache in blocks to avoid a heap size problem. The
+	 * default flush size is 256. The eventLog cache is tracked by the flag
+	 * 'dirtyIndex'. All blocks are written by the shared IndexWriter. Each block is
+	 * committed to the index before its event log entries are removed. Only one
+	 * flush is running at a time.
+	 * <p>
+	 * Each block is flushed by the business object of this service, so that the
+	 * removal of the event log entries is committed in a new transaction per
+	 * block, independent from the transaction of the caller.
 	 * 
 	 */
 	public void flushEventLog() {
 		long total = 0;
 		long count = 0;
 		boolean dirtyIndex = true;
-		long l = System.currentTimeMillis();
+		boolean success = true;
 
-		while (dirtyIndex) {
-			try {
-				dirtyIndex = !flushEventLogByCount(EVENTLOG_ENTRY_FLUSH_COUNT);
-				if (dirtyIndex) {
-					total = total + EVENTLOG_ENTRY_FLUSH_COUNT;
-					count = count + EVENTLOG_ENTRY_FLUSH_COUNT;
-					if (count >= 160) {
-						logger.info("...flush event log: " + total + " entries in " + (System.currentTimeMillis() - l)
-								+ "ms...");
-						count = 0;
+		flushLock.lock();
+		long l = System.currentTimeMillis();
+		flushLag = 0;
+		try {
+			LuceneUpdateService service = ctx.getBusinessObject(LuceneUpdateService.class);
+			while (dirtyIndex) {
+				try {
+					dirtyIndex = !service.flushEventLogByCount(EVENTLOG_ENTRY_FLUSH_COUNT);
+					if (dirtyIndex) {
+						total = total + EVENTLOG_ENTRY_FLUSH_COUNT;
+						count = count + EVENTLOG_ENTRY_FLUSH_COUNT;
+						if (count >= EVENTLOG_ENTRY_FLUSH_COUNT * 10) {
+							logger.info("...flush event log: " + total + " entries in "
+									+ (System.currentTimeMillis() - l) + "ms...");
+							count = 0;
+						}
 					}
+
+				} catch (RuntimeException e) {
+					// an IndexException is wrapped by the container into an EJBException
+					logger.warning("...unable to flush lucene event log: " + e.getMessage());
+					success = false;
+					break;
 				}
+			}
+		} finally {
+			flushLock.unlock();
+			flushCount.incrementAndGet();
+			flushTime.addAndGet(System.currentTimeMillis() - l);
+			if (success) {
+				lastFlushStart = l;
+			}
+			synchronized (flushMonitor) {
+				flushMonitor.notifyAll();
+			}
+		}
+	}
 
-			} catch (IndexException e) {
-				logger.warning("...unable to flush lucene event log: " + e.getMessage());
-				break;
+	/**
+	 * Flushes the EventLog cache asynchronously. The method is called by the
+	 * method waitForEventLog.
+	 */
+	@Asynchronous
+	public void flushEventLogAsync() {
+		// allow a new request as soon as this flush starts
+		flushRequested.set(false);
+		flushEventLog();
+	}
+
+	/**
+	 * This method waits until all event log entries committed before this call
+	 * are written into the index. If event log entries were committed since the
+	 * last flush, the method requests an asynchronous flush and waits no longer
+	 * than the flush timeout. This method is called by the LuceneSearchService
+	 * finder methods.
+	 * <p>
+	 * Event log entries written by the current transaction are not yet committed
+	 * and are not awaited.
+	 * 
+	 * @return false if the flush timeout was exceeded.
+	 */
+	public boolean waitForEventLog() {
+		long commit = lastEventLogCommit;
+		if (commit < lastFlushStart) {
+			// nothing to wait for
+			return true;
+		}
+
+		long l = System.currentTimeMillis();
+		waitCount.incrementAndGet();
+		long deadline = l + flushTimeout;
+		try {
+			synchronized (flushMonitor) {
+				while (lastFlushStart <= commit) {
+					// request a new flush if no flush is pending
+					if (flushRequested.compareAndSet(false, true)) {
+						try {
+							ctx.getBusinessObject(LuceneUpdateService.class).flushEventLogAsync();
+						} catch (RuntimeException e) {
+							flushRequested.set(false);
+							throw e;
+						}
+						if (lastFlushStart > commit) {
+							break;
+						}
+					}
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						waitTimeouts.incrementAndGet();
+						logger.fine("...flush event log timeout after " + flushTimeout + " ms");
+						return false;
+					}
+					flushMonitor.wait(remaining);
+				}
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			waitTime.addAndGet(System.currentTimeMillis() - l);
+		}
+		return true;
+	}
+
+	/**
+	 * Timeout event - flushes the EventLog cache.
+	 * 
+	 * @param timer
+	 */
+	@Timeout
+	void onTimeout(javax.ejb.Timer timer) {
+		flushEventLog();
+	}
+
+	/**
+	 * Returns the metrics of the event log. The queue depth is the count of all
+	 * event log entries and the lag is the age in milliseconds of the oldest
+	 * entry. In addition the method returns the count, the total time and the
+	 * indexed entries of all flushes, the lag of the last flush, and the count,
+	 * the total time and the timeouts of all searches waiting for a flush.
+	 * 
+	 * @return metrics
+	 */
+	public ItemCollection getEventLogMetrics() {
+		ItemCollection metrics = new ItemCollection();
+		Object[] result = queryEventLogStatus();
+		long depth = result[0] == null ? 0 : ((Number) result[0]).longValue();
+		long lag = 0;
+		if (result[1] instanceof Calendar) {
+			lag = Math.max(0, System.currentTimeMillis() - ((Calendar) result[1]).getTimeInMillis());
 		}
+		metrics.replaceItemValue(METRIC_EVENTLOG_DEPTH, depth);
+		metrics.replaceItemValue(METRIC_EVENTLOG_LAG, lag);
+		metrics.replaceItemValue(METRIC_FLUSH_COUNT, flushCount.get());
+		metrics.replaceItemValue(METRIC_FLUSH_ENTRIES, flushEntries.get());
+		metrics.replaceItemValue(METRIC_FLUSH_TIME, flushTime.get());
+		metrics.replaceItemValue(METRIC_FLUSH_LAG, Math.max(0, flushLag));
+		metrics.replaceItemValue(METRIC_WAIT_COUNT, waitCount.get());
+		metrics.replaceItemValue(METRIC_WAIT_TIME, waitTime.get());
+		metrics.replaceItemValue(METRIC_WAIT_TIMEOUTS, waitTimeouts.get());
+		return metrics;
+	}
+
+	/**
+	 * Returns the count of all event log entries and the creation date of the
+	 * oldest entry.
+	 * 
+	 * @return count and creation date
+	 */
+	Object[] queryEventLogStatus() {
+		String query = "SELECT COUNT(document), MIN(document.created) FROM Document AS document ";
+		query += "WHERE document.type IN ('" + EVENTLOG_TYPE_ADD + "','" + EVENTLOG_TYPE_REMOVE + "')";
+		return (Object[]) manager.createQuery(query).getSingleResult();
 	}
 
 	/**
 	 * This method flushes a given count of eventLogEntries. The method return true
 	 * if no more eventLogEntries exist.
+	 * <p>
+	 * The changes are committed to the index before the eventLogEntries are
+	 * removed, independent from the commit interval of the LuceneIndexService. If
+	 * the index can not be updated, the transaction is rolled back and the
+	 * eventLogEntries are flushed again with the next call. If the transaction
+	 * fails after the commit of the index, the documents are indexed again, which
+	 * does not change the index.
 	 * 
 	 * @param count the max size of a eventLog engries to remove.
 	 * @return true if the cache was totally flushed.
 	 */
 	@TransactionAttribute(value = TransactionAttributeType.REQUIRES_NEW)
-	boolean flushEventLogByCount(int count) {
+	public boolean flushEventLogByCount(int count) {
 		boolean cacheIsEmpty = true;
-		IndexWriter indexWriter = null;
 		long l = System.currentTimeMillis();
 		logger.finest("......flush eventlog cache....");
 
@@ -400,7 +709,7 @@ public class LuceneUpdateService {
 		Collection<org.imixs.workflow.engine.jpa.Document> documentList = q.getResultList();
 		if (documentList != null && documentList.size() > 0) {
 			try {
-				indexWriter = createIndexWriter();
+				IndexWriter indexWriter = luceneIndexService.getIndexWriter();
 				int _counter = 0;
 				for (org.imixs.workflow.engine.jpa.Document eventLogEntry : documentList) {
 
@@ -434,6 +743,11 @@ public class LuceneUpdateService {
 
 					// remove the eventLogEntry.
 					manager.remove(eventLogEntry);
+					flushEntries.incrementAndGet();
+					if (eventLogEntry.getCreated() != null) {
+						flushLag = Math.max(flushLag,
+								System.currentTimeMillis() - eventLogEntry.getCreated().getTimeInMillis());
+					}
 
 					// break?
 					_counter++;
@@ -443,30 +757,15 @@ public class LuceneUpdateService {
 						break;
 					}
 				}
+				// commit the changes and reopen the searcher before the entries are removed
+				luceneIndexService.flush();
+				luceneIndexService.commit();
+				// remove the flushed entries before the next block is selected
+				manager.flush();
 			} catch (IOException luceneEx) {
-				logger.warning("...unable to flush lucene event log: " + luceneEx.getMessage());
-				// We just log a warning here and close the flush mode to no longer block the
-				// writer.
-				// NOTE: maybe throwing a IndexException would be an alternative:
-				//
-				// throw new IndexException(IndexException.INVALID_INDEX, "Unable to update
-				// lucene search index",
-				// luceneEx);
-				return true;
-			} finally {
-				// close writer!
-				if (indexWriter != null) {
-					logger.finest("......lucene close IndexWriter...");
-					try {
-						indexWriter.close();
-					} catch (CorruptIndexException e) {
-						throw new IndexException(IndexException.INVALID_INDEX, "Unable to close lucene IndexWriter: ",
-								e);
-					} catch (IOException e) {
-						throw new IndexException(IndexException.INVALID_INDEX, "Unable to close lucene IndexWriter: ",
-								e);
-					}
-				}
+				// the transaction is rolled back and the eventLogEntries are not removed
+				throw new IndexException(IndexException.INVALID_INDEX, "Unable to update lucene search index",
+						luceneEx);
 			}
 		}
 
@@ -488,22 +787,65 @@ public class LuceneUpdateService {
 	 * @param type EVENTLOG_ENTRY_TYPE_ADD or EVENTLOG_ENTRY_TYPE_REMOVE
 	 */
 	void writeEventLogEntry(String id, String type) {
-		org.imixs.workflow.engine.jpa.Document eventLogEntry = null;
-		if (id == null || id.isEmpty()) {
-			logger.warning("WriteEventLog failed - given id is empty!");
+		writeEventLogEntries(Collections.singletonList(id), type);
+	}
+
+	/**
+	 * This method creates an event log entry for each given id. The flush mode
+	 * and the transaction synchronization are set only once for all entries.
+	 * 
+	 * @see writeEventLogEntry
+	 * @param ids  - uniqueids of the documents to update
+	 * @param type EVENTLOG_ENTRY_TYPE_ADD or EVENTLOG_ENTRY_TYPE_REMOVE
+	 */
+	void writeEventLogEntries(Collection<String> ids, String type) {
+		if (ids.isEmpty()) {
 			return;
 		}
 
 		// Now set flush Mode to COMMIT
 		manager.setFlushMode(FlushModeType.COMMIT);
 
-		// now create a new event log entry
-		id = EVENTLOG_ID_PRAFIX + "[" + System.currentTimeMillis() + "]_" + id;
-		// id =EVENTLOG_ID_PRAFIX + "["+System.nanoTime() + "]_" + id;
-		eventLogEntry = new org.imixs.workflow.engine.jpa.Document(id);
-		eventLogEntry.setType(type);
-		logger.finest("......create new eventLogEntry '" + id + "' => " + type);
-		manager.persist(eventLogEntry);
+		long timestamp = System.currentTimeMillis();
+		for (String id : ids) {
+			if (id == null || id.isEmpty()) {
+				logger.warning("WriteEventLog failed - given id is empty!");
+				continue;
+			}
+			// now create a new event log entry
+			id = EVENTLOG_ID_PRAFIX + "[" + timestamp + "]_" + id;
+			org.imixs.workflow.engine.jpa.Document eventLogEntry = new org.imixs.workflow.engine.jpa.Document(id);
+			eventLogEntry.setType(type);
+			logger.finest("......create new eventLogEntry '" + id + "' => " + type);
+			manager.persist(eventLogEntry);
+		}
+		registerEventLogSynchronization();
+	}
+
+	/**
+	 * Registers a synchronization for the current transaction which records the
+	 * commit time of new event log entries. The commit time is used by the method
+	 * waitForEventLog to decide if a search has to wait for a flush.
+	 */
+	void registerEventLogSynchronization() {
+		if (transactionSynchronizationRegistry == null
+				|| transactionSynchronizationRegistry.getTransactionKey() == null
+				|| transactionSynchronizationRegistry.getResource(EVENTLOG_SYNCHRONIZATION) != null) {
+			return;
+		}
+		transactionSynchronizationRegistry.putResource(EVENTLOG_SYNCHRONIZATION, Boolean.TRUE);
+		transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				if (status == Status.STATUS_COMMITTED) {
+					lastEventLogCommit = System.currentTimeMillis();
+				}
+			}
+		});
 	}
 
 	/**
@@ -567,9 +909,36 @@ public class LuceneUpdateService {
 		for (String aFieldname : indexFieldListNoAnalyse) {
 			addItemValues(doc, aworkitem, aFieldname, false);
 		}
+		// ... and typed
+		for (String aFieldname : indexFieldListLong) {
+			addTypedItemValues(doc, aworkitem, aFieldname, Long.class);
+		}
+		for (String aFieldname : indexFieldListDouble) {
+			addTypedItemValues(doc, aworkitem, aFieldname, Double.class);
+		}
+		for (String aFieldname : indexFieldListDate) {
+			addTypedItemValues(doc, aworkitem, aFieldname, Date.class);
+		}
 
 		// add $uniqueid not analyzed
 		doc.add(new StringField("$uniqueid", aworkitem.getItemValueString("$uniqueid"), Store.YES));
+		// the $uniqueid is the last sort field of a cursor
+		doc.add(new SortedDocValuesField("$uniqueid", new BytesRef(aworkitem.getItemValueString("$uniqueid"))));
+
+		// store the values of the indexFieldListStore
+		if (indexFieldListStore != null && !indexFieldListStore.isEmpty()) {
+			Map<String, List<Object>> storedItems = new HashMap<String, List<Object>>();
+			for (String aFieldname : indexFieldListStore) {
+				if (aworkitem.hasItem(aFieldname)) {
+					storedItems.put(aFieldname, aworkitem.getItemValue(aFieldname));
+				}
+			}
+			doc.add(new StoredField(STORED_ITEMS_FIELD, DocumentDataConverter.convertToDatabaseColumn(storedItems)));
+			// a projection is only possible for the items stored with this document
+			for (String aFieldname : indexFieldListStore) {
+				doc.add(new StoredField(STORED_ITEM_NAMES_FIELD, aFieldname));
+			}
+		}
 
 		// add $readAccess not analyzed
 		List<String> vReadAccess = (List<String>) aworkitem.getItemValue("$readAccess");
@@ -615,11 +984,14 @@ public class LuceneUpdateService {
 		}
 
 		boolean firstValue = true;
+		SimpleDateFormat dateformat = null;
 		for (Object singleValue : vValues) {
 
 			// Object o = vValues.firstElement();
 			if (singleValue instanceof Calendar || singleValue instanceof Date) {
-				SimpleDateFormat dateformat = new SimpleDateFormat("yyyyMMddHHmmss");
+				if (dateformat == null) {
+					dateformat = new SimpleDateFormat("yyyyMMddHHmmss");
+				}
 
 				// convert calendar to string
 				String sDateValue;
@@ -659,21 +1031,93 @@ public class LuceneUpdateService {
 	}
 
 	/**
-	 * This method creates a new instance of a lucene IndexWriter.
+	 * This method adds the values of an item as typed point fields into a lucene
+	 * document. Long and date values are indexed as LongPoint, double values as
+	 * DoublePoint. A date is indexed by its time in milliseconds. The first value
+	 * is added as a numeric DocValues field to sort the result. Values which can
+	 * not be converted into the given type are skipped. The fields are named by
+	 * TypedQueryParser.getTypedFieldName(), so they do not conflict with the
+	 * keyword field of the item.
 	 * 
-	 * The location of the lucene index in the filesystem is read from the
-	 * imixs.properties
+	 * @param doc      an existing lucene document
+	 * @param workitem the workitem containg the values
+	 * @param itemName the Fieldname inside the workitem
+	 * @param type     Long.class, Double.class or Date.class
+	 */
+	void addTypedItemValues(Document doc, ItemCollection workitem, String itemName, Class<?> type) {
+		List<?> vValues = workitem.getItemValue(itemName);
+		String fieldName = TypedQueryParser.getTypedFieldName(itemName);
+		boolean firstValue = true;
+		for (Object singleValue : vValues) {
+			if (type == Double.class) {
+				Double value = TypedQueryParser.toDouble(singleValue);
+				if (value == null) {
+					continue;
+				}
+				doc.add(new DoublePoint(fieldName, value));
+				if (firstValue) {
+					doc.add(new DoubleDocValuesField(fieldName, value));
+				}
+			} else {
+				Long value = (type == Date.class) ? TypedQueryParser.toTime(singleValue)
+						: TypedQueryParser.toLong(singleValue);
+				if (value == null) {
+					continue;
+				}
+				doc.add(new LongPoint(fieldName, value));
+				if (firstValue) {
+					doc.add(new NumericDocValuesField(fieldName, value));
+				}
+			}
+			logger.finest("......lucene add typed IndexField: " + itemName + "=" + singleValue);
+			firstValue = false;
+		}
+	}
+
+	/**
+	 * Parses a typed field list from the imixs.properties. A typed field which is
+	 * also part of a keyword field list (analyzed or not analyzed) is indexed as
+	 * keyword field too, so that prefix and wildcard queries like '$modified:2018*'
+	 * still match. Range queries and the sort order are taken from the typed
+	 * field.
 	 * 
-	 * @return
-	 * @throws IOException
-	 * @throws Exception
+	 * @param fieldList - comma separated list of item names
+	 * @return list of lower case item names
 	 */
-	IndexWriter createIndexWriter() throws IOException {
-		// create a IndexWriter Instance
-		Directory indexDir = FSDirectory.open(Paths.get(indexDirectoryPath));
-		IndexWriterConfig indexWriterConfig;
-		indexWriterConfig = new IndexWriterConfig(new ClassicAnalyzer());
+	private List<String> parseTypedFieldList(String fieldList) {
+		List<String> result = new ArrayList<String>();
+		if (fieldList != null && !fieldList.isEmpty()) {
+			StringTokenizer st = new StringTokenizer(fieldList, ",");
+			while (st.hasMoreElements()) {
+				String sName = st.nextToken().toLowerCase().trim();
+				// do not add internal fields
+				if (!sName.isEmpty() && !"$uniqueid".equals(sName) && !"$readaccess".equals(sName)
+						&& !result.contains(sName)) {
+					result.add(sName);
+				}
+			}
+		}
+		return result;
+	}
 
-		return new IndexWriter(indexDir, indexWriterConfig);
+	/**
+	 * Parses a long value from the imixs.properties. Invalid or negative values
+	 * are replaced by the default value.
+	 * 
+	 * @param value
+	 * @param defaultValue
+	 * @return long value
+	 */
+	private long parseLong(String value, long defaultValue) {
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			long result = Long.parseLong(value.trim());
+			return result < 0 ? defaultValue : result;
+		} catch (NumberFormatException e) {
+			logger.warning("...invalid lucene property value '" + value + "' - default " + defaultValue + " is used");
+			return defaultValue;
+		}
 	}
 }
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BytesRef;
+import org.imixs.workflow.engine.DocumentService;
+
+/**
+ * The ReadAccessQuery matches all documents with one of the given user names,
+ * roles or groups in the item '$readaccess'. The query is used as a
+ * non-scoring filter clause by the LuceneSearchService.
+ * <p>
+ * In difference to a plain TermInSetQuery the ReadAccessQuery is not rewritten.
+ * So the query is the key of the query cache and the LuceneIndexService can
+ * identify the read access filters in the cache.
+ * 
+ * @author rsoika
+ * @version 1.0
+ */
+public class ReadAccessQuery extends Query {
+
+	private final TermInSetQuery query;
+
+	public ReadAccessQuery(Collection<BytesRef> terms) {
+		query = new TermInSetQuery(DocumentService.READACCESS, terms);
+	}
+
+	@Override
+	public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+		final Weight weight = searcher.rewrite(query).createWeight(searcher, false);
+		return new ConstantScoreWeight(this) {
+			@Override
+			public Scorer scorer(LeafReaderContext context) throws IOException {
+				Scorer scorer = weight.scorer(context);
+				if (scorer == null) {
+					return null;
+				}
+				return new ConstantScoreScorer(this, score(), scorer.iterator());
+			}
+		};
+	}
+
+	@Override
+	public String toString(String field) {
+		return query.toString(field);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return sameClassAs(other) && query.equals(((ReadAccessQuery) other).query);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * classHash() + query.hashCode();
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.lucene;
+
+import java.util.List;
+
+import org.imixs.workflow.ItemCollection;
+
+/**
+ * A SearchResult holds one page of a search result together with the cursor to
+ * read the next page and the total hits of the search.
+ * 
+ * @see LuceneSearchService#searchAfter(String, int, String,
+ *      org.apache.lucene.search.Sort,
+ *      org.apache.lucene.queryparser.classic.QueryParser.Operator, List)
+ * @author rsoika
+ * @version 1.0
+ */
+public class SearchResult implements java.io.Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<ItemCollection> documents;
+	private final String cursor;
+	private final int totalHits;
+
+	public SearchResult(List<ItemCollection> documents, String cursor, int totalHits) {
+		this.documents = documents;
+		this.cursor = cursor;
+		this.totalHits = totalHits;
+	}
+
+	/**
+	 * Returns the documents of this page.
+	 * 
+	 * @return list of documents
+	 */
+	public List<ItemCollection> getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Returns the cursor to read the next page, or null if this is the last page.
+	 * 
+	 * @return cursor or null
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * Returns the total number of hits of the search.
+	 * 
+	 * @return total hits
+	 */
+	public int getTotalHits() {
+		return totalHits;
+	}
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.engine.lucene;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+
+/**
+ * The TypedQueryParser extends the lucene QueryParser to search the typed point
+ * fields defined by the properties 'lucence.indexFieldListLong',
+ * 'lucence.indexFieldListDouble' and 'lucence.indexFieldListDate'. A range
+ * query on a typed field is converted into a point range query, a term query
+ * into an exact point query. Open ranges are supported by '*'.
+ * <p>
+ * The point and the sort values of a typed item are indexed in a separate
+ * lucene field named by the method getTypedFieldName(). So an item can be a
+ * keyword and a typed field at the same time, and an existing index can be
+ * switched to a typed field without a conflict of the DocValues types.
+ * <p>
+ * Date values can be given in the format 'yyyyMMdd', 'yyyyMMddHHmm' or
+ * 'yyyyMMddHHmmss' used by the keyword fields. Like the keyword fields, the
+ * dates are interpreted in the default time zone of the server. Example:
+ * 
+ * <pre>
+ * $modified:[20180101 TO *] AND $taskid:[1000 TO 1999]
+ * </pre>
+ * 
+ * All other fields are parsed by the standard QueryParser.
+ * 
+ * @see LuceneUpdateService#addTypedItemValues
+ * @author rsoika
+ * @version 1.0
+ */
+public class TypedQueryParser extends QueryParser {
+
+	public static final String TYPED_FIELD_SUFFIX = "#typed";
+
+	private final Set<String> longFields;
+	private final Set<String> doubleFields;
+	private final Set<String> dateFields;
+
+	public TypedQueryParser(String defaultField, Analyzer analyzer, Collection<String> longFields,
+			Collection<String> doubleFields, Collection<String> dateFields) {
+		super(defaultField, analyzer);
+		this.longFields = toSet(longFields);
+		this.doubleFields = toSet(doubleFields);
+		this.dateFields = toSet(dateFields);
+	}
+
+	/**
+	 * Returns the name of the lucene field holding the point and the sort values
+	 * of a typed item.
+	 * 
+	 * @param itemName
+	 *            - lower case item name
+	 * @return field name
+	 */
+	public static String getTypedFieldName(String itemName) {
+		return itemName + TYPED_FIELD_SUFFIX;
+	}
+
+	@Override
+	protected Query getFieldQuery(String field, String queryText, boolean quoted) throws ParseException {
+		String name = field.toLowerCase();
+		if (longFields.contains(name)) {
+			return LongPoint.newExactQuery(getTypedFieldName(name), parseLong(queryText));
+		}
+		if (dateFields.contains(name)) {
+			return LongPoint.newExactQuery(getTypedFieldName(name), parseDate(queryText));
+		}
+		if (doubleFields.contains(name)) {
+			return DoublePoint.newExactQuery(getTypedFieldName(name), parseDouble(queryText));
+		}
+		return super.getFieldQuery(field, queryText, quoted);
+	}
+
+	@Override
+	protected Query getRangeQuery(String field, String part1, String part2, boolean startInclusive,
+			boolean endInclusive) throws ParseException {
+		String name = field.toLowerCase();
+		String typedName = getTypedFieldName(name);
+		if (longFields.contains(name) || dateFields.contains(name)) {
+			boolean date = dateFields.contains(name);
+			long lower = Long.MIN_VALUE;
+			long upper = Long.MAX_VALUE;
+			if (part1 != null) {
+				lower = date ? parseDate(part1) : parseLong(part1);
+				if (!startInclusive) {
+					if (lower == Long.MAX_VALUE) {
+						return LongPoint.newSetQuery(typedName);
+					}
+					lower++;
+				}
+			}
+			if (part2 != null) {
+				upper = date ? parseDate(part2) : parseLong(part2);
+				if (!endInclusive) {
+					if (upper == Long.MIN_VALUE) {
+						return LongPoint.newSetQuery(typedName);
+					}
+					upper--;
+				}
+			}
+			return LongPoint.newRangeQuery(typedName, lower, upper);
+		}
+		if (doubleFields.contains(name)) {
+			double lower = Double.NEGATIVE_INFINITY;
+			double upper = Double.POSITIVE_INFINITY;
+			if (part1 != null) {
+				lower = parseDouble(part1);
+				if (!startInclusive) {
+					lower = Math.nextUp(lower);
+				}
+			}
+			if (part2 != null) {
+				upper = parseDouble(part2);
+				if (!endInclusive) {
+					upper = Math.nextDown(upper);
+				}
+			}
+			return DoublePoint.newRangeQuery(typedName, lower, upper);
+		}
+		return super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+	}
+
+	/**
+	 * Converts an item value into a long. Numbers are converted by their long
+	 * value, Strings are parsed.
+	 * 
+	 * @param value
+	 * @return long value or null if the value is not a number
+	 */
+	public static Long toLong(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Long.parseLong(((String) value).trim());
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Converts an item value into a double. Numbers are converted by their double
+	 * value, Strings are parsed.
+	 * 
+	 * @param value
+	 * @return double value or null if the value is not a number
+	 */
+	public static Double toDouble(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Double.parseDouble(((String) value).trim());
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Converts a Date or Calendar item value into the time in milliseconds.
+	 * 
+	 * @param value
+	 * @return time or null if the value is not a date
+	 */
+	public static Long toTime(Object value) {
+		if (value instanceof Date) {
+			return ((Date) value).getTime();
+		}
+		if (value instanceof Calendar) {
+			return ((Calendar) value).getTimeInMillis();
+		}
+		return null;
+	}
+
+	private long parseLong(String text) throws ParseException {
+		Long result = toLong(text);
+		if (result == null) {
+			throw new ParseException("invalid number '" + text + "'");
+		}
+		return result;
+	}
+
+	private double parseDouble(String text) throws ParseException {
+		Double result = toDouble(text);
+		if (result == null) {
+			throw new ParseException("invalid number '" + text + "'");
+		}
+		return result;
+	}
+
+	/**
+	 * Parses a date in the format yyyyMMdd, yyyyMMddHHmm or yyyyMMddHHmmss in the
+	 * default time zone of the server.
+	 */
+	private long parseDate(String text) throws ParseException {
+		String value = text.trim();
+		String pattern;
+		switch (value.length()) {
+		case 8:
+			pattern = "yyyyMMdd";
+			break;
+		case 12:
+			pattern = "yyyyMMddHHmm";
+			break;
+		case 14:
+			pattern = "yyyyMMddHHmmss";
+			break;
+		default:
+			throw new ParseException("invalid date '" + text + "' - expected format is yyyyMMdd[HHmm[ss]]");
+		}
+		SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setLenient(false);
+		ParsePosition position = new ParsePosition(0);
+		Date date = format.parse(value, position);
+		if (date == null || position.getIndex() != value.length()) {
+			throw new ParseException("invalid date '" + text + "' - expected format is yyyyMMdd[HHmm[ss]]");
+		}
+		return date.getTime();
+	}
+
+	private static Set<String> toSet(Collection<String> fields) {
+		Set<String> result = new HashSet<String>();
+		if (fields != null) {
+			result.addAll(fields);
+		}
+		return result;
+	}
+}
@@ -29,13 +29,9 @@ package org.imixs.workflow.engine.plugins;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.List;
 import java.util.logging.Logger;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowContext;
 import org.imixs.workflow.engine.plugins.AbstractPlugin;
@@ -168,15 +164,9 @@ public class DocumentComposerPlugin extends AbstractPlugin {
 		XMLDocument xml;
 		try {
 			xml = XMLDocumentAdapter.getDocument(documentContext);
-			StringWriter writer = new StringWriter();
-
-			JAXBContext context = JAXBContext.newInstance(XMLDocument.class);
-			Marshaller m = context.createMarshaller();
-			m.setProperty("jaxb.encoding", encoding);
-			m.marshal(xml, writer);
 
 			// create a ByteArray Output Stream
-			XSLHandler.transform(writer.toString(), xslTemplate, encoding, outputStream);
+			XSLHandler.transform(xml, xslTemplate, outputStream);
 			return outputStream.toString(encoding);
 
 		} catch (Exception e) {
@@ -29,7 +29,6 @@ package org.imixs.workflow.engine.plugins;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
@@ -52,8 +51,6 @@ import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
 
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.exceptions.PluginException;
@@ -459,15 +456,9 @@ public class MailPlugin extends AbstractPlugin {
 		XMLDocument xml;
 		try {
 			xml = XMLDocumentAdapter.getDocument(documentContext);
-			StringWriter writer = new StringWriter();
-
-			JAXBContext context = JAXBContext.newInstance(XMLDocument.class);
-			Marshaller m = context.createMarshaller();
-			m.setProperty("jaxb.encoding", encoding);
-			m.marshal(xml, writer);
 
 			// create a ByteArray Output Stream
-			XSLHandler.transform(writer.toString(), xslTemplate, encoding, outputStream);
+			XSLHandler.transform(xml, xslTemplate, outputStream);
 			return outputStream.toString(encoding);
 
 		} catch (Exception e) {
@@ -29,15 +29,10 @@ package org.imixs.workflow.engine.plugins;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
-import java.io.StringWriter;
 import java.util.logging.Logger;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.exceptions.PluginException;
-import org.imixs.workflow.xml.XMLDataCollection;
 import org.imixs.workflow.xml.XMLDocument;
 import org.imixs.workflow.xml.XMLDocumentAdapter;
 import org.imixs.workflow.xml.XSLHandler;
@@ -115,23 +110,11 @@ public class ReportPlugin extends AbstractPlugin {
 		if ("".equals(sContentType))
 			sContentType = "text/html";
 
-		String encoding = itemCol.getItemValueString("encoding");
-		// no encoding defined so take a default encoding
-		// (UTF-8)
-		if ("".equals(encoding))
-			encoding = "UTF-8";
-
 		try {
 			// TODO : we need to clarify if the method call unescapeXMLContent() is
 			// necessary
 
 			XMLDocument xml = XMLDocumentAdapter.getDocument(adocumentContext);
-			StringWriter writer = new StringWriter();
-
-			JAXBContext context = JAXBContext.newInstance(XMLDataCollection.class);
-			Marshaller m = context.createMarshaller();
-			m.setProperty("jaxb.encoding", encoding);
-			m.marshal(xml, writer);
 
 			// create a ByteArray Output Stream
 			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -142,7 +125,7 @@ public class ReportPlugin extends AbstractPlugin {
 					// xslTemplate, encoding,
 					// outputStream);
 				} else {
-					XSLHandler.transform(writer.toString(), xslTemplate, encoding, outputStream);
+					XSLHandler.transform(xml, xslTemplate, outputStream);
 
 				}
 			} finally {
@@ -129,7 +129,24 @@ public class RulePlugin extends AbstractPlugin {
 			return adocumentContext; // nothing to do
 
 		String sEngineType = adocumentActivity.getItemValueString("txtBusinessRuleEngine");
-		RuleEngine ruleEngine = new RuleEngine(sEngineType);
+		try (RuleEngine ruleEngine = new RuleEngine(sEngineType)) {
+			return evaluateBusinessRule(ruleEngine, script, adocumentContext, adocumentActivity);
+		}
+	}
+
+	/**
+	 * This method evaluates the business rule with the given RuleEngine and
+	 * updates the workitem and the activity entity.
+	 * 
+	 * @param ruleEngine
+	 * @param script
+	 * @param adocumentContext
+	 * @param adocumentActivity
+	 * @return updated workitem
+	 * @throws PluginException
+	 */
+	private ItemCollection evaluateBusinessRule(RuleEngine ruleEngine, String script,
+			ItemCollection adocumentContext, ItemCollection adocumentActivity) throws PluginException {
 
 		ItemCollection result = ruleEngine.evaluateBusinessRule(script, adocumentContext, adocumentActivity);
 
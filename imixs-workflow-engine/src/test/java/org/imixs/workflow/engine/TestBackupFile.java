@@ -0,0 +1,228 @@
+package org.imixs.workflow.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import javax.ejb.SessionContext;
+
+import org.imixs.workflow.ItemCollection;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the BackupFile format and the restore of a backup by the
+ * DocumentService. The test verifies the chunks, the checksums and that an
+ * interrupted restore continues with the chunks not yet completed.
+ * 
+ * @author rsoika
+ */
+public class TestBackupFile {
+
+	private File dir;
+	private String filePath;
+	private List<ItemCollection> restored;
+	private DocumentService documentService;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("imixs-test-backup").toFile();
+		filePath = new File(dir, "backup.dat").getAbsolutePath();
+
+		// the documents are saved into a list and the chunks are restored
+		// synchronously
+		restored = new ArrayList<ItemCollection>();
+		documentService = new DocumentService() {
+			@Override
+			public int restoreByNewTransaction(List<ItemCollection> documents) {
+				restored.addAll(documents);
+				return documents.size();
+			}
+
+			@Override
+			public Future<Integer> restoreChunk(String filePath, int chunk) {
+				return CompletableFuture.completedFuture(restoreChunkDocuments(filePath, chunk));
+			}
+
+			@Override
+			public ItemCollection saveByNewTransaction(ItemCollection itemcol) {
+				restored.add(itemcol);
+				return itemcol;
+			}
+		};
+		documentService.ctx = Mockito.mock(SessionContext.class);
+		Mockito.when(documentService.ctx.getBusinessObject(DocumentService.class)).thenReturn(documentService);
+	}
+
+	@After
+	public void teardown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Writes 2500 documents in chunks of 1000 and reads them again.
+	 */
+	@Test
+	public void testWriteAndRead() throws IOException {
+		writeBackup(2500);
+		Assert.assertTrue(BackupFile.isBackupFile(filePath));
+		Assert.assertTrue(new File(filePath + ".manifest").exists());
+
+		BackupFile backupFile = new BackupFile(filePath);
+		Assert.assertEquals(3, backupFile.getChunkCount());
+		Assert.assertEquals(2500, backupFile.getDocumentCount());
+		List<Map<String, List<Object>>> chunk = backupFile.readChunk(2);
+		Assert.assertEquals(500, chunk.size());
+		ItemCollection document = new ItemCollection(chunk.get(0));
+		Assert.assertEquals("doc-2000", document.getUniqueID());
+		Assert.assertEquals(2000, document.getItemValueInteger("_count"));
+
+		// without manifest the chunks are read from the file
+		new File(filePath + ".manifest").delete();
+		backupFile = new BackupFile(filePath);
+		Assert.assertEquals(3, backupFile.getChunkCount());
+		Assert.assertEquals(2500, backupFile.getDocumentCount());
+	}
+
+	/**
+	 * A backup which failed partway has no manifest and no end mark and is
+	 * rejected.
+	 */
+	@Test
+	public void testIncompleteBackup() throws IOException {
+		try (BackupFile.Writer out = new BackupFile.Writer(filePath, 1000)) {
+			for (int i = 0; i < 2500; i++) {
+				out.write(createDocument(i).getAllItems());
+			}
+			// the backup fails before finish() is called
+		}
+		Assert.assertTrue(BackupFile.isBackupFile(filePath));
+		Assert.assertFalse(new File(filePath + ".manifest").exists());
+		try {
+			new BackupFile(filePath);
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("incomplete"));
+		}
+
+		// a truncated chunk
+		writeBackup(2500);
+		new File(filePath + ".manifest").delete();
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
+			file.setLength(file.length() - 100);
+		}
+		try {
+			new BackupFile(filePath);
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("incomplete"));
+		}
+	}
+
+	/**
+	 * A corrupted chunk is detected by its checksum.
+	 */
+	@Test
+	public void testChecksum() throws IOException {
+		writeBackup(2500);
+		BackupFile backupFile = new BackupFile(filePath);
+		// change the last byte of the last chunk before the end mark
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
+			file.seek(file.length() - 5);
+			int b = file.read();
+			file.seek(file.length() - 5);
+			file.write(b ^ 0xFF);
+		}
+		Assert.assertEquals(1000, backupFile.readChunk(0).size());
+		try {
+			backupFile.readChunk(2);
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("checksum"));
+		}
+	}
+
+	/**
+	 * A restore saves all documents. An interrupted restore continues with the
+	 * chunks not yet completed.
+	 */
+	@Test
+	public void testRestore() throws IOException {
+		writeBackup(2500);
+		documentService.restore(filePath);
+		Assert.assertEquals(2500, restored.size());
+		Assert.assertFalse(restored.get(0).hasItem("$version"));
+		Assert.assertFalse(new File(filePath + ".progress").exists());
+
+		// chunk 0 and 2 were restored before
+		restored.clear();
+		BackupFile backupFile = new BackupFile(filePath);
+		backupFile.setChunkCompleted(0);
+		backupFile.setChunkCompleted(2);
+		documentService.restore(filePath);
+		Assert.assertEquals(1000, restored.size());
+		Assert.assertEquals("doc-1000", restored.get(0).getUniqueID());
+		Assert.assertFalse(new File(filePath + ".progress").exists());
+	}
+
+	/**
+	 * A backup file of the former format, a stream of serialized item maps, is
+	 * still restored.
+	 */
+	@Test
+	public void testRestoreLegacyFormat() throws IOException {
+		int count = 2000;
+		String legacyPath = new File(dir, "legacy.dat").getAbsolutePath();
+		try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(legacyPath))) {
+			for (int i = 0; i < count; i++) {
+				out.writeObject(createDocument(i).getAllItems());
+			}
+		}
+		writeBackup(count);
+
+		documentService.restore(legacyPath);
+		Assert.assertEquals(count, restored.size());
+		Assert.assertEquals("doc-0", restored.get(0).getUniqueID());
+
+		// the chunked file is smaller
+		restored.clear();
+		documentService.restore(filePath);
+		Assert.assertEquals(count, restored.size());
+		Assert.assertTrue(new File(filePath).length() < new File(legacyPath).length());
+	}
+
+	private void writeBackup(int count) throws IOException {
+		try (BackupFile.Writer out = new BackupFile.Writer(filePath, 1000)) {
+			for (int i = 0; i < count; i++) {
+				out.write(createDocument(i).getAllItems());
+			}
+			out.finish();
+		}
+	}
+
+	private ItemCollection createDocument(int i) {
+		ItemCollection document = new ItemCollection();
+		document.replaceItemValue("$uniqueid", "doc-" + i);
+		document.replaceItemValue("$version", 1);
+		document.replaceItemValue("type", "workitem");
+		document.replaceItemValue("txtname", "Document " + i);
+		document.replaceItemValue("$modified", new Date());
+		document.replaceItemValue("_count", i);
+		return document;
+	}
+}
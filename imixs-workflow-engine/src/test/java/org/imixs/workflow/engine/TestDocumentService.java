@@ -0,0 +1,208 @@
+package org.imixs.workflow.engine;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ejb.SessionContext;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.engine.jpa.Document;
+import org.imixs.workflow.engine.lucene.LuceneUpdateService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the bulk save of the DocumentService. The entities are held
+ * in a map instead of a database. The test counts the lookups and flushes and
+ * verifies the per-document results and the batched index update.
+ * 
+ * @author rsoika
+ */
+public class TestDocumentService {
+
+	private Map<String, Document> database;
+	private int lookups;
+	private int flushes;
+	private DocumentService documentService;
+
+	@Before
+	public void setup() {
+		// no CDI events in this test
+		Logger.getLogger(DocumentService.class.getName()).setLevel(Level.SEVERE);
+		database = new HashMap<String, Document>();
+		lookups = 0;
+		flushes = 0;
+		documentService = new DocumentService() {
+			@Override
+			Document findDocument(String id) {
+				lookups++;
+				return database.get(id);
+			}
+
+			@Override
+			Map<String, Document> findDocuments(List<String> ids) {
+				// one query per block of 500 ids
+				lookups += (ids.size() + 499) / 500;
+				Map<String, Document> result = new HashMap<String, Document>();
+				for (String id : ids) {
+					if (database.containsKey(id)) {
+						result.put(id, database.get(id));
+					}
+				}
+				return result;
+			}
+
+			@Override
+			void persistDocument(Document document) {
+				database.put(document.getId(), document);
+			}
+
+			@Override
+			void flushDocuments() {
+				flushes++;
+			}
+		};
+		documentService.ctx = Mockito.mock(SessionContext.class);
+		Principal principal = Mockito.mock(Principal.class);
+		Mockito.when(principal.getName()).thenReturn("manfred");
+		Mockito.when(documentService.ctx.getCallerPrincipal()).thenReturn(principal);
+		Mockito.when(documentService.ctx.isCallerInRole(DocumentService.ACCESSLEVEL_AUTHORACCESS)).thenReturn(true);
+		documentService.luceneUpdateService = Mockito.mock(LuceneUpdateService.class);
+	}
+
+	@After
+	public void teardown() {
+		Logger.getLogger(DocumentService.class.getName()).setLevel(null);
+	}
+
+	/**
+	 * New and existing documents are saved. The result keeps the order of the
+	 * given documents.
+	 */
+	@Test
+	public void testSaveAll() {
+		documentService.save(createDocument("1", "manfred"));
+
+		List<ItemCollection> documents = new ArrayList<ItemCollection>();
+		documents.add(createDocument("1", "manfred"));
+		documents.add(createDocument("2", "manfred"));
+		documents.add(createDocument(null, "manfred"));
+		List<SaveResult> result = documentService.saveAll(documents);
+
+		Assert.assertEquals(3, result.size());
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(result.get(i).isSaved());
+			Assert.assertSame(documents.get(i), result.get(i).getDocument());
+		}
+		Assert.assertEquals("1", result.get(0).getDocument().getUniqueID());
+		Assert.assertFalse(result.get(2).getDocument().getUniqueID().isEmpty());
+		Assert.assertEquals(3, database.size());
+		Assert.assertEquals("text 2",
+				ItemCollection.createByReference(database.get("2").getData()).getItemValueString("txtname"));
+		Assert.assertTrue(database.get("2").isPending());
+		// one lookup for save and one for saveAll
+		Assert.assertEquals(2, lookups);
+	}
+
+	/**
+	 * A document which can not be saved by the CallerPrincipal is returned with
+	 * the AccessDeniedException. All other documents are saved.
+	 */
+	@Test
+	public void testSaveAllAccessDenied() {
+		documentService.save(createDocument("1", "anna"));
+
+		List<ItemCollection> documents = new ArrayList<ItemCollection>();
+		documents.add(createDocument("1", "manfred"));
+		documents.add(createDocument("2", "manfred"));
+		List<SaveResult> result = documentService.saveAll(documents);
+
+		Assert.assertFalse(result.get(0).isSaved());
+		Assert.assertNotNull(result.get(0).getError());
+		Assert.assertTrue(result.get(1).isSaved());
+		Assert.assertNull(result.get(1).getError());
+		Assert.assertEquals("text 1",
+				ItemCollection.createByReference(database.get("1").getData()).getItemValueString("txtname"));
+		Assert.assertEquals("anna", ItemCollection.createByReference(database.get("1").getData())
+				.getItemValueString(DocumentService.WRITEACCESS));
+	}
+
+	/**
+	 * A document saved twice in one call has only one entity and one index entry.
+	 * Documents with the flag $noindex are removed from the index.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSaveAllIndex() {
+		List<ItemCollection> documents = new ArrayList<ItemCollection>();
+		documents.add(createDocument("1", "manfred"));
+		documents.add(createDocument("1", "manfred"));
+		ItemCollection noindex = createDocument("2", "manfred");
+		noindex.replaceItemValue(DocumentService.NOINDEX, true);
+		documents.add(noindex);
+		documentService.saveAll(documents);
+
+		Assert.assertEquals(2, database.size());
+		Mockito.verify(documentService.luceneUpdateService).updateDocuments(Mockito.argThat(
+				new org.mockito.ArgumentMatcher<Collection<ItemCollection>>() {
+					@Override
+					public boolean matches(Object argument) {
+						Collection<ItemCollection> updates = (Collection<ItemCollection>) argument;
+						return updates.size() == 1 && "1".equals(updates.iterator().next().getUniqueID());
+					}
+				}));
+		Mockito.verify(documentService.luceneUpdateService).removeDocument("2");
+	}
+
+	/**
+	 * Saves 1000 new documents with the method save() and 1000 new documents with
+	 * the method saveAll(). The bulk save needs one lookup per 500 ids and one
+	 * flush per 100 documents.
+	 */
+	@Test
+	public void testSaveAllBatches() {
+		int count = 1000;
+		for (int i = 0; i < count; i++) {
+			documentService.save(createDocument("a" + i, "manfred"));
+		}
+		Assert.assertEquals(count, lookups);
+		Mockito.verify(documentService.luceneUpdateService, Mockito.times(count))
+				.updateDocument(Mockito.any(ItemCollection.class));
+
+		lookups = 0;
+		List<ItemCollection> documents = new ArrayList<ItemCollection>();
+		for (int i = 0; i < count; i++) {
+			documents.add(createDocument("b" + i, "manfred"));
+		}
+		List<SaveResult> result = documentService.saveAll(documents);
+
+		Assert.assertEquals(count, result.size());
+		Assert.assertEquals(2 * count, database.size());
+		Assert.assertEquals(count / 500, lookups);
+		// one flush before the lookup
+		Assert.assertEquals(count / 100 + 1, flushes);
+		Mockito.verify(documentService.luceneUpdateService, Mockito.times(1))
+				.updateDocuments(Mockito.anyCollectionOf(ItemCollection.class));
+	}
+
+	private ItemCollection createDocument(String id, String author) {
+		ItemCollection document = new ItemCollection();
+		if (id != null) {
+			document.replaceItemValue(WorkflowKernel.UNIQUEID, id);
+		}
+		document.replaceItemValue("type", "workitem");
+		document.replaceItemValue("txtname", "text " + id);
+		document.replaceItemValue(DocumentService.WRITEACCESS, author);
+		return document;
+	}
+}
@@ -0,0 +1,227 @@
+package org.imixs.workflow.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.bpmn.BPMNModel;
+import org.imixs.workflow.exceptions.ModelException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the ModelLoaderService. The test verifies that a model is
+ * restored from its snapshot and that the ModelService loads all models stored
+ * in the database.
+ *
+ * @author rsoika
+ */
+public class TestModelLoaderService {
+	private static Logger logger = Logger.getLogger(TestModelLoaderService.class.getName());
+
+	private File snapshotDir;
+	private ModelLoaderService modelLoaderService;
+	private Properties properties;
+
+	@Before
+	public void setup() throws IOException {
+		snapshotDir = Files.createTempDirectory("imixs-test-model").toFile();
+		properties = new Properties();
+		properties.setProperty(ModelLoaderService.PROPERTY_SNAPSHOT_DIR, snapshotDir.getAbsolutePath());
+		modelLoaderService = new ModelLoaderService() {
+			@Override
+			public Future<LoadedModel> loadModel(String fileName, byte[] rawData) throws ModelException {
+				return CompletableFuture.completedFuture(readModel(fileName, rawData));
+			}
+		};
+		modelLoaderService.propertyService = Mockito.mock(PropertyService.class);
+		Mockito.when(modelLoaderService.propertyService.getProperties()).thenReturn(properties);
+	}
+
+	@After
+	public void teardown() {
+		File[] files = snapshotDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		snapshotDir.delete();
+	}
+
+	/**
+	 * The first call parses the model and writes the snapshot. The second call
+	 * restores the model from the snapshot.
+	 */
+	@Test
+	public void testSnapshot() throws IOException, ModelException {
+		byte[] rawData = readFile("/bpmn/TestWorkflowService.bpmn");
+
+		ModelLoaderService.LoadedModel parsed = modelLoaderService.readModel("test.bpmn", rawData);
+		Assert.assertFalse(parsed.isSnapshot());
+		Assert.assertEquals(1, snapshotDir.listFiles().length);
+
+		ModelLoaderService.LoadedModel restored = modelLoaderService.readModel("test.bpmn", rawData);
+		Assert.assertTrue(restored.isSnapshot());
+
+		BPMNModel expected = parsed.getModel();
+		BPMNModel model = restored.getModel();
+		Assert.assertEquals(expected.getVersion(), model.getVersion());
+		Assert.assertEquals(expected.getDefinition().getAllItems(), model.getDefinition().getAllItems());
+		Assert.assertEquals(expected.getGroups(), model.getGroups());
+		Assert.assertEquals(expected.findAllTasks().size(), model.findAllTasks().size());
+		for (ItemCollection task : expected.findAllTasks()) {
+			int taskID = task.getItemValueInteger("numprocessid");
+			Assert.assertEquals(task.getAllItems(), model.getTask(taskID).getAllItems());
+			List<ItemCollection> events = expected.findAllEventsByTask(taskID);
+			Assert.assertEquals(events.size(), model.findAllEventsByTask(taskID).size());
+			for (ItemCollection event : events) {
+				Assert.assertEquals(event.getAllItems(),
+						model.getEvent(taskID, event.getItemValueInteger("numactivityid")).getAllItems());
+			}
+		}
+		Assert.assertArrayEquals(rawData, model.getRawData());
+
+		// a changed file is parsed again
+		byte[] changedData = new String(rawData, "UTF-8").replace("</bpmn2:definitions>", "</bpmn2:definitions>\n")
+				.getBytes("UTF-8");
+		Assert.assertFalse(modelLoaderService.readModel("test.bpmn", changedData).isSnapshot());
+		Assert.assertEquals(2, snapshotDir.listFiles().length);
+
+		// a corrupt snapshot is ignored
+		Files.write(ModelSnapshot.getFile(snapshotDir, rawData).toPath(), new byte[] { 1, 2, 3 });
+		Assert.assertFalse(modelLoaderService.readModel("test.bpmn", rawData).isSnapshot());
+		Assert.assertTrue(modelLoaderService.readModel("test.bpmn", rawData).isSnapshot());
+
+		// a snapshot of another parser version is rejected
+		Assert.assertTrue(ModelSnapshot.isEnabled());
+		Assert.assertFalse(ModelSnapshot.PARSER_VERSION.isEmpty());
+		// the parser version includes the nested classes of the parser
+		List<String> parserClasses = ModelSnapshot.getParserClasses();
+		Assert.assertTrue(parserClasses.contains("org.imixs.workflow.bpmn.BPMNModelHandler$ElementResolver"));
+		Assert.assertTrue(parserClasses.contains("org.imixs.workflow.bpmn.BPMNModelHandler$SequenceFlow"));
+		ModelSnapshot.write(ModelSnapshot.getFile(snapshotDir, rawData), expected, "other");
+		Assert.assertFalse(modelLoaderService.readModel("test.bpmn", rawData).isSnapshot());
+		Assert.assertTrue(modelLoaderService.readModel("test.bpmn", rawData).isSnapshot());
+	}
+
+	/**
+	 * Snapshots which do not belong to a deployed model are removed.
+	 */
+	@Test
+	public void testRemoveUnusedSnapshots() throws IOException, ModelException {
+		byte[] rawData = readFile("/bpmn/TestWorkflowService.bpmn");
+		byte[] changedData = new String(rawData, "UTF-8").replace("</bpmn2:definitions>", "</bpmn2:definitions>\n")
+				.getBytes("UTF-8");
+		modelLoaderService.readModel("test.bpmn", rawData);
+		modelLoaderService.readModel("test.bpmn", changedData);
+		// a snapshot of a former parser version and a file not written by the loader
+		Files.write(new File(snapshotDir, "0000.model").toPath(), new byte[] { 1, 2, 3 });
+		Files.write(new File(snapshotDir, "readme.txt").toPath(), new byte[] { 1, 2, 3 });
+		Assert.assertEquals(4, snapshotDir.listFiles().length);
+
+		modelLoaderService.removeUnusedSnapshots(Arrays.asList(changedData));
+		Assert.assertEquals(2, snapshotDir.listFiles().length);
+		Assert.assertTrue(ModelSnapshot.getFile(snapshotDir, changedData).exists());
+		Assert.assertTrue(new File(snapshotDir, "readme.txt").exists());
+		Assert.assertTrue(modelLoaderService.readModel("test.bpmn", changedData).isSnapshot());
+	}
+
+	/**
+	 * Compares the time to parse a model with the time to restore the model from
+	 * its snapshot.
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() throws IOException, ModelException {
+		byte[] rawData = readFile("/bpmn/TestWorkflowService.bpmn");
+		int count = 100;
+
+		properties.remove(ModelLoaderService.PROPERTY_SNAPSHOT_DIR);
+		long l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			modelLoaderService.readModel("test.bpmn", rawData);
+		}
+		long parse = System.currentTimeMillis() - l;
+
+		properties.setProperty(ModelLoaderService.PROPERTY_SNAPSHOT_DIR, snapshotDir.getAbsolutePath());
+		modelLoaderService.readModel("test.bpmn", rawData);
+		l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			Assert.assertTrue(modelLoaderService.readModel("test.bpmn", rawData).isSnapshot());
+		}
+		long snapshot = System.currentTimeMillis() - l;
+
+		logger.info("Performancetest ModelLoaderService: " + count + " models, parse=" + parse + "ms snapshot="
+				+ snapshot + "ms");
+	}
+
+	/**
+	 * The ModelService loads all models and provides the load time per model. An
+	 * invalid model file is skipped.
+	 */
+	@Test
+	public void testModelServiceInit() throws IOException, ModelException {
+		byte[] rawData = readFile("/bpmn/TestWorkflowService.bpmn");
+		// a second model version
+		byte[] rawData2 = new String(rawData, "UTF-8").replace("CDATA[1.0.0]", "CDATA[2.0.0]").getBytes("UTF-8");
+		ItemCollection modelEntity = new ItemCollection();
+		modelEntity.replaceItemValue("type", "model");
+		modelEntity.addFile(rawData, "model-1.bpmn", "text/xml");
+		modelEntity.addFile(rawData2, "model-2.bpmn", "text/xml");
+		modelEntity.addFile("invalid".getBytes(), "invalid.bpmn", "text/xml");
+		List<ItemCollection> modelEntities = new ArrayList<ItemCollection>();
+		modelEntities.add(modelEntity);
+		// the snapshot of a deleted model
+		Files.write(new File(snapshotDir, "0000.model").toPath(), new byte[] { 1, 2, 3 });
+
+		ModelService modelService = new ModelService();
+		modelService.modelLoaderService = modelLoaderService;
+		modelService.documentService = Mockito.mock(DocumentService.class);
+		Mockito.when(modelService.documentService.getDocumentsByType("model")).thenReturn(modelEntities);
+
+		List<String> versions = modelService.getVersions();
+		Assert.assertEquals(2, versions.size());
+		Assert.assertTrue(versions.contains("1.0.0"));
+		Assert.assertTrue(versions.contains("2.0.0"));
+		Assert.assertNotNull(modelService.getProcessPlan(versions.get(0)));
+
+		ItemCollection metrics = modelService.getMetrics();
+		Assert.assertEquals(2, metrics.getItemValueInteger(ModelService.METRIC_LOAD_COUNT));
+		Assert.assertEquals(0, metrics.getItemValueInteger(ModelService.METRIC_SNAPSHOT_COUNT));
+		for (String version : versions) {
+			Assert.assertTrue(metrics.hasItem(ModelService.METRIC_MODEL_LOAD_TIME + version));
+		}
+		Assert.assertEquals(2, snapshotDir.listFiles().length);
+		Assert.assertFalse(new File(snapshotDir, "0000.model").exists());
+	}
+
+	private byte[] readFile(String path) throws IOException {
+		InputStream inputStream = getClass().getResourceAsStream(path);
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] data = new byte[4096];
+			int n;
+			while ((n = inputStream.read(data)) != -1) {
+				buffer.write(data, 0, n);
+			}
+			return buffer.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+}
@@ -2,6 +2,7 @@ package org.imixs.workflow.engine;
 
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.Model;
+import org.imixs.workflow.engine.plugins.AccessPlugin;
 import org.imixs.workflow.exceptions.ModelException;
 import org.imixs.workflow.exceptions.PluginException;
 import org.junit.Before;
@@ -55,4 +56,31 @@ public class TestModelService extends WorkflowMockEnvironment {
 
 	}
 
+	/**
+	 * The process plan is created with the model and removed with the model.
+	 */
+	@Test
+	public void testProcessPlan() throws ModelException, PluginException {
+		ProcessPlan processPlan = modelService.getProcessPlan(DEFAULT_MODEL_VERSION);
+		Assert.assertEquals(DEFAULT_MODEL_VERSION, processPlan.getModelVersion());
+		Assert.assertEquals(4, processPlan.getPlugins().size());
+		Assert.assertEquals("org.imixs.workflow.engine.plugins.AccessPlugin", processPlan.getPlugins().get(0));
+		Assert.assertTrue(processPlan.createPlugin(processPlan.getPlugins().get(0)) instanceof AccessPlugin);
+		Assert.assertNull(processPlan.createPlugin("org.imixs.workflow.engine.plugins.UnknownPlugin"));
+		// the plan is shared
+		Assert.assertSame(processPlan, modelService.getProcessPlan(DEFAULT_MODEL_VERSION));
+
+		Model model = modelService.getModel(DEFAULT_MODEL_VERSION);
+		modelService.removeModel(DEFAULT_MODEL_VERSION);
+		try {
+			modelService.getProcessPlan(DEFAULT_MODEL_VERSION);
+			Assert.fail();
+		} catch (ModelException e) {
+			Assert.assertEquals(ModelException.UNDEFINED_MODEL_VERSION, e.getErrorCode());
+		}
+
+		modelService.addModel(model);
+		Assert.assertNotSame(processPlan, modelService.getProcessPlan(DEFAULT_MODEL_VERSION));
+	}
+
 }
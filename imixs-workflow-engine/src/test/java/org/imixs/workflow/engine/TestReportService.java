@@ -1,8 +1,22 @@
 package org.imixs.workflow.engine;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.exceptions.PluginException;
+import org.imixs.workflow.exceptions.QueryException;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import junit.framework.Assert;
 
@@ -10,14 +24,59 @@ import junit.framework.Assert;
  * Test class for ReportService
  * 
  * This test verifies specific method implementations of the reportService.
+ * The result cache is tested with a DocumentService mock which counts the
+ * executed searches. The index generation is simulated by the test.
  * 
  * @author rsoika
  */
 public class TestReportService {
+	private static Logger logger = Logger.getLogger(TestReportService.class.getName());
+
+	private ReportService reportService;
+	private ItemCollection reportEntity;
+	private List<String> userNameList;
+	private long generation;
+	private int searchCount;
 
 	@Before
-	public void setup() throws PluginException {
+	public void setup() throws PluginException, QueryException {
+		ReportService.clearCache();
+		generation = 1;
+		searchCount = 0;
+		userNameList = Arrays.asList("anna", "org.imixs.ACCESSLEVEL.AUTHORACCESS");
+
+		reportService = new ReportService() {
+			@Override
+			long getIndexGeneration() {
+				return generation;
+			}
+		};
 
+		reportEntity = new ItemCollection();
+		reportEntity.replaceItemValue("type", "ReportEntity");
+		reportEntity.replaceItemValue("txtname", "tickets");
+		reportEntity.replaceItemValue("txtquery", "(type:\"workitem\") AND ($processid:\"?task\")");
+		List<List<String>> attributes = new ArrayList<List<String>>();
+		attributes.add(Arrays.asList("$uniqueid", "ID", "", "", ""));
+		attributes.add(Arrays.asList("_subject", "Subject", "", "", ""));
+		attributes.add(Arrays.asList("$modified", "Modified", "", "<format locale=\"de\">dd.MM.yyyy</format>", ""));
+		reportEntity.replaceItemValue("attributes", attributes);
+
+		reportService.documentService = Mockito.mock(DocumentService.class);
+		Mockito.when(reportService.documentService.load("tickets")).thenReturn(reportEntity);
+		Mockito.when(reportService.documentService.getUserNameList()).thenAnswer(new Answer<List<String>>() {
+			@Override
+			public List<String> answer(InvocationOnMock invocation) throws Throwable {
+				return userNameList;
+			}
+		});
+		Mockito.when(reportService.documentService.find(Mockito.anyString(), Mockito.anyInt(), Mockito.anyInt(),
+				Mockito.anyString(), Mockito.anyBoolean())).thenAnswer(new Answer<List<ItemCollection>>() {
+					@Override
+					public List<ItemCollection> answer(InvocationOnMock invocation) throws Throwable {
+						return find((String) invocation.getArguments()[0], (Integer) invocation.getArguments()[1]);
+					}
+				});
 	}
 
 	/**
@@ -33,4 +92,144 @@ public class TestReportService {
 		Assert.assertEquals("EUR 1.456,78", ReportService.customNumberFormat("EUR #,###,##0.00", "de_DE", 1456.781));
 	}
 
+	/**
+	 * Without the item 'cacheTTL' each call executes the search.
+	 */
+	@Test
+	public void testWithoutCache() throws QueryException {
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(10, executeReport("1000", "$created").size());
+		}
+		Assert.assertEquals(3, searchCount);
+		ItemCollection metrics = reportService.getMetrics();
+		Assert.assertFalse(metrics.hasItem(ReportService.METRIC_CACHE_MISSES + "tickets"));
+		Assert.assertEquals(0, metrics.getItemValueInteger(ReportService.METRIC_CACHE_SIZE));
+	}
+
+	/**
+	 * A cached result is returned for the same query, page, sort order and user
+	 * name list as long as the index generation is not changed.
+	 */
+	@Test
+	public void testResultCache() throws QueryException {
+		reportEntity.replaceItemValue(ReportService.ITEM_CACHE_TTL, 60);
+
+		List<ItemCollection> result = executeReport("1000", "$created");
+		Assert.assertEquals(10, result.size());
+		Assert.assertEquals(1, searchCount);
+		Assert.assertEquals("ticket 1000-0", result.get(0).getItemValueString("_subject"));
+
+		// a changed result does not change the cache
+		result.get(0).replaceItemValue("_subject", "changed");
+		result = executeReport("1000", "$created");
+		Assert.assertEquals(1, searchCount);
+		Assert.assertEquals(10, result.size());
+		Assert.assertEquals("ticket 1000-0", result.get(0).getItemValueString("_subject"));
+		Assert.assertEquals(3, result.get(0).getItemNames().size());
+
+		// other params, sort order or users are not cached yet
+		executeReport("1100", "$created");
+		Assert.assertEquals(2, searchCount);
+		executeReport("1000", "$modified");
+		Assert.assertEquals(3, searchCount);
+		userNameList = Arrays.asList("tom", "org.imixs.ACCESSLEVEL.AUTHORACCESS");
+		executeReport("1000", "$created");
+		Assert.assertEquals(4, searchCount);
+		executeReport("1000", "$created");
+		Assert.assertEquals(4, searchCount);
+
+		// a new index generation invalidates the cache
+		generation++;
+		executeReport("1000", "$created");
+		Assert.assertEquals(5, searchCount);
+		executeReport("1000", "$created");
+		Assert.assertEquals(5, searchCount);
+
+		ItemCollection metrics = reportService.getMetrics();
+		Assert.assertEquals(3, metrics.getItemValueInteger(ReportService.METRIC_CACHE_HITS + "tickets"));
+		Assert.assertEquals(5, metrics.getItemValueInteger(ReportService.METRIC_CACHE_MISSES + "tickets"));
+		Assert.assertEquals(4, metrics.getItemValueInteger(ReportService.METRIC_CACHE_SIZE));
+	}
+
+	/**
+	 * A cached result expires after the time to live. The cache size is limited.
+	 */
+	@Test
+	public void testExpiryAndEviction() throws QueryException, InterruptedException {
+		reportEntity.replaceItemValue(ReportService.ITEM_CACHE_TTL, 1);
+		executeReport("1000", "$created");
+		executeReport("1000", "$created");
+		Assert.assertEquals(1, searchCount);
+		Thread.sleep(1100);
+		executeReport("1000", "$created");
+		Assert.assertEquals(2, searchCount);
+
+		reportEntity.replaceItemValue(ReportService.ITEM_CACHE_TTL, 60);
+		for (int i = 0; i < ReportService.MAX_CACHE_SIZE + 10; i++) {
+			executeReport("" + i, "$created");
+		}
+		Assert.assertEquals(ReportService.MAX_CACHE_SIZE,
+				reportService.getMetrics().getItemValueInteger(ReportService.METRIC_CACHE_SIZE));
+		// the least recently used results were removed
+		int count = searchCount;
+		executeReport("0", "$created");
+		Assert.assertEquals(count + 1, searchCount);
+		executeReport("" + (ReportService.MAX_CACHE_SIZE + 9), "$created");
+		Assert.assertEquals(count + 1, searchCount);
+	}
+
+	/**
+	 * Compares the execution of a report with and without the result cache.
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() throws QueryException {
+		int count = 1000;
+
+		long l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			executeReport("1000", "$created");
+		}
+		long uncached = System.currentTimeMillis() - l;
+
+		reportEntity.replaceItemValue(ReportService.ITEM_CACHE_TTL, 60);
+		l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			executeReport("1000", "$created");
+		}
+		long cached = System.currentTimeMillis() - l;
+		Assert.assertEquals(count + 1, searchCount);
+
+		logger.info("Performancetest ReportService: " + count + " reports, uncached=" + uncached
+				+ "ms cached=" + cached + "ms");
+	}
+
+	private List<ItemCollection> executeReport(String task, String sortBy) throws QueryException {
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("task", task);
+		return reportService.executeReport("tickets", 10, 0, sortBy, false, params);
+	}
+
+	/**
+	 * Simulates a search. Each hit is a new workitem with some items not
+	 * contained in the report.
+	 */
+	private List<ItemCollection> find(String query, int pageSize) {
+		Assert.assertTrue(query.startsWith("(type:\"workitem\") AND ($processid:\""));
+		searchCount++;
+		String task = query.substring(query.lastIndexOf(':') + 2, query.length() - 2);
+		List<ItemCollection> result = new ArrayList<ItemCollection>();
+		for (int i = 0; i < pageSize; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue("$uniqueid", task + "-" + i);
+			workitem.replaceItemValue("_subject", "ticket " + task + "-" + i);
+			workitem.replaceItemValue("$modified", new Date());
+			workitem.replaceItemValue("$created", new Date());
+			workitem.replaceItemValue("$processid", task);
+			workitem.replaceItemValue("namteam", Arrays.asList("anna", "tom", "manfred"));
+			workitem.replaceItemValue("txtcommentlog", Arrays.asList("first comment", "last comment"));
+			result.add(workitem);
+		}
+		return result;
+	}
 }
@@ -0,0 +1,200 @@
+package org.imixs.workflow.engine;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.util.XMLParser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the TextTemplate. The test compares the compiled templates
+ * with the former implementation of the TextItemValueAdapter, which parsed the
+ * text for each event. The templates are taken from the ticket example model and
+ * the mail plugin documentation.
+ *
+ * @author rsoika
+ */
+public class TestTextTemplate {
+	private static Logger logger = Logger.getLogger(TestTextTemplate.class.getName());
+
+	static final String RESULTLOG = "<itemvalue format=\"dd.MM.yyyy HH:mm\">$lasteventdate</itemvalue>|"
+			+ "<itemvalue>namcurrentEditor</itemvalue>|ticket updated by <itemvalue>namcurrentEditor</itemvalue>";
+
+	static final String MAILBODY = "<html><body><h1>Ticket: <itemvalue>_subject</itemvalue></h1>\n"
+			+ "<p>Dear <itemvalue separator=\", \">namteam</itemvalue>,</p>\n"
+			+ "<p>the ticket was updated by <itemvalue>namcurrentEditor</itemvalue> on "
+			+ "<itemvalue format=\"EEEE, dd. MMMM yyyy\" locale=\"de_DE\">$modified</itemvalue>.</p>\n"
+			+ "<p>Status: <itemvalue>$workflowstatus</itemvalue><br />Priority: <itemvalue>_priority</itemvalue></p>\n"
+			+ "<p><itemvalue>_description</itemvalue></p>\n"
+			+ "<p>Last comment: <itemvalue position=\"last\">txtcommentlog</itemvalue></p>\n"
+			+ "<p><a href=\"http://localhost:8080/ticket/index.jsf?workitem=<itemvalue>$uniqueid</itemvalue>\">"
+			+ "open ticket</a></p></body></html>";
+
+	private ItemCollection documentContext;
+
+	@Before
+	public void setup() {
+		TextTemplate.clearCache();
+		documentContext = new ItemCollection();
+		documentContext.replaceItemValue("$uniqueid", "1b1c2d3e-4f5a");
+		documentContext.replaceItemValue("$lasteventdate", new Date());
+		documentContext.replaceItemValue("$modified", new Date());
+		documentContext.replaceItemValue("namcurrentEditor", "manfred");
+		documentContext.replaceItemValue("namteam", Arrays.asList("anna", "tom", "manfred"));
+		documentContext.replaceItemValue("_subject", "Printer out of order");
+		documentContext.replaceItemValue("$workflowstatus", "Open");
+		documentContext.replaceItemValue("_priority", 2);
+		documentContext.replaceItemValue("_description", "The printer in room 2.13 does not print any more.");
+		documentContext.replaceItemValue("txtcommentlog", Arrays.asList("first comment", "last comment"));
+	}
+
+	/**
+	 * A template is compiled once and rendered like the former implementation.
+	 */
+	@Test
+	public void testCompile() {
+		TextTemplate template = TextTemplate.compile(MAILBODY, "itemvalue");
+		Assert.assertEquals(9, template.getTagCount());
+		Assert.assertSame(template, TextTemplate.compile(MAILBODY, "itemvalue"));
+		Assert.assertEquals(1, TextTemplate.getCacheSize());
+
+		for (String text : Arrays.asList(RESULTLOG, MAILBODY, "Hello <itemvalue>txtname!",
+				"<itemvalue>_subject</itemvalue>", "no tags", "<b><itemvalue>_priority</itemvalue></b>",
+				"<itemvalue separator=\"<br />\">namteam</itemvalue>")) {
+			Assert.assertEquals(adaptText(text), TextTemplate.compile(text, "itemvalue").render(createResolver()));
+		}
+
+		String text = TextTemplate.compile(MAILBODY, "itemvalue").render(createResolver());
+		Assert.assertTrue(text.contains("Dear anna, tom, manfred,"));
+		Assert.assertTrue(text.contains("Last comment: last comment"));
+		Assert.assertTrue(text.contains("workitem=1b1c2d3e-4f5a\""));
+	}
+
+	/**
+	 * A text not containing the tag is neither parsed nor cached, e.g. a mail body
+	 * where the item values were already replaced.
+	 */
+	@Test
+	public void testCompileWithoutTag() {
+		String text = TextTemplate.compile(MAILBODY, "itemvalue").render(createResolver());
+		Assert.assertEquals(1, TextTemplate.getCacheSize());
+
+		TextTemplate template = TextTemplate.compile(text, "propertyvalue");
+		Assert.assertEquals(0, template.getTagCount());
+		Assert.assertSame(text, template.render(createResolver()));
+		Assert.assertEquals(0, TextTemplate.compile(text, "itemvalue").getTagCount());
+		Assert.assertEquals(1, TextTemplate.getCacheSize());
+
+		// the tag name is case-insensitive
+		template = TextTemplate.compile("<b><ITEMVALUE>_priority</ITEMVALUE></b>", "itemvalue");
+		Assert.assertEquals(1, template.getTagCount());
+		Assert.assertEquals(2, TextTemplate.getCacheSize());
+	}
+
+	/**
+	 * A text with item and property values is compiled once for both adapters. So
+	 * the template is cached by the original text, independent of the order of the
+	 * adapters and of the workitem.
+	 */
+	@Test
+	public void testMixedTemplate() {
+		String text = "<p>Dear <itemvalue>namcurrentEditor</itemvalue>, see "
+				+ "<propertyvalue>application.url</propertyvalue>?id=<itemvalue>$uniqueid</itemvalue></p>";
+		Properties properties = new Properties();
+		properties.setProperty("application.url", "http://localhost/app");
+		TextPropertyValueAdapter propertyAdapter = new TextPropertyValueAdapter();
+		propertyAdapter.workflowService = Mockito.mock(WorkflowService.class);
+		PropertyService propertyService = Mockito.mock(PropertyService.class);
+		Mockito.when(propertyService.getProperties()).thenReturn(properties);
+		Mockito.when(propertyAdapter.workflowService.getPropertyService()).thenReturn(propertyService);
+		TextItemValueAdapter itemAdapter = new TextItemValueAdapter();
+
+		ItemCollection otherContext = new ItemCollection();
+		otherContext.replaceItemValue("$uniqueid", "5a6b7c8d");
+		otherContext.replaceItemValue("namcurrentEditor", "anna");
+
+		TextEvent event = new TextEvent(text, documentContext);
+		itemAdapter.onEvent(event);
+		propertyAdapter.onEvent(event);
+		Assert.assertEquals("<p>Dear manfred, see http://localhost/app?id=1b1c2d3e-4f5a</p>", event.getText());
+
+		event = new TextEvent(text, otherContext);
+		propertyAdapter.onEvent(event);
+		itemAdapter.onEvent(event);
+		Assert.assertEquals("<p>Dear anna, see http://localhost/app?id=5a6b7c8d</p>", event.getText());
+
+		Assert.assertEquals(1, TextTemplate.getCacheSize());
+	}
+
+	/**
+	 * Compares the former implementation with the compiled templates.
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() {
+		int count = 5000;
+		Function<TextTemplate.Tag, String> resolver = createResolver();
+
+		long l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			adaptText(RESULTLOG);
+			adaptText(MAILBODY);
+		}
+		long legacy = System.currentTimeMillis() - l;
+
+		l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			TextTemplate.compile(RESULTLOG, "itemvalue").render(resolver);
+			TextTemplate.compile(MAILBODY, "itemvalue").render(resolver);
+		}
+		long compiled = System.currentTimeMillis() - l;
+
+		logger.info("Performancetest TextTemplate: " + count + " resultlog and mail templates, parsed=" + legacy
+				+ "ms compiled=" + compiled + "ms");
+	}
+
+	private Function<TextTemplate.Tag, String> createResolver() {
+		return new Function<TextTemplate.Tag, String>() {
+			@Override
+			public String apply(TextTemplate.Tag tag) {
+				return TextItemValueAdapter.formatItemValues(documentContext.getItemValue(tag.getValue()),
+						tag.getSeparator(), tag.getFormat(), tag.getLocale(), tag.getPosition());
+			}
+		};
+	}
+
+	/**
+	 * The former implementation of TextItemValueAdapter.onEvent()
+	 */
+	private String adaptText(String text) {
+		List<String> tagList = XMLParser.findTags(text, "itemvalue");
+		for (String tag : tagList) {
+			String sFormat = XMLParser.findAttribute(tag, "format");
+			String sSeparator = XMLParser.findAttribute(tag, "separator");
+			String sPosition = XMLParser.findAttribute(tag, "position");
+			Locale locale = null;
+			String sLocale = XMLParser.findAttribute(tag, "locale");
+			if (sLocale != null && !sLocale.isEmpty()) {
+				String[] parts = sLocale.split("_");
+				locale = new Locale(parts[0], parts.length == 1 ? parts[0].toUpperCase() : parts[1]);
+			}
+			String sItemValue = XMLParser.findTagValue(tag, "itemvalue");
+			List<?> vValue = documentContext.getItemValue(sItemValue);
+			String sResult = TextItemValueAdapter.formatItemValues(vValue, sSeparator, sFormat, locale, sPosition);
+			int iStartPos = text.indexOf(tag);
+			int iEndPos = text.indexOf(tag) + tag.length();
+			text = text.substring(0, iStartPos) + sResult + text.substring(iEndPos);
+		}
+		return text;
+	}
+}
@@ -0,0 +1,313 @@
+package org.imixs.workflow.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.bpmn.BPMNModel;
+import org.imixs.workflow.engine.lucene.SearchResult;
+import org.imixs.workflow.exceptions.ModelException;
+import org.imixs.workflow.exceptions.PluginException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test class for the WorkflowSchedulerService. The test verifies the item
+ * '$nextdue' and the processing of the due workitems. The search is simulated
+ * by the DocumentService mock, which pages through all workitems with a
+ * '$nextdue' before now, without a '$nextdue' or with a different
+ * '$nextdueplan'.
+ *
+ * @author rsoika
+ */
+public class TestWorkflowSchedulerService {
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private WorkflowSchedulerService schedulerService;
+	private Map<String, ItemCollection> database;
+	private int pageCount;
+
+	@Before
+	public void setup() throws ModelException, PluginException {
+		database = new LinkedHashMap<String, ItemCollection>();
+		pageCount = 0;
+
+		schedulerService = new WorkflowSchedulerService() {
+			@Override
+			Future<ItemCollection> submitWorkitem(String id, ItemCollection activityEntity) {
+				CompletableFuture<ItemCollection> future = new CompletableFuture<ItemCollection>();
+				try {
+					future.complete(processDueWorkitem(id, activityEntity));
+				} catch (Exception e) {
+					future.completeExceptionally(e);
+				}
+				return future;
+			}
+		};
+
+		// a model with two scheduled events in task 1000 (1 and 2 days after the
+		// last event) and no scheduled event in task 1100
+		ItemCollection definition = new ItemCollection();
+		definition.replaceItemValue("$modelversion", "1.0.0");
+		List<ItemCollection> tasks = Arrays.asList(createTask(1000), createTask(1100));
+		List<ItemCollection> events = Arrays.asList(createEvent(1000, 10, 2), createEvent(1000, 20, 1),
+				createEvent(1100, 10, 0));
+		ProcessPlan processPlan = new ProcessPlan(
+				BPMNModel.createModel(definition, new ArrayList<String>(), tasks, events, null));
+		schedulerService.modelService = Mockito.mock(ModelService.class);
+		Mockito.when(schedulerService.modelService.getVersions()).thenReturn(Arrays.asList("1.0.0"));
+		Mockito.when(schedulerService.modelService.getProcessPlan("1.0.0")).thenReturn(processPlan);
+		Mockito.when(schedulerService.modelService.getProcessPlan("2.0.0"))
+				.thenThrow(new ModelException(ModelException.UNDEFINED_MODEL_VERSION, "undefined"));
+
+		schedulerService.documentService = Mockito.mock(DocumentService.class);
+		Mockito.when(schedulerService.documentService.load(Mockito.anyString())).thenAnswer(new Answer<ItemCollection>() {
+			@Override
+			public ItemCollection answer(InvocationOnMock invocation) throws Throwable {
+				return database.get(invocation.getArguments()[0]);
+			}
+		});
+		try {
+			Mockito.when(schedulerService.documentService.findAfter(Mockito.anyString(), Mockito.anyInt(),
+					Mockito.anyString(), Mockito.anyString(), Mockito.anyBoolean(), Mockito.anyListOf(String.class)))
+					.thenAnswer(new Answer<SearchResult>() {
+						@Override
+						public SearchResult answer(InvocationOnMock invocation) throws Throwable {
+							return findAfter((String) invocation.getArguments()[0],
+									(Integer) invocation.getArguments()[1], (String) invocation.getArguments()[2]);
+						}
+					});
+		} catch (Exception e) {
+			Assert.fail();
+		}
+
+		// the workitem 'error' can not be processed
+		schedulerService.workflowService = Mockito.mock(WorkflowService.class);
+		try {
+			Mockito.when(schedulerService.workflowService.processWorkItem(Mockito.any(ItemCollection.class)))
+					.thenAnswer(new Answer<ItemCollection>() {
+						@Override
+						public ItemCollection answer(InvocationOnMock invocation) throws Throwable {
+							ItemCollection workitem = (ItemCollection) invocation.getArguments()[0];
+							if ("error".equals(workitem.getUniqueID())) {
+								throw new PluginException("TestPlugin", "ERROR", "processing failed");
+							}
+							workitem.replaceItemValue("$taskid", 1100);
+							schedulerService.updateNextDue(workitem);
+							return workitem;
+						}
+					});
+		} catch (Exception e) {
+			Assert.fail();
+		}
+	}
+
+	/**
+	 * The item $nextdue is the earliest due date of the scheduled events of the
+	 * current task.
+	 */
+	@Test
+	public void testUpdateNextDue() {
+		Date lastEvent = new Date(System.currentTimeMillis() - 10 * DAY);
+		ItemCollection workitem = createWorkitem("1", 1000, lastEvent);
+		schedulerService.updateNextDue(workitem);
+		Assert.assertEquals(new Date(lastEvent.getTime() + DAY), workitem.getItemValueDate("$nextdue"));
+		Assert.assertFalse(workitem.getItemValueString("$nextdueplan").isEmpty());
+		Assert.assertFalse(schedulerService.isNextDueOutdated(workitem));
+
+		// no scheduled events
+		workitem.replaceItemValue("$taskid", 1100);
+		schedulerService.updateNextDue(workitem);
+		Assert.assertFalse(workitem.hasItem("$nextdue"));
+		Assert.assertFalse(workitem.hasItem("$nextdueplan"));
+		Assert.assertFalse(schedulerService.isNextDueOutdated(workitem));
+
+		// no computable due date
+		workitem = createWorkitem("3", 1000, null);
+		workitem.removeItem("$lastEventDate");
+		schedulerService.updateNextDue(workitem);
+		Assert.assertEquals(new Date(WorkflowSchedulerService.NEXTDUE_NONE), workitem.getItemValueDate("$nextdue"));
+
+		// unknown model version
+		workitem = createWorkitem("2", 1000, lastEvent);
+		workitem.replaceItemValue("$modelversion", "2.0.0");
+		schedulerService.updateNextDue(workitem);
+		Assert.assertFalse(workitem.hasItem("$nextdue"));
+	}
+
+	/**
+	 * Only due workitems are processed. All pages of the search result are read.
+	 * The statistic is stored in the configuration.
+	 */
+	@Test
+	public void testProcessWorkList() {
+		long now = System.currentTimeMillis();
+		// 45 due workitems
+		for (int i = 0; i < 45; i++) {
+			addWorkitem(createWorkitem("due-" + i, 1000, new Date(now - 3 * DAY)), true);
+		}
+		// 20 workitems in due in 1 day
+		for (int i = 0; i < 20; i++) {
+			addWorkitem(createWorkitem("future-" + i, 1000, new Date(now)), true);
+		}
+		// 5 due workitems without $nextdue
+		for (int i = 0; i < 5; i++) {
+			addWorkitem(createWorkitem("legacy-" + i, 1000, new Date(now - 3 * DAY)), false);
+		}
+		// workitems to be skipped
+		ItemCollection workitem = createWorkitem("deleted", 1000, new Date(now - 3 * DAY));
+		workitem.replaceItemValue("type", "workitemdeleted");
+		addWorkitem(workitem, true);
+		workitem = createWorkitem("immutable", 1000, new Date(now - 3 * DAY));
+		workitem.replaceItemValue("$immutable", true);
+		addWorkitem(workitem, true);
+		addWorkitem(createWorkitem("error", 1000, new Date(now - 3 * DAY)), true);
+
+		ItemCollection configuration = new ItemCollection();
+		configuration.replaceItemValue("numPageSize", 10);
+		configuration.replaceItemValue("numMaxThreads", 3);
+		schedulerService.processWorkList(configuration);
+
+		// the first event processes all due workitems, the workitem 'error' is
+		// selected by both events
+		Assert.assertEquals(52, configuration.getItemValueInteger("numWorkItemsSelected"));
+		Assert.assertEquals(50, configuration.getItemValueInteger("numWorkItemsProcessed"));
+		Assert.assertEquals(2, configuration.getItemValueInteger("numWorkItemsUnprocessed"));
+		Assert.assertTrue(configuration.getItemValueDouble("numThroughput") > 0);
+		Assert.assertTrue(configuration.getItemValueLong("numLagMax") >= DAY);
+		Assert.assertTrue(configuration.getItemValueLong("numLagAvg") >= DAY);
+		Assert.assertTrue(configuration.hasItem("numRunTime"));
+		// first event: 53 hits in 6 pages, second event: 3 hits
+		Assert.assertEquals(7, pageCount);
+
+		for (int i = 0; i < 45; i++) {
+			Assert.assertEquals(1100, database.get("due-" + i).getTaskID());
+			Assert.assertEquals(10, database.get("due-" + i).getItemValueInteger("$activityid"));
+			Assert.assertFalse(database.get("due-" + i).hasItem("$nextdue"));
+		}
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals(1100, database.get("legacy-" + i).getTaskID());
+		}
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals(1000, database.get("future-" + i).getTaskID());
+		}
+		Assert.assertEquals(1000, database.get("deleted").getTaskID());
+		Assert.assertEquals(1000, database.get("immutable").getTaskID());
+		Assert.assertEquals(1000, database.get("error").getTaskID());
+	}
+
+	/**
+	 * A model update which shortens the delay of a scheduled event changes the
+	 * fingerprint of the schedule. So workitems with a '$nextdue' computed for the
+	 * former schedule are selected and processed if they are due now.
+	 */
+	@Test
+	public void testModelUpdate() throws ModelException {
+		long now = System.currentTimeMillis();
+		// due in 2 days by the current model
+		ItemCollection workitem = createWorkitem("updated", 1000, new Date(now - DAY / 2));
+		schedulerService.updateNextDue(workitem);
+		Assert.assertFalse(schedulerService.isNextDueOutdated(workitem));
+		addWorkitem(workitem, false);
+		// not due by the new model
+		addWorkitem(createWorkitem("future", 1000, new Date(now)), true);
+
+		// the new model schedules an event 1 hour after the last event
+		ItemCollection definition = new ItemCollection();
+		definition.replaceItemValue("$modelversion", "1.0.0");
+		ItemCollection event = createEvent(1000, 30, 1);
+		event.replaceItemValue("keyActivityDelayUnit", "2");
+		ProcessPlan processPlan = new ProcessPlan(BPMNModel.createModel(definition, new ArrayList<String>(),
+				Arrays.asList(createTask(1000), createTask(1100)), Arrays.asList(event), null));
+		Mockito.when(schedulerService.modelService.getProcessPlan("1.0.0")).thenReturn(processPlan);
+		Assert.assertTrue(schedulerService.isNextDueOutdated(workitem));
+
+		ItemCollection configuration = new ItemCollection();
+		schedulerService.processWorkList(configuration);
+		Assert.assertEquals(1, configuration.getItemValueInteger("numWorkItemsSelected"));
+		Assert.assertEquals(1100, database.get("updated").getTaskID());
+		Assert.assertEquals(30, database.get("updated").getItemValueInteger("$activityid"));
+		Assert.assertEquals(1000, database.get("future").getTaskID());
+	}
+
+	/**
+	 * Simulates the search for due workitems. The cursor is the index of the
+	 * next workitem.
+	 */
+	private SearchResult findAfter(String searchTerm, int pageSize, String cursor) {
+		Assert.assertTrue(searchTerm.contains("$nextdue:[* TO "));
+		pageCount++;
+		List<ItemCollection> hits = new ArrayList<ItemCollection>();
+		for (ItemCollection workitem : database.values()) {
+			Date nextDue = workitem.getItemValueDate("$nextdue");
+			boolean outdated = !searchTerm
+					.contains("$nextdueplan:\"" + workitem.getItemValueString("$nextdueplan") + "\"");
+			if (searchTerm.contains("$processid:\"" + workitem.getTaskID() + "\"")
+					&& (nextDue == null || nextDue.before(new Date()) || outdated)) {
+				hits.add(workitem);
+			}
+		}
+		int start = (cursor == null) ? 0 : Integer.parseInt(cursor);
+		int end = Math.min(start + pageSize, hits.size());
+		List<ItemCollection> page = new ArrayList<ItemCollection>();
+		for (ItemCollection workitem : hits.subList(start, end)) {
+			page.add(new ItemCollection(workitem));
+		}
+		return new SearchResult(page, (end < hits.size()) ? "" + end : null, hits.size());
+	}
+
+	private void addWorkitem(ItemCollection workitem, boolean nextDue) {
+		if (nextDue) {
+			schedulerService.updateNextDue(workitem);
+		}
+		database.put(workitem.getUniqueID(), workitem);
+	}
+
+	private ItemCollection createWorkitem(String id, int taskID, Date lastEvent) {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("$uniqueid", id);
+		workitem.replaceItemValue("type", "workitem");
+		workitem.replaceItemValue("$modelversion", "1.0.0");
+		workitem.replaceItemValue("$taskid", taskID);
+		workitem.replaceItemValue("$lastEventDate", lastEvent);
+		return workitem;
+	}
+
+	private ItemCollection createTask(int taskID) {
+		ItemCollection task = new ItemCollection();
+		task.replaceItemValue("type", "ProcessEntity");
+		task.replaceItemValue("numprocessid", taskID);
+		task.replaceItemValue("txtworkflowgroup", "Ticket");
+		return task;
+	}
+
+	/**
+	 * Creates a scheduled event based on the last event date. An event without a
+	 * delay is not scheduled.
+	 */
+	private ItemCollection createEvent(int taskID, int eventID, int days) {
+		ItemCollection event = new ItemCollection();
+		event.replaceItemValue("type", "ActivityEntity");
+		event.replaceItemValue("$modelversion", "1.0.0");
+		event.replaceItemValue("numprocessid", taskID);
+		event.replaceItemValue("numactivityid", eventID);
+		if (days > 0) {
+			event.replaceItemValue("keyScheduledActivity", "1");
+			event.replaceItemValue("keyScheduledBaseObject", "1");
+			event.replaceItemValue("keyActivityDelayUnit", "3");
+			event.replaceItemValue("numActivityDelay", days);
+		}
+		return event;
+	}
+}
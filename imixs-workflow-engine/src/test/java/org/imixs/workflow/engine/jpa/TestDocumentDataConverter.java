@@ -0,0 +1,188 @@
+package org.imixs.workflow.engine.jpa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.exceptions.InvalidAccessException;
+import org.imixs.workflow.xml.XMLItem;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for the DocumentDataConverter and the BinaryDataCodec.
+ * 
+ * The test verifies that the binary format restores all basic types supported
+ * by an ItemCollection and that legacy data written by the Java serialization
+ * is still readable.
+ * 
+ * @author rsoika
+ */
+public class TestDocumentDataConverter {
+
+	/**
+	 * Creates a workitem with all kinds of basic types
+	 */
+	private ItemCollection createWorkitem() {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue("$uniqueid", "ABC-123");
+		workitem.replaceItemValue("txtname", "Anna");
+		workitem.replaceItemValue("_umlaut", "Größe äöü €");
+		workitem.replaceItemValue("$taskid", 1000);
+		workitem.replaceItemValue("_long", 123456789012L);
+		workitem.replaceItemValue("_negative", -42);
+		workitem.replaceItemValue("_double", 1.234);
+		workitem.replaceItemValue("_float", 2.5f);
+		workitem.replaceItemValue("_boolean", true);
+		workitem.replaceItemValue("_decimal", new BigDecimal("1234.5678"));
+		workitem.replaceItemValue("$modified", new Date(1500000000000L));
+		workitem.replaceItemValue("_bytes", new byte[] { 1, 2, 3 });
+		List<String> names = new ArrayList<String>();
+		names.add("manfred");
+		names.add("anna");
+		workitem.replaceItemValue("$readaccess", names);
+		workitem.replaceItemValue("$writeaccess", names);
+		XMLItem xmlItem = new XMLItem();
+		xmlItem.setName("xml");
+		xmlItem.setValue(new Object[] { "a", 1 });
+		workitem.replaceItemValue("_xmlitem", xmlItem);
+		workitem.addFile(new byte[] { 4, 5, 6 }, "test.txt", "text/plain");
+		return workitem;
+	}
+
+	/**
+	 * Encodes and decodes a workitem and verifies all values
+	 */
+	@Test
+	public void testEncodeDecode() {
+		ItemCollection workitem = createWorkitem();
+
+		byte[] data = DocumentDataConverter.convertToDatabaseColumn(workitem.getAllItems());
+		Assert.assertEquals('I', data[0]);
+		Assert.assertEquals('X', data[1]);
+		Assert.assertEquals(BinaryDataCodec.VERSION, data[2]);
+
+		ItemCollection result = ItemCollection
+				.createByReference(DocumentDataConverter.convertToEntityAttribute(data));
+
+		Assert.assertEquals("ABC-123", result.getUniqueID());
+		Assert.assertEquals("Anna", result.getItemValueString("txtName"));
+		Assert.assertEquals("Größe äöü €", result.getItemValueString("_umlaut"));
+		Assert.assertEquals(1000, result.getItemValueInteger("$taskid"));
+		Assert.assertTrue(result.isItemValueInteger("$taskid"));
+		Assert.assertEquals(123456789012L, result.getItemValueLong("_long"));
+		Assert.assertTrue(result.isItemValueLong("_long"));
+		Assert.assertEquals(-42, result.getItemValueInteger("_negative"));
+		Assert.assertEquals(1.234, result.getItemValueDouble("_double"), 0);
+		Assert.assertTrue(result.isItemValueFloat("_float"));
+		Assert.assertTrue(result.getItemValueBoolean("_boolean"));
+		Assert.assertEquals(new BigDecimal("1234.5678"), result.getItemValue("_decimal").get(0));
+		Assert.assertEquals(new Date(1500000000000L), result.getItemValueDate("$modified"));
+		Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) result.getItemValue("_bytes").get(0));
+		Assert.assertEquals(2, result.getItemValue("$writeaccess").size());
+		Assert.assertEquals("anna", result.getItemValue("$writeaccess").get(1));
+		Assert.assertEquals("xml", ((XMLItem) result.getItemValue("_xmlitem").get(0)).getName());
+		Assert.assertArrayEquals(new byte[] { 4, 5, 6 }, result.getFileData("test.txt").getContent());
+		Assert.assertEquals(workitem.getItemNames(), result.getItemNames());
+	}
+
+	/**
+	 * Verifies that data written with the java serialization can still be read.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testLegacyFormat() throws IOException {
+		ItemCollection workitem = createWorkitem();
+		byte[] legacyData = serialize(workitem.getAllItems());
+
+		Map<String, List<Object>> map = DocumentDataConverter.convertToEntityAttribute(legacyData);
+		ItemCollection result = ItemCollection.createByReference(map);
+		Assert.assertEquals("ABC-123", result.getUniqueID());
+		Assert.assertEquals(1000, result.getItemValueInteger("$taskid"));
+		Assert.assertEquals(workitem.getItemNames(), result.getItemNames());
+	}
+
+	/**
+	 * Verifies the lazy decoding and encoding of the Document entity.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testDocumentEntity() throws IOException {
+		ItemCollection workitem = createWorkitem();
+		Document document = new Document("ABC-123");
+
+		// a legacy row read from the database
+		byte[] legacyData = serialize(workitem.getAllItems());
+		document.setEncodedData(legacyData);
+		// the data is returned unchanged as long as not accessed
+		Assert.assertSame(legacyData, document.getEncodedData());
+
+		// access data - a read does not change the persisted data
+		Assert.assertEquals("Anna", ItemCollection.createByReference(document.getData()).getItemValueString("txtname"));
+		Assert.assertSame(legacyData, document.getEncodedData());
+
+		// update data - the data is now written in the new format
+		workitem.replaceItemValue("txtname", "Manfred");
+		document.setData(workitem.getAllItems());
+		byte[] data = document.getEncodedData();
+		Assert.assertEquals('I', data[0]);
+		// the data is encoded only once
+		Assert.assertSame(data, document.getEncodedData());
+		document.getData();
+		Assert.assertSame(data, document.getEncodedData());
+		document.setEncodedData(document.getEncodedData());
+		Assert.assertEquals("Manfred",
+				ItemCollection.createByReference(document.getData()).getItemValueString("txtname"));
+	}
+
+	/**
+	 * Invalid data must result in an InvalidAccessException
+	 */
+	@Test(expected = InvalidAccessException.class)
+	public void testInvalidData() {
+		DocumentDataConverter.convertToEntityAttribute(new byte[] { 'I', 'X', 1, 5, 0 });
+	}
+
+	/**
+	 * The binary codec needs less space than the java serialization for a workitem
+	 * with 200 items.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSize() throws IOException {
+		ItemCollection workitem = new ItemCollection();
+		for (int i = 0; i < 50; i++) {
+			workitem.replaceItemValue("txtitem" + i, "some text value " + i);
+			workitem.replaceItemValue("numitem" + i, i * 100);
+			workitem.replaceItemValue("datitem" + i, new Date());
+			List<String> names = new ArrayList<String>();
+			names.add("manfred");
+			names.add("anna");
+			names.add("org.imixs.ACCESSLEVEL.MANAGERACCESS");
+			workitem.replaceItemValue("namitem" + i, names);
+		}
+		Map<String, List<Object>> map = workitem.getAllItems();
+
+		byte[] legacyData = serialize(map);
+		byte[] data = DocumentDataConverter.convertToDatabaseColumn(map);
+		Assert.assertTrue(data.length < legacyData.length);
+		Assert.assertEquals(map, DocumentDataConverter.convertToEntityAttribute(data));
+	}
+
+	private byte[] serialize(Map<String, List<Object>> map) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(map);
+		oos.close();
+		return bos.toByteArray();
+	}
+}
@@ -0,0 +1,290 @@
+package org.imixs.workflow.engine.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.engine.PropertyService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the LuceneIndexService. The test verifies that the shared
+ * IndexWriter and the near-real-time SearcherManager make changes visible
+ * after a flush and that the index is opened only once. In addition the test
+ * verifies the query cache for the read access filters.
+ * 
+ * @author rsoika
+ */
+public class TestLuceneIndexService {
+	private static Logger logger = Logger.getLogger(TestLuceneIndexService.class.getName());
+
+	private File indexDir;
+	private LuceneIndexService indexService;
+
+	@Before
+	public void setup() throws IOException {
+		indexDir = Files.createTempDirectory("imixs-test-index").toFile();
+		indexService = createIndexService(new Properties());
+	}
+
+	@After
+	public void teardown() {
+		indexService.close();
+		deleteDirectory(indexDir);
+	}
+
+	/**
+	 * A new index is created with the first search.
+	 */
+	@Test
+	public void testEmptyIndex() throws IOException {
+		IndexSearcher searcher = indexService.acquireSearcher();
+		try {
+			Assert.assertEquals(0, searcher.getIndexReader().numDocs());
+		} finally {
+			indexService.releaseSearcher(searcher);
+		}
+	}
+
+	/**
+	 * Changes are visible after a flush. The IndexWriter is opened only once.
+	 */
+	@Test
+	public void testUpdateAndSearch() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			IndexWriter writer = indexService.getIndexWriter();
+			writer.updateDocument(new Term("$uniqueid", "" + i), createDocument("" + i));
+			indexService.flush();
+			Assert.assertEquals(i + 1, count("type", "workitem"));
+		}
+
+		writer().deleteDocuments(new Term("$uniqueid", "1"));
+		// not yet flushed
+		Assert.assertEquals(3, count("type", "workitem"));
+		indexService.flush();
+		Assert.assertEquals(2, count("type", "workitem"));
+
+		ItemCollection metrics = indexService.getMetrics();
+		Assert.assertEquals(1, metrics.getItemValueInteger(LuceneIndexService.METRIC_OPEN_COUNT));
+		Assert.assertEquals(4, metrics.getItemValueInteger(LuceneIndexService.METRIC_REOPEN_COUNT));
+		Assert.assertEquals(4, metrics.getItemValueInteger(LuceneIndexService.METRIC_COMMIT_COUNT));
+		// the open and each reopen increase the index generation
+		Assert.assertEquals(5, metrics.getItemValueInteger(LuceneIndexService.METRIC_GENERATION));
+		Assert.assertEquals(5, indexService.getGeneration());
+	}
+
+	/**
+	 * With a reopen interval the generation is not increased by a flush as long
+	 * as the searcher is not reopened.
+	 */
+	@Test
+	public void testReopenInterval() throws IOException {
+		indexService.close();
+		Properties properties = new Properties();
+		properties.setProperty("lucence.reopenInterval", "60000");
+		indexService = createIndexService(properties);
+
+		writer().updateDocument(new Term("$uniqueid", "1"), createDocument("1"));
+		long generation = indexService.getGeneration();
+		indexService.flush();
+		// the searcher is not reopened within the interval
+		Assert.assertEquals(generation, indexService.getGeneration());
+		Assert.assertEquals(0, count("type", "workitem"));
+		Assert.assertEquals(generation, indexService.getGeneration());
+	}
+
+	/**
+	 * With a commit interval the changes are visible before they are committed.
+	 */
+	@Test
+	public void testCommitInterval() throws IOException {
+		indexService.close();
+		Properties properties = new Properties();
+		properties.setProperty("lucence.commitInterval", "60000");
+		indexService = createIndexService(properties);
+
+		writer().updateDocument(new Term("$uniqueid", "1"), createDocument("1"));
+		indexService.flush();
+		Assert.assertEquals(1, count("type", "workitem"));
+		Assert.assertEquals(0, indexService.getMetrics().getItemValueInteger(LuceneIndexService.METRIC_COMMIT_COUNT));
+
+		indexService.commit();
+		Assert.assertEquals(1, indexService.getMetrics().getItemValueInteger(LuceneIndexService.METRIC_COMMIT_COUNT));
+		// nothing to commit
+		indexService.commit();
+		Assert.assertEquals(1, indexService.getMetrics().getItemValueInteger(LuceneIndexService.METRIC_COMMIT_COUNT));
+	}
+
+	/**
+	 * Compares the search time of a reader opened per search with the shared
+	 * searcher.
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() throws IOException {
+		IndexWriter writer = writer();
+		for (int i = 0; i < 1000; i++) {
+			writer.updateDocument(new Term("$uniqueid", "" + i), createDocument("" + i));
+		}
+		indexService.flush();
+		int count = 1000;
+
+		long l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			IndexReader reader = DirectoryReader.open(FSDirectory.open(indexDir.toPath()));
+			new IndexSearcher(reader).count(new TermQuery(new Term("$uniqueid", "" + i)));
+			reader.close();
+		}
+		long reopen = System.currentTimeMillis() - l;
+
+		l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			count("$uniqueid", "" + i);
+		}
+		long shared = System.currentTimeMillis() - l;
+
+		logger.info("Performancetest LuceneIndexService: " + count + " searches, reader per search=" + reopen
+				+ "ms shared searcher=" + shared + "ms");
+	}
+
+	/**
+	 * The read access filter is computed once per segment and user name list.
+	 * Later searches with the same filter are answered from the query cache.
+	 */
+	@Test
+	public void testReadAccessFilterCache() throws IOException {
+		IndexWriter writer = writer();
+		for (int i = 0; i < 10000; i++) {
+			Document doc = createDocument("" + i);
+			doc.add(new StringField("$readaccess", (i % 10 == 0) ? "ANONYMOUS" : "user" + (i % 100), Store.NO));
+			writer.updateDocument(new Term("$uniqueid", "" + i), doc);
+		}
+		indexService.flush();
+		int count = 1000;
+
+		// the filter for a user with 30 roles and groups
+		List<BytesRef> terms = new ArrayList<BytesRef>();
+		terms.add(new BytesRef("ANONYMOUS"));
+		for (int i = 1; i <= 30; i++) {
+			terms.add(new BytesRef("user" + i));
+		}
+		Query filter = new ReadAccessQuery(terms);
+
+		// a search without query cache
+		IndexSearcher searcher = indexService.acquireSearcher();
+		try {
+			IndexSearcher uncachedSearcher = new IndexSearcher(searcher.getIndexReader());
+			uncachedSearcher.setQueryCache(null);
+			for (int i = 0; i < count; i++) {
+				Assert.assertEquals(getExpectedCount(i), uncachedSearcher.count(createFilteredQuery(i, filter)));
+			}
+		} finally {
+			indexService.releaseSearcher(searcher);
+		}
+
+		for (int i = 0; i < count; i++) {
+			Assert.assertEquals(getExpectedCount(i), count(createFilteredQuery(i, filter)));
+		}
+
+		ItemCollection metrics = indexService.getMetrics();
+		int misses = metrics.getItemValueInteger(LuceneIndexService.METRIC_FILTER_MISSES);
+		int hits = metrics.getItemValueInteger(LuceneIndexService.METRIC_FILTER_HITS);
+		// one miss per segment
+		Assert.assertTrue(misses > 0);
+		Assert.assertEquals((count - 1) * misses, hits);
+		Assert.assertTrue(metrics.getItemValueDouble(LuceneIndexService.METRIC_FILTER_HIT_RATIO) > 0.99);
+
+		// a reopen creates new entries only for new segments
+		writer.updateDocument(new Term("$uniqueid", "10000"), createDocument("10000"));
+		indexService.flush();
+		Assert.assertEquals(getExpectedCount(0), count(createFilteredQuery(0, filter)));
+		Assert.assertEquals(misses + 1,
+				indexService.getMetrics().getItemValueInteger(LuceneIndexService.METRIC_FILTER_MISSES));
+	}
+
+	private IndexWriter writer() throws IOException {
+		return indexService.getIndexWriter();
+	}
+
+	/**
+	 * Returns a query for all workitems except one. Each search uses a different
+	 * query in combination with the same read access filter.
+	 */
+	private Query createFilteredQuery(int i, Query filter) {
+		return new BooleanQuery.Builder().add(new TermQuery(new Term("type", "workitem")), Occur.MUST)
+				.add(new TermQuery(new Term("$uniqueid", "" + i)), Occur.MUST_NOT).add(filter, Occur.FILTER).build();
+	}
+
+	private int getExpectedCount(int i) {
+		boolean readable = (i % 10 == 0) || (i % 100 <= 30);
+		return readable ? 3699 : 3700;
+	}
+
+	private int count(Query query) throws IOException {
+		IndexSearcher searcher = indexService.acquireSearcher();
+		try {
+			return searcher.count(query);
+		} finally {
+			indexService.releaseSearcher(searcher);
+		}
+	}
+
+	private int count(String field, String value) throws IOException {
+		IndexSearcher searcher = indexService.acquireSearcher();
+		try {
+			return searcher.count(new TermQuery(new Term(field, value)));
+		} finally {
+			indexService.releaseSearcher(searcher);
+		}
+	}
+
+	private LuceneIndexService createIndexService(Properties properties) {
+		properties.setProperty("lucence.indexDir", indexDir.getAbsolutePath());
+		LuceneIndexService service = new LuceneIndexService();
+		service.propertyService = Mockito.mock(PropertyService.class);
+		Mockito.when(service.propertyService.getProperties()).thenReturn(properties);
+		service.init();
+		return service;
+	}
+
+	private Document createDocument(String id) {
+		Document doc = new Document();
+		doc.add(new StringField("$uniqueid", id, Store.YES));
+		doc.add(new StringField("type", "workitem", Store.NO));
+		return doc;
+	}
+
+	private void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				deleteDirectory(file);
+			}
+		}
+		dir.delete();
+	}
+}
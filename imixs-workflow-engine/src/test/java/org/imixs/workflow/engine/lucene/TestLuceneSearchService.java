@@ -0,0 +1,432 @@
+package org.imixs.workflow.engine.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.BytesRef;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.engine.DocumentService;
+import org.imixs.workflow.engine.PropertyService;
+import org.imixs.workflow.exceptions.QueryException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test class for the cursor paging and the stream of the LuceneSearchService.
+ * The test verifies that all hits of a search are returned page by page in the
+ * same order as by a search with a page index. In addition the test verifies in
+ * which cases a projection is created from the items stored in the index.
+ * 
+ * @author rsoika
+ */
+public class TestLuceneSearchService {
+	private static Logger logger = Logger.getLogger(TestLuceneSearchService.class.getName());
+
+	private static final int DOCUMENT_COUNT = 5000;
+
+	private File indexDir;
+	private LuceneIndexService indexService;
+	private LuceneSearchService searchService;
+	private DocumentService documentService;
+
+	@Before
+	public void setup() throws IOException, QueryException {
+		indexDir = Files.createTempDirectory("imixs-test-index").toFile();
+		Properties properties = new Properties();
+		properties.setProperty("lucence.indexDir", indexDir.getAbsolutePath());
+		PropertyService propertyService = Mockito.mock(PropertyService.class);
+		Mockito.when(propertyService.getProperties()).thenReturn(properties);
+
+		indexService = new LuceneIndexService();
+		indexService.propertyService = propertyService;
+		indexService.init();
+
+		// the documents are created from the $uniqueid
+		documentService = Mockito.mock(DocumentService.class);
+		Mockito.when(documentService.isUserInRole(DocumentService.ACCESSLEVEL_MANAGERACCESS)).thenReturn(true);
+		Mockito.when(documentService.loadAll(Mockito.anyCollectionOf(String.class)))
+				.thenAnswer(new Answer<List<ItemCollection>>() {
+					@Override
+					public List<ItemCollection> answer(InvocationOnMock invocation) throws Throwable {
+						List<ItemCollection> result = new ArrayList<ItemCollection>();
+						for (Object id : (Collection<?>) invocation.getArguments()[0]) {
+							ItemCollection document = new ItemCollection();
+							document.replaceItemValue("$uniqueid", id);
+							document.replaceItemValue("loaded", true);
+							result.add(document);
+						}
+						return result;
+					}
+				});
+
+		searchService = new LuceneSearchService();
+		searchService.propertyService = propertyService;
+		searchService.documentService = documentService;
+		searchService.luceneIndexService = indexService;
+		searchService.luceneUpdateService = Mockito.mock(LuceneUpdateService.class);
+
+		IndexWriter writer = indexService.getIndexWriter();
+		for (int i = 0; i < DOCUMENT_COUNT; i++) {
+			Document doc = new Document();
+			doc.add(new StringField("$uniqueid", "" + i, Store.YES));
+			doc.add(new SortedDocValuesField("$uniqueid", new BytesRef("" + i)));
+			doc.add(new StringField("type", "workitem", Store.NO));
+			// many documents with the same sort value
+			doc.add(new SortedDocValuesField("txtname", new BytesRef("name" + (i % 100))));
+			writer.updateDocument(new Term("$uniqueid", "" + i), doc);
+		}
+		indexService.flush();
+	}
+
+	@After
+	public void teardown() {
+		indexService.close();
+		File[] files = indexDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		indexDir.delete();
+	}
+
+	/**
+	 * Reads all hits of a sorted search page by page and compares the order with
+	 * the paging by a page index. Hits with the same sort value are ordered by
+	 * their $uniqueid.
+	 */
+	@Test
+	public void testSearchAfterSorted() throws QueryException {
+		Sort sort = new Sort(new SortField("txtname", SortField.Type.STRING, true));
+		List<String> expected = getIDs(searchService.search("type:workitem", 9999, 0,
+				LuceneSearchService.createCursorSort(sort, true), null, null));
+		Assert.assertEquals(9999, expected.size());
+
+		List<String> result = new ArrayList<String>();
+		String cursor = null;
+		do {
+			SearchResult page = searchService.searchAfter("type:workitem", 100, cursor, sort, null, null);
+			Assert.assertEquals(DOCUMENT_COUNT, page.getTotalHits());
+			result.addAll(getIDs(page.getDocuments()));
+			cursor = page.getCursor();
+		} while (cursor != null);
+
+		Assert.assertEquals(DOCUMENT_COUNT, result.size());
+		Assert.assertEquals(DOCUMENT_COUNT, new HashSet<String>(result).size());
+		Assert.assertEquals(expected, result.subList(0, expected.size()));
+	}
+
+	/**
+	 * Reads all hits of a search sorted by score.
+	 */
+	@Test
+	public void testSearchAfterScore() throws QueryException {
+		Set<String> result = new HashSet<String>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			SearchResult page = searchService.searchAfter("type:workitem", 1000, cursor, null, null, null);
+			result.addAll(getIDs(page.getDocuments()));
+			cursor = page.getCursor();
+			pages++;
+		} while (cursor != null);
+		Assert.assertEquals(DOCUMENT_COUNT, result.size());
+		// the last page is full and has no cursor
+		Assert.assertEquals(DOCUMENT_COUNT / 1000, pages);
+	}
+
+	/**
+	 * The cursor contains no document number. So no hit is skipped or returned
+	 * twice if the documents are renumbered by a merge between two pages.
+	 */
+	@Test
+	public void testSearchAfterMerge() throws QueryException, IOException {
+		Sort sort = new Sort(new SortField("txtname", SortField.Type.STRING));
+		SearchResult page = searchService.searchAfter("type:workitem", 1000, null, sort, null, null);
+		List<String> firstPage = getIDs(page.getDocuments());
+		String cursor = page.getCursor();
+
+		// remove the first page and merge the index
+		IndexWriter writer = indexService.getIndexWriter();
+		for (String id : firstPage) {
+			writer.deleteDocuments(new Term("$uniqueid", id));
+		}
+		writer.forceMerge(1);
+		indexService.flush();
+
+		Set<String> result = new HashSet<String>(firstPage);
+		int count = firstPage.size();
+		while (cursor != null) {
+			page = searchService.searchAfter("type:workitem", 1000, cursor, sort, null, null);
+			result.addAll(getIDs(page.getDocuments()));
+			count += page.getDocuments().size();
+			cursor = page.getCursor();
+		}
+		Assert.assertEquals(DOCUMENT_COUNT, count);
+		Assert.assertEquals(DOCUMENT_COUNT, result.size());
+	}
+
+	/**
+	 * An invalid cursor or a cursor of a different sort order is rejected.
+	 */
+	@Test
+	public void testInvalidCursor() throws QueryException {
+		Sort sort = new Sort(new SortField("txtname", SortField.Type.STRING));
+		String cursor = searchService.searchAfter("type:workitem", 10, null, null, null, null).getCursor();
+		Assert.assertNotNull(cursor);
+		try {
+			searchService.searchAfter("type:workitem", 10, cursor, sort, null, null);
+			Assert.fail();
+		} catch (QueryException e) {
+			Assert.assertEquals(QueryException.QUERY_NOT_UNDERSTANDABLE, e.getErrorCode());
+		}
+		try {
+			searchService.searchAfter("type:workitem", 10, "abc", null, null, null);
+			Assert.fail();
+		} catch (QueryException e) {
+			Assert.assertEquals(QueryException.QUERY_NOT_UNDERSTANDABLE, e.getErrorCode());
+		}
+	}
+
+	/**
+	 * Documents of an index written by a version before 4.4 contain no sort values
+	 * for the $uniqueid. The hits are ordered by the document number in this case,
+	 * also after the documents were merged with newer documents.
+	 */
+	@Test
+	public void testLegacyIndex() throws QueryException, IOException {
+		IndexWriter writer = indexService.getIndexWriter();
+		for (int i = 0; i < 1000; i++) {
+			Document doc = new Document();
+			doc.add(new StringField("$uniqueid", "legacy" + i, Store.YES));
+			doc.add(new StringField("type", "workitem", Store.NO));
+			writer.updateDocument(new Term("$uniqueid", "legacy" + i), doc);
+		}
+		writer.forceMerge(1);
+		indexService.flush();
+
+		IndexSearcher searcher = indexService.acquireSearcher();
+		try {
+			Assert.assertFalse(indexService.isUniqueIdSortable(searcher));
+		} finally {
+			indexService.releaseSearcher(searcher);
+		}
+
+		// sort by $uniqueid like the WorkflowSchedulerService
+		Sort sort = new Sort(new SortField("$uniqueid", SortField.Type.STRING));
+		Set<String> result = new HashSet<String>();
+		String cursor = null;
+		do {
+			SearchResult page = searchService.searchAfter("type:workitem", 1000, cursor, sort, null, null);
+			result.addAll(getIDs(page.getDocuments()));
+			cursor = page.getCursor();
+		} while (cursor != null);
+		Assert.assertEquals(DOCUMENT_COUNT + 1000, result.size());
+
+		try (Stream<ItemCollection> documents = searchService.stream("type:workitem", sort, null, null)) {
+			Assert.assertEquals(DOCUMENT_COUNT + 1000,
+					documents.map(ItemCollection::getUniqueID).collect(Collectors.toSet()).size());
+		}
+	}
+
+	/**
+	 * Streams all hits in the same order as the cursor paging. The stream holds
+	 * one searcher until it is closed.
+	 */
+	@Test
+	public void testStream() throws QueryException, IOException {
+		Sort sort = new Sort(new SortField("txtname", SortField.Type.STRING));
+		List<String> expected = new ArrayList<String>();
+		String cursor = null;
+		do {
+			SearchResult page = searchService.searchAfter("type:workitem", 1000, cursor, sort, null, null);
+			expected.addAll(getIDs(page.getDocuments()));
+			cursor = page.getCursor();
+		} while (cursor != null);
+
+		int refCount = getRefCount();
+		try (Stream<ItemCollection> documents = searchService.stream("type:workitem", sort, null, null)) {
+			Assert.assertEquals(refCount + 1, getRefCount());
+			Assert.assertEquals(expected, getIDs(documents.collect(Collectors.<ItemCollection>toList())));
+		}
+		Assert.assertEquals(refCount, getRefCount());
+
+		// the searcher is released if the stream is closed before the end
+		try (Stream<ItemCollection> documents = searchService.stream("type:workitem", null, null, null)) {
+			Assert.assertEquals(10, documents.limit(10).count());
+			Assert.assertEquals(refCount + 1, getRefCount());
+		}
+		Assert.assertEquals(refCount, getRefCount());
+	}
+
+	/**
+	 * A projection is only created if the requested items were stored with the
+	 * document, the index contains all committed changes and the caller is not in
+	 * the role NOACCESS. Otherwise the documents are loaded from the database.
+	 */
+	@Test
+	public void testProjection() throws QueryException, IOException {
+		final boolean[] flushed = new boolean[] { true };
+		Properties properties = new Properties();
+		properties.setProperty("lucence.flushInterval", "0");
+		properties.setProperty("lucence.indexFieldListStore", "txtname");
+		LuceneUpdateService updateService = new LuceneUpdateService() {
+			@Override
+			public boolean waitForEventLog() {
+				return flushed[0];
+			}
+		};
+		updateService.propertyService = Mockito.mock(PropertyService.class);
+		Mockito.when(updateService.propertyService.getProperties()).thenReturn(properties);
+		updateService.luceneIndexService = indexService;
+		updateService.init();
+		searchService.luceneUpdateService = updateService;
+
+		// document 'A' is indexed with the store list 'txtname'
+		writeDocument(updateService, "A");
+		// document 'B' is indexed with the store list 'txtname, txtcity'
+		properties.setProperty("lucence.indexFieldListStore", "txtname, txtcity");
+		updateService.init();
+		writeDocument(updateService, "B");
+		indexService.flush();
+
+		// both documents are answered by the index
+		List<ItemCollection> result = searchService.search("type:projection", 10, 0, null, null,
+				Arrays.asList("txtname"));
+		Assert.assertEquals(2, result.size());
+		for (ItemCollection document : result) {
+			Assert.assertFalse(document.hasItem("loaded"));
+			Assert.assertEquals("name " + document.getUniqueID(), document.getItemValueString("txtname"));
+		}
+		Mockito.verify(documentService, Mockito.times(2)).fireLoadEvent(Mockito.any(ItemCollection.class));
+
+		// the item txtcity was not stored with document 'A'
+		Sort sort = new Sort(new SortField("txtname", SortField.Type.STRING));
+		result = searchService.search("type:projection", 10, 0, sort, null, Arrays.asList("txtname", "txtcity"));
+		Assert.assertTrue(result.get(0).hasItem("loaded"));
+		Assert.assertFalse(result.get(1).hasItem("loaded"));
+		Assert.assertEquals("city B", result.get(1).getItemValueString("txtcity"));
+
+		// computed items are never answered by the index
+		assertLoaded(Arrays.asList("txtname", "$isauthor"));
+		assertLoaded(Arrays.asList("txtname", "$version"));
+
+		// the event log was not flushed
+		flushed[0] = false;
+		assertLoaded(Arrays.asList("txtname"));
+		flushed[0] = true;
+
+		// the searcher does not contain all changes
+		indexService.getIndexWriter().updateDocument(new Term("$uniqueid", "C"),
+				updateService.createDocument(createDocument("C")));
+		assertLoaded(Arrays.asList("txtname"));
+		indexService.flush();
+
+		// the caller has no access
+		Mockito.when(documentService.isUserInRole(DocumentService.ACCESSLEVEL_NOACCESS)).thenReturn(true);
+		assertLoaded(Arrays.asList("txtname"));
+	}
+
+	/**
+	 * Compares the time to read all pages by a page index and by a cursor.
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() throws QueryException {
+		Sort sort = new Sort(new SortField("txtname", SortField.Type.STRING));
+		int pageSize = 100;
+
+		long l = System.currentTimeMillis();
+		int count = 0;
+		for (int i = 0; i < DOCUMENT_COUNT / pageSize; i++) {
+			count += searchService.search("type:workitem", pageSize, i, sort, null, null).size();
+		}
+		long pageIndex = System.currentTimeMillis() - l;
+		Assert.assertEquals(DOCUMENT_COUNT, count);
+
+		l = System.currentTimeMillis();
+		count = 0;
+		String cursor = null;
+		do {
+			SearchResult page = searchService.searchAfter("type:workitem", pageSize, cursor, sort, null, null);
+			count += page.getDocuments().size();
+			cursor = page.getCursor();
+		} while (cursor != null);
+		long searchAfter = System.currentTimeMillis() - l;
+		Assert.assertEquals(DOCUMENT_COUNT, count);
+
+		l = System.currentTimeMillis();
+		try (Stream<ItemCollection> documents = searchService.stream("type:workitem", sort, null, null)) {
+			Assert.assertEquals(DOCUMENT_COUNT, documents.count());
+		}
+		long stream = System.currentTimeMillis() - l;
+
+		logger.info("Performancetest LuceneSearchService: " + DOCUMENT_COUNT + " hits in pages of " + pageSize
+				+ ", pageIndex=" + pageIndex + "ms cursor=" + searchAfter + "ms stream=" + stream + "ms");
+	}
+
+	private void assertLoaded(List<String> items) throws QueryException {
+		List<ItemCollection> result = searchService.search("type:projection", 10, 0, null, null, items);
+		Assert.assertFalse(result.isEmpty());
+		for (ItemCollection document : result) {
+			Assert.assertTrue(document.hasItem("loaded"));
+		}
+	}
+
+	private void writeDocument(LuceneUpdateService updateService, String id) throws IOException {
+		indexService.getIndexWriter().updateDocument(new Term("$uniqueid", id),
+				updateService.createDocument(createDocument(id)));
+	}
+
+	private ItemCollection createDocument(String id) {
+		ItemCollection document = new ItemCollection();
+		document.replaceItemValue("$uniqueid", id);
+		document.replaceItemValue("type", "projection");
+		document.replaceItemValue("txtname", "name " + id);
+		document.replaceItemValue("txtcity", "city " + id);
+		return document;
+	}
+
+	private int getRefCount() throws IOException {
+		IndexSearcher searcher = indexService.acquireSearcher();
+		try {
+			return searcher.getIndexReader().getRefCount() - 1;
+		} finally {
+			indexService.releaseSearcher(searcher);
+		}
+	}
+
+	private List<String> getIDs(List<ItemCollection> documents) {
+		List<String> result = new ArrayList<String>();
+		for (ItemCollection document : documents) {
+			result.add(document.getUniqueID());
+		}
+		return result;
+	}
+}
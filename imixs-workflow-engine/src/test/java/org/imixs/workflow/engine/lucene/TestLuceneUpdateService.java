@@ -0,0 +1,200 @@
+package org.imixs.workflow.engine.lucene;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import javax.ejb.SessionContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.util.BytesRef;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.engine.PropertyService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the LuceneUpdateService. The test verifies that a search only
+ * waits for a flush if event log entries were committed since the last flush
+ * and that the wait is bounded by the flush timeout. In addition the test
+ * verifies the stored items used by a projection search.
+ * 
+ * @author rsoika
+ */
+public class TestLuceneUpdateService {
+
+	private LuceneUpdateService updateService;
+	private TransactionSynchronizationRegistry registry;
+	private SessionContext ctx;
+
+	@Before
+	public void setup() {
+		Properties properties = new Properties();
+		properties.setProperty("lucence.flushInterval", "0");
+		properties.setProperty("lucence.flushTimeout", "100");
+		properties.setProperty("lucence.indexFieldListStore", "txtName, $TaskID,datDate");
+
+		// an empty event log
+		updateService = new LuceneUpdateService() {
+			@Override
+			public boolean flushEventLogByCount(int count) {
+				return true;
+			}
+
+			@Override
+			Object[] queryEventLogStatus() {
+				return new Object[] { 0L, null };
+			}
+		};
+		updateService.propertyService = Mockito.mock(PropertyService.class);
+		Mockito.when(updateService.propertyService.getProperties()).thenReturn(properties);
+		updateService.luceneIndexService = Mockito.mock(LuceneIndexService.class);
+
+		registry = Mockito.mock(TransactionSynchronizationRegistry.class);
+		Mockito.when(registry.getTransactionKey()).thenReturn("tx");
+		updateService.transactionSynchronizationRegistry = registry;
+
+		// the asynchronous flush is executed immediately
+		ctx = Mockito.mock(SessionContext.class);
+		Mockito.when(ctx.getBusinessObject(LuceneUpdateService.class)).thenReturn(updateService);
+		updateService.ctx = ctx;
+
+		updateService.init();
+	}
+
+	/**
+	 * A search waits for a flush only if entries were committed since the last
+	 * flush.
+	 */
+	@Test
+	public void testWaitForEventLog() {
+		// initial flush
+		Assert.assertTrue(updateService.waitForEventLog());
+		Assert.assertEquals(1, getMetric(LuceneUpdateService.METRIC_FLUSH_COUNT));
+
+		// no new entries
+		Assert.assertTrue(updateService.waitForEventLog());
+		Assert.assertEquals(1, getMetric(LuceneUpdateService.METRIC_FLUSH_COUNT));
+
+		// commit a new entry
+		commitEventLogEntry();
+		Assert.assertTrue(updateService.waitForEventLog());
+		Assert.assertEquals(2, getMetric(LuceneUpdateService.METRIC_FLUSH_COUNT));
+		Assert.assertEquals(2, getMetric(LuceneUpdateService.METRIC_WAIT_COUNT));
+		Assert.assertEquals(0, getMetric(LuceneUpdateService.METRIC_WAIT_TIMEOUTS));
+	}
+
+	/**
+	 * The wait is bounded by the flush timeout.
+	 */
+	@Test
+	public void testWaitTimeout() {
+		// the asynchronous flush is not executed
+		Mockito.when(ctx.getBusinessObject(LuceneUpdateService.class))
+				.thenReturn(Mockito.mock(LuceneUpdateService.class));
+
+		long l = System.currentTimeMillis();
+		Assert.assertFalse(updateService.waitForEventLog());
+		Assert.assertTrue(System.currentTimeMillis() - l >= 100);
+		Assert.assertEquals(1, getMetric(LuceneUpdateService.METRIC_WAIT_TIMEOUTS));
+
+		// the timer flushes the event log
+		Mockito.when(ctx.getBusinessObject(LuceneUpdateService.class)).thenReturn(updateService);
+		updateService.flushEventLog();
+		Assert.assertTrue(updateService.waitForEventLog());
+	}
+
+	/**
+	 * The event log is flushed in blocks by the business object, so that each
+	 * block is committed in a new transaction.
+	 */
+	@Test
+	public void testFlushByBusinessObject() {
+		LuceneUpdateService businessObject = Mockito.mock(LuceneUpdateService.class);
+		Mockito.when(businessObject.flushEventLogByCount(Mockito.anyInt())).thenReturn(false, false, true);
+		Mockito.when(ctx.getBusinessObject(LuceneUpdateService.class)).thenReturn(businessObject);
+		updateService.flushEventLog();
+		Mockito.verify(businessObject, Mockito.times(3))
+				.flushEventLogByCount(LuceneUpdateService.EVENTLOG_ENTRY_FLUSH_COUNT);
+
+		// a failed block stops the flush
+		Mockito.when(businessObject.flushEventLogByCount(Mockito.anyInt()))
+				.thenThrow(new RuntimeException("rolled back"));
+		updateService.flushEventLog();
+		Mockito.verify(businessObject, Mockito.times(4))
+				.flushEventLogByCount(LuceneUpdateService.EVENTLOG_ENTRY_FLUSH_COUNT);
+	}
+
+	/**
+	 * Verifies that the items of the indexFieldListStore are stored in the lucene
+	 * document and can be read by a projection search.
+	 */
+	@Test
+	public void testStoredItems() {
+		Assert.assertEquals(Arrays.asList("txtname", "$taskid", "datdate"), updateService.getIndexFieldListStore());
+
+		Date date = new Date();
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, "ABC-123");
+		workitem.replaceItemValue("txtName", "Anna");
+		workitem.replaceItemValue("$taskid", 1000);
+		workitem.replaceItemValue("datDate", date);
+		workitem.replaceItemValue("txtBigItem", "not stored");
+		Document doc = updateService.createDocument(workitem);
+		BytesRef storedItems = doc.getBinaryValue(LuceneUpdateService.STORED_ITEMS_FIELD);
+		Assert.assertNotNull(storedItems);
+
+		LuceneSearchService searchService = new LuceneSearchService();
+		searchService.luceneUpdateService = updateService;
+		// projection is only possible for stored items
+		Assert.assertNull(searchService.getProjectionItems(null));
+		Assert.assertNull(searchService.getProjectionItems(Arrays.asList("txtname", "txtbigitem")));
+		List<String> items = searchService.getProjectionItems(Arrays.asList("$uniqueid", "txtName", "$taskid"));
+		Assert.assertEquals(Arrays.asList("txtname", "$taskid"), items);
+
+		ItemCollection projection = LuceneSearchService.createProjection("ABC-123", storedItems, items);
+		Assert.assertEquals("ABC-123", projection.getUniqueID());
+		Assert.assertEquals("Anna", projection.getItemValueString("txtname"));
+		Assert.assertEquals(1000, projection.getItemValueInteger("$taskid"));
+		Assert.assertTrue(projection.isItemValueInteger("$taskid"));
+		Assert.assertFalse(projection.hasItem("datdate"));
+		Assert.assertFalse(projection.hasItem("txtbigitem"));
+
+		projection = LuceneSearchService.createProjection("ABC-123", storedItems, Arrays.asList("datdate"));
+		Assert.assertEquals(date, projection.getItemValueDate("datDate"));
+	}
+
+	/**
+	 * Simulates the commit of a transaction which wrote an event log entry.
+	 */
+	private void commitEventLogEntry() {
+		updateService.registerEventLogSynchronization();
+		ArgumentCaptor<Synchronization> captor = ArgumentCaptor.forClass(Synchronization.class);
+		Mockito.verify(registry).registerInterposedSynchronization(captor.capture());
+		// the commit happens in a later millisecond than the last and the next flush
+		sleep();
+		captor.getValue().afterCompletion(Status.STATUS_COMMITTED);
+		sleep();
+	}
+
+	private void sleep() {
+		try {
+			Thread.sleep(2);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private int getMetric(String name) {
+		ItemCollection metrics = updateService.getEventLogMetrics();
+		return metrics.getItemValueInteger(name);
+	}
+}
@@ -0,0 +1,291 @@
+package org.imixs.workflow.engine.lucene;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.standard.ClassicAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.WorkflowKernel;
+import org.imixs.workflow.engine.PropertyService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for the typed index fields. The test indexes workitems with the
+ * LuceneUpdateService and verifies range queries, exact queries and the numeric
+ * sort order of the TypedQueryParser.
+ * 
+ * @author rsoika
+ */
+public class TestTypedQueryParser {
+	private static Logger logger = Logger.getLogger(TestTypedQueryParser.class.getName());
+
+	private static final int COUNT = 2000;
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private LuceneUpdateService updateService;
+	private LuceneSearchService searchService;
+	private RAMDirectory directory;
+	private IndexSearcher searcher;
+	private Date now;
+
+	@Before
+	public void setup() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("lucence.flushInterval", "0");
+		properties.setProperty("lucence.indexFieldListLong", "$taskid");
+		properties.setProperty("lucence.indexFieldListDouble", "_amount");
+		properties.setProperty("lucence.indexFieldListDate", "datDue");
+		// txtDate is indexed as keyword
+		properties.setProperty("lucence.indexFieldListNoAnalyze", "txtDate");
+
+		updateService = new LuceneUpdateService();
+		updateService.propertyService = Mockito.mock(PropertyService.class);
+		Mockito.when(updateService.propertyService.getProperties()).thenReturn(properties);
+		updateService.init();
+		searchService = new LuceneSearchService();
+		searchService.luceneUpdateService = updateService;
+
+		// one workitem per hour
+		now = new Date();
+		directory = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new ClassicAnalyzer()));
+		for (int i = 0; i < COUNT; i++) {
+			Date date = new Date(now.getTime() - i * DAY / 24);
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, "" + i);
+			workitem.replaceItemValue("$taskid", 1000 + (i % 20) * 100);
+			workitem.replaceItemValue("_amount", i * 0.5);
+			workitem.replaceItemValue("datDue", date);
+			workitem.replaceItemValue("txtDate", date);
+			writer.addDocument(updateService.createDocument(workitem));
+		}
+		writer.close();
+		searcher = new IndexSearcher(DirectoryReader.open(directory));
+	}
+
+	@After
+	public void teardown() throws IOException {
+		searcher.getIndexReader().close();
+		directory.close();
+	}
+
+	/**
+	 * Typed fields which are also keyword fields keep their keyword field. So
+	 * prefix and wildcard queries still match.
+	 */
+	@Test
+	public void testFieldLists() throws ParseException, IOException {
+		Assert.assertTrue(updateService.getIndexFieldListLong().contains("$taskid"));
+		QueryParser keywordParser = new QueryParser("content", new KeywordAnalyzer());
+		Assert.assertEquals(COUNT / 20, searcher.count(keywordParser.parse("$taskid:1000")));
+		Assert.assertEquals(COUNT, searcher.count(keywordParser.parse("txtdate:[19700101 TO 99999999999999]")));
+
+		// prefix and wildcard queries by the TypedQueryParser
+		Assert.assertEquals(COUNT / 20, count("$taskid:11*"));
+		Assert.assertEquals(COUNT / 2, count("$taskid:1?00"));
+		// datDue is not a keyword field
+		Assert.assertEquals(0, count("datdue:2*"));
+	}
+
+	@Test
+	public void testLongField() throws ParseException, IOException {
+		Assert.assertEquals(COUNT / 20, count("$taskid:1000"));
+		Assert.assertEquals(COUNT / 20, count("$taskid:\"1000\""));
+		Assert.assertEquals(3 * COUNT / 20, count("$taskid:[1000 TO 1200]"));
+		Assert.assertEquals(COUNT / 20, count("$taskid:{1000 TO 1200}"));
+		Assert.assertEquals(2 * COUNT / 20, count("$taskid:[* TO 1100]"));
+		Assert.assertEquals(2 * COUNT / 20, count("$TaskID:[2800 TO *]"));
+		// a lexical range would not match 1000
+		Assert.assertEquals(COUNT / 20, count("$taskid:[900 TO 1000]"));
+	}
+
+	@Test
+	public void testDoubleField() throws ParseException, IOException {
+		Assert.assertEquals(1, count("_amount:0.5"));
+		Assert.assertEquals(3, count("_amount:[0 TO 1]"));
+		Assert.assertEquals(1, count("_amount:{0 TO 1}"));
+	}
+
+	@Test
+	public void testDateField() throws ParseException, IOException {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(new Date(now.getTime() - 7 * DAY));
+		String lastWeek = new SimpleDateFormat("yyyyMMddHHmmss").format(cal.getTime());
+		// 7 days = 169 workitems (including the first and the last hour)
+		int hits = count("datdue:[" + lastWeek + " TO *]");
+		Assert.assertTrue(hits >= 168 && hits <= 169);
+		Assert.assertEquals(hits, count("txtdate:[" + lastWeek + " TO 99999999999999]"));
+		Assert.assertEquals(COUNT, count("datdue:[19700101 TO *]"));
+	}
+
+	/**
+	 * The keyword field $modified of an existing index has sorted DocValues. The
+	 * typed field is indexed in a separate lucene field, so the index can be
+	 * switched to a typed $modified by updating the existing documents.
+	 */
+	@Test
+	public void testSwitchToTypedField() throws ParseException, IOException {
+		RAMDirectory typedDirectory = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(typedDirectory, new IndexWriterConfig(new ClassicAnalyzer()));
+		try {
+			for (int i = 0; i < 100; i++) {
+				writer.addDocument(updateService.createDocument(createModifiedWorkitem(i)));
+			}
+			writer.commit();
+
+			Properties properties = new Properties();
+			properties.setProperty("lucence.flushInterval", "0");
+			properties.setProperty("lucence.indexFieldListDate", "$modified");
+			Mockito.when(updateService.propertyService.getProperties()).thenReturn(properties);
+			updateService.init();
+			Assert.assertTrue(updateService.getIndexFieldListDate().contains("$modified"));
+			for (int i = 0; i < 100; i++) {
+				writer.updateDocument(new Term("$uniqueid", "" + i),
+						updateService.createDocument(createModifiedWorkitem(i)));
+			}
+			writer.commit();
+		} finally {
+			writer.close();
+		}
+
+		IndexSearcher typedSearcher = new IndexSearcher(DirectoryReader.open(typedDirectory));
+		try {
+			String from = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date(now.getTime() - 10 * DAY));
+			Assert.assertEquals(100, typedSearcher.count(parse("$modified:[* TO *]")));
+			Assert.assertEquals(11, typedSearcher.count(parse("$modified:[" + from + " TO *]")));
+			// the keyword field still matches prefix queries
+			Assert.assertEquals(100, typedSearcher.count(parse("$modified:" + from.substring(0, 2) + "*")));
+
+			Sort sort = new Sort(searchService.createSortField("$modified", false));
+			TopDocs topDocs = typedSearcher.search(parse("$modified:[* TO *]"), 1, sort);
+			Assert.assertEquals("99", typedSearcher.doc(topDocs.scoreDocs[0].doc).get("$uniqueid"));
+		} finally {
+			typedSearcher.getIndexReader().close();
+			typedDirectory.close();
+		}
+	}
+
+	@Test(expected = ParseException.class)
+	public void testInvalidDate() throws ParseException, IOException {
+		count("datdue:[2018-01-01 TO *]");
+	}
+
+	@Test(expected = ParseException.class)
+	public void testInvalidNumber() throws ParseException, IOException {
+		count("$taskid:abc");
+	}
+
+	/**
+	 * Typed fields are sorted numerically.
+	 */
+	@Test
+	public void testSort() throws ParseException, IOException {
+		Sort sort = new Sort(searchService.createSortField("_amount", true));
+		TopDocs topDocs = searcher.search(parse("$taskid:1000"), 3, sort);
+		Assert.assertEquals("" + (COUNT - 20), searcher.doc(topDocs.scoreDocs[0].doc).get("$uniqueid"));
+		Assert.assertEquals("" + (COUNT - 40), searcher.doc(topDocs.scoreDocs[1].doc).get("$uniqueid"));
+
+		sort = new Sort(searchService.createSortField("datDue", false));
+		topDocs = searcher.search(parse("$taskid:[* TO *]"), 1, sort);
+		Assert.assertEquals("" + (COUNT - 1), searcher.doc(topDocs.scoreDocs[0].doc).get("$uniqueid"));
+	}
+
+	/**
+	 * Compares a term range query on a keyword date field with a point range query
+	 * on a typed date field.
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() throws ParseException, IOException {
+		String from = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date(now.getTime() - 300 * DAY));
+		int count = 200;
+		QueryParser keywordParser = new QueryParser("content", new KeywordAnalyzer());
+
+		long l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			searcher.count(keywordParser.parse("txtdate:[" + from + " TO 99999999999999]"));
+		}
+		long keyword = System.currentTimeMillis() - l;
+
+		l = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			searcher.count(parse("datdue:[" + from + " TO *]"));
+		}
+		long typed = System.currentTimeMillis() - l;
+
+		logger.info("Performancetest TypedQueryParser: " + count + " range queries on " + COUNT
+				+ " documents, keyword field=" + keyword + "ms point field=" + typed + "ms");
+	}
+
+	/**
+	 * The item $nextdue is a typed date field by default. The query of the
+	 * WorkflowSchedulerService selects workitems with a $nextdue before now and
+	 * workitems without a $nextdue, but not all workitems of the task.
+	 */
+	@Test
+	public void testNextDue() throws ParseException, IOException {
+		Assert.assertTrue(updateService.getIndexFieldListDate().contains("$nextdue"));
+
+		// 1% of the workitems are in due, 10 workitems have no $nextdue
+		int count = 2000;
+		RAMDirectory dueDirectory = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dueDirectory, new IndexWriterConfig(new ClassicAnalyzer()));
+		for (int i = 0; i < count; i++) {
+			ItemCollection workitem = new ItemCollection();
+			workitem.replaceItemValue(WorkflowKernel.UNIQUEID, "" + i);
+			workitem.replaceItemValue("$processid", 1000);
+			workitem.replaceItemValue("$modelversion", "1.0.0");
+			if (i >= 10) {
+				workitem.replaceItemValue("$nextdue", new Date(now.getTime() + ((i % 100 == 0) ? -DAY : DAY)));
+			}
+			writer.addDocument(updateService.createDocument(workitem));
+		}
+		writer.close();
+		IndexSearcher dueSearcher = new IndexSearcher(DirectoryReader.open(dueDirectory));
+		try {
+			String scanQuery = "($processid:\"1000\" AND $modelversion:\"1.0.0\")";
+			String dueQuery = "($processid:\"1000\" AND $modelversion:\"1.0.0\" AND ($nextdue:[* TO "
+					+ new SimpleDateFormat("yyyyMMddHHmmss").format(now) + "] OR (*:* -$nextdue:[* TO *])))";
+			Assert.assertEquals(count, dueSearcher.count(parse(scanQuery)));
+			Assert.assertEquals(count / 100 - 1 + 10, dueSearcher.count(parse(dueQuery)));
+		} finally {
+			dueSearcher.getIndexReader().close();
+			dueDirectory.close();
+		}
+	}
+
+	private ItemCollection createModifiedWorkitem(int i) {
+		ItemCollection workitem = new ItemCollection();
+		workitem.replaceItemValue(WorkflowKernel.UNIQUEID, "" + i);
+		workitem.replaceItemValue("$modified", new Date(now.getTime() - i * DAY));
+		return workitem;
+	}
+
+	private int count(String query) throws ParseException, IOException {
+		return searcher.count(parse(query));
+	}
+
+	private org.apache.lucene.search.Query parse(String query) throws ParseException {
+		return searchService.createQueryParser(new Properties()).parse(query);
+	}
+}
@@ -26,11 +26,24 @@
  *******************************************************************************/
 package org.imixs.workflow.jaxrs.v40;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
+
+import org.imixs.workflow.ItemCollection;
 
 /**
  * The DocumentCollection represents a list of XMLItemCollections to be used by
  * JAXB api
+ * <p>
+ * A DocumentCollection created from a collection or a stream of
+ * ItemCollections converts the documents not before the method getDocument()
+ * is called. The DocumentCollectionWriter uses the source documents to stream
+ * a collection document by document. A stream is read only once and closed
+ * after the collection was written.
  * 
  * @author rsoika
  * @version 0.0.1
@@ -40,17 +53,115 @@ public class DocumentCollection implements java.io.Serializable {
 
 	private static final long serialVersionUID = 1L;
 	private XMLItemCollection[] document;
+	private String cursor;
+	private transient Iterable<ItemCollection> itemCollections;
+	private transient Stream<ItemCollection> stream;
+	private transient List<String> itemNames;
 
 	public DocumentCollection() {
 		setDocument(new XMLItemCollection[] {});
 	}
 
+	/**
+	 * Creates a DocumentCollection from a collection of ItemCollections. The
+	 * documents are converted on demand.
+	 * 
+	 * @param itemCollections
+	 *            - source documents
+	 * @param itemNames
+	 *            - optional list of item names to be converted. If null all items
+	 *            will be converted
+	 */
+	public DocumentCollection(Iterable<ItemCollection> itemCollections, List<String> itemNames) {
+		this.itemCollections = itemCollections;
+		this.itemNames = itemNames;
+	}
+
+	/**
+	 * Creates a DocumentCollection from a stream of ItemCollections. The documents
+	 * are converted on demand and the stream is closed after the documents were
+	 * read.
+	 * 
+	 * @param stream
+	 *            - source documents
+	 * @param itemNames
+	 *            - optional list of item names to be converted. If null all items
+	 *            will be converted
+	 */
+	public DocumentCollection(Stream<ItemCollection> stream, List<String> itemNames) {
+		this.itemCollections = stream::iterator;
+		this.stream = stream;
+		this.itemNames = itemNames;
+	}
+
 	public XMLItemCollection[] getDocument() {
+		if (document == null) {
+			// convert the source documents
+			List<XMLItemCollection> result = new ArrayList<XMLItemCollection>();
+			try {
+				if (itemCollections != null) {
+					for (ItemCollection itemCollection : itemCollections) {
+						result.add(XMLItemCollectionAdapter.putItemCollection(itemCollection, itemNames));
+					}
+				}
+			} finally {
+				close();
+			}
+			document = result.toArray(new XMLItemCollection[result.size()]);
+		}
 		return document;
 	}
 
 	public void setDocument(XMLItemCollection[] entity) {
 		this.document = entity;
+		close();
+		this.itemCollections = null;
+	}
+
+	/**
+	 * Returns the source documents if the collection was not yet converted,
+	 * otherwise null. The source documents of a stream can be iterated only once.
+	 * 
+	 * @return source documents or null
+	 */
+	@XmlTransient
+	public Iterable<ItemCollection> getItemCollections() {
+		return (document == null) ? itemCollections : null;
+	}
+
+	/**
+	 * Closes the source stream of the collection, if any.
+	 */
+	public void close() {
+		if (stream != null) {
+			stream.close();
+			stream = null;
+		}
+	}
+
+	/**
+	 * Returns the optional list of item names to be converted.
+	 * 
+	 * @return list of item names or null
+	 */
+	@XmlTransient
+	public List<String> getItemNames() {
+		return itemNames;
+	}
+
+	/**
+	 * Returns the cursor to read the next page of a search result. The cursor is
+	 * null if the collection is not a page of a cursor search or if it is the last
+	 * page.
+	 * 
+	 * @return cursor or null
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
 	}
 
 	
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ *  Imixs Workflow 
+ *  Copyright (C) 2001, 2011 Imixs Software Solutions GmbH,  
+ *  http://www.imixs.com
+ *  
+ *  This program is free software; you can redistribute it and/or 
+ *  modify it under the terms of the GNU General Public License 
+ *  as published by the Free Software Foundation; either version 2 
+ *  of the License, or (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful, 
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ *  General Public License for more details.
+ *  
+ *  You can receive a copy of the GNU General Public
+ *  License at http://www.gnu.org/licenses/gpl.html
+ *  
+ *  Project: 
+ *  	http://www.imixs.org
+ *  	http://java.net/projects/imixs-workflow
+ *  
+ *  Contributors:  
+ *  	Imixs Software Solutions GmbH - initial API and implementation
+ *  	Ralph Soika - Software Developer
+ *******************************************************************************/
+
+package org.imixs.workflow.jaxrs.v40;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.logging.Logger;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import org.imixs.workflow.ItemCollection;
+import org.imixs.workflow.xml.XSLHandler;
+
+/**
+ * This MessageBodyWriter streams a DocumentCollection in XML or JSON format.
+ * <p>
+ * The documents are converted and written one by one as the writer iterates
+ * the source documents of the collection. So the response is sent to the
+ * client before the last document is converted and no XMLItemCollection array
+ * for the whole collection is created.
+ * <p>
+ * Each document is marshaled by JAXB as a fragment into the stream, so the
+ * document format is the same as for a XMLItemCollection. The JSON format is
+ * written by hand in the format of the JSON business object, with one object
+ * per value holding the xml schema type ('@type') and the value ('$').
+ * 
+ * @author rsoika
+ * @version 1.0
+ */
+@Provider
+@Produces({ MediaType.APPLICATION_XML, MediaType.TEXT_XML, MediaType.APPLICATION_JSON })
+public class DocumentCollectionStreamWriter implements MessageBodyWriter<DocumentCollection> {
+
+	private static Logger logger = Logger.getLogger(DocumentCollectionStreamWriter.class.getName());
+
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return DocumentCollection.class.isAssignableFrom(type) && (mediaType.isCompatible(MediaType.APPLICATION_XML_TYPE)
+				|| mediaType.isCompatible(MediaType.TEXT_XML_TYPE)
+				|| mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE));
+	}
+
+	public void writeTo(DocumentCollection documentCollection, Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders,
+			OutputStream entityStream) throws IOException, WebApplicationException {
+		String encoding = mediaType.getParameters().get("charset");
+		if (encoding == null || encoding.isEmpty()) {
+			encoding = "UTF-8";
+		}
+		try {
+			if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+				writeJSON(documentCollection, entityStream, encoding);
+			} else {
+				writeXML(documentCollection, entityStream, encoding);
+			}
+		} finally {
+			documentCollection.close();
+		}
+	}
+
+	public long getSize(DocumentCollection documentCollection, Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType) {
+		return -1;
+	}
+
+	/**
+	 * Writes the collection in XML format. The root element and the cursor are
+	 * written directly into the stream, the documents are marshaled as XML
+	 * fragments.
+	 * 
+	 * @param documentCollection
+	 * @param entityStream
+	 * @param encoding
+	 * @throws IOException
+	 */
+	public static void writeXML(DocumentCollection documentCollection, OutputStream entityStream, String encoding)
+			throws IOException {
+		try {
+			Marshaller marshaller = XSLHandler.getJAXBContext(XMLItemCollection.class).createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+			marshaller.setProperty(Marshaller.JAXB_ENCODING, encoding);
+
+			entityStream.write(("<?xml version=\"1.0\" encoding=\"" + encoding + "\" standalone=\"yes\"?><collection>")
+					.getBytes(encoding));
+			Iterable<ItemCollection> itemCollections = documentCollection.getItemCollections();
+			if (itemCollections != null) {
+				for (ItemCollection itemCollection : itemCollections) {
+					marshaller.marshal(
+							XMLItemCollectionAdapter.putItemCollection(itemCollection,
+									documentCollection.getItemNames()),
+							entityStream);
+				}
+			} else {
+				for (XMLItemCollection xmlItemCollection : documentCollection.getDocument()) {
+					marshaller.marshal(xmlItemCollection, entityStream);
+				}
+			}
+			if (documentCollection.getCursor() != null) {
+				entityStream.write(("<cursor>" + escapeXML(documentCollection.getCursor()) + "</cursor>")
+						.getBytes(encoding));
+			}
+			entityStream.write("</collection>".getBytes(encoding));
+			entityStream.flush();
+		} catch (JAXBException e) {
+			logger.severe("unable to write DocumentCollection: " + e.getMessage());
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Writes the collection in JSON format. Each document is converted and written
+	 * as an object with the property 'item' while the source documents are
+	 * iterated. A single value is written as an object, a list of values as an
+	 * array of objects:
+	 * 
+	 * <code>
+	 * {"document":[
+	 *   {"item":[
+	 *     {"name":"$taskid","value":{"@type":"xs:int","$":"1000"}},
+	 *     {"name":"txtlist","value":[{"@type":"xs:string","$":"a"},{"@type":"xs:string","$":"b"}]}
+	 *   ]}
+	 * ],"cursor":"..."}
+	 * </code>
+	 * 
+	 * @param documentCollection
+	 * @param entityStream
+	 * @param encoding
+	 * @throws IOException
+	 */
+	public static void writeJSON(DocumentCollection documentCollection, OutputStream entityStream, String encoding)
+			throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(entityStream, encoding));
+		writer.write("{\"document\":[");
+		boolean first = true;
+		Iterable<ItemCollection> itemCollections = documentCollection.getItemCollections();
+		if (itemCollections != null) {
+			for (ItemCollection itemCollection : itemCollections) {
+				if (!first) {
+					writer.write(',');
+				}
+				first = false;
+				writeJSONItems(XMLItemCollectionAdapter
+						.putItemCollection(itemCollection, documentCollection.getItemNames()).getItem(), writer);
+			}
+		} else {
+			for (XMLItemCollection xmlItemCollection : documentCollection.getDocument()) {
+				if (!first) {
+					writer.write(',');
+				}
+				first = false;
+				writeJSONItems(xmlItemCollection.getItem(), writer);
+			}
+		}
+		writer.write(']');
+		if (documentCollection.getCursor() != null) {
+			writer.write(",\"cursor\":");
+			writeJSONString(documentCollection.getCursor(), writer);
+		}
+		writer.write('}');
+		writer.flush();
+	}
+
+	private static void writeJSONItems(XMLItem[] items, Writer writer) throws IOException {
+		writer.write("{\"item\":[");
+		if (items != null) {
+			boolean first = true;
+			for (XMLItem item : items) {
+				// an item with a null value is not converted
+				if (item == null) {
+					continue;
+				}
+				if (!first) {
+					writer.write(',');
+				}
+				first = false;
+				writeJSONItem(item, writer);
+			}
+		}
+		writer.write("]}");
+	}
+
+	private static void writeJSONItem(XMLItem item, Writer writer) throws IOException {
+		writer.write('{');
+		if (item.getName() != null) {
+			writer.write("\"name\":");
+			writeJSONString(item.getName(), writer);
+			writer.write(',');
+		}
+		writer.write("\"value\":");
+		Object[] values = item.getValue();
+		if (values != null && values.length == 1) {
+			writeJSONValue(values[0], writer);
+		} else {
+			writer.write('[');
+			if (values != null) {
+				for (int i = 0; i < values.length; i++) {
+					if (i > 0) {
+						writer.write(',');
+					}
+					writeJSONValue(values[i], writer);
+				}
+			}
+			writer.write(']');
+		}
+		writer.write('}');
+	}
+
+	/**
+	 * Writes a single value with its xml schema type. Embedded lists and maps
+	 * (XMLItem and XMLItem arrays) are written as nested items.
+	 */
+	private static void writeJSONValue(Object value, Writer writer) throws IOException {
+		if (value == null) {
+			writer.write("null");
+			return;
+		}
+		if (value instanceof XMLItem) {
+			writeJSONItem((XMLItem) value, writer);
+			return;
+		}
+		if (value instanceof XMLItem[]) {
+			writeJSONItems((XMLItem[]) value, writer);
+			return;
+		}
+		String type;
+		String text;
+		if (value instanceof Date) {
+			GregorianCalendar cal = new GregorianCalendar();
+			cal.setTime((Date) value);
+			type = "xs:dateTime";
+			text = DatatypeConverter.printDateTime(cal);
+		} else if (value instanceof byte[]) {
+			type = "xs:base64Binary";
+			text = DatatypeConverter.printBase64Binary((byte[]) value);
+		} else {
+			type = getSchemaType(value);
+			text = value.toString();
+		}
+		writer.write("{\"@type\":\"" + type + "\",\"$\":");
+		writeJSONString(text, writer);
+		writer.write('}');
+	}
+
+	private static String getSchemaType(Object value) {
+		if (value instanceof Integer) {
+			return "xs:int";
+		}
+		if (value instanceof Long) {
+			return "xs:long";
+		}
+		if (value instanceof Double) {
+			return "xs:double";
+		}
+		if (value instanceof Float) {
+			return "xs:float";
+		}
+		if (value instanceof Boolean) {
+			return "xs:boolean";
+		}
+		if (value instanceof Short) {
+			return "xs:short";
+		}
+		if (value instanceof Byte) {
+			return "xs:byte";
+		}
+		if (value instanceof BigDecimal) {
+			return "xs:decimal";
+		}
+		if (value instanceof BigInteger) {
+			return "xs:integer";
+		}
+		return "xs:string";
+	}
+
+	private static void writeJSONString(String text, Writer writer) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				writer.write("\\\"");
+				break;
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					writer.write(String.format("\\u%04x", (int) c));
+				} else {
+					writer.write(c);
+				}
+			}
+		}
+		writer.write('"');
+	}
+
+	private static String escapeXML(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
@@ -33,6 +33,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.util.Collection;
 
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
@@ -41,6 +42,8 @@ import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
 
+import org.imixs.workflow.ItemCollection;
+
 
 
 /**
@@ -73,15 +76,35 @@ public class DocumentCollectionWriter implements MessageBodyWriter<DocumentColle
 		bw.write("<body>");
 		try {
 			bw.write("<h1>EntityCollection</h1>");
-			bw.write("<h2>" + entityCollection.getDocument().length + " Entries</h2>");
+			Iterable<ItemCollection> itemCollections = entityCollection.getItemCollections();
+			if (itemCollections != null) {
+				// convert the documents one by one. The size of a stream is known
+				// after the last document.
+				if (itemCollections instanceof Collection) {
+					bw.write("<h2>" + ((Collection<ItemCollection>) itemCollections).size() + " Entries</h2>");
+				}
+				int count = 0;
+				for (ItemCollection itemCollection : itemCollections) {
+					XMLItemCollectionWriter.printXMLItemCollectionHTML(bw, XMLItemCollectionAdapter
+							.putItemCollection(itemCollection, entityCollection.getItemNames()));
+					count++;
+				}
+				if (!(itemCollections instanceof Collection)) {
+					bw.write("<h2>" + count + " Entries</h2>");
+				}
+			} else {
+				bw.write("<h2>" + entityCollection.getDocument().length + " Entries</h2>");
 
-			for (XMLItemCollection xmlworkItem : entityCollection.getDocument()) {
-				XMLItemCollectionWriter.printXMLItemCollectionHTML(bw, xmlworkItem);
+				for (XMLItemCollection xmlworkItem : entityCollection.getDocument()) {
+					XMLItemCollectionWriter.printXMLItemCollectionHTML(bw, xmlworkItem);
 
+				}
 			}
 		} catch (Exception e) {
 			bw.write("ERROR<br>");
 			//e.printStackTrace(bw.);
+		} finally {
+			entityCollection.close();
 		}
 		
 
@@ -59,6 +59,7 @@ import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.WorkflowKernel;
 import org.imixs.workflow.engine.DocumentService;
 import org.imixs.workflow.engine.lucene.LuceneSearchService;
+import org.imixs.workflow.engine.lucene.SearchResult;
 import org.imixs.workflow.engine.lucene.LuceneUpdateService;
 import org.imixs.workflow.exceptions.AccessDeniedException;
 import org.imixs.workflow.exceptions.InvalidAccessException;
@@ -167,11 +168,16 @@ public class DocumentRestServiceV40 {
 
 	/**
 	 * Returns a resultset for a lucene Search Query
+	 * <p>
+	 * If the param 'cursor' is provided, the page is addressed by the cursor
+	 * instead of the pageIndex. An empty cursor returns the first page. The
+	 * collection contains the cursor to read the next page.
 	 * 
 	 * @param query
 	 * @param pageSize
 	 * @param pageIndex
 	 * @param items
+	 * @param cursor
 	 * @return
 	 */
 	@GET
@@ -179,13 +185,24 @@ public class DocumentRestServiceV40 {
 	public DocumentCollection findDocumentsByQuery(@PathParam("query") String query,
 			@DefaultValue("-1") @QueryParam("pageSize") int pageSize,
 			@DefaultValue("0") @QueryParam("pageIndex") int pageIndex, @QueryParam("sortBy") String sortBy,
-			@QueryParam("sortReverse") boolean sortReverse, @QueryParam("items") String items) {
+			@QueryParam("sortReverse") boolean sortReverse, @QueryParam("items") String items,
+			@QueryParam("cursor") String cursor) {
 		Collection<ItemCollection> col = null;
 		try {
 			// decode query...
 			String decodedQuery = URLDecoder.decode(query, "UTF-8");
-			col = documentService.find(decodedQuery, pageSize, pageIndex, sortBy, sortReverse);
-			return XMLItemCollectionAdapter.putCollection(col, getItemList(items));
+			List<String> itemList = getItemList(items);
+			if (cursor != null) {
+				SearchResult result = documentService.findAfter(decodedQuery, pageSize, cursor, sortBy, sortReverse,
+						itemList);
+				DocumentCollection documentCollection = XMLItemCollectionAdapter.putCollection(result.getDocuments(),
+						itemList);
+				documentCollection.setCursor(result.getCursor());
+				return documentCollection;
+			}
+			// the items can be read from the lucene index if stored
+			col = documentService.find(decodedQuery, pageSize, pageIndex, sortBy, sortReverse, itemList);
+			return XMLItemCollectionAdapter.putCollection(col, itemList);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
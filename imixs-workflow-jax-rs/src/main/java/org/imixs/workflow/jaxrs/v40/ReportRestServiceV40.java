@@ -27,12 +27,9 @@
 
 package org.imixs.workflow.jaxrs.v40;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.StringWriter;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -63,13 +60,12 @@ import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
+import javax.xml.bind.util.JAXBSource;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.fop.apps.FOUserAgent;
@@ -79,6 +75,7 @@ import org.apache.fop.apps.MimeConstants;
 import org.imixs.workflow.ItemCollection;
 import org.imixs.workflow.engine.DocumentService;
 import org.imixs.workflow.engine.ReportService;
+import org.imixs.workflow.exceptions.QueryException;
 import org.imixs.workflow.xml.XSLHandler;
 
 /**
@@ -195,9 +192,12 @@ public class ReportRestServiceV40 {
 	public Response getExcecuteReport(@PathParam("name") String reportName,
 			@DefaultValue("1000") @QueryParam("pageSize") int pageSize,
 			@DefaultValue("0") @QueryParam("pageIndex") int pageIndex, @QueryParam("sortBy") String sortBy,
-			@QueryParam("sortReverse") boolean sortReverse, @DefaultValue("") @QueryParam("encoding") String encoding,
+			@QueryParam("sortReverse") boolean sortReverse, @QueryParam("export") boolean export,
+			@DefaultValue("") @QueryParam("encoding") String encoding,
 			@Context UriInfo uriInfo) {
-		Collection<ItemCollection> col = null;
+		DocumentCollection documentCollection = null;
+		// true if the collection is closed by the response
+		boolean responded = false;
 
 		String sXSL;
 		String sContentType;
@@ -217,67 +217,75 @@ public class ReportRestServiceV40 {
 
 			// if no encoding is provided by the query string than the encoding
 			// from the report will be taken
-			if ("".equals(encoding))
+			if (encoding == null || "".equals(encoding))
 				encoding = itemCol.getItemValueString("encoding");
 			// no encoding defined so take a default encoding
 			// (UTF-8)
 			if ("".equals(encoding))
 				encoding = "UTF-8";
 
+			// The XSL template is compiled before the report is executed, so an
+			// invalid template is reported before the response is committed.
+			if (!"".equals(sXSL)) {
+				try {
+					XSLHandler.getTemplates(sXSL);
+				} catch (TransformerException e) {
+					logger.severe("Report '" + reportName + "' invalid XSL template: " + e.getMessage());
+					return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+				}
+			}
+
 			// execute report
 			Map<String, String> params = getQueryParams(uriInfo);
-			col = reportService.executeReport(reportName, pageSize, pageIndex, sortBy, sortReverse, params);
+			documentCollection = executeReport(reportName, pageSize, pageIndex, sortBy, sortReverse, export, params);
 
 			// if no XSL is provided return standard html format...?
 			if ("".equals(sXSL)) {
-				Response.ResponseBuilder builder = Response.ok(XMLItemCollectionAdapter.putCollection(col),
-						"text/html");
+				Response.ResponseBuilder builder = Response.ok(documentCollection, "text/html");
+				responded = true;
 				return builder.build();
 			}
 
-			// Transform XML per XSL and generate output
-			DocumentCollection xmlCol = XMLItemCollectionAdapter.putCollection(col);
-
-			StringWriter writer = new StringWriter();
-
-			JAXBContext context = JAXBContext.newInstance(DocumentCollection.class);
-
-			Marshaller m = context.createMarshaller();
-			m.setProperty("jaxb.encoding", encoding);
-			m.marshal(xmlCol, writer);
-
-			// create a ByteArray Output Stream
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			try {
-				// test if FOP Tranformation
-				if ("application/pdf".equals(sContentType.toLowerCase()))
-					ReportRestServiceV40.fopTranformation(writer.toString(), sXSL, encoding, outputStream);
-				else
-					XSLHandler.transform(writer.toString(), sXSL, encoding, outputStream);
-			} finally {
-				outputStream.close();
+			// Transform XML per XSL and stream the output. The transformer reads
+			// the complete source tree, so the documents are converted at once.
+			final DocumentCollection xmlCollection = documentCollection;
+			final JAXBSource xmlSource = new JAXBSource(XSLHandler.getJAXBContext(DocumentCollection.class),
+					xmlCollection);
+			final String xslSource = sXSL;
+			final String outputEncoding = encoding;
+			final boolean fop = "application/pdf".equals(sContentType.toLowerCase());
+			StreamingOutput output = new StreamingOutput() {
+				public void write(OutputStream out) throws IOException, WebApplicationException {
+					try {
+						// test if FOP Tranformation
+						if (fop)
+							ReportRestServiceV40.fopTranformation(xmlSource, xslSource, out);
+						else
+							XSLHandler.transform(xmlSource, xslSource, outputEncoding, new StreamResult(out));
+					} catch (Exception e) {
+						// the status is already committed, so the stream is aborted
+						logger.severe("Report '" + reportName + "' transformation failed, output aborted: "
+								+ e.getMessage());
+						throw new WebApplicationException(e);
+					} finally {
+						xmlCollection.close();
+					}
+				}
+			};
+			// the output encoding of a text report is set as the character encoding
+			if (!fop && !sContentType.toLowerCase().contains("charset=")) {
+				sContentType = sContentType + "; charset=" + encoding;
 			}
-
-			/*
-			 * outputStream.toByteArray() did not work here because the encoding
-			 * will not be considered. For that reason we use the
-			 * toString(encoding) method here.
-			 * 
-			 * 8.9.2012:
-			 * 
-			 * after some tests we see that only toByteArray will work on things
-			 * like fop processing. So for that reason we switched back to the
-			 * toByteArray method again. But we still need to solve the encoding
-			 * issue
-			 */
-
-			Response.ResponseBuilder builder = Response.ok(outputStream.toByteArray(), sContentType);
-			// Response.ResponseBuilder builder = Response.ok(
-			// outputStream.toString(encoding), sContentType);
-			return builder.build();
+			Response response = Response.ok(output, sContentType).build();
+			responded = true;
+			return response;
 		} catch (Exception e) {
 			e.printStackTrace();
-
+		} finally {
+			// a stream backed collection holds a searcher until it is closed
+			if (!responded && documentCollection != null) {
+				documentCollection.close();
+			}
 		}
 
 		return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
@@ -297,9 +305,10 @@ public class ReportRestServiceV40 {
 	public Response getPdfReport(@PathParam("name") String reportName,
 			@DefaultValue("1000") @QueryParam("pageSize") int pageSize,
 			@DefaultValue("0") @QueryParam("pageIndex") int pageIndex, @QueryParam("sortBy") String sortBy,
-			@QueryParam("sortReverse") boolean sortReverse, @DefaultValue("") @QueryParam("encoding") String encoding,
+			@QueryParam("sortReverse") boolean sortReverse, @QueryParam("export") boolean export,
+			@DefaultValue("") @QueryParam("encoding") String encoding,
 			@Context UriInfo uriInfo) {
-		return this.getExcecuteReport(reportName, pageSize, pageIndex, sortBy, sortReverse, encoding, uriInfo);
+		return this.getExcecuteReport(reportName, pageSize, pageIndex, sortBy, sortReverse, export, encoding, uriInfo);
 	}
 
 	/**
@@ -318,10 +327,9 @@ public class ReportRestServiceV40 {
 	public DocumentTable getHTMLResult(@PathParam("name") String reportName,
 			@DefaultValue("1000") @QueryParam("pageSize") int pageSize,
 			@DefaultValue("0") @QueryParam("pageIndex") int pageIndex, @QueryParam("sortBy") String sortBy,
-			@QueryParam("sortReverse") boolean sortReverse, @DefaultValue("") @QueryParam("encoding") String encoding,
+			@QueryParam("sortReverse") boolean sortReverse, @QueryParam("export") boolean export,
+			@DefaultValue("") @QueryParam("encoding") String encoding,
 			@Context UriInfo uriInfo, @Context HttpServletResponse servlerResponse) {
-		Collection<ItemCollection> col = null;
-
 		try {
 			ItemCollection report = reportService.getReport(reportName);
 			List<List<String>> attributes = (List<List<String>>) report.getItemValue("attributes");
@@ -338,9 +346,8 @@ public class ReportRestServiceV40 {
 
 			// execute report
 			Map<String, String> params = getQueryParams(uriInfo);
-			col = reportService.executeReport(reportName, pageSize, pageIndex, sortBy, sortReverse, params);
-
-			DocumentCollection documentCollection = XMLItemCollectionAdapter.putCollection(col);
+			DocumentCollection documentCollection = executeReport(reportName, pageSize, pageIndex, sortBy,
+					sortReverse, export, params);
 			DocumentTable documentTable = new DocumentTable(documentCollection.getDocument(), items, labels);
 			// documentTable.setDocument(documentCollection.getDocument());
 
@@ -380,15 +387,15 @@ public class ReportRestServiceV40 {
 	public DocumentCollection getXMLResult(@PathParam("name") String reportName,
 			@DefaultValue("100") @QueryParam("pageSize") int pageSize,
 			@DefaultValue("0") @QueryParam("pageIndex") int pageIndex, @QueryParam("sortBy") String sortBy,
-			@QueryParam("sortReverse") boolean sortReverse, @DefaultValue("") @QueryParam("encoding") String encoding,
+			@QueryParam("sortReverse") boolean sortReverse, @QueryParam("export") boolean export,
+			@DefaultValue("") @QueryParam("encoding") String encoding,
 
 			@Context UriInfo uriInfo, @Context HttpServletResponse servlerResponse) throws Exception {
-		Collection<ItemCollection> col = null;
-
+		DocumentCollection documentCollection = null;
 		try {
 			// execute report
 			Map<String, String> params = getQueryParams(uriInfo);
-			col = reportService.executeReport(reportName, pageSize, pageIndex, sortBy, sortReverse, params);
+			documentCollection = executeReport(reportName, pageSize, pageIndex, sortBy, sortReverse, export, params);
 
 			// set content type and character encoding
 			if (encoding == null || encoding.isEmpty()) {
@@ -397,10 +404,13 @@ public class ReportRestServiceV40 {
 			logger.fine("set encoding :" + encoding);
 			servlerResponse.setContentType(MediaType.APPLICATION_XML + "; charset=" + encoding);
 
-			return XMLItemCollectionAdapter.putCollection(col);
+			return documentCollection;
 
 		} catch (Exception e) {
 			e.printStackTrace();
+			if (documentCollection != null) {
+				documentCollection.close();
+			}
 		}
 		return null;
 	}
@@ -426,13 +436,12 @@ public class ReportRestServiceV40 {
 
 			@DefaultValue("-1") @QueryParam("pageSize") int pageSize,
 			@DefaultValue("0") @QueryParam("pageIndex") int pageIndex, @QueryParam("sortBy") String sortBy,
-			@QueryParam("sortReverse") boolean sortReverse,
-
+			@QueryParam("sortReverse") boolean sortReverse, @QueryParam("export") boolean export,
 			@DefaultValue("") @QueryParam("encoding") String encoding, @Context UriInfo uriInfo,
 			@Context HttpServletResponse servlerResponse) throws Exception {
 
-		DocumentCollection result = getXMLResult(name, pageSize, pageIndex, sortBy, sortReverse, encoding, uriInfo,
-				servlerResponse);
+		DocumentCollection result = getXMLResult(name, pageSize, pageIndex, sortBy, sortReverse, export, encoding,
+				uriInfo, servlerResponse);
 
 		// set content type and character encoding
 		if (encoding == null || encoding.isEmpty()) {
@@ -502,49 +511,33 @@ public class ReportRestServiceV40 {
 	 */
 	public static void fopTranformation(String xmlSource, String xslSource, String aEncoding, OutputStream output)
 			throws Exception {
+		fopTranformation(new StreamSource(new StringReader(xmlSource)), xslSource, output);
+	}
+
+	/**
+	 * This method dos a apache FOP transformation of a xml source using the
+	 * FopFactory. The XSL template is compiled only once.
+	 * 
+	 * @param xmlSource
+	 * @param xslSource
+	 * @param output
+	 */
+	public static void fopTranformation(Source xmlSource, String xslSource, OutputStream output) throws Exception {
 		// configure fopFactory as desired
 		FopFactory fopFactory = FopFactory.newInstance();
 
 		FOUserAgent foUserAgent = fopFactory.newFOUserAgent();
 		foUserAgent.setBaseURL(fopFactory.getBaseURL());
 
-		// configure foUserAgent as desired
-		// OutputStream out =null;
-		try {
-			// Construct fop with desired output format
-			Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, output);
-
-			// Setup XSLT
-			TransformerFactory factory = TransformerFactory.newInstance();
-			ByteArrayInputStream baisXSL = new ByteArrayInputStream(xslSource.getBytes());
-			InputStreamReader isreaderXSL = new InputStreamReader(baisXSL, aEncoding);
-			Source xslSrc = new StreamSource(isreaderXSL);
-
-			Transformer transformer = factory.newTransformer(xslSrc);
-
-			// Setup input for XSLT transformation
-			ByteArrayInputStream baisXML = new ByteArrayInputStream(xmlSource.getBytes());
-			InputStreamReader isreaderXML;
-
-			isreaderXML = new InputStreamReader(baisXML, aEncoding);
-
-			Source xmlSrc = new StreamSource(isreaderXML);
+		// Construct fop with desired output format
+		Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, output);
 
-			// Resulting SAX events (the generated FO) must be piped through to
-			// FOP
-			Result res = new SAXResult(fop.getDefaultHandler());
-
-			// Start XSLT transformation and FOP processing
-			transformer.transform(xmlSrc, res);
-
-			// return res.toString();
-		} finally {
-
-			// out.close();
-			// output.flush();
-			// output.close();
-		}
+		// Resulting SAX events (the generated FO) must be piped through to
+		// FOP
+		Result res = new SAXResult(fop.getDefaultHandler());
 
+		// Start XSLT transformation and FOP processing
+		XSLHandler.transform(xmlSource, xslSource, res);
 	}
 
 	/**
@@ -579,5 +572,31 @@ public class ReportRestServiceV40 {
 		return result;
 	}
 
+	/**
+	 * Executes a report. If the param export is true the complete result of the
+	 * report is exported and the page is ignored. In this case the collection is
+	 * backed by the report stream and the documents are read while the collection
+	 * is written into the response.
+	 * 
+	 * @param reportName
+	 * @param pageSize
+	 * @param pageIndex
+	 * @param sortBy
+	 * @param sortReverse
+	 * @param export
+	 *            - true to export the complete result
+	 * @param params
+	 * @return result of the report
+	 * @throws QueryException
+	 */
+	private DocumentCollection executeReport(String reportName, int pageSize, int pageIndex, String sortBy,
+			boolean sortReverse, boolean export, Map<String, String> params) throws QueryException {
+		if (export) {
+			return XMLItemCollectionAdapter
+					.putCollection(reportService.streamReport(reportName, sortBy, sortReverse, params), null);
+		}
+		return XMLItemCollectionAdapter
+				.putCollection(reportService.executeReport(reportName, pageSize, pageIndex, sortBy, sortReverse, params));
+	}
 
 }
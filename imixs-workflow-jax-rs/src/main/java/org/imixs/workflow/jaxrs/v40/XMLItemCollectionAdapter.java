@@ -40,6 +40,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Vector;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -136,8 +137,8 @@ public class XMLItemCollectionAdapter {
 	public static XMLItemCollection putItemCollection(final ItemCollection sourceItemCollection,
 			final List<String> itemNames) {
 
-		// create a deep copy of the source
-		ItemCollection aItemCollection = (ItemCollection) sourceItemCollection.clone();
+		// no deep copy, see XMLDocumentAdapter.getDocument
+		ItemCollection aItemCollection = sourceItemCollection;
 
 		String itemName = null;
 		XMLItemCollection entity = new XMLItemCollection();
@@ -243,6 +244,9 @@ public class XMLItemCollectionAdapter {
 	 * If the attribute List is provided only the corresponding properties will be
 	 * returned.
 	 * 
+	 * The documents are not converted before they are written by the
+	 * DocumentCollectionWriter or requested by the method getDocument().
+	 * 
 	 * @param col
 	 *            - collection of ItemCollection objects to be converted
 	 * @param itemNames
@@ -251,20 +255,26 @@ public class XMLItemCollectionAdapter {
 	 * @return
 	 */
 	public static DocumentCollection putCollection(final Collection<ItemCollection> col, final List<String> itemNames) {
-		DocumentCollection entiCol = new DocumentCollection();
-		Iterator<ItemCollection> it = col.iterator();
-		int max = col.size();
-		int i = 0;
-		XMLItemCollection[] entities = new XMLItemCollection[max];
-		while (it.hasNext()) {
-			ItemCollection icw = (ItemCollection) it.next();
-			XMLItemCollection entity = putItemCollection(icw, itemNames);
-			entities[i] = entity;
-			i++;
-		}
-		if (max > 0)
-			entiCol.setDocument(entities);
-		return entiCol;
+		// the documents are converted on demand
+		return new DocumentCollection(col, itemNames);
+	}
+
+	/**
+	 * This method transforms a Stream<ItemCollection> into a EntityCollection.
+	 * 
+	 * The documents are read from the stream not before they are written by the
+	 * DocumentCollectionWriter or requested by the method getDocument(). The
+	 * stream is closed after the documents were read.
+	 * 
+	 * @param stream
+	 *            - stream of ItemCollection objects to be converted
+	 * @param itemNames
+	 *            - optional list of item names to be converted. If null all items
+	 *            will be converted
+	 * @return
+	 */
+	public static DocumentCollection putCollection(final Stream<ItemCollection> stream, final List<String> itemNames) {
+		return new DocumentCollection(stream, itemNames);
 	}
 
 	/**
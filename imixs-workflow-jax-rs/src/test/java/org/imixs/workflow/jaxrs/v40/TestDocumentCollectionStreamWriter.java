@@ -0,0 +1,274 @@
+package org.imixs.workflow.jaxrs.v40;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import org.imixs.workflow.ItemCollection;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Test class for the DocumentCollectionStreamWriter. The test verifies that the
+ * streamed XML can be read by JAXB and that the streamed JSON has the format of
+ * the JSON business object. The performance test compares the streaming with the marshaling of
+ * a complete DocumentCollection.
+ * 
+ * @author rsoika
+ */
+public class TestDocumentCollectionStreamWriter {
+	private static Logger logger = Logger.getLogger(TestDocumentCollectionStreamWriter.class.getName());
+
+	/**
+	 * The streamed XML is equal to the DocumentCollection marshaled by JAXB. The
+	 * source documents are not modified.
+	 */
+	@Test
+	public void testXML() throws IOException, JAXBException {
+		List<ItemCollection> documents = new ArrayList<ItemCollection>();
+		for (int i = 0; i < 3; i++) {
+			documents.add(createDocument(i));
+		}
+		ItemCollection copy = new ItemCollection(documents.get(0));
+
+		DocumentCollection documentCollection = XMLItemCollectionAdapter.putCollection(documents);
+		documentCollection.setCursor("abc");
+		Assert.assertNotNull(documentCollection.getItemCollections());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DocumentCollectionStreamWriter.writeXML(documentCollection, out, "UTF-8");
+		Assert.assertNotNull(documentCollection.getItemCollections());
+
+		DocumentCollection result = (DocumentCollection) JAXBContext.newInstance(DocumentCollection.class)
+				.createUnmarshaller().unmarshal(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertEquals("abc", result.getCursor());
+		List<ItemCollection> resultDocuments = XMLItemCollectionAdapter.getCollection(result);
+		Assert.assertEquals(3, resultDocuments.size());
+		for (int i = 0; i < 3; i++) {
+			assertItemsEquals(XMLItemCollectionAdapter
+					.getItemCollection(XMLItemCollectionAdapter.putItemCollection(documents.get(i))),
+					resultDocuments.get(i));
+		}
+		assertItemsEquals(copy, documents.get(0));
+
+		// a list of item names
+		documentCollection = XMLItemCollectionAdapter.putCollection(documents, Arrays.asList("txtname", "_count"));
+		out = new ByteArrayOutputStream();
+		DocumentCollectionStreamWriter.writeXML(documentCollection, out, "UTF-8");
+		result = (DocumentCollection) JAXBContext.newInstance(DocumentCollection.class).createUnmarshaller()
+				.unmarshal(new ByteArrayInputStream(out.toByteArray()));
+		Assert.assertNull(result.getCursor());
+		Assert.assertEquals(2, result.getDocument()[1].getItem().length);
+		Assert.assertEquals("Document 1", XMLItemCollectionAdapter.getCollection(result).get(1)
+				.getItemValueString("txtname"));
+	}
+
+	/**
+	 * A single value is written as an object with the type and the value, a list
+	 * of values as an array. The cursor follows the documents.
+	 */
+	@Test
+	public void testJSON() throws IOException {
+		List<ItemCollection> documents = new ArrayList<ItemCollection>();
+		for (int i = 0; i < 2; i++) {
+			documents.add(createDocument(i));
+		}
+		DocumentCollection documentCollection = XMLItemCollectionAdapter.putCollection(documents,
+				Arrays.asList("_count", "_flag", "txtlog", "txtname"));
+		documentCollection.setCursor("a\"b");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new DocumentCollectionStreamWriter().writeTo(documentCollection, DocumentCollection.class, null, null,
+				MediaType.APPLICATION_JSON_TYPE, null, out);
+
+		Assert.assertEquals("{\"document\":["
+				+ "{\"item\":[{\"name\":\"_count\",\"value\":{\"@type\":\"xs:int\",\"$\":\"0\"}},"
+				+ "{\"name\":\"_flag\",\"value\":{\"@type\":\"xs:boolean\",\"$\":\"true\"}},"
+				+ "{\"name\":\"txtlog\",\"value\":[{\"@type\":\"xs:string\",\"$\":\"A\"},"
+				+ "{\"@type\":\"xs:string\",\"$\":\"B\"},{\"@type\":\"xs:string\",\"$\":\"C\"}]},"
+				+ "{\"name\":\"txtname\",\"value\":{\"@type\":\"xs:string\",\"$\":\"Document 0\"}}]},"
+				+ "{\"item\":[{\"name\":\"_count\",\"value\":{\"@type\":\"xs:int\",\"$\":\"1\"}},"
+				+ "{\"name\":\"_flag\",\"value\":{\"@type\":\"xs:boolean\",\"$\":\"true\"}},"
+				+ "{\"name\":\"txtlog\",\"value\":[{\"@type\":\"xs:string\",\"$\":\"A\"},"
+				+ "{\"@type\":\"xs:string\",\"$\":\"B\"},{\"@type\":\"xs:string\",\"$\":\"C\"}]},"
+				+ "{\"name\":\"txtname\",\"value\":{\"@type\":\"xs:string\",\"$\":\"Document 1\"}}]}"
+				+ "],\"cursor\":\"a\\\"b\"}", out.toString("UTF-8"));
+
+		// all value types of a document
+		out = new ByteArrayOutputStream();
+		DocumentCollectionStreamWriter.writeJSON(XMLItemCollectionAdapter.putCollection(documents), out, "UTF-8");
+		String json = out.toString("UTF-8");
+		Assert.assertTrue(json.contains("{\"name\":\"_data\",\"value\":{\"@type\":\"xs:base64Binary\",\"$\":\"AQIA\"}}"));
+		Assert.assertTrue(json.contains("{\"name\":\"_empty\",\"value\":null}"));
+		Assert.assertTrue(json.contains("{\"name\":\"_date\",\"value\":{\"@type\":\"xs:dateTime\",\"$\":\"2017-07-1"));
+		Assert.assertFalse(json.contains("cursor"));
+	}
+
+	/**
+	 * The writer streams XML and JSON.
+	 */
+	@Test
+	public void testIsWriteable() {
+		DocumentCollectionStreamWriter writer = new DocumentCollectionStreamWriter();
+		Assert.assertTrue(writer.isWriteable(DocumentCollection.class, null, null, MediaType.APPLICATION_XML_TYPE));
+		Assert.assertTrue(writer.isWriteable(DocumentCollection.class, null, null, MediaType.TEXT_XML_TYPE));
+		Assert.assertTrue(writer.isWriteable(DocumentCollection.class, null, null, MediaType.APPLICATION_JSON_TYPE));
+		Assert.assertFalse(writer.isWriteable(DocumentCollection.class, null, null, MediaType.TEXT_HTML_TYPE));
+	}
+
+	/**
+	 * A collection backed by a stream reads the documents while the collection is
+	 * written and closes the stream afterwards.
+	 */
+	@Test
+	public void testStream() throws IOException {
+		List<ItemCollection> documents = new ArrayList<ItemCollection>();
+		for (int i = 0; i < 3; i++) {
+			documents.add(createDocument(i));
+		}
+		final boolean[] closed = { false };
+		Stream<ItemCollection> stream = documents.stream().onClose(() -> closed[0] = true);
+		DocumentCollection documentCollection = XMLItemCollectionAdapter.putCollection(stream, null);
+		Assert.assertNotNull(documentCollection.getItemCollections());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new DocumentCollectionStreamWriter().writeTo(documentCollection, DocumentCollection.class, null, null,
+				MediaType.APPLICATION_XML_TYPE, null, out);
+		Assert.assertTrue(closed[0]);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		DocumentCollectionStreamWriter.writeXML(XMLItemCollectionAdapter.putCollection(documents), expected,
+				"UTF-8");
+		Assert.assertEquals(expected.toString("UTF-8"), out.toString("UTF-8"));
+
+		// the documents of a stream are converted once by getDocument
+		closed[0] = false;
+		documentCollection = XMLItemCollectionAdapter.putCollection(documents.stream().onClose(() -> closed[0] = true),
+				null);
+		Assert.assertEquals(3, documentCollection.getDocument().length);
+		Assert.assertTrue(closed[0]);
+		Assert.assertEquals(3, documentCollection.getDocument().length);
+	}
+
+	/**
+	 * Compares the streaming of a collection with the marshaling of a complete
+	 * DocumentCollection with cloned documents.
+	 */
+	@Ignore
+	@Test
+	public void testPerformance() throws IOException, JAXBException {
+		int count = 2000;
+		List<ItemCollection> documents = new ArrayList<ItemCollection>();
+		for (int i = 0; i < count; i++) {
+			ItemCollection document = createDocument(i);
+			for (int j = 0; j < 30; j++) {
+				document.replaceItemValue("_item" + j, "Lorem ipsum dolor sit amet " + i + "-" + j);
+			}
+			documents.add(document);
+		}
+		JAXBContext context = JAXBContext.newInstance(DocumentCollection.class);
+		// warm up
+		marshalCollection(documents, context, new ByteArrayOutputStream());
+		DocumentCollectionStreamWriter.writeXML(XMLItemCollectionAdapter.putCollection(documents),
+				new ByteArrayOutputStream(), "UTF-8");
+
+		TimedOutputStream out = new TimedOutputStream();
+		marshalCollection(documents, context, out);
+		long marshal = System.currentTimeMillis() - out.start;
+		long marshalFirstByte = out.firstByte - out.start;
+
+		out = new TimedOutputStream();
+		DocumentCollectionStreamWriter.writeXML(XMLItemCollectionAdapter.putCollection(documents), out, "UTF-8");
+		long stream = System.currentTimeMillis() - out.start;
+		long streamFirstByte = out.firstByte - out.start;
+
+		logger.info("Performancetest DocumentCollectionStreamWriter: " + count + " documents, marshal="
+				+ marshal + "ms (first byte " + marshalFirstByte + "ms) stream=" + stream + "ms (first byte "
+				+ streamFirstByte + "ms)");
+	}
+
+	/**
+	 * The former implementation: each document is cloned and converted before
+	 * the complete collection is marshaled.
+	 */
+	private void marshalCollection(List<ItemCollection> documents, JAXBContext context, OutputStream out)
+			throws JAXBException {
+		XMLItemCollection[] xmlDocuments = new XMLItemCollection[documents.size()];
+		for (int i = 0; i < xmlDocuments.length; i++) {
+			xmlDocuments[i] = XMLItemCollectionAdapter.putItemCollection(new ItemCollection(documents.get(i)));
+		}
+		DocumentCollection documentCollection = new DocumentCollection();
+		documentCollection.setDocument(xmlDocuments);
+		Marshaller marshaller = context.createMarshaller();
+		marshaller.marshal(documentCollection, out);
+	}
+
+	private ItemCollection createDocument(int i) {
+		ItemCollection document = new ItemCollection();
+		document.replaceItemValue("$uniqueid", "doc-" + i);
+		document.replaceItemValue("txtname", "Document " + i);
+		document.replaceItemValue("_count", i);
+		document.replaceItemValue("_flag", true);
+		document.replaceItemValue("_date", new Date(1500000000000L + i));
+		document.replaceItemValue("txtlog", Arrays.asList("A", "B", "C"));
+		document.replaceItemValue("_data", new byte[] { 1, 2, (byte) i });
+		document.replaceItemValue("_empty", new ArrayList<Object>());
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("name", "file-" + i);
+		map.put("size", Arrays.asList(100 + i));
+		document.replaceItemValue("_map", Arrays.asList(map));
+		return document;
+	}
+
+	private void assertItemsEquals(ItemCollection expected, ItemCollection actual) {
+		Assert.assertEquals(expected.getAllItems().keySet(), actual.getAllItems().keySet());
+		for (String name : expected.getAllItems().keySet()) {
+			List<?> expectedValues = expected.getItemValue(name);
+			List<?> actualValues = actual.getItemValue(name);
+			Assert.assertEquals(name, expectedValues.size(), actualValues.size());
+			for (int i = 0; i < expectedValues.size(); i++) {
+				if (expectedValues.get(i) instanceof byte[]) {
+					Assert.assertArrayEquals((byte[]) expectedValues.get(i), (byte[]) actualValues.get(i));
+				} else {
+					Assert.assertEquals(name, expectedValues.get(i), actualValues.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Measures the time until the first byte is written.
+	 */
+	private static class TimedOutputStream extends ByteArrayOutputStream {
+		long start = System.currentTimeMillis();
+		long firstByte = -1;
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			if (firstByte == -1) {
+				firstByte = System.currentTimeMillis();
+			}
+			super.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			if (firstByte == -1) {
+				firstByte = System.currentTimeMillis();
+			}
+			super.write(b);
+		}
+	}
+}